@@ -0,0 +1,372 @@
+/**
+ * A validated aggregation query over Orders with its filter values kept apart from its SQL.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package lambda;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The AggregationQuery class turns the filters and aggregations of a request into SQL that binds
+ * every filter value as a parameter, so that requests differing only in their values share one
+ * statement, and a value holding a quote is just a value.
+ *
+ * Only Orders columns may be filtered on, and an aggregation must be one of avg, sum, total,
+ * count, min or max of an Orders column, or count(*); anything else is rejected before any SQL is
+ * built. The shape of a query is its sorted filter columns and its distinct aggregations in
+ * canonical form, sorted, so the order of a request's filters and aggregations and the spelling of
+ * its functions do not produce new statements. Each requested aggregation is read back from the
+ * result column of its canonical form.
+ *
+ * A query may also group by Orders columns, order the groups by one of them or by an aggregation,
+ * and keep only the first groups; the limit is bound like the filter values. A grouped result
+ * comes back as one array per column rather than one map per row.
+ */
+public class AggregationQuery {
+
+    private final List<String> columns;
+    private final List<String> values;
+    private final List<String> selected;
+    private final Map<String, PartialAggregate> requested;
+    private final List<String> groupBy;
+    private final String orderBy;
+    private final boolean descending;
+    private final int limit;
+
+    private AggregationQuery(List<String> columns, List<String> values, List<String> selected,
+                             Map<String, PartialAggregate> requested, List<String> groupBy, String orderBy,
+                             boolean descending, int limit) {
+        this.columns = columns;
+        this.values = values;
+        this.selected = selected;
+        this.requested = requested;
+        this.groupBy = groupBy;
+        this.orderBy = orderBy;
+        this.descending = descending;
+        this.limit = limit;
+    }
+
+    /**
+     * Validates a request.
+     *
+     * @param filters      The equality filters by Orders column, may be null or empty.
+     * @param aggregations The aggregations, at least one.
+     * @return The query.
+     * @throws IllegalArgumentException If a filter column, an aggregation or its column is not allowed.
+     */
+    public static AggregationQuery of(Map<String, String> filters, List<String> aggregations) {
+        return of(filters, aggregations, null, null, 0);
+    }
+
+    /**
+     * Validates a request with grouping, ordering and a limit.
+     *
+     * @param filters      The equality filters by Orders column, may be null or empty.
+     * @param aggregations The aggregations, at least one.
+     * @param groupBy      The Orders columns to group by, null or empty for a single row.
+     * @param orderBy      A group-by column or an aggregation, optionally followed by asc or desc, or null.
+     * @param limit        The most groups returned, 0 for all.
+     * @return The query.
+     * @throws IllegalArgumentException If a column, an aggregation, the ordering or the limit is not allowed.
+     */
+    public static AggregationQuery of(Map<String, String> filters, List<String> aggregations, List<String> groupBy,
+                                      String orderBy, int limit) {
+        List<String> allowed = Arrays.asList(OrdersTable.COLUMNS);
+        List<String> columns = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        for (Map.Entry<String, String> filter : (filters != null ? new TreeMap<>(filters)
+                : new TreeMap<String, String>()).entrySet()) {
+            if (!allowed.contains(filter.getKey())) {
+                throw new IllegalArgumentException("Cannot filter on " + filter.getKey());
+            }
+            if (filter.getValue() == null) {
+                throw new IllegalArgumentException("No value to filter " + filter.getKey() + " on");
+            }
+            columns.add(filter.getKey());
+            values.add(filter.getValue());
+        }
+        if (aggregations == null || aggregations.isEmpty()) {
+            throw new IllegalArgumentException("No aggregations requested");
+        }
+
+        Map<String, PartialAggregate> requested = new LinkedHashMap<>();
+        List<String> selected = new ArrayList<>();
+        for (String aggregation : aggregations) {
+            PartialAggregate partial;
+            try {
+                partial = PartialAggregate.parse(aggregation);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Cannot compute the aggregation " + aggregation);
+            }
+            if (!partial.getArgument().equals("*") && !allowed.contains(partial.getArgument())) {
+                throw new IllegalArgumentException("Cannot aggregate " + partial.getArgument());
+            }
+            requested.put(aggregation, partial);
+            String canonical = canonical(partial);
+            if (!selected.contains(canonical)) {
+                selected.add(canonical);
+            }
+        }
+
+        List<String> groups = new ArrayList<>();
+        for (String column : groupBy != null ? groupBy : new ArrayList<String>()) {
+            if (!allowed.contains(column) || groups.contains(column)) {
+                throw new IllegalArgumentException("Cannot group by " + column);
+            }
+            groups.add(column);
+        }
+        if ((orderBy != null || limit != 0) && groups.isEmpty()) {
+            throw new IllegalArgumentException("Ordering and a limit need groupBy");
+        }
+        if (limit < 0) {
+            throw new IllegalArgumentException("Cannot limit to " + limit + " groups");
+        }
+        String order = null;
+        boolean descending = false;
+        if (orderBy != null) {
+            order = orderBy.trim();
+            String lower = order.toLowerCase(Locale.ROOT);
+            if (lower.endsWith(" desc") || lower.endsWith(" asc")) {
+                descending = lower.endsWith(" desc");
+                order = order.substring(0, order.lastIndexOf(' ')).trim();
+            }
+            if (!groups.contains(order)) {
+                try {
+                    order = canonical(PartialAggregate.parse(order));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Cannot order by " + orderBy);
+                }
+                if (!selected.contains(order)) {
+                    throw new IllegalArgumentException("Cannot order by " + orderBy + ", it is not requested");
+                }
+            }
+        }
+        selected.sort(null);
+        return new AggregationQuery(columns, values, selected, requested, groups, order, descending, limit);
+    }
+
+    /**
+     * @return The filter columns, sorted, in the order their values are bound.
+     */
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return The distinct aggregations in canonical form, sorted, in the order they are selected.
+     */
+    public List<String> getSelected() {
+        return selected;
+    }
+
+    /**
+     * @return The group-by columns, in the order they are selected, empty for a single row.
+     */
+    public List<String> getGroupBy() {
+        return groupBy;
+    }
+
+    /**
+     * @return The SQL over Orders, with a parameter for each filter value; equal for queries of the same shape.
+     */
+    public String sql() {
+        return sql("Orders", selected);
+    }
+
+    /**
+     * Builds the SQL of this query over a table, with a parameter for each filter value and the limit.
+     *
+     * @param table       The table, Orders or a rollup holding the filter and group-by columns.
+     * @param expressions The expression computing each of {@link #getSelected()} over the table, in that order,
+     *                    or, for an ungrouped query, any select list the caller reads itself.
+     * @return The SQL.
+     */
+    String sql(String table, List<String> expressions) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (String column : groupBy) {
+            sql.append(column).append(", ");
+        }
+        sql.append(String.join(", ", expressions)).append(" FROM ").append(table);
+        String separator = " WHERE ";
+        for (String column : columns) {
+            sql.append(separator).append(column).append(" = ?");
+            separator = " AND ";
+        }
+        if (!groupBy.isEmpty()) {
+            sql.append(" GROUP BY ").append(String.join(", ", groupBy));
+        }
+        if (orderBy != null) {
+            // By position, so that it names the same result column over Orders and over a rollup
+            int position = groupBy.contains(orderBy) ? groupBy.indexOf(orderBy) + 1
+                    : groupBy.size() + selected.indexOf(orderBy) + 1;
+            sql.append(" ORDER BY ").append(position).append(descending ? " DESC" : "");
+        }
+        if (limit > 0) {
+            sql.append(" LIMIT ?");
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Binds the filter values, dates as epoch days on the typed schema as {@link OrdersTable#literal}
+     * writes them, and the limit.
+     *
+     * @param statement The statement from {@link #sql()} or an equivalent over a rollup.
+     * @param typed     True if the Orders table uses the typed schema.
+     * @throws SQLException If a value cannot be bound.
+     */
+    public void bind(PreparedStatement statement, boolean typed) throws SQLException {
+        int next = bind(statement, 1, typed);
+        if (limit > 0) {
+            statement.setInt(next, limit);
+        }
+    }
+
+    /**
+     * Binds the filter values alone to consecutive parameters.
+     *
+     * @param statement The statement.
+     * @param first     The index of the parameter the first value is bound to.
+     * @param typed     True if the Orders table uses the typed schema.
+     * @return The index of the parameter after the last value.
+     * @throws SQLException If a value cannot be bound.
+     */
+    public int bind(PreparedStatement statement, int first, boolean typed) throws SQLException {
+        for (int i = 0; i < columns.size(); i++) {
+            Integer epochDay = epochDay(i, typed);
+            if (epochDay != null) {
+                statement.setInt(first + i, epochDay);
+            } else {
+                statement.setString(first + i, values.get(i));
+            }
+        }
+        return first + columns.size();
+    }
+
+    /**
+     * @param typed True if the Orders table uses the typed schema.
+     * @return The filter values as stored: dates as epoch days on the typed schema, the rest as given.
+     */
+    public List<String> key(boolean typed) {
+        List<String> key = new ArrayList<>(values);
+        for (int i = 0; i < columns.size(); i++) {
+            Integer epochDay = epochDay(i, typed);
+            if (epochDay != null) {
+                key.set(i, epochDay.toString());
+            }
+        }
+        return key;
+    }
+
+    /**
+     * @return The epoch day of a date filter value on the typed schema, or null if it is compared as given.
+     */
+    private Integer epochDay(int filter, boolean typed) {
+        if (typed && OrdersTable.isDateColumn(columns.get(filter))) {
+            int epochDay = new DateParser().parse(values.get(filter));
+            if (epochDay != DateParser.INVALID) {
+                return epochDay;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the result row into a response, each aggregation under its name as requested.
+     *
+     * @param resultSet The result of the statement, positioned on its row.
+     * @param response  The response to add the values to.
+     * @throws SQLException If the result cannot be read.
+     */
+    public void read(ResultSet resultSet, Map<String, Object> response) throws SQLException {
+        read(resultSet, selected, groupBy.size(), response);
+    }
+
+    /**
+     * Reads the whole result into a response: for a single row each aggregation under its name as
+     * requested, for groups "result", holding an array per group-by column and per aggregation, and
+     * "resultRows". Dates grouped on the typed schema are formatted back as in the CSV.
+     *
+     * @param resultSet The result of the statement.
+     * @param typed     True if the Orders table uses the typed schema.
+     * @param response  The response to add the values to.
+     * @throws SQLException If the result cannot be read.
+     */
+    public void readAll(ResultSet resultSet, boolean typed, Map<String, Object> response) throws SQLException {
+        if (groupBy.isEmpty()) {
+            while (resultSet.next()) {
+                read(resultSet, response);
+            }
+            return;
+        }
+        Map<String, List<Object>> result = new LinkedHashMap<>();
+        for (String column : groupBy) {
+            result.put(column, new ArrayList<>());
+        }
+        for (String aggregation : requested.keySet()) {
+            result.put(aggregation, new ArrayList<>());
+        }
+        DateParser dates = new DateParser();
+        int rows = 0;
+        while (resultSet.next()) {
+            for (int c = 0; c < groupBy.size(); c++) {
+                Object value = resultSet.getObject(c + 1);
+                if (typed && OrdersTable.isDateColumn(groupBy.get(c)) && value instanceof Number) {
+                    value = dates.format(((Number) value).intValue(), false);
+                }
+                result.get(groupBy.get(c)).add(value);
+            }
+            for (Map.Entry<String, PartialAggregate> aggregation : requested.entrySet()) {
+                int column = groupBy.size() + selected.indexOf(canonical(aggregation.getValue())) + 1;
+                result.get(aggregation.getKey()).add(resultSet.getDouble(column));
+            }
+            rows++;
+        }
+        response.put("result", result);
+        response.put("resultRows", rows);
+    }
+
+    /**
+     * Reads the result row of a statement selecting more aggregations than this query's.
+     *
+     * @param resultSet The result, positioned on the row.
+     * @param selected  The aggregations the statement selects in canonical form, a superset of {@link #getSelected()}.
+     * @param offset    The number of result columns before the aggregations.
+     * @param response  The response to add the values to.
+     * @throws SQLException If the result cannot be read.
+     */
+    public void read(ResultSet resultSet, List<String> selected, int offset, Map<String, Object> response)
+            throws SQLException {
+        for (Map.Entry<String, PartialAggregate> aggregation : requested.entrySet()) {
+            int column = offset + selected.indexOf(canonical(aggregation.getValue())) + 1;
+            response.put(aggregation.getKey(), resultSet.getDouble(column));
+        }
+    }
+
+    /**
+     * Reads values computed outside SQLite into a response, as {@link #read(ResultSet, Map)} reads
+     * the result row.
+     *
+     * @param values   The value of each of {@link #getSelected()}, in that order, 0 where SQL gives null.
+     * @param response The response to add the values to.
+     */
+    public void read(double[] values, Map<String, Object> response) {
+        for (Map.Entry<String, PartialAggregate> aggregation : requested.entrySet()) {
+            response.put(aggregation.getKey(), values[selected.indexOf(canonical(aggregation.getValue()))]);
+        }
+    }
+
+    private static String canonical(PartialAggregate partial) {
+        return partial.getFunction() + "(" + partial.getArgument() + ")";
+    }
+}
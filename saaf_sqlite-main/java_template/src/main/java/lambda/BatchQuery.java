@@ -0,0 +1,56 @@
+/**
+ * One query of a batch request.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package lambda;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The BatchQuery class holds the filters and aggregations of one query in {@link Request#getQueries()},
+ * as a single-query request holds them itself.
+ */
+public class BatchQuery {
+
+    private Map<String, String> filters;
+
+    private List<String> aggregations;
+
+    public BatchQuery() {
+    }
+
+    public BatchQuery(Map<String, String> filters, List<String> aggregations) {
+        this.filters = filters;
+        this.aggregations = aggregations;
+    }
+
+    /**
+     * @return the filters
+     */
+    public Map<String, String> getFilters() {
+        return filters;
+    }
+
+    /**
+     * @param filters the filters to set
+     */
+    public void setFilters(Map<String, String> filters) {
+        this.filters = filters;
+    }
+
+    /**
+     * @return the aggregations
+     */
+    public List<String> getAggregations() {
+        return aggregations;
+    }
+
+    /**
+     * @param aggregations the aggregations to set
+     */
+    public void setAggregations(List<String> aggregations) {
+        this.aggregations = aggregations;
+    }
+}
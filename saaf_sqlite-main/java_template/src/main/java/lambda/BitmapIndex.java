@@ -0,0 +1,189 @@
+/**
+ * Bitmap indexes of the dimension columns of Orders, built at load time and stored in sales.db.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package lambda;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import saaf.Inspector;
+
+/**
+ * The BitmapIndex class keeps, for every value of each configured dimension column, a
+ * {@link RowBitmap} of the rows holding it. A row is its position in rowid order, as the
+ * {@link ColumnarEngine} holds it, so that the rows matching several equality filters are the
+ * AND of one bitmap per filter, found without reading any column.
+ *
+ * The bitmaps are stored in the BitmapIndex table of the database they index, one row per column
+ * and value, and so travel with the sales.db snapshot and can never describe other rows. Like
+ * rollups they are rebuilt in full by every load; columns no longer configured are dropped.
+ */
+public class BitmapIndex {
+
+    /**
+     * The table holding the bitmaps.
+     */
+    public static final String TABLE = "BitmapIndex";
+
+    /**
+     * The columns that may be indexed: the text dimensions, of a few to a few hundred values.
+     */
+    public static final List<String> DIMENSIONS =
+            Arrays.asList("Region", "Country", "ItemType", "SalesChannel", "OrderPriority");
+
+    private final Map<String, Map<String, RowBitmap>> bitmaps;
+
+    private BitmapIndex(Map<String, Map<String, RowBitmap>> bitmaps) {
+        this.bitmaps = bitmaps;
+    }
+
+    /**
+     * Replaces the bitmap indexes with one per column. The caller commits.
+     *
+     * @param connection The database connection, with auto-commit off.
+     * @param columns    The dimension columns to index; null or empty for none.
+     * @param inspector  The inspector receiving the values indexed, the size of the bitmaps and the build time.
+     * @throws SQLException             If an SQL exception occurs.
+     * @throws IllegalArgumentException If a column is not one of {@link #DIMENSIONS}.
+     */
+    public static void build(Connection connection, List<String> columns, Inspector inspector) throws SQLException {
+        long start = System.nanoTime();
+        List<String> indexed = new ArrayList<>();
+        if (columns != null) {
+            for (String column : columns) {
+                if (!DIMENSIONS.contains(column)) {
+                    throw new IllegalArgumentException("Cannot build a bitmap index on " + column);
+                }
+                if (!indexed.contains(column)) {
+                    indexed.add(column);
+                }
+            }
+        }
+
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DROP TABLE IF EXISTS " + TABLE);
+            if (indexed.isEmpty()) {
+                return;
+            }
+            statement.executeUpdate("CREATE TABLE " + TABLE + " (Dimension TEXT NOT NULL, Value TEXT NOT NULL,"
+                    + " Rows INTEGER NOT NULL, Bitmap BLOB NOT NULL, PRIMARY KEY (Dimension, Value))");
+
+            List<Map<String, RowBitmap>> built = new ArrayList<>();
+            for (int c = 0; c < indexed.size(); c++) {
+                built.add(new LinkedHashMap<>());
+            }
+            int row = 0;
+            try (ResultSet resultSet = statement.executeQuery("SELECT " + String.join(", ", indexed)
+                    + " FROM Orders ORDER BY rowid")) {
+                while (resultSet.next()) {
+                    for (int c = 0; c < indexed.size(); c++) {
+                        String value = resultSet.getString(c + 1);
+                        if (value != null) {
+                            built.get(c).computeIfAbsent(value, v -> RowBitmap.empty()).add(row);
+                        }
+                    }
+                    row++;
+                }
+            }
+
+            Map<String, Integer> values = new LinkedHashMap<>();
+            long bytes = 0;
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO " + TABLE + " VALUES (?, ?, ?, ?)")) {
+                for (int c = 0; c < indexed.size(); c++) {
+                    for (Map.Entry<String, RowBitmap> bitmap : built.get(c).entrySet()) {
+                        byte[] data = bitmap.getValue().serialize();
+                        insert.setString(1, indexed.get(c));
+                        insert.setString(2, bitmap.getKey());
+                        insert.setInt(3, bitmap.getValue().cardinality());
+                        insert.setBytes(4, data);
+                        insert.executeUpdate();
+                        bytes += data.length;
+                    }
+                    values.put(indexed.get(c), built.get(c).size());
+                }
+            }
+            inspector.addAttribute("bitmapValues", values);
+            inspector.addAttribute("bitmapBytes", bytes);
+            inspector.addAttribute("bitmapRows", row);
+            inspector.addAttribute("bitmapMs", (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    /**
+     * Reads the bitmap indexes of a database.
+     *
+     * @param connection The database connection.
+     * @return The indexes, or null if the database has none.
+     * @throws SQLException If an SQL exception occurs, or a bitmap cannot be read.
+     */
+    public static BitmapIndex load(Connection connection) throws SQLException {
+        Map<String, Map<String, RowBitmap>> bitmaps = new HashMap<>();
+        try (Statement statement = connection.createStatement()) {
+            try (ResultSet table = statement.executeQuery(
+                    "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = '" + TABLE + "'")) {
+                if (!table.next()) {
+                    return null;
+                }
+            }
+            try (ResultSet resultSet = statement.executeQuery("SELECT Dimension, Value, Bitmap FROM " + TABLE)) {
+                while (resultSet.next()) {
+                    bitmaps.computeIfAbsent(resultSet.getString(1), column -> new HashMap<>())
+                            .put(resultSet.getString(2), RowBitmap.deserialize(resultSet.getBytes(3)));
+                }
+            }
+        } catch (IOException e) {
+            throw new SQLException("Failed to read the bitmap index", e);
+        }
+        return new BitmapIndex(bitmaps);
+    }
+
+    /**
+     * @param column An Orders column.
+     * @return True if the column is indexed.
+     */
+    public boolean covers(String column) {
+        return bitmaps.containsKey(column);
+    }
+
+    /**
+     * @param column An indexed column.
+     * @param value  A value.
+     * @return The rows holding the value, empty if none does.
+     */
+    public RowBitmap get(String column, String value) {
+        RowBitmap bitmap = bitmaps.get(column).get(value);
+        return bitmap != null ? bitmap : RowBitmap.empty();
+    }
+
+    /**
+     * @return The indexed columns.
+     */
+    public List<String> getColumns() {
+        return new ArrayList<>(bitmaps.keySet());
+    }
+
+    /**
+     * @return The bytes the bitmaps hold.
+     */
+    public long sizeInBytes() {
+        long bytes = 0;
+        for (Map<String, RowBitmap> values : bitmaps.values()) {
+            for (RowBitmap bitmap : values.values()) {
+                bytes += bitmap.sizeInBytes();
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,512 @@
+/**
+ * In-memory columns of the Orders table answering simple aggregation queries without SQLite.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package lambda;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The ColumnarEngine class copies a typed Orders table into one primitive array per column, text
+ * as {@link Dictionary} codes, INTEGER columns as longs and REAL columns as doubles, in rowid
+ * order, and answers queries of the most common shape, equality filters and avg, sum, total,
+ * count, min or max of a numeric column, with plain loops over those arrays instead of one
+ * SQLite virtual machine step and one JNI call per row and value.
+ *
+ * A filter value is turned into the code or number it is stored as once, and each filter narrows
+ * a vector of selected row positions in one branch-free pass, the rarest text value first, or by
+ * binary search on a sorted column such as OrderID, the rowid. Text filters on columns with a
+ * {@link BitmapIndex} are instead answered together by ANDing their bitmaps, so that only the
+ * matching rows are ever visited. The aggregations then read only the selected positions, or,
+ * without filters, run straight over the arrays, which the JIT unrolls and, for the integer
+ * columns, vectorizes. Values are added up in rowid order as SQLite
+ * adds them up on a table scan, and an aggregate over no rows is 0 as getDouble reads SQL NULL.
+ *
+ * Anything else, a grouped query, an aggregation of a text column, a value SQLite would compare
+ * in some other way, or a column holding a value of another type than declared, gets null from
+ * {@link #run}, and the caller asks SQLite instead. The engine is immutable once loaded and
+ * belongs to the database file it was read from.
+ */
+public class ColumnarEngine {
+
+    // A filter value SQLite would convert to the same number Java parses
+    private static final Pattern NUMBER = Pattern.compile("-?[0-9]+(\\.[0-9]*)?");
+
+    private final int rows;
+    private final Map<String, Column> columns;
+    private final BitmapIndex bitmaps;
+
+    private ColumnarEngine(int rows, Map<String, Column> columns, BitmapIndex bitmaps) {
+        this.rows = rows;
+        this.columns = columns;
+        this.bitmaps = bitmaps;
+    }
+
+    /**
+     * Reads every row of a typed Orders table into columns, and its bitmap indexes, if any.
+     *
+     * @param connection The connection to the database.
+     * @return The engine.
+     * @throws SQLException If the table cannot be read.
+     */
+    public static ColumnarEngine load(Connection connection) throws SQLException {
+        if (!OrdersTable.isTyped(connection)) {
+            throw new IllegalArgumentException("The columnar engine needs the typed schema");
+        }
+        Map<String, String> declarations = new HashMap<>();
+        int rows;
+        try (Statement statement = connection.createStatement()) {
+            try (ResultSet info = statement.executeQuery("PRAGMA table_info(Orders)")) {
+                while (info.next()) {
+                    declarations.put(info.getString("name"), info.getString("type").toUpperCase());
+                }
+            }
+            try (ResultSet count = statement.executeQuery("SELECT count(*) FROM Orders")) {
+                count.next();
+                rows = count.getInt(1);
+            }
+
+            Column[] read = new Column[OrdersTable.COLUMNS.length];
+            for (int c = 0; c < read.length; c++) {
+                String declaration = declarations.get(OrdersTable.COLUMNS[c]);
+                read[c] = new Column(declaration.contains("INT") ? Column.INTEGER
+                        : declaration.contains("REAL") ? Column.REAL : Column.TEXT, rows);
+            }
+            try (ResultSet resultSet = statement.executeQuery("SELECT " + String.join(", ", OrdersTable.COLUMNS)
+                    + " FROM Orders ORDER BY rowid")) {
+                int row = 0;
+                while (resultSet.next() && row < rows) {
+                    for (int c = 0; c < read.length; c++) {
+                        read[c].set(row, resultSet, c + 1);
+                    }
+                    row++;
+                }
+            }
+
+            Map<String, Column> columns = new HashMap<>();
+            for (int c = 0; c < read.length; c++) {
+                columns.put(OrdersTable.COLUMNS[c], read[c]);
+            }
+            return new ColumnarEngine(rows, columns, BitmapIndex.load(connection));
+        }
+    }
+
+    /**
+     * @return The number of rows held.
+     */
+    public int getRowCount() {
+        return rows;
+    }
+
+    /**
+     * @return The bitmap indexes stored with the table, or null if it has none.
+     */
+    public BitmapIndex getBitmapIndex() {
+        return bitmaps;
+    }
+
+    /**
+     * Answers a query, if it has a shape the engine handles.
+     *
+     * @param query The query.
+     * @param stats Receives filterRows, the rows matching the filters, filterSelectivity, their
+     *              share of all rows, and bitmapFilters, the filters answered by a bitmap index.
+     * @return The value of each of {@link AggregationQuery#getSelected()}, in that order, for
+     *         {@link AggregationQuery#read(double[], Map)}; or null if SQLite has to answer it.
+     */
+    public double[] run(AggregationQuery query, Map<String, Object> stats) {
+        if (!query.getGroupBy().isEmpty()) {
+            return null;
+        }
+        List<PartialAggregate> aggregates = new ArrayList<>();
+        for (String aggregation : query.getSelected()) {
+            PartialAggregate aggregate = PartialAggregate.parse(aggregation);
+            Column column = columns.get(aggregate.getArgument());
+            if (column != null && (column.kind == Column.TEXT || column.mixed)) {
+                return null;
+            }
+            aggregates.add(aggregate);
+        }
+
+        // Resolve each filter value to what the column stores, numbers first as they are the most selective
+        List<String> filterColumns = query.getColumns();
+        List<String> values = query.key(true);
+        List<Filter> filters = new ArrayList<>();
+        List<RowBitmap> indexed = new ArrayList<>();
+        boolean empty = false;
+        for (int f = 0; f < filterColumns.size(); f++) {
+            Column column = columns.get(filterColumns.get(f));
+            String value = values.get(f);
+            if (column.mixed) {
+                return null;
+            }
+            if (column.kind == Column.TEXT && bitmaps != null && bitmaps.covers(filterColumns.get(f))) {
+                indexed.add(bitmaps.get(filterColumns.get(f), value));
+                continue;
+            }
+            if (column.kind == Column.TEXT) {
+                int code = column.dictionary.find(value);
+                empty |= code < 0;
+                filters.add(new Filter(column, code, 0, 0, code < 0 ? 0 : column.counts[code]));
+                continue;
+            }
+            if (!NUMBER.matcher(value).matches() || value.length() > 15) {
+                // Too long to be sure SQLite and Java convert it to the same number
+                return null;
+            }
+            double number = Double.parseDouble(value);
+            long integer = (long) number;
+            // No INTEGER equals a number with a fraction
+            empty |= column.kind == Column.INTEGER && integer != number;
+            filters.add(new Filter(column, 0, integer, number, 0));
+        }
+        filters.sort((a, b) -> Integer.compare(a.estimate, b.estimate));
+
+        int[] selection = null;
+        int selected = rows;
+        if (empty) {
+            selected = 0;
+        } else {
+            if (!indexed.isEmpty()) {
+                // The rarest value first, so that each AND has the fewest chunks left to visit
+                indexed.sort((a, b) -> Integer.compare(a.cardinality(), b.cardinality()));
+                RowBitmap matching = indexed.get(0);
+                for (int b = 1; b < indexed.size(); b++) {
+                    matching = matching.and(indexed.get(b));
+                }
+                selection = new int[matching.cardinality()];
+                selected = matching.toArray(selection);
+            }
+            for (Filter filter : filters) {
+                if (selection == null) {
+                    selection = new int[filter.capacity(rows)];
+                    selected = filter.select(selection, rows);
+                } else {
+                    selected = filter.refine(selection, selected);
+                }
+            }
+        }
+
+        stats.put("filterRows", selected);
+        stats.put("filterSelectivity", rows == 0 ? 0.0 : (double) selected / rows);
+        stats.put("bitmapFilters", indexed.size());
+
+        double[] result = new double[aggregates.size()];
+        for (int a = 0; a < result.length; a++) {
+            PartialAggregate aggregate = aggregates.get(a);
+            if (aggregate.getArgument().equals("*")) {
+                result[a] = selected;
+            } else {
+                result[a] = columns.get(aggregate.getArgument()).aggregate(aggregate.getFunction(), selection,
+                        selected);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * One column: codes into a dictionary, longs or doubles, with the number of rows per code.
+     * SQL NULL is code -1, {@link Dataset.IntegerColumn#MISSING} or NaN, which SQLite never stores.
+     */
+    private static final class Column {
+
+        static final int TEXT = 0;
+        static final int INTEGER = 1;
+        static final int REAL = 2;
+
+        final int kind;
+        final int[] codes;
+        final long[] longs;
+        final double[] doubles;
+        final Dictionary dictionary;
+        int[] counts = new int[16];
+        boolean nulls;
+        boolean mixed;
+        // Non-decreasing INTEGER values with no NULL, like OrderID, the rowid
+        boolean sorted = true;
+
+        Column(int kind, int rows) {
+            this.kind = kind;
+            codes = kind == TEXT ? new int[rows] : null;
+            longs = kind == INTEGER ? new long[rows] : null;
+            doubles = kind == REAL ? new double[rows] : null;
+            dictionary = kind == TEXT ? new Dictionary() : null;
+        }
+
+        void set(int row, ResultSet resultSet, int index) throws SQLException {
+            if (kind == TEXT) {
+                byte[] value = resultSet.getBytes(index);
+                int code = value == null ? -1 : dictionary.intern(value, 0, value.length);
+                codes[row] = code;
+                if (code >= counts.length) {
+                    counts = Arrays.copyOf(counts, counts.length * 2);
+                }
+                if (code >= 0) {
+                    counts[code]++;
+                }
+                nulls |= code < 0;
+                return;
+            }
+            Object value = resultSet.getObject(index);
+            if (value == null) {
+                nulls = true;
+                sorted = false;
+                if (kind == INTEGER) {
+                    longs[row] = Dataset.IntegerColumn.MISSING;
+                } else {
+                    doubles[row] = Double.NaN;
+                }
+            } else if (kind == INTEGER && (value instanceof Integer || value instanceof Long)) {
+                longs[row] = ((Number) value).longValue();
+                sorted &= row == 0 || longs[row - 1] <= longs[row];
+            } else if (kind == REAL && value instanceof Double) {
+                doubles[row] = (Double) value;
+            } else {
+                sorted = false;
+                // Type affinity kept a value of another type; SQLite compares and adds it differently
+                mixed = true;
+            }
+        }
+
+        /**
+         * Computes one aggregation over the selected rows, or all rows if selection is null.
+         */
+        double aggregate(String function, int[] selection, int selected) {
+            if (kind == INTEGER) {
+                return nulls ? integersWithNulls(function, selection, selected)
+                        : integers(function, selection, selected);
+            }
+            return reals(function, selection, selected);
+        }
+
+        private double integers(String function, int[] selection, int selected) {
+            if (selected == 0) {
+                return 0;
+            }
+            long[] values = longs;
+            switch (function) {
+                case "count":
+                    return selected;
+                case "min": {
+                    long min = Long.MAX_VALUE;
+                    if (selection == null) {
+                        for (int r = 0; r < selected; r++) {
+                            min = Math.min(min, values[r]);
+                        }
+                    } else {
+                        for (int s = 0; s < selected; s++) {
+                            min = Math.min(min, values[selection[s]]);
+                        }
+                    }
+                    return min;
+                }
+                case "max": {
+                    long max = Long.MIN_VALUE;
+                    if (selection == null) {
+                        for (int r = 0; r < selected; r++) {
+                            max = Math.max(max, values[r]);
+                        }
+                    } else {
+                        for (int s = 0; s < selected; s++) {
+                            max = Math.max(max, values[selection[s]]);
+                        }
+                    }
+                    return max;
+                }
+                default: {
+                    long sum = 0;
+                    if (selection == null) {
+                        for (int r = 0; r < selected; r++) {
+                            sum += values[r];
+                        }
+                    } else {
+                        for (int s = 0; s < selected; s++) {
+                            sum += values[selection[s]];
+                        }
+                    }
+                    return function.equals("avg") ? (double) sum / selected : sum;
+                }
+            }
+        }
+
+        private double integersWithNulls(String function, int[] selection, int selected) {
+            long sum = 0;
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            int count = 0;
+            for (int s = 0; s < selected; s++) {
+                long value = longs[selection == null ? s : selection[s]];
+                if (value != Dataset.IntegerColumn.MISSING) {
+                    sum += value;
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                    count++;
+                }
+            }
+            return finish(function, sum, min, max, count);
+        }
+
+        private double reals(String function, int[] selection, int selected) {
+            double[] values = doubles;
+            int count = selected;
+            if (nulls) {
+                count = 0;
+                for (int s = 0; s < selected; s++) {
+                    double value = values[selection == null ? s : selection[s]];
+                    count += value == value ? 1 : 0;
+                }
+            }
+            // NaN, SQL NULL, fails every comparison and is added as 0; sums stay in row order as in SQLite
+            double result;
+            switch (function) {
+                case "min":
+                    result = Double.POSITIVE_INFINITY;
+                    for (int s = 0; s < selected; s++) {
+                        double value = values[selection == null ? s : selection[s]];
+                        result = value < result ? value : result;
+                    }
+                    break;
+                case "max":
+                    result = Double.NEGATIVE_INFINITY;
+                    for (int s = 0; s < selected; s++) {
+                        double value = values[selection == null ? s : selection[s]];
+                        result = value > result ? value : result;
+                    }
+                    break;
+                case "count":
+                    result = 0;
+                    break;
+                default:
+                    result = 0;
+                    for (int s = 0; s < selected; s++) {
+                        double value = values[selection == null ? s : selection[s]];
+                        result += value == value ? value : 0;
+                    }
+                    break;
+            }
+            return finish(function, result, result, result, count);
+        }
+
+        private static double finish(String function, double sum, double min, double max, int count) {
+            switch (function) {
+                case "count":
+                    return count;
+                case "total":
+                    return sum;
+                default:
+                    if (count == 0) {
+                        return 0;
+                    }
+                    return function.equals("avg") ? sum / count
+                            : function.equals("min") ? min : function.equals("max") ? max : sum;
+            }
+        }
+    }
+
+    /**
+     * One equality filter, resolved to a code or a number.
+     */
+    private static final class Filter {
+
+        final Column column;
+        final int code;
+        final long integer;
+        final double real;
+        // Rows the filter keeps, exact for text, 0 for numbers, which are rarely repeated or sorted
+        final int estimate;
+
+        Filter(Column column, int code, long integer, double real, int estimate) {
+            this.column = column;
+            this.code = code;
+            this.integer = integer;
+            this.real = real;
+            this.estimate = estimate;
+        }
+
+        /**
+         * @return The size of the selection {@link #select} needs: the matching rows of a sorted column, or every row.
+         */
+        int capacity(int rows) {
+            if (column.kind != Column.INTEGER || !column.sorted) {
+                return rows;
+            }
+            return lowerBound(column.longs, rows, integer + 1) - lowerBound(column.longs, rows, integer);
+        }
+
+        /**
+         * Writes the positions of all matching rows to selection, of {@link #capacity} slots.
+         */
+        int select(int[] selection, int rows) {
+            int selected = 0;
+            if (column.kind == Column.TEXT) {
+                int[] codes = column.codes;
+                for (int r = 0; r < rows; r++) {
+                    selection[selected] = r;
+                    selected += codes[r] == code ? 1 : 0;
+                }
+            } else if (column.kind == Column.INTEGER && column.sorted) {
+                // Matching rows are consecutive; find them by binary search
+                long[] longs = column.longs;
+                int from = lowerBound(longs, rows, integer);
+                for (int r = from; r < rows && longs[r] == integer; r++) {
+                    selection[selected++] = r;
+                }
+            } else if (column.kind == Column.INTEGER) {
+                long[] longs = column.longs;
+                for (int r = 0; r < rows; r++) {
+                    selection[selected] = r;
+                    selected += longs[r] == integer ? 1 : 0;
+                }
+            } else {
+                double[] doubles = column.doubles;
+                for (int r = 0; r < rows; r++) {
+                    selection[selected] = r;
+                    selected += doubles[r] == real ? 1 : 0;
+                }
+            }
+            return selected;
+        }
+
+        /**
+         * @return The first row whose value is not less than value.
+         */
+        private static int lowerBound(long[] values, int rows, long value) {
+            int low = 0;
+            int high = rows;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (values[middle] < value) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Keeps the matching positions among the first selected of selection, in order.
+         */
+        int refine(int[] selection, int selected) {
+            int kept = 0;
+            for (int s = 0; s < selected; s++) {
+                int r = selection[s];
+                selection[kept] = r;
+                boolean match = column.kind == Column.TEXT ? column.codes[r] == code
+                        : column.kind == Column.INTEGER ? column.longs[r] == integer : column.doubles[r] == real;
+                kept += match ? 1 : 0;
+            }
+            return kept;
+        }
+    }
+}
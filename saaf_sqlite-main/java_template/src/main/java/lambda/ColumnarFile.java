@@ -0,0 +1,314 @@
+/**
+ * Binary columnar file format for handing a Dataset from one stage to the next.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package lambda;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The ColumnarFile class writes a {@link Dataset} as its columns one after the other, in the form
+ * they have in memory, and reads it back without parsing any text.
+ *
+ * <pre>
+ * "SCOL"
+ * column chunk * columnCount
+ * footer: version, rowCount, columnCount, then per column its name, type, value width, date
+ *         padding flag, and the offset and length of its chunk
+ * footer length (int), "SCOL"
+ * </pre>
+ *
+ * A TEXT chunk is the dictionary (count, then length-prefixed UTF-8 values in code order) followed
+ * by one code per row in 1, 2 or 4 bytes, whichever fits the dictionary. DATE chunks are int epoch
+ * days, REAL chunks doubles, and INTEGER chunks ints when every value fits, longs otherwise.
+ * Numbers are big-endian; missing values keep the sentinels of their column type.
+ *
+ * The footer at the end lets the file be written in one pass to a stream; a reader fetches the
+ * last bytes first, then reads the chunks in order with a single ranged request.
+ */
+public class ColumnarFile {
+
+    private static final byte[] MAGIC = "SCOL".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final int TAIL_BYTES = 64 * 1024;
+    private static final int MISSING_INT = Integer.MIN_VALUE;
+
+    private ColumnarFile() {
+    }
+
+    /**
+     * Writes a dataset.
+     *
+     * @param dataset The dataset.
+     * @param out     The stream to write to, left open.
+     * @return The number of bytes written.
+     * @throws IOException If writing fails.
+     */
+    public static long write(Dataset dataset, OutputStream out) throws IOException {
+        int rows = dataset.getRowCount();
+        ByteArrayOutputStream footerBytes = new ByteArrayOutputStream();
+        DataOutputStream footer = new DataOutputStream(footerBytes);
+        footer.writeInt(VERSION);
+        footer.writeInt(rows);
+        footer.writeInt(dataset.getColumnCount());
+
+        out.write(MAGIC);
+        long offset = MAGIC.length;
+        for (int c = 0; c < dataset.getColumnCount(); c++) {
+            Dataset.Column column = dataset.getColumn(c);
+            int width;
+            boolean unpadded = false;
+            ByteBuffer chunk;
+            switch (column.getType()) {
+                case TEXT: {
+                    Dataset.TextColumn text = (Dataset.TextColumn) column;
+                    Dictionary dictionary = text.getDictionary();
+                    width = dictionary.size() <= 256 ? 1 : dictionary.size() <= 65536 ? 2 : 4;
+                    byte[][] values = new byte[dictionary.size()][];
+                    int dictionaryBytes = 4;
+                    for (int code = 0; code < values.length; code++) {
+                        values[code] = dictionary.get(code).getBytes(StandardCharsets.UTF_8);
+                        dictionaryBytes += 4 + values[code].length;
+                    }
+                    chunk = ByteBuffer.allocate(dictionaryBytes + width * rows);
+                    chunk.putInt(values.length);
+                    for (byte[] value : values) {
+                        chunk.putInt(value.length).put(value);
+                    }
+                    for (int row = 0; row < rows; row++) {
+                        int code = text.getCode(row);
+                        if (width == 1) {
+                            chunk.put((byte) code);
+                        } else if (width == 2) {
+                            chunk.putShort((short) code);
+                        } else {
+                            chunk.putInt(code);
+                        }
+                    }
+                    break;
+                }
+                case DATE: {
+                    Dataset.DateColumn dates = (Dataset.DateColumn) column;
+                    width = 4;
+                    unpadded = dates.isUnpadded();
+                    chunk = ByteBuffer.allocate(4 * rows);
+                    for (int row = 0; row < rows; row++) {
+                        chunk.putInt(dates.get(row));
+                    }
+                    break;
+                }
+                case INTEGER: {
+                    Dataset.IntegerColumn integers = (Dataset.IntegerColumn) column;
+                    width = 4;
+                    for (int row = 0; row < rows && width == 4; row++) {
+                        long value = integers.get(row);
+                        if (value != Dataset.IntegerColumn.MISSING
+                                && (value <= MISSING_INT || value > Integer.MAX_VALUE)) {
+                            width = 8;
+                        }
+                    }
+                    chunk = ByteBuffer.allocate(width * rows);
+                    for (int row = 0; row < rows; row++) {
+                        long value = integers.get(row);
+                        if (width == 8) {
+                            chunk.putLong(value);
+                        } else {
+                            chunk.putInt(value == Dataset.IntegerColumn.MISSING ? MISSING_INT : (int) value);
+                        }
+                    }
+                    break;
+                }
+                default: {
+                    Dataset.RealColumn reals = (Dataset.RealColumn) column;
+                    width = 8;
+                    chunk = ByteBuffer.allocate(8 * rows);
+                    for (int row = 0; row < rows; row++) {
+                        chunk.putDouble(reals.get(row));
+                    }
+                    break;
+                }
+            }
+            out.write(chunk.array(), 0, chunk.position());
+
+            footer.writeUTF(dataset.getNames().get(c));
+            footer.writeByte(column.getType().ordinal());
+            footer.writeByte(width);
+            footer.writeBoolean(unpadded);
+            footer.writeLong(offset);
+            footer.writeLong(chunk.position());
+            offset += chunk.position();
+        }
+
+        footer.flush();
+        out.write(footerBytes.toByteArray());
+        DataOutputStream trailer = new DataOutputStream(out);
+        trailer.writeInt(footerBytes.size());
+        trailer.write(MAGIC);
+        trailer.flush();
+        return offset + footerBytes.size() + 4 + MAGIC.length;
+    }
+
+    /**
+     * Reads a dataset stored in S3, with one ranged GET for the footer and one for the columns.
+     *
+     * @param s3Client   The Amazon S3 client.
+     * @param bucketname The bucket.
+     * @param key        The key of the file.
+     * @return The dataset.
+     * @throws IOException If the object cannot be read or is not a columnar file.
+     */
+    public static Dataset read(AmazonS3 s3Client, String bucketname, String key) throws IOException {
+        long size = s3Client.getObjectMetadata(bucketname, key).getContentLength();
+        byte[] tail = range(s3Client, bucketname, key, Math.max(0, size - TAIL_BYTES), size);
+        int footerLength = footerLength(tail);
+        if (footerLength + 8 > tail.length) {
+            tail = range(s3Client, bucketname, key, size - footerLength - 8, size);
+        }
+        Footer footer = new Footer(Arrays.copyOfRange(tail, tail.length - footerLength - 8, tail.length - 8));
+        try (InputStream body = s3Client.getObject(new GetObjectRequest(bucketname, key)
+                .withRange(0, Math.max(MAGIC.length, footer.end) - 1)).getObjectContent()) {
+            return footer.readColumns(body);
+        }
+    }
+
+    /**
+     * Reads a dataset from a complete file.
+     *
+     * @param file The bytes of the file.
+     * @return The dataset.
+     * @throws IOException If the bytes are not a columnar file.
+     */
+    public static Dataset read(byte[] file) throws IOException {
+        int footerLength = footerLength(file);
+        Footer footer = new Footer(Arrays.copyOfRange(file, file.length - footerLength - 8, file.length - 8));
+        return footer.readColumns(new ByteArrayInputStream(file));
+    }
+
+    private static byte[] range(AmazonS3 s3Client, String bucketname, String key, long start, long end)
+            throws IOException {
+        byte[] bytes = new byte[(int) (end - start)];
+        try (DataInputStream in = new DataInputStream(s3Client.getObject(
+                new GetObjectRequest(bucketname, key).withRange(start, end - 1)).getObjectContent())) {
+            in.readFully(bytes);
+        }
+        return bytes;
+    }
+
+    private static int footerLength(byte[] tail) throws IOException {
+        if (tail.length < 8 || !Arrays.equals(Arrays.copyOfRange(tail, tail.length - 4, tail.length), MAGIC)) {
+            throw new IOException("Not a columnar file");
+        }
+        return ByteBuffer.wrap(tail, tail.length - 8, 4).getInt();
+    }
+
+    /**
+     * The schema, row count and chunk positions of a file.
+     */
+    private static class Footer {
+
+        private final int rowCount;
+        private final List<String> names = new ArrayList<>();
+        private final List<Dataset.ColumnType> types = new ArrayList<>();
+        private final List<int[]> layouts = new ArrayList<>(); // width, unpadded
+        private final List<long[]> chunks = new ArrayList<>(); // offset, length
+        private long end = MAGIC.length;
+
+        Footer(byte[] bytes) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported columnar file version " + version);
+            }
+            rowCount = in.readInt();
+            int columnCount = in.readInt();
+            for (int c = 0; c < columnCount; c++) {
+                names.add(in.readUTF());
+                types.add(Dataset.ColumnType.values()[in.readByte()]);
+                layouts.add(new int[] {in.readByte(), in.readBoolean() ? 1 : 0});
+                long[] chunk = {in.readLong(), in.readLong()};
+                chunks.add(chunk);
+                end = Math.max(end, chunk[0] + chunk[1]);
+            }
+        }
+
+        /**
+         * Reads the chunks from the start of the file, in order.
+         */
+        Dataset readColumns(InputStream file) throws IOException {
+            DataInputStream in = new DataInputStream(file);
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a columnar file");
+            }
+            long position = MAGIC.length;
+            List<Dataset.Column> columns = new ArrayList<>();
+            for (int c = 0; c < names.size(); c++) {
+                long[] chunk = chunks.get(c);
+                in.skipBytes((int) (chunk[0] - position));
+                byte[] bytes = new byte[(int) chunk[1]];
+                in.readFully(bytes);
+                position = chunk[0] + chunk[1];
+                columns.add(column(types.get(c), layouts.get(c), ByteBuffer.wrap(bytes)));
+            }
+            return new Dataset(names, columns, rowCount);
+        }
+
+        private Dataset.Column column(Dataset.ColumnType type, int[] layout, ByteBuffer chunk) {
+            int width = layout[0];
+            switch (type) {
+                case TEXT: {
+                    Dictionary dictionary = new Dictionary();
+                    int values = chunk.getInt();
+                    for (int code = 0; code < values; code++) {
+                        byte[] value = new byte[chunk.getInt()];
+                        chunk.get(value);
+                        dictionary.intern(value, 0, value.length);
+                    }
+                    int[] codes = new int[Math.max(16, rowCount)];
+                    for (int row = 0; row < rowCount; row++) {
+                        codes[row] = width == 1 ? chunk.get() & 0xff
+                                : width == 2 ? chunk.getShort() & 0xffff : chunk.getInt();
+                    }
+                    return new Dataset.TextColumn(dictionary, codes, rowCount);
+                }
+                case DATE: {
+                    int[] days = new int[Math.max(16, rowCount)];
+                    chunk.asIntBuffer().get(days, 0, rowCount);
+                    return new Dataset.DateColumn(days, rowCount, layout[1] == 1);
+                }
+                case INTEGER: {
+                    long[] values = new long[Math.max(16, rowCount)];
+                    if (width == 8) {
+                        chunk.asLongBuffer().get(values, 0, rowCount);
+                    } else {
+                        for (int row = 0; row < rowCount; row++) {
+                            int value = chunk.getInt();
+                            values[row] = value == MISSING_INT ? Dataset.IntegerColumn.MISSING : value;
+                        }
+                    }
+                    return new Dataset.IntegerColumn(values, rowCount);
+                }
+                default: {
+                    double[] values = new double[Math.max(16, rowCount)];
+                    chunk.asDoubleBuffer().get(values, 0, rowCount);
+                    return new Dataset.RealColumn(values, rowCount);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,429 @@
+/**
+ * Streaming CSV parser that works directly on bytes instead of Scanner and String.split.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package lambda;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The CsvParser class parses RFC 4180 CSV data from a byte stream.
+ * Quoted fields may contain commas, line breaks and doubled quotes. Records may end in LF or CRLF
+ * and blank lines are skipped. Rows are handed to a {@link RowHandler} through a reusable
+ * {@link Row} cursor, so no String or list is allocated unless the handler asks for one.
+ * Rows processed, bytes read and rows per second are kept for reporting.
+ */
+public class CsvParser {
+
+    /**
+     * Receives each parsed row. The row cursor and its buffers are reused, so a handler must copy
+     * anything it wants to keep before returning.
+     */
+    public interface RowHandler {
+        void handleRow(Row row);
+    }
+
+    // Parser states.
+    private static final int FIELD_START = 0;
+    private static final int UNQUOTED = 1;
+    private static final int QUOTED = 2;
+    private static final int QUOTE_IN_QUOTED = 3;
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final RowHandler handler;
+    private final Row row = new Row();
+    private final byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+
+    private int state = FIELD_START;
+    private boolean skipLineFeed = false;
+    private boolean fieldQuoted = false;
+
+    private long rowCount;
+    private long byteCount;
+    private long elapsedNanos;
+
+    /**
+     * Creates a parser that hands every row to the given handler.
+     *
+     * @param handler The handler receiving parsed rows.
+     */
+    public CsvParser(RowHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Parses an entire stream. The stream is read in fixed-size blocks and is not closed.
+     *
+     * @param in The stream to parse.
+     * @return The number of rows handed to the handler.
+     * @throws IOException If reading the stream fails.
+     */
+    public long parse(InputStream in) throws IOException {
+        long start = System.nanoTime();
+        long rowsBefore = rowCount;
+        int n;
+        while ((n = in.read(readBuffer, 0, readBuffer.length)) != -1) {
+            feedBytes(readBuffer, 0, n);
+        }
+        finishRecord();
+        elapsedNanos += System.nanoTime() - start;
+        return rowCount - rowsBefore;
+    }
+
+    /**
+     * Parses a complete block of CSV data held in memory.
+     *
+     * @param data   The buffer holding CSV data.
+     * @param offset The offset of the first byte.
+     * @param length The number of bytes to parse.
+     * @return The number of rows handed to the handler.
+     */
+    public long parse(byte[] data, int offset, int length) {
+        long rowsBefore = rowCount;
+        feed(data, offset, length);
+        finish();
+        return rowCount - rowsBefore;
+    }
+
+    /**
+     * Feeds a block of bytes. A record may span several calls; it is emitted once its terminator
+     * has been seen or {@link #finish()} is called.
+     *
+     * @param data   The buffer holding CSV data.
+     * @param offset The offset of the first byte.
+     * @param length The number of bytes to parse.
+     */
+    public void feed(byte[] data, int offset, int length) {
+        long start = System.nanoTime();
+        feedBytes(data, offset, length);
+        elapsedNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Emits the last record if the input did not end with a line break.
+     */
+    public void finish() {
+        long start = System.nanoTime();
+        finishRecord();
+        elapsedNanos += System.nanoTime() - start;
+    }
+
+    private void feedBytes(byte[] data, int offset, int length) {
+        byteCount += length;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            byte b = data[i];
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (b == '\n') {
+                    continue;
+                }
+            }
+            switch (state) {
+                case FIELD_START:
+                    if (b == '"') {
+                        fieldQuoted = true;
+                        state = QUOTED;
+                    } else if (b == ',') {
+                        row.endField();
+                    } else if (b == '\n' || b == '\r') {
+                        skipLineFeed = b == '\r';
+                        endRecord();
+                    } else {
+                        row.append(b);
+                        state = UNQUOTED;
+                    }
+                    break;
+                case UNQUOTED:
+                    if (b == ',') {
+                        row.endField();
+                        state = FIELD_START;
+                    } else if (b == '\n' || b == '\r') {
+                        skipLineFeed = b == '\r';
+                        endRecord();
+                    } else {
+                        row.append(b);
+                    }
+                    break;
+                case QUOTED:
+                    if (b == '"') {
+                        state = QUOTE_IN_QUOTED;
+                    } else {
+                        row.append(b);
+                    }
+                    break;
+                default: // QUOTE_IN_QUOTED
+                    if (b == '"') {
+                        row.append(b);
+                        state = QUOTED;
+                    } else if (b == ',') {
+                        row.endField();
+                        state = FIELD_START;
+                    } else if (b == '\n' || b == '\r') {
+                        skipLineFeed = b == '\r';
+                        endRecord();
+                    } else {
+                        // Lenient: text after a closing quote is kept as part of the field.
+                        row.append(b);
+                        state = UNQUOTED;
+                    }
+                    break;
+            }
+        }
+    }
+
+    private void finishRecord() {
+        if (state == QUOTED) {
+            // Unterminated quote at end of input; keep what was read.
+            state = QUOTE_IN_QUOTED;
+        }
+        if (state != FIELD_START || row.fieldCount > 0) {
+            endRecord();
+        }
+        skipLineFeed = false;
+    }
+
+    private void endRecord() {
+        row.endField();
+        state = FIELD_START;
+        boolean blank = row.fieldCount == 1 && row.length(0) == 0 && !fieldQuoted;
+        fieldQuoted = false;
+        if (!blank) {
+            row.number = rowCount++;
+            handler.handleRow(row);
+        }
+        row.reset();
+    }
+
+    /**
+     * @return The number of rows parsed so far.
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return The number of bytes parsed so far.
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * @return The time spent parsing in milliseconds, including time blocked on the input stream.
+     */
+    public long getElapsedMillis() {
+        return elapsedNanos / 1_000_000;
+    }
+
+    /**
+     * @return The parse throughput in rows per second.
+     */
+    public long getRowsPerSecond() {
+        return elapsedNanos == 0 ? 0 : rowCount * 1_000_000_000L / elapsedNanos;
+    }
+
+    /**
+     * Cursor over the fields of the current row. Field bytes are unescaped into a shared buffer.
+     */
+    public static final class Row {
+
+        private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+        };
+
+        private byte[] data = new byte[1024];
+        private int[] starts = new int[32];
+        private int[] ends = new int[32];
+        private int length;
+        private int fieldCount;
+        private int fieldStart;
+        private long number;
+
+        private void append(byte b) {
+            if (length == data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            data[length++] = b;
+        }
+
+        private void endField() {
+            if (fieldCount == starts.length) {
+                starts = Arrays.copyOf(starts, fieldCount * 2);
+                ends = Arrays.copyOf(ends, fieldCount * 2);
+            }
+            starts[fieldCount] = fieldStart;
+            ends[fieldCount] = length;
+            fieldCount++;
+            fieldStart = length;
+        }
+
+        private void reset() {
+            length = 0;
+            fieldCount = 0;
+            fieldStart = 0;
+        }
+
+        /**
+         * @return The zero-based position of this row in the input, header included.
+         */
+        public long getNumber() {
+            return number;
+        }
+
+        /**
+         * @return The number of fields in this row.
+         */
+        public int size() {
+            return fieldCount;
+        }
+
+        /**
+         * @return The shared buffer holding the unescaped field bytes.
+         */
+        public byte[] buffer() {
+            return data;
+        }
+
+        /**
+         * @param field The field index.
+         * @return The offset of the field in {@link #buffer()}.
+         */
+        public int start(int field) {
+            return starts[field];
+        }
+
+        /**
+         * @param field The field index.
+         * @return The length of the field in bytes.
+         */
+        public int length(int field) {
+            return ends[field] - starts[field];
+        }
+
+        /**
+         * Decodes a field as UTF-8. This allocates a String.
+         *
+         * @param field The field index.
+         * @return The field value.
+         */
+        public String getString(int field) {
+            return new String(data, starts[field], ends[field] - starts[field], StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Parses a field as a decimal long without allocating.
+         *
+         * @param field The field index.
+         * @return The parsed value.
+         * @throws NumberFormatException If the field is not a valid long.
+         */
+        public long getLong(int field) {
+            int i = starts[field];
+            int end = ends[field];
+            if (i == end) {
+                throw new NumberFormatException("empty field " + field);
+            }
+            boolean negative = data[i] == '-';
+            if (negative || data[i] == '+') {
+                i++;
+            }
+            if (i == end || end - i > 18) {
+                return Long.parseLong(getString(field));
+            }
+            long value = 0;
+            for (; i < end; i++) {
+                int digit = data[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new NumberFormatException("For input string: \"" + getString(field) + "\"");
+                }
+                value = value * 10 + digit;
+            }
+            return negative ? -value : value;
+        }
+
+        /**
+         * Parses a field as a double. Plain decimals with at most 15 significant digits are
+         * converted exactly without allocating; anything else falls back to Double.parseDouble.
+         *
+         * @param field The field index.
+         * @return The parsed value.
+         * @throws NumberFormatException If the field is not a valid double.
+         */
+        public double getDouble(int field) {
+            int i = starts[field];
+            int end = ends[field];
+            if (i == end) {
+                throw new NumberFormatException("empty field " + field);
+            }
+            boolean negative = data[i] == '-';
+            if (negative || data[i] == '+') {
+                i++;
+            }
+            long mantissa = 0;
+            int digits = 0;
+            int fractionDigits = -1;
+            for (; i < end; i++) {
+                byte b = data[i];
+                if (b >= '0' && b <= '9') {
+                    mantissa = mantissa * 10 + (b - '0');
+                    digits++;
+                    if (fractionDigits >= 0) {
+                        fractionDigits++;
+                    }
+                } else if (b == '.' && fractionDigits < 0) {
+                    fractionDigits = 0;
+                } else {
+                    return Double.parseDouble(getString(field));
+                }
+            }
+            if (digits == 0 || digits > 15 || fractionDigits >= POWERS_OF_TEN.length) {
+                return Double.parseDouble(getString(field));
+            }
+            // Both operands are exact doubles, so the quotient is correctly rounded.
+            double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+            return negative ? -value : value;
+        }
+
+        /**
+         * Compares a field with an ASCII string without allocating.
+         *
+         * @param field The field index.
+         * @param value The ASCII string to compare with.
+         * @return Whether the field holds exactly the given string.
+         */
+        public boolean equalsAscii(int field, String value) {
+            int start = starts[field];
+            int len = ends[field] - start;
+            if (len != value.length()) {
+                return false;
+            }
+            for (int i = 0; i < len; i++) {
+                if (data[start + i] != value.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Copies the row into a new list of Strings.
+         *
+         * @return The row values.
+         */
+        public ArrayList<String> toList() {
+            ArrayList<String> list = new ArrayList<>(fieldCount);
+            for (int i = 0; i < fieldCount; i++) {
+                list.add(getString(i));
+            }
+            return list;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * Publishing and fetching of compact, optionally gzip-compressed copies of sales.db.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package lambda;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import saaf.Inspector;
+
+/**
+ * The DatabaseSnapshot class uploads a database as a snapshot written with VACUUM INTO, which
+ * leaves out the free pages and fragmentation of earlier loads, and streams the snapshot from
+ * disk through an optional gzip compressor into a multipart upload, so memory stays at a few
+ * part buffers whatever the database size.
+ *
+ * Compressed and plain snapshots are stored under the same key. A reader tells them apart by the
+ * gzip magic bytes and decompresses while downloading, so either kind can be published without
+ * changing how it is fetched.
+ */
+public class DatabaseSnapshot {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private DatabaseSnapshot() {
+    }
+
+    /**
+     * Writes a compact snapshot of a database and uploads it.
+     *
+     * @param connection   The connection to the database, with nothing left uncommitted.
+     * @param databaseFile The database file, the snapshot is written next to it.
+     * @param s3Client     The Amazon S3 client.
+     * @param bucketname   The bucket receiving the snapshot.
+     * @param key          The key of the snapshot.
+     * @param compress     True to gzip the snapshot while uploading it.
+     * @param partSize     The size of each upload part in bytes.
+     * @param threads      The number of parts uploaded concurrently.
+     * @param inspector    The inspector receiving snapshot statistics.
+     * @return The ETag of the uploaded snapshot.
+     * @throws SQLException If the snapshot cannot be written.
+     * @throws IOException  If the upload fails; it is then aborted.
+     */
+    public static String publish(Connection connection, File databaseFile, AmazonS3 s3Client, String bucketname,
+            String key, boolean compress, int partSize, int threads, Inspector inspector)
+            throws SQLException, IOException {
+        long start = System.nanoTime();
+        Path snapshot = new File(databaseFile.getPath() + ".snapshot").toPath();
+        Files.deleteIfExists(snapshot);
+        try {
+            // VACUUM cannot run inside a transaction.
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(true);
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("VACUUM INTO '" + snapshot.toString().replace("'", "''") + "'");
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+            long compacted = System.nanoTime();
+
+            String eTag = upload(snapshot, s3Client, bucketname, key, compress, partSize, threads, inspector);
+            inspector.addAttribute("databaseBytes", databaseFile.length());
+            inspector.addAttribute("snapshotMs", (compacted - start) / 1_000_000);
+            inspector.addAttribute("publishMs", (System.nanoTime() - start) / 1_000_000);
+            return eTag;
+        } finally {
+            Files.deleteIfExists(snapshot);
+        }
+    }
+
+    /**
+     * Streams a database file to S3 in parts, optionally through gzip.
+     *
+     * @param snapshot   The database file, not open for writing.
+     * @param s3Client   The Amazon S3 client.
+     * @param bucketname The bucket receiving the snapshot.
+     * @param key        The key of the snapshot.
+     * @param compress   True to gzip the snapshot while uploading it.
+     * @param partSize   The size of each upload part in bytes.
+     * @param threads    The number of parts uploaded concurrently.
+     * @param inspector  The inspector receiving upload statistics.
+     * @return The ETag of the uploaded snapshot.
+     * @throws IOException If the upload fails; it is then aborted.
+     */
+    public static String upload(Path snapshot, AmazonS3 s3Client, String bucketname, String key, boolean compress,
+            int partSize, int threads, Inspector inspector) throws IOException {
+        S3UploadStream upload = new S3UploadStream(s3Client, bucketname, key, partSize, threads);
+        try {
+            OutputStream out = compress ? new FastGZIPOutputStream(upload) : upload;
+            Files.copy(snapshot, out);
+            out.close();
+        } catch (IOException | RuntimeException e) {
+            upload.abort();
+            throw e;
+        }
+        inspector.addAttribute("snapshotMode", compress ? "gzip" : "plain");
+        inspector.addAttribute("snapshotBytes", Files.size(snapshot));
+        inspector.addAttribute("snapshotUploadBytes", upload.getByteCount());
+        inspector.addAttribute("snapshotUploadParts", upload.getPartCount());
+        inspector.addAttribute("snapshotBufferBytes", upload.getBufferBytes());
+        inspector.addAttribute("snapshotUploadMs", upload.getElapsedMillis());
+        System.out.println("SQLite database written to S3. ETag: " + upload.getETag());
+        return upload.getETag();
+    }
+
+    /**
+     * Downloads a snapshot to a file, decompressing it on the way if it was published compressed.
+     *
+     * @param s3Client     The Amazon S3 client.
+     * @param bucketname   The bucket holding the snapshot.
+     * @param key          The key of the snapshot.
+     * @param databaseFile The file to write the database to, replaced if it exists.
+     * @param inspector    The inspector receiving download statistics.
+     * @return The ETag of the downloaded snapshot.
+     * @throws IOException If the download fails.
+     */
+    public static String download(AmazonS3 s3Client, String bucketname, String key, File databaseFile,
+            Inspector inspector) throws IOException {
+        return download(s3Client, bucketname, key, databaseFile, null, inspector);
+    }
+
+    /**
+     * Downloads a snapshot to a file unless it still has the ETag of the copy already held, with a
+     * conditional GET that transfers nothing when the object is unchanged.
+     *
+     * @param s3Client     The Amazon S3 client.
+     * @param bucketname   The bucket holding the snapshot.
+     * @param key          The key of the snapshot.
+     * @param databaseFile The file to write the database to, replaced if it exists.
+     * @param currentETag  The ETag of the copy held, or null to download unconditionally.
+     * @param inspector    The inspector receiving download statistics.
+     * @return The ETag of the downloaded snapshot, or null if it still has currentETag and nothing was written.
+     * @throws IOException If the download fails.
+     */
+    public static String download(AmazonS3 s3Client, String bucketname, String key, File databaseFile,
+            String currentETag, Inspector inspector) throws IOException {
+        long start = System.nanoTime();
+        GetObjectRequest request = new GetObjectRequest(bucketname, key);
+        if (currentETag != null) {
+            request.withNonmatchingETagConstraint(currentETag);
+        }
+        S3Object s3Object = s3Client.getObject(request);
+        if (s3Object == null) {
+            inspector.addAttribute("downloadBytes", 0L);
+            inspector.addAttribute("downloadMs", (System.nanoTime() - start) / 1_000_000);
+            return null;
+        }
+        boolean compressed;
+        CountingInputStream counted;
+        try (InputStream objectData = s3Object.getObjectContent()) {
+            counted = new CountingInputStream(objectData);
+            InputStream in = new BufferedInputStream(counted, BUFFER_SIZE);
+            in.mark(2);
+            compressed = in.read() == 0x1f && in.read() == 0x8b;
+            in.reset();
+            if (compressed) {
+                in = new GZIPInputStream(in, BUFFER_SIZE);
+            }
+            Files.copy(in, databaseFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        inspector.addAttribute("snapshotMode", compressed ? "gzip" : "plain");
+        inspector.addAttribute("downloadBytes", counted.getCount());
+        inspector.addAttribute("dbBytes", databaseFile.length());
+        inspector.addAttribute("downloadMs", (System.nanoTime() - start) / 1_000_000);
+        return s3Object.getObjectMetadata().getETag();
+    }
+
+    /**
+     * A gzip stream at the fastest level, so that compressing does not become slower than
+     * sending the parts it saves.
+     */
+    private static class FastGZIPOutputStream extends GZIPOutputStream {
+
+        FastGZIPOutputStream(OutputStream out) throws IOException {
+            super(out, BUFFER_SIZE);
+            def.setLevel(Deflater.BEST_SPEED);
+        }
+    }
+
+    /**
+     * Counts the bytes read from the object, before any decompression.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            count += Math.max(0, n);
+            return n;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,867 @@
+/**
+ * Typed columnar in-memory table used by the Transform, Load and Query stages.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package lambda;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * The Dataset class holds a CSV file as one primitive array per column instead of a list of String
+ * rows. Dates are int epoch days, whole numbers are longs, money is doubles and dimension columns
+ * are dictionary encoded. Column types come from the header names of the sales files; unknown
+ * columns are kept as text.
+ *
+ * A Dataset is also a {@link CsvParser.RowHandler}: the first row it receives becomes the header
+ * unless the header was given up front, and every following row is parsed straight from the
+ * parser's bytes into the columns.
+ */
+public class Dataset implements CsvParser.RowHandler {
+
+    /**
+     * Storage type of a column.
+     */
+    public enum ColumnType {
+        TEXT, DATE, INTEGER, REAL
+    }
+
+    private static final Map<String, ColumnType> SALES_COLUMN_TYPES = new HashMap<>();
+
+    static {
+        SALES_COLUMN_TYPES.put("Order Date", ColumnType.DATE);
+        SALES_COLUMN_TYPES.put("Ship Date", ColumnType.DATE);
+        SALES_COLUMN_TYPES.put("Order ID", ColumnType.INTEGER);
+        SALES_COLUMN_TYPES.put("Units Sold", ColumnType.INTEGER);
+        SALES_COLUMN_TYPES.put("Unit Price", ColumnType.REAL);
+        SALES_COLUMN_TYPES.put("Unit Cost", ColumnType.REAL);
+        SALES_COLUMN_TYPES.put("Total Revenue", ColumnType.REAL);
+        SALES_COLUMN_TYPES.put("Total Cost", ColumnType.REAL);
+        SALES_COLUMN_TYPES.put("Total Profit", ColumnType.REAL);
+        SALES_COLUMN_TYPES.put("Order Processing Time", ColumnType.INTEGER);
+        SALES_COLUMN_TYPES.put("Gross Margin", ColumnType.REAL);
+    }
+
+    private final List<String> names = new ArrayList<>();
+    private final List<Column> columns = new ArrayList<>();
+    private final ParseErrors parseErrors = new ParseErrors();
+    private boolean headerSeen;
+    private int rowCount;
+
+    /**
+     * Creates an empty dataset that takes its header from the first parsed row.
+     */
+    public Dataset() {
+    }
+
+    /**
+     * Creates an empty dataset with a known header; every parsed row is data.
+     *
+     * @param header The column names.
+     */
+    public Dataset(List<String> header) {
+        setHeader(header);
+    }
+
+    /**
+     * Creates a dataset from complete columns, as read back from a file.
+     *
+     * @param names    The column names.
+     * @param columns  The columns, each holding rowCount values.
+     * @param rowCount The number of rows.
+     */
+    Dataset(List<String> names, List<Column> columns, int rowCount) {
+        headerSeen = true;
+        this.names.addAll(names);
+        this.columns.addAll(columns);
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * @param name A column name from the CSV header.
+     * @return The storage type used for the column.
+     */
+    public static ColumnType typeOf(String name) {
+        return SALES_COLUMN_TYPES.getOrDefault(name, ColumnType.TEXT);
+    }
+
+    /**
+     * Creates an empty column of the given type.
+     *
+     * @param type The column type.
+     * @return The new column.
+     */
+    public static Column newColumn(ColumnType type) {
+        switch (type) {
+            case DATE:
+                return new DateColumn();
+            case INTEGER:
+                return new IntegerColumn();
+            case REAL:
+                return new RealColumn();
+            default:
+                return new TextColumn();
+        }
+    }
+
+    private void setHeader(List<String> header) {
+        headerSeen = true;
+        for (String name : header) {
+            names.add(name);
+            columns.add(newColumn(typeOf(name)));
+        }
+    }
+
+    @Override
+    public void handleRow(CsvParser.Row row) {
+        if (!headerSeen) {
+            setHeader(row.toList());
+            return;
+        }
+        int fields = row.size();
+        for (int c = 0; c < columns.size(); c++) {
+            if (c < fields) {
+                columns.get(c).parse(row, c, this);
+            } else {
+                columns.get(c).appendMissing();
+            }
+        }
+        rowCount++;
+    }
+
+    /**
+     * Concatenates datasets with the same header, in order.
+     *
+     * @param parts The datasets to concatenate; each entry is cleared once appended, so that
+     *              the rows are not held twice.
+     * @return The first part, with the rows of the others appended.
+     */
+    public static Dataset concat(List<Dataset> parts) {
+        Dataset result = parts.get(0);
+        for (int i = 1; i < parts.size(); i++) {
+            result.append(parts.set(i, null));
+        }
+        return result;
+    }
+
+    /**
+     * Appends all rows of another dataset with the same columns.
+     *
+     * @param other The dataset to append.
+     */
+    public void append(Dataset other) {
+        if (!other.names.equals(names)) {
+            throw new IllegalArgumentException("Cannot append dataset with columns " + other.names + " to " + names);
+        }
+        for (int c = 0; c < columns.size(); c++) {
+            columns.get(c).appendAll(other.columns.get(c));
+        }
+        rowCount += other.rowCount;
+        parseErrors.addAll(other.parseErrors);
+    }
+
+    /**
+     * Adds a column holding one value per row.
+     *
+     * @param name   The column name.
+     * @param column The column.
+     */
+    public void addColumn(String name, Column column) {
+        if (column.size() != rowCount) {
+            throw new IllegalArgumentException("Column " + name + " has " + column.size() + " values, expected " + rowCount);
+        }
+        names.add(name);
+        columns.add(column);
+    }
+
+    /**
+     * Keeps only the rows whose bit is set, preserving their order.
+     *
+     * @param keep The rows to keep.
+     */
+    public void retain(BitSet keep) {
+        for (Column column : columns) {
+            column.retain(keep);
+        }
+        rowCount = keep.cardinality();
+    }
+
+    /**
+     * @return The error channel holding the values that could not be parsed.
+     */
+    public ParseErrors getParseErrors() {
+        return parseErrors;
+    }
+
+    private void recordError(CsvParser.Row row, int field) {
+        parseErrors.record(names.get(field), row.getNumber(), row.getString(field));
+    }
+
+    /**
+     * @return The number of data rows.
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return The number of columns.
+     */
+    public int getColumnCount() {
+        return columns.size();
+    }
+
+    /**
+     * @return The column names in order.
+     */
+    public List<String> getNames() {
+        return names;
+    }
+
+    /**
+     * @param name The column name.
+     * @return The index of the column, or -1 if not found.
+     */
+    public int columnIndex(String name) {
+        return names.indexOf(name);
+    }
+
+    /**
+     * @param index The column index.
+     * @return The column.
+     */
+    public Column getColumn(int index) {
+        return columns.get(index);
+    }
+
+    /**
+     * @param name The column name.
+     * @return The column.
+     * @throws IllegalArgumentException If there is no such column.
+     */
+    public Column getColumn(String name) {
+        int index = columnIndex(name);
+        if (index < 0) {
+            throw new IllegalArgumentException("No column " + name + " in " + names);
+        }
+        return columns.get(index);
+    }
+
+    /**
+     * Formats one value as it appears in the CSV files.
+     *
+     * @param row    The row index.
+     * @param column The column index.
+     * @return The formatted value, empty when missing.
+     */
+    public String format(int row, int column) {
+        return columns.get(column).format(row);
+    }
+
+    /**
+     * @return An estimate of the heap used by the column data in bytes.
+     */
+    public long heapBytes() {
+        long bytes = 0;
+        for (Column column : columns) {
+            bytes += column.heapBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Formats a value with two decimals, the precision of the money columns in the sales files,
+     * rounding half up on its shortest decimal form like String.format("%.2f").
+     *
+     * @param value The value.
+     * @return The formatted value, empty for NaN.
+     */
+    public static String formatDecimal(double value) {
+        if (Double.isNaN(value)) {
+            return "";
+        }
+        if (Math.abs(value) >= 1e15) {
+            return String.format("%.2f", value);
+        }
+        long cents = cents(value);
+        StringBuilder text = new StringBuilder(24);
+        if (cents < 0) {
+            text.append('-');
+            cents = -cents;
+        }
+        long fraction = cents % 100;
+        text.append(cents / 100).append('.');
+        if (fraction < 10) {
+            text.append('0');
+        }
+        return text.append(fraction).toString();
+    }
+
+    /**
+     * Rounds a value to two decimals the way {@link #formatDecimal} does, so that a value stored as
+     * a number is the one its CSV text would give back.
+     *
+     * @param value The value.
+     * @return The rounded value, NaN for NaN.
+     */
+    public static double roundDecimal(double value) {
+        if (Double.isNaN(value) || Math.abs(value) >= 1e15) {
+            return value;
+        }
+        return cents(value) / 100.0;
+    }
+
+    /**
+     * Rounds a value to a whole number of hundredths, half away from zero, on its shortest decimal
+     * form. Multiplying by 100 is off by far less than 1e-4 of a hundredth below 1e9, so only values
+     * that close to a tie need the exact decimal; 1.005 is 100.49999999999999 hundredths as a double
+     * but 1.01 as "%.2f" gives it.
+     */
+    private static long cents(double value) {
+        double hundredths = Math.abs(value) * 100;
+        double fraction = hundredths - Math.floor(hundredths);
+        if (Math.abs(value) < 1e9 && Math.abs(fraction - 0.5) > 1e-4) {
+            long cents = (long) Math.floor(hundredths + 0.5);
+            return value < 0 ? -cents : cents;
+        }
+        return new BigDecimal(Double.toString(value)).setScale(2, RoundingMode.HALF_UP).unscaledValue().longValue();
+    }
+
+    /**
+     * A column of values, one per row.
+     */
+    public abstract static class Column {
+
+        protected int size;
+
+        /**
+         * @return The storage type of this column.
+         */
+        public abstract ColumnType getType();
+
+        /**
+         * @return The number of values.
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @param row The row index.
+         * @return Whether the value is missing or could not be parsed.
+         */
+        public abstract boolean isMissing(int row);
+
+        /**
+         * @param row The row index.
+         * @return The value formatted as in the CSV files, empty when missing.
+         */
+        public abstract String format(int row);
+
+        /**
+         * @return An estimate of the heap used by this column in bytes.
+         */
+        public abstract long heapBytes();
+
+        abstract void parse(CsvParser.Row row, int field, Dataset owner);
+
+        abstract void appendMissing();
+
+        abstract void appendAll(Column other);
+
+        abstract void retain(BitSet keep);
+
+        static int grow(int capacity) {
+            return Math.max(16, capacity + (capacity >> 1));
+        }
+    }
+
+    /**
+     * Dictionary-encoded text column.
+     */
+    public static class TextColumn extends Column {
+
+        private int[] codes = new int[16];
+        private Dictionary dictionary = new Dictionary();
+
+        /**
+         * Creates an empty column.
+         */
+        public TextColumn() {
+        }
+
+        TextColumn(Dictionary dictionary, int[] codes, int size) {
+            this.dictionary = dictionary;
+            this.codes = codes;
+            this.size = size;
+        }
+
+        @Override
+        public ColumnType getType() {
+            return ColumnType.TEXT;
+        }
+
+        /**
+         * Appends a value.
+         *
+         * @param value The value.
+         */
+        public void add(String value) {
+            addCode(dictionary.intern(value));
+        }
+
+        private void addCode(int code) {
+            if (size == codes.length) {
+                codes = Arrays.copyOf(codes, grow(size));
+            }
+            codes[size++] = code;
+        }
+
+        /**
+         * @param row The row index.
+         * @return The value.
+         */
+        public String get(int row) {
+            return dictionary.get(codes[row]);
+        }
+
+        /**
+         * @param row The row index.
+         * @return The dictionary code of the value.
+         */
+        public int getCode(int row) {
+            return codes[row];
+        }
+
+        /**
+         * @return The dictionary of this column.
+         */
+        public Dictionary getDictionary() {
+            return dictionary;
+        }
+
+        /**
+         * Replaces every value through a mapping. The mapping runs once per distinct value, not
+         * once per row.
+         *
+         * @param mapping The value mapping.
+         */
+        public void mapValues(UnaryOperator<String> mapping) {
+            Dictionary mapped = new Dictionary();
+            int[] translation = new int[dictionary.size()];
+            for (int code = 0; code < translation.length; code++) {
+                translation[code] = mapped.intern(mapping.apply(dictionary.get(code)));
+            }
+            for (int row = 0; row < size; row++) {
+                codes[row] = translation[codes[row]];
+            }
+            dictionary = mapped;
+        }
+
+        @Override
+        public boolean isMissing(int row) {
+            return get(row).isEmpty();
+        }
+
+        @Override
+        public String format(int row) {
+            return get(row);
+        }
+
+        @Override
+        public long heapBytes() {
+            return 16L + 4L * codes.length + dictionary.heapBytes();
+        }
+
+        @Override
+        void parse(CsvParser.Row row, int field, Dataset owner) {
+            addCode(dictionary.intern(row.buffer(), row.start(field), row.length(field)));
+        }
+
+        @Override
+        void appendMissing() {
+            add("");
+        }
+
+        @Override
+        void appendAll(Column other) {
+            TextColumn text = (TextColumn) other;
+            int[] translation = new int[text.dictionary.size()];
+            for (int code = 0; code < translation.length; code++) {
+                translation[code] = dictionary.intern(text.dictionary.get(code));
+            }
+            for (int row = 0; row < text.size; row++) {
+                addCode(translation[text.codes[row]]);
+            }
+        }
+
+        @Override
+        void retain(BitSet keep) {
+            int kept = 0;
+            for (int row = keep.nextSetBit(0); row >= 0 && row < size; row = keep.nextSetBit(row + 1)) {
+                codes[kept++] = codes[row];
+            }
+            size = kept;
+        }
+    }
+
+    /**
+     * Date column stored as days since 1970-01-01.
+     */
+    public static class DateColumn extends Column {
+
+        public static final int MISSING = DateParser.INVALID;
+
+        private final DateParser parser = new DateParser();
+        private int[] days = new int[16];
+        private boolean unpadded;
+
+        /**
+         * Creates an empty column.
+         */
+        public DateColumn() {
+        }
+
+        DateColumn(int[] days, int size, boolean unpadded) {
+            this.days = days;
+            this.size = size;
+            this.unpadded = unpadded;
+        }
+
+        @Override
+        public ColumnType getType() {
+            return ColumnType.DATE;
+        }
+
+        /**
+         * Appends a value.
+         *
+         * @param epochDay The date in days since 1970-01-01, or {@link #MISSING}.
+         */
+        public void add(int epochDay) {
+            if (size == days.length) {
+                days = Arrays.copyOf(days, grow(size));
+            }
+            days[size++] = epochDay;
+        }
+
+        /**
+         * @param row The row index.
+         * @return The date in days since 1970-01-01, or {@link #MISSING}.
+         */
+        public int get(int row) {
+            return days[row];
+        }
+
+        /**
+         * @return The parser holding this column's date cache.
+         */
+        public DateParser getParser() {
+            return parser;
+        }
+
+        /**
+         * @return Whether some date was written without zero padding, so all are formatted unpadded.
+         */
+        boolean isUnpadded() {
+            return unpadded;
+        }
+
+        @Override
+        public boolean isMissing(int row) {
+            return days[row] == MISSING;
+        }
+
+        @Override
+        public String format(int row) {
+            // Keep writing dates the way the input wrote them: zero padded only if every value was.
+            return days[row] == MISSING ? "" : parser.format(days[row], !unpadded);
+        }
+
+        @Override
+        public long heapBytes() {
+            return 16L + 4L * days.length;
+        }
+
+        @Override
+        void parse(CsvParser.Row row, int field, Dataset owner) {
+            int length = row.length(field);
+            if (length == 0) {
+                add(MISSING);
+                return;
+            }
+            int epochDay = parser.parse(row.buffer(), row.start(field), length);
+            if (epochDay == DateParser.INVALID) {
+                owner.recordError(row, field);
+            } else if (length < 10) {
+                unpadded = true;
+            }
+            add(epochDay);
+        }
+
+        @Override
+        void appendMissing() {
+            add(MISSING);
+        }
+
+        @Override
+        void appendAll(Column other) {
+            DateColumn dates = (DateColumn) other;
+            unpadded |= dates.unpadded;
+            for (int row = 0; row < dates.size; row++) {
+                add(dates.days[row]);
+            }
+        }
+
+        @Override
+        void retain(BitSet keep) {
+            int kept = 0;
+            for (int row = keep.nextSetBit(0); row >= 0 && row < size; row = keep.nextSetBit(row + 1)) {
+                days[kept++] = days[row];
+            }
+            size = kept;
+        }
+    }
+
+    /**
+     * Whole-number column.
+     */
+    public static class IntegerColumn extends Column {
+
+        public static final long MISSING = Long.MIN_VALUE;
+
+        private long[] values = new long[16];
+
+        /**
+         * Creates an empty column.
+         */
+        public IntegerColumn() {
+        }
+
+        /**
+         * Creates a column of missing values, to be filled with {@link #set(int, long)}.
+         *
+         * @param size The number of values.
+         */
+        public IntegerColumn(int size) {
+            values = new long[Math.max(16, size)];
+            Arrays.fill(values, 0, size, MISSING);
+            this.size = size;
+        }
+
+        IntegerColumn(long[] values, int size) {
+            this.values = values;
+            this.size = size;
+        }
+
+        @Override
+        public ColumnType getType() {
+            return ColumnType.INTEGER;
+        }
+
+        /**
+         * Replaces a value.
+         *
+         * @param row   The row index.
+         * @param value The value, or {@link #MISSING}.
+         */
+        public void set(int row, long value) {
+            values[row] = value;
+        }
+
+        /**
+         * Appends a value.
+         *
+         * @param value The value, or {@link #MISSING}.
+         */
+        public void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(size));
+            }
+            values[size++] = value;
+        }
+
+        /**
+         * @param row The row index.
+         * @return The value, or {@link #MISSING}.
+         */
+        public long get(int row) {
+            return values[row];
+        }
+
+        @Override
+        public boolean isMissing(int row) {
+            return values[row] == MISSING;
+        }
+
+        @Override
+        public String format(int row) {
+            return values[row] == MISSING ? "" : Long.toString(values[row]);
+        }
+
+        @Override
+        public long heapBytes() {
+            return 16L + 8L * values.length;
+        }
+
+        @Override
+        void parse(CsvParser.Row row, int field, Dataset owner) {
+            if (row.length(field) == 0) {
+                add(MISSING);
+                return;
+            }
+            try {
+                add(row.getLong(field));
+            } catch (NumberFormatException e) {
+                owner.recordError(row, field);
+                add(MISSING);
+            }
+        }
+
+        @Override
+        void appendMissing() {
+            add(MISSING);
+        }
+
+        @Override
+        void appendAll(Column other) {
+            IntegerColumn integers = (IntegerColumn) other;
+            for (int row = 0; row < integers.size; row++) {
+                add(integers.values[row]);
+            }
+        }
+
+        @Override
+        void retain(BitSet keep) {
+            int kept = 0;
+            for (int row = keep.nextSetBit(0); row >= 0 && row < size; row = keep.nextSetBit(row + 1)) {
+                values[kept++] = values[row];
+            }
+            size = kept;
+        }
+    }
+
+    /**
+     * Decimal column, written with two decimals. Missing values are NaN.
+     */
+    public static class RealColumn extends Column {
+
+        private double[] values = new double[16];
+
+        /**
+         * Creates an empty column.
+         */
+        public RealColumn() {
+        }
+
+        /**
+         * Creates a column of missing values, to be filled with {@link #set(int, double)}.
+         *
+         * @param size The number of values.
+         */
+        public RealColumn(int size) {
+            values = new double[Math.max(16, size)];
+            Arrays.fill(values, 0, size, Double.NaN);
+            this.size = size;
+        }
+
+        RealColumn(double[] values, int size) {
+            this.values = values;
+            this.size = size;
+        }
+
+        @Override
+        public ColumnType getType() {
+            return ColumnType.REAL;
+        }
+
+        /**
+         * Replaces a value.
+         *
+         * @param row   The row index.
+         * @param value The value, or NaN when missing.
+         */
+        public void set(int row, double value) {
+            values[row] = value;
+        }
+
+        /**
+         * Appends a value.
+         *
+         * @param value The value, or NaN when missing.
+         */
+        public void add(double value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(size));
+            }
+            values[size++] = value;
+        }
+
+        /**
+         * @param row The row index.
+         * @return The value, or NaN when missing.
+         */
+        public double get(int row) {
+            return values[row];
+        }
+
+        @Override
+        public boolean isMissing(int row) {
+            return Double.isNaN(values[row]);
+        }
+
+        @Override
+        public String format(int row) {
+            return formatDecimal(values[row]);
+        }
+
+        @Override
+        public long heapBytes() {
+            return 16L + 8L * values.length;
+        }
+
+        @Override
+        void parse(CsvParser.Row row, int field, Dataset owner) {
+            if (row.length(field) == 0) {
+                add(Double.NaN);
+                return;
+            }
+            try {
+                add(row.getDouble(field));
+            } catch (NumberFormatException e) {
+                owner.recordError(row, field);
+                add(Double.NaN);
+            }
+        }
+
+        @Override
+        void appendMissing() {
+            add(Double.NaN);
+        }
+
+        @Override
+        void appendAll(Column other) {
+            RealColumn reals = (RealColumn) other;
+            for (int row = 0; row < reals.size; row++) {
+                add(reals.values[row]);
+            }
+        }
+
+        @Override
+        void retain(BitSet keep) {
+            int kept = 0;
+            for (int row = keep.nextSetBit(0); row >= 0 && row < size; row = keep.nextSetBit(row + 1)) {
+                values[kept++] = values[row];
+            }
+            size = kept;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ * Allocation-free parser for the M/d/yyyy dates of the sales files.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package lambda;
+
+/**
+ * The DateParser class turns MM/dd/yyyy (or unpadded M/d/yyyy) bytes straight into a day count
+ * since 1970-01-01, without SimpleDateFormat, Date or String objects.
+ *
+ * Sales files hold only a few thousand distinct dates, so each date string is packed into a long
+ * (one nibble per character) and looked up in a small direct-mapped cache before any arithmetic is
+ * done. Formatting goes through a similar cache of Strings keyed by epoch day. Values that are not
+ * valid calendar dates return {@link #INVALID}; callers report them to a {@link ParseErrors}.
+ * Instances are not thread-safe; use one per parsing thread.
+ */
+public class DateParser {
+
+    public static final int INVALID = Integer.MIN_VALUE;
+
+    private static final int CACHE_SIZE = 4096;
+    private static final int[] DAYS_IN_MONTH = {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    private final long[] keys = new long[CACHE_SIZE];
+    private final int[] days = new int[CACHE_SIZE];
+    private final int[] formattedDays = new int[CACHE_SIZE];
+    private final String[] formatted = new String[CACHE_SIZE];
+
+    private long hits;
+    private long misses;
+
+    /**
+     * Parses a date from UTF-8 bytes.
+     *
+     * @param data   The buffer holding the date.
+     * @param offset The offset of the date.
+     * @param length The length of the date in bytes.
+     * @return The date in days since 1970-01-01, or {@link #INVALID}.
+     */
+    public int parse(byte[] data, int offset, int length) {
+        if (length < 8 || length > 10) {
+            return INVALID;
+        }
+        // Pack "12/31/2010" into one nibble per character, with a marker bit for the length.
+        long key = 1;
+        for (int i = offset; i < offset + length; i++) {
+            int b = data[i];
+            int nibble;
+            if (b >= '0' && b <= '9') {
+                nibble = b - '0';
+            } else if (b == '/') {
+                nibble = 0xA;
+            } else {
+                return INVALID;
+            }
+            key = (key << 4) | nibble;
+        }
+
+        int slot = slot(key);
+        if (keys[slot] == key) {
+            hits++;
+            return days[slot];
+        }
+        misses++;
+        int epochDay = parsePacked(key, length);
+        keys[slot] = key;
+        days[slot] = epochDay;
+        return epochDay;
+    }
+
+    /**
+     * Parses a date from a String. Unlike the byte overload this allocates a small buffer.
+     *
+     * @param text The date text.
+     * @return The date in days since 1970-01-01, or {@link #INVALID}.
+     */
+    public int parse(CharSequence text) {
+        int length = text.length();
+        if (length < 8 || length > 10) {
+            return INVALID;
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            bytes[i] = c < 128 ? (byte) c : (byte) '?';
+        }
+        return parse(bytes, 0, length);
+    }
+
+    /**
+     * Formats a day count as a date.
+     *
+     * @param epochDay The date in days since 1970-01-01.
+     * @param padded   Whether month and day are zero padded (MM/dd/yyyy) or not (M/d/yyyy).
+     * @return The formatted date.
+     */
+    public String format(int epochDay, boolean padded) {
+        int key = padded ? ~epochDay : epochDay;
+        int slot = (key * 0x9E3779B9 >>> 20) & (CACHE_SIZE - 1);
+        String text = formatted[slot];
+        if (text != null && formattedDays[slot] == key) {
+            return text;
+        }
+        text = formatUncached(epochDay, padded);
+        formatted[slot] = text;
+        formattedDays[slot] = key;
+        return text;
+    }
+
+    /**
+     * @return The number of parses answered from the cache.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return The number of parses that had to compute the date.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Computes days since 1970-01-01 for a proleptic Gregorian date.
+     *
+     * @param year  The year.
+     * @param month The month, 1 to 12.
+     * @param day   The day of the month.
+     * @return The epoch day.
+     */
+    public static int toEpochDay(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static int parsePacked(long key, int length) {
+        // Unpack the nibbles again, most significant (first character) first.
+        int month = 0;
+        int day = 0;
+        int year = 0;
+        int field = 0;
+        int digits = 0;
+        for (int shift = 4 * (length - 1); shift >= 0; shift -= 4) {
+            int nibble = (int) (key >>> shift) & 0xF;
+            if (nibble == 0xA) {
+                if (digits == 0 || digits > 2 || field == 2) {
+                    return INVALID;
+                }
+                field++;
+                digits = 0;
+            } else if (field == 0) {
+                month = month * 10 + nibble;
+                digits++;
+            } else if (field == 1) {
+                day = day * 10 + nibble;
+                digits++;
+            } else {
+                year = year * 10 + nibble;
+                digits++;
+            }
+        }
+        if (field != 2 || digits != 4) {
+            return INVALID;
+        }
+        if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) {
+            return INVALID;
+        }
+        return toEpochDay(year, month, day);
+    }
+
+    private static int daysInMonth(int year, int month) {
+        if (month == 2 && (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0))) {
+            return 29;
+        }
+        return DAYS_IN_MONTH[month - 1];
+    }
+
+    private static String formatUncached(int epochDay, boolean padded) {
+        int z = epochDay + 719468;
+        int era = Math.floorDiv(z, 146097);
+        int dayOfEra = z - era * 146097;
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        StringBuilder text = new StringBuilder(10);
+        if (padded && month < 10) {
+            text.append('0');
+        }
+        text.append(month).append('/');
+        if (padded && day < 10) {
+            text.append('0');
+        }
+        return text.append(day).append('/').append(year).toString();
+    }
+
+    private static int slot(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 52) & (CACHE_SIZE - 1);
+    }
+}
@@ -0,0 +1,380 @@
+/**
+ * Finds the first occurrence of each key in a column, in memory or through partitioned spill files.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package lambda;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
+
+/**
+ * The Deduplicator class marks the rows to keep when removing duplicate Order IDs, keeping the
+ * first occurrence of each ID.
+ *
+ * Keys go into a {@link LongHashSet} as long as its table fits the memory budget. If the set
+ * would outgrow the budget, every (key, row) pair is instead written to one of several spill files
+ * chosen by key hash, and each file is deduplicated on its own with a set a fraction of the size.
+ * At most 256 files are open at once, well below the usual descriptor limit; a file whose set
+ * would still outgrow the budget is split again on further hash bits.
+ * Rows are written in order, so the first row seen for a key in its partition is also its first
+ * row in the column and the result is the same in both modes.
+ *
+ * Given a ForkJoinPool, the in-memory mode runs in parallel the same way: rows are bucketed by
+ * hash partition in one pass, one task per partition keeps the first row of each of its keys
+ * reading only its bucket, and the partition results are merged. Every key belongs to exactly one partition, which scans its rows
+ * in order, so the first occurrence still wins regardless of scheduling.
+ */
+public class Deduplicator {
+
+    private static final int MAX_PARTITIONS = 256;
+
+    private static final int CHUNK_ROWS = 65536;
+
+    private final long memoryBudgetBytes;
+    private final Path spillDirectory;
+
+    private int rowCount;
+    private int duplicateCount;
+    private int partitions;
+    private long spilledBytes;
+    private long elapsedMillis;
+
+    /**
+     * Creates a deduplicator spilling to the default temporary directory.
+     *
+     * @param memoryBudgetBytes The largest key table kept in memory, in bytes.
+     */
+    public Deduplicator(long memoryBudgetBytes) {
+        this(memoryBudgetBytes, Paths.get(System.getProperty("java.io.tmpdir")));
+    }
+
+    /**
+     * Creates a deduplicator.
+     *
+     * @param memoryBudgetBytes The largest key table kept in memory, in bytes.
+     * @param spillDirectory    The directory receiving the spill files.
+     */
+    public Deduplicator(long memoryBudgetBytes, Path spillDirectory) {
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Finds the first row of each distinct key.
+     *
+     * @param keys The key column; missing keys count as one key.
+     * @return The rows holding the first occurrence of their key.
+     * @throws IOException If the spill files cannot be written or read.
+     */
+    public BitSet firstOccurrences(Dataset.IntegerColumn keys) throws IOException {
+        long start = System.currentTimeMillis();
+        rowCount = keys.size();
+        partitions = 1;
+        spilledBytes = 0;
+        // Sales files have few duplicates, so a table sized for every row is the likely final size.
+        BitSet keep = LongHashSet.heapBytesFor(rowCount) <= memoryBudgetBytes ? inMemory(keys) : null;
+        if (keep == null) {
+            keep = partitioned(keys);
+        }
+        duplicateCount = rowCount - keep.cardinality();
+        elapsedMillis = System.currentTimeMillis() - start;
+        return keep;
+    }
+
+    /**
+     * Finds the first row of each distinct key, using the pool when the keys fit in memory.
+     *
+     * @param keys The key column; missing keys count as one key.
+     * @param pool The pool running the partition tasks.
+     * @return The rows holding the first occurrence of their key.
+     * @throws IOException If the spill files cannot be written or read.
+     */
+    public BitSet firstOccurrences(Dataset.IntegerColumn keys, ForkJoinPool pool) throws IOException {
+        if (pool.getParallelism() < 2 || LongHashSet.heapBytesFor(keys.size()) > memoryBudgetBytes) {
+            return firstOccurrences(keys);
+        }
+        long start = System.currentTimeMillis();
+        rowCount = keys.size();
+        partitions = 1;
+        spilledBytes = 0;
+        BitSet keep = parallel(keys, pool);
+        duplicateCount = rowCount - keep.cardinality();
+        elapsedMillis = System.currentTimeMillis() - start;
+        return keep;
+    }
+
+    private BitSet parallel(Dataset.IntegerColumn keys, ForkJoinPool pool) {
+        int tasks = Math.min(256, Integer.highestOneBit(pool.getParallelism() * 2 - 1) << 1);
+        int shift = 32 - Integer.numberOfTrailingZeros(tasks);
+        int chunks = (rowCount + CHUNK_ROWS - 1) / CHUNK_ROWS;
+
+        // Assign every row to a partition once, in parallel chunks, counting each chunk's rows per partition.
+        byte[] partitionOf = new byte[rowCount];
+        int[][] counts = new int[chunks][tasks];
+        pool.submit(() -> IntStream.range(0, chunks).parallel().forEach(chunk -> {
+            int end = Math.min(rowCount, (chunk + 1) * CHUNK_ROWS);
+            for (int row = chunk * CHUNK_ROWS; row < end; row++) {
+                int partition = LongHashSet.mix(keys.get(row)) >>> shift;
+                partitionOf[row] = (byte) partition;
+                counts[chunk][partition]++;
+            }
+        })).join();
+
+        // Bucket the rows by partition, each chunk writing its rows after those of earlier chunks,
+        // so every bucket lists its rows in order.
+        int[] bucketStart = new int[tasks + 1];
+        int[][] offsets = new int[chunks][tasks];
+        for (int p = 0, next = 0; p < tasks; p++) {
+            bucketStart[p] = next;
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                offsets[chunk][p] = next;
+                next += counts[chunk][p];
+            }
+        }
+        bucketStart[tasks] = rowCount;
+        int[] rows = new int[rowCount];
+        pool.submit(() -> IntStream.range(0, chunks).parallel().forEach(chunk -> {
+            int[] offset = offsets[chunk];
+            int end = Math.min(rowCount, (chunk + 1) * CHUNK_ROWS);
+            for (int row = chunk * CHUNK_ROWS; row < end; row++) {
+                rows[offset[partitionOf[row] & 0xFF]++] = row;
+            }
+        })).join();
+
+        // One task per partition keeps the first row of each of its keys, reading only its own bucket.
+        List<ForkJoinTask<int[]>> results = new ArrayList<>(tasks);
+        for (int p = 0; p < tasks; p++) {
+            int from = bucketStart[p];
+            int to = bucketStart[p + 1];
+            results.add(pool.submit(() -> {
+                LongHashSet seen = new LongHashSet(to - from + 16);
+                int[] kept = new int[to - from];
+                int count = 0;
+                for (int i = from; i < to; i++) {
+                    if (seen.add(keys.get(rows[i]))) {
+                        kept[count++] = rows[i];
+                    }
+                }
+                return Arrays.copyOf(kept, count);
+            }));
+        }
+        BitSet keep = new BitSet(rowCount);
+        for (ForkJoinTask<int[]> result : results) {
+            for (int row : result.join()) {
+                keep.set(row);
+            }
+        }
+        return keep;
+    }
+
+    private BitSet inMemory(Dataset.IntegerColumn keys) {
+        LongHashSet seen = new LongHashSet(rowCount);
+        BitSet keep = new BitSet(rowCount);
+        for (int row = 0; row < rowCount; row++) {
+            if (seen.add(keys.get(row))) {
+                keep.set(row);
+                if (seen.heapBytes() > memoryBudgetBytes) {
+                    return null;
+                }
+            }
+        }
+        return keep;
+    }
+
+    private BitSet partitioned(Dataset.IntegerColumn keys) throws IOException {
+        partitions = 0;
+        BitSet keep = new BitSet(rowCount);
+        Path[] files;
+        int bits;
+        try (Spill spill = new Spill(LongHashSet.heapBytesFor(rowCount), 0)) {
+            for (int row = 0; row < rowCount; row++) {
+                spill.write(keys.get(row), row);
+            }
+            files = spill.finish();
+            bits = spill.bits;
+        }
+        deduplicate(files, bits, keep);
+        return keep;
+    }
+
+    /**
+     * Keeps the first row of each key of every spill file, deleting the files. A file whose set would
+     * still outgrow the budget, as when the keys hash unevenly, is split again on the next hash bits.
+     */
+    private void deduplicate(Path[] files, int usedBits, BitSet keep) throws IOException {
+        try {
+            for (int p = 0; p < files.length; p++) {
+                int pairs = (int) (Files.size(files[p]) / 12);
+                long needed = LongHashSet.heapBytesFor(pairs);
+                if (needed > memoryBudgetBytes && usedBits < 32) {
+                    Path[] split;
+                    int bits;
+                    try (Spill spill = new Spill(needed, usedBits);
+                         DataInputStream in = open(files[p])) {
+                        for (int i = 0; i < pairs; i++) {
+                            spill.write(in.readLong(), in.readInt());
+                        }
+                        split = spill.finish();
+                        bits = spill.bits;
+                    } catch (EOFException e) {
+                        throw new IOException("Truncated spill file " + files[p], e);
+                    }
+                    Files.delete(files[p]);
+                    files[p] = null;
+                    deduplicate(split, bits, keep);
+                    continue;
+                }
+
+                LongHashSet seen = new LongHashSet(pairs);
+                try (DataInputStream in = open(files[p])) {
+                    for (int i = 0; i < pairs; i++) {
+                        long key = in.readLong();
+                        int row = in.readInt();
+                        if (seen.add(key)) {
+                            keep.set(row);
+                        }
+                    }
+                } catch (EOFException e) {
+                    throw new IOException("Truncated spill file " + files[p], e);
+                }
+                Files.delete(files[p]);
+                files[p] = null;
+            }
+        } finally {
+            for (Path file : files) {
+                if (file != null) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private static DataInputStream open(Path file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 65536));
+    }
+
+    /**
+     * One fan-out of (key, row) pairs to spill files by the hash bits after those already used, at
+     * most {@link #MAX_PARTITIONS} files open at once. Pairs keep the order they are written in.
+     */
+    private class Spill implements AutoCloseable {
+
+        private final int usedBits;
+        private final int bits;
+        private final Path[] files;
+        private final DataOutputStream[] outputs;
+
+        /**
+         * @param needed   The bytes of the set the pairs would need in memory.
+         * @param usedBits The hash bits that already chose the file the pairs come from.
+         */
+        Spill(long needed, int usedBits) throws IOException {
+            // Aim for partitions whose sets take half the budget, leaving room for uneven partitions.
+            long wanted = 2 * needed / Math.max(1, memoryBudgetBytes) + 1;
+            int fanOut = (int) Math.max(2, Math.min(MAX_PARTITIONS, Long.highestOneBit(wanted - 1) << 1));
+            this.usedBits = usedBits;
+            this.bits = usedBits + Math.min(32 - usedBits, Integer.numberOfTrailingZeros(fanOut));
+            this.files = new Path[1 << (bits - usedBits)];
+            this.outputs = new DataOutputStream[files.length];
+            int bufferSize = (int) Math.max(4096, Math.min(65536, memoryBudgetBytes / (4L * files.length)));
+            partitions += files.length;
+            for (int p = 0; p < files.length; p++) {
+                files[p] = Files.createTempFile(spillDirectory, "dedup-" + bits + "-" + p + "-", ".bin");
+                outputs[p] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(files[p]), bufferSize));
+            }
+        }
+
+        void write(long key, int row) throws IOException {
+            DataOutputStream out = outputs[(LongHashSet.mix(key) << usedBits) >>> (32 - (bits - usedBits))];
+            out.writeLong(key);
+            out.writeInt(row);
+        }
+
+        /**
+         * @return The spill files, now closed, which the caller deletes.
+         */
+        Path[] finish() throws IOException {
+            for (int p = 0; p < files.length; p++) {
+                outputs[p].close();
+                outputs[p] = null;
+                spilledBytes += Files.size(files[p]);
+            }
+            Path[] finished = files.clone();
+            Arrays.fill(files, null);
+            return finished;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (int p = 0; p < files.length; p++) {
+                if (outputs[p] != null) {
+                    try {
+                        outputs[p].close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+                if (files[p] != null) {
+                    Files.deleteIfExists(files[p]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The number of rows examined by the last run.
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return The number of rows dropped as duplicates by the last run.
+     */
+    public int getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * @return True if the last run outgrew the memory budget and went through spill files.
+     */
+    public boolean isSpilled() {
+        return partitions > 1;
+    }
+
+    /**
+     * @return The number of spill files written by the last run, over all its passes, 1 when it stayed in memory.
+     */
+    public int getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * @return The number of bytes written to spill files by the last run.
+     */
+    public long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    /**
+     * @return The wall-clock time of the last run in milliseconds.
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * Dictionary of distinct String values used to encode dimension columns as int codes.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package lambda;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The Dictionary class assigns dense int codes to distinct values in first-seen order.
+ * Values can be interned straight from parser bytes; a String is only created the first time a
+ * value is seen, so a column of a few hundred distinct countries costs one int per row.
+ */
+public class Dictionary {
+
+    private String[] values = new String[16];
+    private byte[][] keys = new byte[16][];
+    private int[] hashes = new int[16];
+    private int[] table = new int[32]; // code + 1, 0 when empty
+    private int size;
+
+    /**
+     * Returns the code of a UTF-8 value, adding it if it has not been seen.
+     *
+     * @param data   The buffer holding the value.
+     * @param offset The offset of the value.
+     * @param length The length of the value in bytes.
+     * @return The code of the value.
+     */
+    public int intern(byte[] data, int offset, int length) {
+        int hash = hash(data, offset, length);
+        int mask = table.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = table[slot];
+            if (entry == 0) {
+                byte[] key = Arrays.copyOfRange(data, offset, offset + length);
+                return add(key, new String(key, StandardCharsets.UTF_8), hash, slot);
+            }
+            int code = entry - 1;
+            if (hashes[code] == hash && equals(keys[code], data, offset, length)) {
+                return code;
+            }
+        }
+    }
+
+    /**
+     * Returns the code of a value, adding it if it has not been seen.
+     *
+     * @param value The value.
+     * @return The code of the value.
+     */
+    public int intern(String value) {
+        byte[] key = value.getBytes(StandardCharsets.UTF_8);
+        return intern(key, 0, key.length);
+    }
+
+    /**
+     * Looks up the code of a value without adding it.
+     *
+     * @param value The value.
+     * @return The code of the value, or -1 if it is not in the dictionary.
+     */
+    public int find(String value) {
+        byte[] key = value.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(key, 0, key.length);
+        int mask = table.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = table[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            int code = entry - 1;
+            if (hashes[code] == hash && equals(keys[code], key, 0, key.length)) {
+                return code;
+            }
+        }
+    }
+
+    /**
+     * @param code A code returned by this dictionary.
+     * @return The value for the code.
+     */
+    public String get(int code) {
+        return values[code];
+    }
+
+    /**
+     * @return The number of distinct values.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return An estimate of the heap used by this dictionary in bytes.
+     */
+    public long heapBytes() {
+        long bytes = 16L + 4L * table.length + 4L * hashes.length + 8L * (values.length + keys.length);
+        for (int i = 0; i < size; i++) {
+            // String object and its array, plus the key bytes.
+            bytes += 24 + 2L * (16 + keys[i].length);
+        }
+        return bytes;
+    }
+
+    private int add(byte[] key, String value, int hash, int slot) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+            keys = Arrays.copyOf(keys, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        int code = size++;
+        values[code] = value;
+        keys[code] = key;
+        hashes[code] = hash;
+        table[slot] = code + 1;
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return code;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int code = 0; code < size; code++) {
+            int slot = hashes[code] & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = code + 1;
+        }
+    }
+
+    private static int hash(byte[] data, int offset, int length) {
+        int hash = 0x811c9dc5;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ data[i]) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(byte[] key, byte[] data, int offset, int length) {
+        if (key.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (key[i] != data[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,354 @@
+/**
+ * Chooses and builds secondary indexes on the Orders table from the recorded query workload.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package lambda;
+
+import com.amazonaws.services.s3.AmazonS3;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import saaf.Inspector;
+
+/**
+ * The IndexAdvisor class turns a count of filter shapes into a set of indexes that fits a size
+ * budget.
+ *
+ * Every query filters with equalities only, so an index helps a query through the longest prefix
+ * of its columns that the query filters on. For each shape the candidates are the shape's columns
+ * ordered from most to least distinct values, and every prefix of that order. A candidate's gain
+ * for a shape is the number of rows it saves scanning, estimated from the distinct counts of the
+ * columns with the rows reached through an index counted {@link #LOOKUP_COST} times, since each
+ * costs a table lookup. Candidates are picked greedily by marginal gain per estimated byte, a
+ * query counting only the best index it could use, until the budget runs out.
+ *
+ * Indexes built by the advisor are named with {@link #INDEX_PREFIX}; those no longer chosen are
+ * dropped. OrderID is never indexed since the primary key already covers it.
+ */
+public class IndexAdvisor {
+
+    /**
+     * The name prefix of the indexes managed by the advisor.
+     */
+    public static final String INDEX_PREFIX = "wl_";
+
+    /**
+     * The cost of reaching a row through an index, relative to scanning it.
+     */
+    private static final int LOOKUP_COST = 3;
+
+    /**
+     * The bytes an index entry takes besides its column values: the rowid and cell overhead.
+     */
+    private static final int ENTRY_OVERHEAD = 12;
+
+    private static final Pattern INDEX_USED = Pattern.compile("USING (?:COVERING )?INDEX (\\w+)");
+
+    private final long budgetBytes;
+
+    private long rowCount;
+    private final Map<String, Long> distinctCounts = new HashMap<>();
+    private final Map<String, Double> averageWidths = new HashMap<>();
+
+    /**
+     * @param budgetBytes The most bytes the chosen indexes may take, estimated.
+     */
+    public IndexAdvisor(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Reads the workload log, then chooses and builds the indexes for it before the caller
+     * commits. Reports the shapes seen, the indexes chosen, their size and the build time.
+     * A failure to read the log leaves the indexes as they are.
+     *
+     * @param connection The database connection, with the Orders table loaded.
+     * @param s3Client   The Amazon S3 client.
+     * @param bucketname The bucket holding the workload log.
+     * @param budgetMB   The index size budget in MB; 0 builds nothing.
+     * @param inspector  The inspector receiving index statistics.
+     * @throws SQLException If an SQL exception occurs.
+     */
+    public static void buildFromWorkload(Connection connection, AmazonS3 s3Client, String bucketname,
+            int budgetMB, Inspector inspector) throws SQLException {
+        if (budgetMB <= 0) {
+            return;
+        }
+        Map<String, Integer> workload;
+        try {
+            workload = WorkloadLog.read(s3Client, bucketname);
+        } catch (RuntimeException e) {
+            System.out.println("Failed to read the workload log");
+            e.printStackTrace();
+            return;
+        }
+        long start = System.currentTimeMillis();
+        IndexAdvisor advisor = new IndexAdvisor(budgetMB * 1024L * 1024);
+        List<Index> indexes = advisor.choose(connection, workload);
+        long bytes = advisor.build(connection, indexes);
+
+        List<String> names = new ArrayList<>();
+        long estimatedBytes = 0;
+        for (Index index : indexes) {
+            names.add(index.getName());
+            estimatedBytes += index.getEstimatedBytes();
+        }
+        inspector.addAttribute("workloadShapes", workload);
+        inspector.addAttribute("indexes", names);
+        inspector.addAttribute("indexEstimatedBytes", estimatedBytes);
+        inspector.addAttribute("indexBytes", bytes);
+        inspector.addAttribute("indexMs", System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Chooses the indexes for a workload.
+     *
+     * @param connection The database connection, with the Orders table loaded.
+     * @param workload   The number of queries of each shape.
+     * @return The indexes, in the order they were picked.
+     * @throws SQLException If an SQL exception occurs.
+     */
+    public List<Index> choose(Connection connection, Map<String, Integer> workload) throws SQLException {
+        List<String> filtered = new ArrayList<>();
+        for (String shape : workload.keySet()) {
+            for (String column : WorkloadLog.columnsOf(shape)) {
+                if (!column.equals("OrderID") && !filtered.contains(column)) {
+                    filtered.add(column);
+                }
+            }
+        }
+        List<Index> chosen = new ArrayList<>();
+        if (filtered.isEmpty() || budgetBytes <= 0) {
+            return chosen;
+        }
+        readStatistics(connection, filtered);
+
+        Map<String, Index> candidates = new LinkedHashMap<>();
+        for (String shape : workload.keySet()) {
+            List<String> columns = WorkloadLog.columnsOf(shape);
+            columns.remove("OrderID");
+            columns.sort((a, b) -> Long.compare(distinctCounts.get(b), distinctCounts.get(a)));
+            for (int length = 1; length <= columns.size(); length++) {
+                Index index = new Index(new ArrayList<>(columns.subList(0, length)));
+                candidates.putIfAbsent(index.getName(), index);
+            }
+        }
+
+        Map<String, Double> bestGain = new HashMap<>();
+        long remaining = budgetBytes;
+        while (true) {
+            Index best = null;
+            double bestRatio = 0;
+            for (Index candidate : candidates.values()) {
+                candidate.estimatedBytes = estimateBytes(candidate.columns);
+                if (candidate.estimatedBytes > remaining) {
+                    continue;
+                }
+                double gain = 0;
+                for (Map.Entry<String, Integer> shape : workload.entrySet()) {
+                    double saved = rowsSaved(candidate.columns, WorkloadLog.columnsOf(shape.getKey()));
+                    gain += shape.getValue() * Math.max(0, saved - bestGain.getOrDefault(shape.getKey(), 0.0));
+                }
+                double ratio = gain / Math.max(1, candidate.estimatedBytes);
+                if (gain > 0 && ratio > bestRatio) {
+                    best = candidate;
+                    bestRatio = ratio;
+                    best.rowsSaved = gain;
+                }
+            }
+            if (best == null) {
+                return chosen;
+            }
+            chosen.add(best);
+            candidates.remove(best.getName());
+            remaining -= best.estimatedBytes;
+            for (String shape : workload.keySet()) {
+                double saved = rowsSaved(best.columns, WorkloadLog.columnsOf(shape));
+                bestGain.merge(shape, saved, Math::max);
+            }
+        }
+    }
+
+    /**
+     * Drops the advisor's indexes that were not chosen, creates the chosen ones and refreshes
+     * the planner statistics.
+     *
+     * @param connection The database connection.
+     * @param indexes    The chosen indexes.
+     * @return The bytes the database grew by while creating them.
+     * @throws SQLException If an SQL exception occurs.
+     */
+    public long build(Connection connection, List<Index> indexes) throws SQLException {
+        List<String> names = new ArrayList<>();
+        for (Index index : indexes) {
+            names.add(index.getName());
+        }
+        try (Statement statement = connection.createStatement()) {
+            List<String> stale = new ArrayList<>();
+            try (ResultSet existing = statement.executeQuery("SELECT name FROM sqlite_master WHERE type = 'index'"
+                    + " AND tbl_name = 'Orders' AND name LIKE '" + INDEX_PREFIX + "%'")) {
+                while (existing.next()) {
+                    if (!names.contains(existing.getString(1))) {
+                        stale.add(existing.getString(1));
+                    }
+                }
+            }
+            for (String name : stale) {
+                statement.executeUpdate("DROP INDEX " + name);
+            }
+            if (indexes.isEmpty()) {
+                return 0;
+            }
+
+            long before = usedBytes(statement);
+            for (Index index : indexes) {
+                statement.executeUpdate("CREATE INDEX IF NOT EXISTS " + index.getName() + " ON Orders ("
+                        + String.join(", ", index.columns) + ")");
+            }
+            long after = usedBytes(statement);
+            statement.executeUpdate("ANALYZE Orders");
+            return after - before;
+        }
+    }
+
+    /**
+     * Asks SQLite how it would run a query.
+     *
+     * @param connection The database connection.
+     * @param sql        The query.
+     * @return The detail column of each EXPLAIN QUERY PLAN row.
+     * @throws SQLException If an SQL exception occurs.
+     */
+    public static List<String> explain(Connection connection, String sql) throws SQLException {
+        List<String> plan = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("EXPLAIN QUERY PLAN " + sql)) {
+            while (rows.next()) {
+                plan.add(rows.getString("detail"));
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * @param plan The plan from {@link #explain}.
+     * @return The name of the first index the plan uses, "PRIMARY KEY" for a rowid lookup, or
+     *         "none" for a full scan.
+     */
+    public static String indexUsed(List<String> plan) {
+        for (String step : plan) {
+            Matcher matcher = INDEX_USED.matcher(step);
+            if (matcher.find()) {
+                return matcher.group(1);
+            }
+            if (step.contains("INTEGER PRIMARY KEY")) {
+                return "PRIMARY KEY";
+            }
+        }
+        return "none";
+    }
+
+    private void readStatistics(Connection connection, List<String> columns) throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT count(*)");
+        for (String column : columns) {
+            sql.append(", count(DISTINCT ").append(column).append("), avg(length(").append(column).append("))");
+        }
+        try (Statement statement = connection.createStatement();
+             ResultSet statistics = statement.executeQuery(sql.append(" FROM Orders").toString())) {
+            statistics.next();
+            rowCount = statistics.getLong(1);
+            for (int c = 0; c < columns.size(); c++) {
+                distinctCounts.put(columns.get(c), Math.max(1, statistics.getLong(2 + 2 * c)));
+                averageWidths.put(columns.get(c), statistics.getDouble(3 + 2 * c));
+            }
+        }
+    }
+
+    private long estimateBytes(List<String> columns) {
+        double width = ENTRY_OVERHEAD;
+        for (String column : columns) {
+            width += averageWidths.get(column);
+        }
+        return (long) (rowCount * width);
+    }
+
+    /**
+     * Estimates the rows an index saves a query of a given shape compared to a full scan.
+     */
+    private double rowsSaved(List<String> index, List<String> shape) {
+        double combinations = 1;
+        for (String column : index) {
+            if (!shape.contains(column)) {
+                break;
+            }
+            combinations *= distinctCounts.get(column);
+        }
+        if (combinations == 1) {
+            return 0;
+        }
+        return Math.max(0, rowCount - LOOKUP_COST * rowCount / Math.min(combinations, rowCount));
+    }
+
+    private static long usedBytes(Statement statement) throws SQLException {
+        long pages = pragma(statement, "page_count") - pragma(statement, "freelist_count");
+        return pages * pragma(statement, "page_size");
+    }
+
+    private static long pragma(Statement statement, String name) throws SQLException {
+        try (ResultSet value = statement.executeQuery("PRAGMA " + name)) {
+            value.next();
+            return value.getLong(1);
+        }
+    }
+
+    /**
+     * A secondary index on Orders.
+     */
+    public static class Index {
+
+        private final List<String> columns;
+        private long estimatedBytes;
+        private double rowsSaved;
+
+        Index(List<String> columns) {
+            this.columns = columns;
+        }
+
+        /**
+         * @return The index name, the prefix followed by the columns.
+         */
+        public String getName() {
+            return INDEX_PREFIX + String.join("_", columns);
+        }
+
+        /**
+         * @return The indexed columns, in key order.
+         */
+        public List<String> getColumns() {
+            return columns;
+        }
+
+        /**
+         * @return The estimated size in bytes.
+         */
+        public long getEstimatedBytes() {
+            return estimatedBytes;
+        }
+
+        /**
+         * @return The estimated rows saved over the workload when the index was picked.
+         */
+        public double getRowsSaved() {
+            return rowsSaved;
+        }
+    }
+}
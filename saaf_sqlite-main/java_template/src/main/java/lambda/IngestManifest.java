@@ -0,0 +1,246 @@
+/**
+ * Record, kept inside sales.db, of the source objects and byte ranges already loaded.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package lambda;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.zip.CRC32;
+
+/**
+ * The IngestManifest class manages the IngestManifest table: one row per load of a byte range of
+ * a source object, with the object's ETag and size at the time, the CSV header, and a CRC-32 of
+ * the last bytes of the range.
+ *
+ * An incremental load looks up the latest entry for its source key. The same ETag means there is
+ * nothing new. A larger object whose bytes at the end of the recorded range still have the same
+ * CRC is taken to have been appended to, and only the bytes after the range are loaded; anything
+ * else is loaded again in full and merged on OrderID.
+ */
+public class IngestManifest {
+
+    /**
+     * The most bytes at the end of a range covered by the tail CRC.
+     */
+    public static final int TAIL_BYTES = 256;
+
+    private IngestManifest() {
+    }
+
+    /**
+     * Creates the IngestManifest table if it does not exist.
+     *
+     * @param connection The database connection.
+     * @throws SQLException If an SQL exception occurs.
+     */
+    public static void create(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS IngestManifest ("
+                    + "SourceBucket TEXT NOT NULL, SourceKey TEXT NOT NULL, ETag TEXT NOT NULL, "
+                    + "RangeStart INTEGER NOT NULL, RangeEnd INTEGER NOT NULL, Header TEXT NOT NULL, "
+                    + "TailLength INTEGER NOT NULL, TailCrc INTEGER NOT NULL, "
+                    + "RowsRead INTEGER NOT NULL, RowsMerged INTEGER NOT NULL, IngestedAt INTEGER NOT NULL, "
+                    + "PRIMARY KEY (SourceBucket, SourceKey, RangeEnd, ETag))");
+        }
+    }
+
+    /**
+     * Finds the most recent load of a source object.
+     *
+     * @param connection The database connection.
+     * @param bucketname The source bucket.
+     * @param key        The source key.
+     * @return The entry, or null if the object was never loaded.
+     * @throws SQLException If an SQL exception occurs.
+     */
+    public static Entry latest(Connection connection, String bucketname, String key) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT ETag, RangeStart, RangeEnd, Header,"
+                + " TailLength, TailCrc FROM IngestManifest WHERE SourceBucket = ? AND SourceKey = ?"
+                + " ORDER BY IngestedAt DESC, RangeEnd DESC LIMIT 1")) {
+            statement.setString(1, bucketname);
+            statement.setString(2, key);
+            try (ResultSet entry = statement.executeQuery()) {
+                if (!entry.next()) {
+                    return null;
+                }
+                return new Entry(entry.getString(1), entry.getLong(2), entry.getLong(3), entry.getString(4),
+                        entry.getInt(5), entry.getLong(6));
+            }
+        }
+    }
+
+    /**
+     * Records a load. The caller commits, together with the merged rows.
+     *
+     * @param connection The database connection.
+     * @param bucketname The source bucket.
+     * @param key        The source key.
+     * @param entry      The range loaded.
+     * @param rowsRead   The number of rows read from the range.
+     * @param rowsMerged The number of rows inserted or updated.
+     * @throws SQLException If an SQL exception occurs.
+     */
+    public static void record(Connection connection, String bucketname, String key, Entry entry, long rowsRead,
+            long rowsMerged) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT OR REPLACE INTO IngestManifest VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            statement.setString(1, bucketname);
+            statement.setString(2, key);
+            statement.setString(3, entry.getETag());
+            statement.setLong(4, entry.getRangeStart());
+            statement.setLong(5, entry.getRangeEnd());
+            statement.setString(6, entry.getHeader());
+            statement.setInt(7, entry.getTailLength());
+            statement.setLong(8, entry.getTailCrc());
+            statement.setLong(9, rowsRead);
+            statement.setLong(10, rowsMerged);
+            statement.setLong(11, System.currentTimeMillis());
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * @param data   The bytes.
+     * @param length The number of bytes to checksum from the start.
+     * @return The CRC-32 of the bytes.
+     */
+    public static long crc(byte[] data, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        return crc.getValue();
+    }
+
+    /**
+     * Passes a source range through, remembering its last {@link #TAIL_BYTES} bytes.
+     */
+    public static class TailInputStream extends FilterInputStream {
+
+        private final byte[] tail = new byte[TAIL_BYTES];
+        private long count;
+
+        /**
+         * @param in The stream of the range.
+         */
+        public TailInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                tail[(int) (count++ % TAIL_BYTES)] = (byte) b;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            for (int i = Math.max(0, n - TAIL_BYTES); i < n; i++) {
+                tail[(int) ((count + i) % TAIL_BYTES)] = b[off + i];
+            }
+            count += Math.max(0, n);
+            return n;
+        }
+
+        /**
+         * @return The number of bytes covered by {@link #getTailCrc()}.
+         */
+        public int getTailLength() {
+            return (int) Math.min(count, TAIL_BYTES);
+        }
+
+        /**
+         * @return The CRC-32 of the last bytes read.
+         */
+        public long getTailCrc() {
+            int length = getTailLength();
+            byte[] ordered = new byte[length];
+            for (int i = 0; i < length; i++) {
+                ordered[i] = tail[(int) ((count - length + i) % TAIL_BYTES)];
+            }
+            return crc(ordered, length);
+        }
+    }
+
+    /**
+     * A loaded byte range of one version of a source object.
+     */
+    public static class Entry {
+
+        private final String eTag;
+        private final long rangeStart;
+        private final long rangeEnd;
+        private final String header;
+        private final int tailLength;
+        private final long tailCrc;
+
+        /**
+         * @param eTag       The ETag of the object when the range was loaded.
+         * @param rangeStart The first byte loaded.
+         * @param rangeEnd   The byte after the last byte loaded, the object size at the time.
+         * @param header     The CSV header line, without line break.
+         * @param tailLength The number of bytes before rangeEnd covered by tailCrc.
+         * @param tailCrc    The CRC-32 of those bytes.
+         */
+        public Entry(String eTag, long rangeStart, long rangeEnd, String header, int tailLength, long tailCrc) {
+            this.eTag = eTag;
+            this.rangeStart = rangeStart;
+            this.rangeEnd = rangeEnd;
+            this.header = header;
+            this.tailLength = tailLength;
+            this.tailCrc = tailCrc;
+        }
+
+        /**
+         * @return The ETag of the object when the range was loaded.
+         */
+        public String getETag() {
+            return eTag;
+        }
+
+        /**
+         * @return The first byte loaded.
+         */
+        public long getRangeStart() {
+            return rangeStart;
+        }
+
+        /**
+         * @return The byte after the last byte loaded.
+         */
+        public long getRangeEnd() {
+            return rangeEnd;
+        }
+
+        /**
+         * @return The CSV header line.
+         */
+        public String getHeader() {
+            return header;
+        }
+
+        /**
+         * @return The number of bytes covered by the tail CRC.
+         */
+        public int getTailLength() {
+            return tailLength;
+        }
+
+        /**
+         * @return The CRC-32 of the last bytes of the range.
+         */
+        public long getTailCrc() {
+            return tailCrc;
+        }
+    }
+}
@@ -14,24 +14,19 @@ import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.ObjectMetadata;
-import com.amazonaws.services.s3.model.PutObjectRequest;
-import com.amazonaws.services.s3.model.PutObjectResult;
 import com.amazonaws.services.s3.model.S3Object;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.sql.Connection;
 import java.sql.DriverManager;
-import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
-import java.util.Scanner;
 
 import saaf.Inspector;
 
@@ -43,8 +38,9 @@ public class Load implements RequestHandler<Request, HashMap<String, Object>> {
     // Instance variables
     String bucketname;
     Connection connection;
-    List<ArrayList<String>> csvData;
+    Dataset dataset;
     AmazonS3 s3Client;
+    Request request;
 
     /**
      * Handles Lambda function requests.
@@ -58,38 +54,73 @@ public class Load implements RequestHandler<Request, HashMap<String, Object>> {
         Inspector inspector = new Inspector();
         inspector.inspectAll();
 
+        this.request = request;
         bucketname = request.getBucketname();
-        csvData = new ArrayList<>();
+        dataset = new Dataset();
         s3Client = AmazonS3ClientBuilder.standard().build();
 
-        downloadCSVFileFromS3();
-        loadIntoSQLite(csvData, s3Client);
+        if (request.isIncremental()) {
+            loadIncrementally(request, inspector);
+            return inspector.finish();
+        }
+
+        if ("columnar".equals(request.getFormat())) {
+            downloadColumnarFileFromS3(inspector);
+        } else if (request.getIngestThreads() > 1) {
+            downloadCSVFileInRanges(request.getIngestThreads(), request.getIngestChunkMB(), inspector);
+        } else {
+            downloadCSVFileFromS3(inspector);
+        }
+        inspector.addAttribute("datasetHeapBytes", dataset.heapBytes());
+        dataset.getParseErrors().report(inspector);
+        if (request.getShardBy() != null) {
+            loadShards(request, inspector);
+        } else {
+            loadIntoSQLite(dataset, s3Client, request.isTypedSchema(), request.isBulkLoad(),
+                    request.getIndexBudgetMB(), inspector);
+        }
 
         return inspector.finish();
     }
 
     /**
-     * Downloads a CSV file from the specified S3 bucket and populates the 'csvData' list.
+     * Loads the 'dataset' columns into one SQLite database per value of the shard column, in
+     * parallel, and uploads them in place of sales.db.
+     *
+     * @param request   The request holding the shard column and load options.
+     * @param inspector The inspector receiving load statistics.
      */
-    private void downloadCSVFileFromS3() {
+    private void loadShards(Request request, Inspector inspector) {
+        try {
+            Class.forName("org.sqlite.JDBC");
+            ShardedOrders.load(dataset, s3Client, bucketname, request.getShardBy(), request.isTypedSchema(),
+                    request.isBulkLoad(), request.getLoadThreads(), inspector);
+        } catch (ClassNotFoundException | IOException | SQLException | IllegalArgumentException e) {
+            System.out.println("Failed to load the shards");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Downloads output.csv from the request's bucket and parses it into the 'dataset' columns.
+     *
+     * @param inspector The inspector receiving parse statistics.
+     */
+    private void downloadCSVFileFromS3(Inspector inspector) {
         String key = "output.csv";
 
         try {
             // Download the object
-            S3Object s3Object = s3Client.getObject(new GetObjectRequest("records-462", key));
-            InputStream objectData = s3Object.getObjectContent();
-
-            Scanner scanner = new Scanner(objectData);
+            S3Object s3Object = s3Client.getObject(new GetObjectRequest(bucketname, key));
 
-            while (scanner.hasNextLine()) {
-                String line = scanner.nextLine();
-                String[] row = line.split(",");
-                ArrayList<String> list = new ArrayList<>(Arrays.asList(row));
-                csvData.add(list);
+            // Parse the rows straight from the object stream
+            CsvParser parser = new CsvParser(dataset);
+            try (InputStream objectData = s3Object.getObjectContent()) {
+                parser.parse(objectData);
             }
-
-            // Close the input stream
-            objectData.close();
+            inspector.addAttribute("csvRows", parser.getRowCount());
+            inspector.addAttribute("csvParseMs", parser.getElapsedMillis());
+            inspector.addAttribute("csvRowsPerSec", parser.getRowsPerSecond());
         } catch (Exception e) {
             System.out.println("Failed to download the csv");
             e.printStackTrace();
@@ -98,119 +129,290 @@ public class Load implements RequestHandler<Request, HashMap<String, Object>> {
     }
 
     /**
-     * Loads data from the 'csvData' list into an SQLite database.
+     * Reads output.col, the binary columnar file Transform writes to the request's bucket, into the
+     * 'dataset' columns.
+     *
+     * @param inspector The inspector receiving read statistics.
+     */
+    private void downloadColumnarFileFromS3(Inspector inspector) {
+        long start = System.nanoTime();
+        try {
+            dataset = ColumnarFile.read(s3Client, bucketname, "output.col");
+            inspector.addAttribute("columnarRows", dataset.getRowCount());
+            inspector.addAttribute("columnarReadMs", (System.nanoTime() - start) / 1_000_000);
+        } catch (Exception e) {
+            System.out.println("Failed to download the columnar file");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Downloads output.csv from the request's bucket with concurrent ranged GETs, parses the ranges in parallel and fills
+     * the 'dataset' columns in file order.
      *
-     * @param csvData   The list containing CSV data.
+     * @param threads   The number of concurrent ranged GETs.
+     * @param chunkMB   The size of each range in MB.
+     * @param inspector The inspector receiving ingest statistics.
+     */
+    private void downloadCSVFileInRanges(int threads, int chunkMB, Inspector inspector) {
+        try (RangedCsvReader reader = new RangedCsvReader(s3Client, threads, RangedCsvReader.chunkSize(chunkMB))) {
+            dataset = reader.readDataset(bucketname, "output.csv");
+            inspector.addAttribute("csvRows", reader.getRowCount() + 1);
+            inspector.addAttribute("csvParseMs", reader.getElapsedMillis());
+            inspector.addAttribute("csvRowsPerSec", reader.getRowsPerSecond());
+        } catch (Exception e) {
+            System.out.println("Failed to download the csv");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Loads data from the 'dataset' columns into an SQLite database.
+     *
+     * @param dataset   The dataset containing CSV data.
      * @param s3Client  The Amazon S3 client.
+     * @param typed     True for the typed Orders schema, false for the all-TEXT schema.
+     * @param bulk      True to load with the bulk-load settings and a deferred primary key.
+     * @param indexBudgetMB The size budget of the indexes chosen from the workload log, 0 for none.
+     * @param inspector The inspector receiving load statistics.
      */
-    private void loadIntoSQLite(List<ArrayList<String>> csvData, AmazonS3 s3Client) {
+    private void loadIntoSQLite(Dataset dataset, AmazonS3 s3Client, boolean typed, boolean bulk,
+            int indexBudgetMB, Inspector inspector) {
         try {
             File databaseFile = new File("/tmp/sales.db");
+            // The local copy no longer matches any version in S3 until it is uploaded.
+            eTagFile(databaseFile).delete();
 
             Class.forName("org.sqlite.JDBC");
             String dbUrl = "jdbc:sqlite:" + databaseFile.getAbsolutePath();
 
             // Establish the database connection
             connection = DriverManager.getConnection(dbUrl);
+            if (typed) {
+                // A database left by an earlier all-TEXT load is converted before adding rows.
+                long migrated = OrdersTable.migrateToTyped(connection);
+                if (migrated > 0) {
+                    inspector.addAttribute("migratedRows", migrated);
+                }
+            }
+            if (bulk) {
+                OrdersTable.configureBulkLoad(connection);
+            }
             connection.setAutoCommit(false);
 
-            createOrdersTable(connection);
-
-            try (PreparedStatement preparedStatement = connection.prepareStatement(
-                    "INSERT INTO Orders (Region, Country, ItemType, SalesChannel, OrderPriority, OrderDate, OrderID, ShipDate, UnitsSold, UnitPrice, UnitCost, TotalRevenue, TotalCost, TotalProfit, OrderProcessingTime, GrossMargin) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)"
-            )) {
-                for (int i = 1; i < csvData.size(); i++) {
-                    ArrayList<String> row = csvData.get(i);
-                    preparedStatement.setString(1, row.get(0)); // Region
-                    preparedStatement.setString(2, row.get(1)); // Country
-                    preparedStatement.setString(3, row.get(2)); // ItemType
-                    preparedStatement.setString(4, row.get(3)); // SalesChannel
-                    preparedStatement.setString(5, row.get(4)); // OrderPriority
-                    preparedStatement.setString(6, row.get(5)); // OrderDate
-                    preparedStatement.setString(7, row.get(6)); // OrderID
-                    preparedStatement.setString(8, row.get(7)); // ShipDate
-                    preparedStatement.setString(9, row.get(8)); // UnitsSold
-                    preparedStatement.setString(10, row.get(9)); // UnitPrice
-                    preparedStatement.setString(11, row.get(10)); // UnitCost
-                    preparedStatement.setString(12, row.get(11)); // TotalRevenue
-                    preparedStatement.setString(13, row.get(12)); // TotalCost
-                    preparedStatement.setString(14, row.get(13)); // TotalProfit
-                    preparedStatement.setString(15, row.get(14)); // OrderProcessingTime
-                    preparedStatement.setString(16, row.get(15)); // GrossMargin
-
-                    preparedStatement.addBatch();
-                    if (i % 1000 == 0) {
-                        preparedStatement.executeBatch();
-                        preparedStatement.clearBatch();
-                    }
-                }
-                preparedStatement.executeBatch();
-                connection.commit();
+            long start = System.nanoTime();
+            long rows;
+            if (bulk) {
+                rows = OrdersTable.bulkInsert(connection, dataset, typed);
+            } else {
+                OrdersTable.create(connection, typed);
+                rows = OrdersTable.insert(connection, dataset, typed);
             }
+            // The builders report their own times; loadMs covers the rows alone
+            long elapsed = System.nanoTime() - start;
+            Rollups.build(connection, request.getRollups(), inspector);
+            BitmapIndex.build(connection, request.getBitmapIndexes(), inspector);
+            IndexAdvisor.buildFromWorkload(connection, s3Client, bucketname, indexBudgetMB, inspector);
+            connection.commit();
+            inspector.addAttribute("schema", typed ? "typed" : "text");
+            inspector.addAttribute("loadMode", bulk ? "bulk" : "default");
+            inspector.addAttribute("loadRows", rows);
+            inspector.addAttribute("loadMs", elapsed / 1_000_000);
+            inspector.addAttribute("loadRowsPerSec", elapsed == 0 ? 0 : rows * 1_000_000_000L / elapsed);
 
-            uploadSQLiteToS3(s3Client, databaseFile);
+            uploadSQLiteToS3(s3Client, databaseFile, inspector);
 
-        } catch (ClassNotFoundException | SQLException e) {
+        } catch (ClassNotFoundException | SQLException | IllegalArgumentException e) {
             e.printStackTrace();
+        } finally {
+            closeConnection();
         }
     }
 
     /**
-     * Creates the 'Orders' table in the SQLite database if it does not exist.
+     * Merges the rows of a source object that are not in sales.db yet into the database stored in
+     * S3, instead of rebuilding it. The stored database is downloaded only if the local copy is
+     * not the same version, and uploaded again only if rows were read. The IngestManifest table in
+     * the database tells which part of the source, if any, is new.
      *
-     * @param connection The database connection.
-     * @throws SQLException If an SQL exception occurs.
+     * @param request   The request holding the source bucket and key and load options.
+     * @param inspector The inspector receiving load statistics.
      */
-    private void createOrdersTable(Connection connection) throws SQLException {
-        try (PreparedStatement preparedStatement = connection.prepareStatement(
-                "CREATE TABLE IF NOT EXISTS Orders (" +
-                        "Region TEXT," +
-                        "Country TEXT," +
-                        "ItemType TEXT," +
-                        "SalesChannel TEXT," +
-                        "OrderPriority TEXT," +
-                        "OrderDate TEXT," +
-                        "OrderID TEXT PRIMARY KEY," +
-                        "ShipDate TEXT," +
-                        "UnitsSold TEXT," +
-                        "UnitPrice TEXT," +
-                        "UnitCost TEXT," +
-                        "TotalRevenue TEXT," +
-                        "TotalCost TEXT," +
-                        "TotalProfit TEXT," +
-                        "OrderProcessingTime TEXT," +
-                        "GrossMargin TEXT)"
-        )) {
-            preparedStatement.executeUpdate();
+    private void loadIncrementally(Request request, Inspector inspector) {
+        String sourceBucket = request.getSourceBucket() != null ? request.getSourceBucket() : bucketname;
+        String sourceKey = request.getFilename() != null ? request.getFilename() : "output.csv";
+        File databaseFile = new File("/tmp/sales.db");
+        try {
+            fetchDatabase(databaseFile, inspector);
+            Class.forName("org.sqlite.JDBC");
+            connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile.getAbsolutePath());
+            IngestManifest.create(connection);
+
+            ObjectMetadata source = s3Client.getObjectMetadata(sourceBucket, sourceKey);
+            IngestManifest.Entry previous = IngestManifest.latest(connection, sourceBucket, sourceKey);
+            inspector.addAttribute("sourceBucket", sourceBucket);
+            inspector.addAttribute("sourceKey", sourceKey);
+            inspector.addAttribute("sourceETag", source.getETag());
+            if (previous != null && previous.getETag().equals(source.getETag())) {
+                inspector.addAttribute("ingestMode", "unchanged");
+                return;
+            }
+            boolean append = previous != null && source.getContentLength() > previous.getRangeEnd()
+                    && tailMatches(sourceBucket, sourceKey, previous);
+            long rangeStart = append ? previous.getRangeEnd() : 0;
+            inspector.addAttribute("ingestMode", append ? "append" : previous == null ? "new" : "full");
+            eTagFile(databaseFile).delete();
+            inspector.addAttribute("rangeStart", rangeStart);
+            inspector.addAttribute("rangeEnd", source.getContentLength());
+
+            // An appended range has no header of its own, so the recorded one is put in front.
+            dataset = new Dataset();
+            GetObjectRequest range = new GetObjectRequest(sourceBucket, sourceKey)
+                    .withRange(rangeStart, source.getContentLength() - 1);
+            IngestManifest.TailInputStream objectData;
+            try (InputStream in = s3Client.getObject(range).getObjectContent()) {
+                objectData = new IngestManifest.TailInputStream(in);
+                InputStream csv = append
+                        ? new SequenceInputStream(new ByteArrayInputStream(
+                                (previous.getHeader() + "\r\n").getBytes(StandardCharsets.UTF_8)), objectData)
+                        : objectData;
+                CsvParser parser = new CsvParser(dataset);
+                parser.parse(csv);
+                inspector.addAttribute("csvRows", parser.getRowCount());
+                inspector.addAttribute("csvParseMs", parser.getElapsedMillis());
+            }
+            IngestManifest.Entry loaded = new IngestManifest.Entry(source.getETag(), rangeStart,
+                    source.getContentLength(), String.join(",", dataset.getNames()),
+                    objectData.getTailLength(), objectData.getTailCrc());
+
+            boolean typed = OrdersTable.exists(connection) ? OrdersTable.isTyped(connection) : request.isTypedSchema();
+            if (request.isTypedSchema() && !typed) {
+                long migrated = OrdersTable.migrateToTyped(connection);
+                inspector.addAttribute("migratedRows", migrated);
+                typed = true;
+            }
+            if (request.isBulkLoad()) {
+                OrdersTable.configureBulkLoad(connection);
+            }
+            connection.setAutoCommit(false);
+
+            long start = System.nanoTime();
+            long merged = OrdersTable.merge(connection, dataset, typed, request.isUpsert());
+            IngestManifest.record(connection, sourceBucket, sourceKey, loaded, dataset.getRowCount(), merged);
+            // The builders report their own times; loadMs covers the rows alone
+            long elapsed = System.nanoTime() - start;
+            Rollups.build(connection, request.getRollups(), inspector);
+            BitmapIndex.build(connection, request.getBitmapIndexes(), inspector);
+            IndexAdvisor.buildFromWorkload(connection, s3Client, bucketname, request.getIndexBudgetMB(), inspector);
+            connection.commit();
+            inspector.addAttribute("schema", typed ? "typed" : "text");
+            inspector.addAttribute("loadMode", request.isUpsert() ? "upsert" : "insertOrIgnore");
+            inspector.addAttribute("loadRows", dataset.getRowCount());
+            inspector.addAttribute("mergedRows", merged);
+            inspector.addAttribute("loadMs", elapsed / 1_000_000);
+            inspector.addAttribute("loadRowsPerSec",
+                    elapsed == 0 ? 0 : dataset.getRowCount() * 1_000_000_000L / elapsed);
+
+            String eTag = uploadSQLiteToS3(s3Client, databaseFile, inspector);
+            if (eTag != null) {
+                Files.write(eTagFile(databaseFile).toPath(), eTag.getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (ClassNotFoundException | SQLException | IOException | RuntimeException e) {
+            System.out.println("Failed to load incrementally");
+            e.printStackTrace();
+        } finally {
+            closeConnection();
+        }
+    }
+
+    /**
+     * Closes 'connection' once the snapshot is published. A bulk load holds an exclusive lock on
+     * the database file until then, which would fail the next load in the same container.
+     */
+    private void closeConnection() {
+        if (connection == null) {
+            return;
         }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            System.out.println("Failed to close the database");
+            e.printStackTrace();
+        }
+        connection = null;
+    }
+
+    /**
+     * Makes the local database the version stored in S3, downloading it only if the ETag saved
+     * with the local copy differs. Without a stored database any local copy is removed.
+     *
+     * @param databaseFile The local database file.
+     * @param inspector    The inspector receiving download statistics.
+     * @throws IOException If the download cannot be written.
+     */
+    private void fetchDatabase(File databaseFile, Inspector inspector) throws IOException {
+        File eTagFile = eTagFile(databaseFile);
+        if (!s3Client.doesObjectExist(bucketname, "sales.db")) {
+            Files.deleteIfExists(databaseFile.toPath());
+            Files.deleteIfExists(eTagFile.toPath());
+            inspector.addAttribute("dbDownloaded", false);
+            return;
+        }
+        String stored = s3Client.getObjectMetadata(bucketname, "sales.db").getETag();
+        if (databaseFile.exists() && eTagFile.exists()
+                && new String(Files.readAllBytes(eTagFile.toPath()), StandardCharsets.UTF_8).equals(stored)) {
+            inspector.addAttribute("dbDownloaded", false);
+            return;
+        }
+        Files.deleteIfExists(eTagFile.toPath());
+        String eTag = DatabaseSnapshot.download(s3Client, bucketname, "sales.db", databaseFile, inspector);
+        Files.write(eTagFile.toPath(), eTag.getBytes(StandardCharsets.UTF_8));
+        inspector.addAttribute("dbDownloaded", true);
+    }
+
+    /**
+     * Tells whether a source object still holds the bytes recorded at the end of its last load.
+     */
+    private boolean tailMatches(String sourceBucket, String sourceKey, IngestManifest.Entry previous)
+            throws IOException {
+        int length = previous.getTailLength();
+        if (length == 0) {
+            return true;
+        }
+        GetObjectRequest tail = new GetObjectRequest(sourceBucket, sourceKey)
+                .withRange(previous.getRangeEnd() - length, previous.getRangeEnd() - 1);
+        byte[] bytes = new byte[length];
+        int read = 0;
+        try (InputStream in = s3Client.getObject(tail).getObjectContent()) {
+            for (int n; read < length && (n = in.read(bytes, read, length - read)) != -1; ) {
+                read += n;
+            }
+        }
+        return read == length && IngestManifest.crc(bytes, length) == previous.getTailCrc();
+    }
+
+    private static File eTagFile(File databaseFile) {
+        return new File(databaseFile.getPath() + ".etag");
     }
 
     /**
-     * Uploads the SQLite database file to the specified S3 bucket.
+     * Publishes a compact snapshot of the SQLite database to the specified S3 bucket, gzipped if
+     * the request asks for it.
      *
      * @param s3Client       The Amazon S3 client.
-     * @param databaseFile   The SQLite database file.
+     * @param databaseFile   The SQLite database file, open on 'connection' with everything committed.
+     * @param inspector      The inspector receiving upload statistics.
+     * @return The ETag of the uploaded object, or null if the upload failed.
      */
-    private void uploadSQLiteToS3(AmazonS3 s3Client, File databaseFile) {
+    private String uploadSQLiteToS3(AmazonS3 s3Client, File databaseFile, Inspector inspector) {
         try {
-            // Upload the SQLite database file to S3
-            byte[] contentBytes = Files.readAllBytes(databaseFile.toPath());
-            ObjectMetadata metadata = new ObjectMetadata();
-            metadata.setContentLength(contentBytes.length);
-
-            PutObjectRequest putObjectRequest = new PutObjectRequest(
-                    bucketname, // Replace with your actual S3 bucket name
-                    "sales.db",
-                    new ByteArrayInputStream(contentBytes),
-                    metadata
-            );
-
-            PutObjectResult putObjectResult = s3Client.putObject(putObjectRequest);
-            System.out.println("SQLite database written to S3. ETag: " + putObjectResult.getETag());
-
-        } catch (IOException e) {
+            return DatabaseSnapshot.publish(connection, databaseFile, s3Client, bucketname, "sales.db",
+                    request.isCompressSnapshot(), S3UploadStream.partSize(request.getUploadPartMB()),
+                    request.getUploadThreads(), inspector);
+        } catch (IOException | SQLException | IllegalArgumentException e) {
             System.out.println("Failed to upload to S3");
             e.printStackTrace();
+            return null;
         }
     }
 }
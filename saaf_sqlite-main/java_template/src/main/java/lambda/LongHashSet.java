@@ -0,0 +1,131 @@
+/**
+ * Set of primitive long keys used to find duplicate Order IDs without boxing.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package lambda;
+
+/**
+ * The LongHashSet class is an open-addressing hash set of longs with linear probing.
+ * Keys live in a single long[] kept at most half full, so a lookup is usually one or two
+ * adjacent array reads and a set of n keys costs about 16n bytes, against roughly 60n for a
+ * HashSet&lt;Long&gt;. Zero marks an empty slot; the key 0 itself is tracked with a flag.
+ */
+public class LongHashSet {
+
+    private static final long EMPTY = 0L;
+
+    private long[] keys;
+    private boolean containsZero;
+    private int size;
+
+    /**
+     * Creates a set sized for the given number of keys.
+     *
+     * @param expectedSize The number of keys expected.
+     */
+    public LongHashSet(int expectedSize) {
+        keys = new long[tableSizeFor(expectedSize)];
+    }
+
+    /**
+     * Adds a key.
+     *
+     * @param key The key.
+     * @return True if the key was not already in the set.
+     */
+    public boolean add(long key) {
+        if (key == EMPTY) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+        int mask = keys.length - 1;
+        for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+            long existing = keys[slot];
+            if (existing == EMPTY) {
+                keys[slot] = key;
+                if (++size * 2 > keys.length) {
+                    rehash(keys.length * 2);
+                }
+                return true;
+            }
+            if (existing == key) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @param key The key.
+     * @return True if the key is in the set.
+     */
+    public boolean contains(long key) {
+        if (key == EMPTY) {
+            return containsZero;
+        }
+        int mask = keys.length - 1;
+        for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+            long existing = keys[slot];
+            if (existing == EMPTY) {
+                return false;
+            }
+            if (existing == key) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return The number of keys in the set.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The heap used by the key table in bytes.
+     */
+    public long heapBytes() {
+        return 16L + 8L * keys.length;
+    }
+
+    /**
+     * Estimates the heap a set holding the given number of keys would use.
+     *
+     * @param keyCount The number of keys.
+     * @return The heap used by the key table in bytes.
+     */
+    public static long heapBytesFor(long keyCount) {
+        return 16L + 8L * tableSizeFor(keyCount);
+    }
+
+    private void rehash(int capacity) {
+        long[] old = keys;
+        keys = new long[capacity];
+        int mask = capacity - 1;
+        for (long key : old) {
+            if (key != EMPTY) {
+                int slot = mix(key) & mask;
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+            }
+        }
+    }
+
+    private static int tableSizeFor(long expectedSize) {
+        long capacity = Long.highestOneBit(Math.max(8, expectedSize * 2 - 1)) << 1;
+        return (int) Math.min(capacity, 1 << 30);
+    }
+
+    static int mix(long key) {
+        // Order IDs are sequential-ish, so scramble them before masking.
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
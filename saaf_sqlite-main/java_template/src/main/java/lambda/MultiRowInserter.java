@@ -0,0 +1,240 @@
+/**
+ * Inserts rows with multi-row VALUES statements whose size adapts to the measured throughput.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package lambda;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import org.sqlite.SQLiteConnection;
+import org.sqlite.SQLiteLimits;
+
+/**
+ * The MultiRowInserter class replaces one statement step per row with one per statement of
+ * INSERT INTO t (...) VALUES (?, ...), (?, ...), ... covering many rows.
+ *
+ * Statement sizes are powers of two, so at most one prepared statement per size is kept and
+ * reused, and a remainder is inserted with the few smaller sizes making it up. The largest size
+ * keeps the parameter count within SQLite's variable limit, read from the connection.
+ *
+ * The size starts at one row, inserted through the driver's batch like a plain addBatch loop,
+ * and grows by {@link #GROWTH} while a window of rows at the larger size beats the windows of the
+ * current size around it by more than {@link #MIN_IMPROVEMENT}; it then settles. Where SQLite's
+ * own insert work dominates, as with random primary keys, that can well be a single row.
+ */
+public class MultiRowInserter implements AutoCloseable {
+
+    /**
+     * Binds the values of one row.
+     */
+    public interface RowBinder {
+
+        /**
+         * @param statement The statement being filled.
+         * @param parameter The index of the row's first parameter.
+         * @param row       The row to bind.
+         * @throws SQLException If an SQL exception occurs.
+         */
+        void bind(PreparedStatement statement, int parameter, int row) throws SQLException;
+    }
+
+    private static final int INITIAL_ROWS = 1;
+    private static final int GROWTH = 4;
+    private static final int MAX_ROWS = 4096;
+    private static final int WINDOW_ROWS = 8192;
+    private static final int BATCH_ROWS = 1000;
+    private static final double MIN_IMPROVEMENT = 1.03;
+
+    /**
+     * SQLite's compiled-in variable limit before 3.32, used if the connection cannot report it.
+     */
+    private static final int DEFAULT_VARIABLE_LIMIT = 999;
+
+    private final Connection connection;
+    private final String prefix;
+    private final String tuple;
+    private final int columnCount;
+    private final int maxRows;
+    private final Map<Integer, PreparedStatement> statements = new HashMap<>();
+
+    private int statementRows = INITIAL_ROWS;
+    private boolean settled;
+    private int batchedRows;
+
+    private long rowCount;
+    private long statementCount;
+    private long elapsedNanos;
+
+    /**
+     * @param connection The database connection.
+     * @param table      The table to insert into.
+     * @param columns    The columns each row binds, in order.
+     * @throws SQLException If an SQL exception occurs.
+     */
+    public MultiRowInserter(Connection connection, String table, String[] columns) throws SQLException {
+        this.connection = connection;
+        this.columnCount = columns.length;
+        this.prefix = "INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES ";
+        StringBuilder tuple = new StringBuilder("(");
+        for (int c = 0; c < columns.length; c++) {
+            tuple.append(c == 0 ? "?" : ", ?");
+        }
+        this.tuple = tuple.append(')').toString();
+
+        int rowsWithinLimit = Math.max(1, variableLimit(connection) / columnCount);
+        this.maxRows = Math.min(MAX_ROWS, Integer.highestOneBit(rowsWithinLimit));
+        this.statementRows = Math.min(statementRows, maxRows);
+    }
+
+    /**
+     * Inserts rows 0 to rows - 1, in order.
+     *
+     * @param rows   The number of rows.
+     * @param binder Binds each row.
+     * @return The number of rows inserted.
+     * @throws SQLException If an SQL exception occurs.
+     */
+    public long insert(int rows, RowBinder binder) throws SQLException {
+        long start = System.nanoTime();
+        int row = 0;
+        while (!settled && rows - row >= 3 * WINDOW_ROWS) {
+            // The candidate runs between two windows of the current size so that the slowdown of
+            // a growing table affects both sides of the comparison alike.
+            int candidate = Math.min(maxRows, statementRows * GROWTH);
+            double before = rate(statementRows, row, binder);
+            double trial = rate(candidate, row + WINDOW_ROWS, binder);
+            double after = rate(statementRows, row + 2 * WINDOW_ROWS, binder);
+            row += 3 * WINDOW_ROWS;
+            if (trial > (before + after) / 2 * MIN_IMPROVEMENT) {
+                statementRows = candidate;
+                settled = candidate == maxRows;
+            } else {
+                settled = true;
+            }
+        }
+        run(statementRows, row, rows, binder);
+        rowCount += rows;
+        elapsedNanos += System.nanoTime() - start;
+        return rows;
+    }
+
+    private double rate(int size, int from, RowBinder binder) throws SQLException {
+        long start = System.nanoTime();
+        run(size, from, from + WINDOW_ROWS, binder);
+        return WINDOW_ROWS / ((System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Inserts a range of rows with statements of a given size, the remainder in decreasing
+     * powers of two.
+     */
+    private void run(int size, int from, int to, RowBinder binder) throws SQLException {
+        int row = from;
+        for (; to - row >= size; row += size) {
+            execute(size, row, binder);
+        }
+        for (int remainder = Integer.highestOneBit(Math.max(1, to - row)); row < to; remainder >>= 1) {
+            if (to - row >= remainder) {
+                execute(remainder, row, binder);
+                row += remainder;
+            }
+        }
+        flush();
+    }
+
+    private void execute(int size, int firstRow, RowBinder binder) throws SQLException {
+        PreparedStatement statement = statements.get(size);
+        if (statement == null) {
+            StringBuilder sql = new StringBuilder(prefix.length() + size * (tuple.length() + 2)).append(prefix);
+            for (int i = 0; i < size; i++) {
+                sql.append(i == 0 ? "" : ", ").append(tuple);
+            }
+            statement = connection.prepareStatement(sql.toString());
+            statements.put(size, statement);
+        }
+        if (size == 1) {
+            // Single rows go through the driver's batch, which steps them without a round trip each.
+            binder.bind(statement, 1, firstRow);
+            statement.addBatch();
+            if (++batchedRows == BATCH_ROWS) {
+                flush();
+            }
+            return;
+        }
+        flush();
+        for (int i = 0; i < size; i++) {
+            binder.bind(statement, i * columnCount + 1, firstRow + i);
+        }
+        statement.executeUpdate();
+        statementCount++;
+    }
+
+    private void flush() throws SQLException {
+        if (batchedRows > 0) {
+            statements.get(1).executeBatch();
+            statementCount += batchedRows;
+            batchedRows = 0;
+        }
+    }
+
+    private static int variableLimit(Connection connection) {
+        try {
+            return connection.unwrap(SQLiteConnection.class).getDatabase()
+                    .limit(SQLiteLimits.SQLITE_LIMIT_VARIABLE_NUMBER.getId(), -1);
+        } catch (SQLException e) {
+            return DEFAULT_VARIABLE_LIMIT;
+        }
+    }
+
+    /**
+     * @return The rows per statement currently used.
+     */
+    public int getStatementRows() {
+        return statementRows;
+    }
+
+    /**
+     * @return True once the statement size stopped adapting.
+     */
+    public boolean isSettled() {
+        return settled;
+    }
+
+    /**
+     * @return The number of rows inserted.
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return The number of statements executed, counting each row of a driver batch.
+     */
+    public long getStatementCount() {
+        return statementCount;
+    }
+
+    /**
+     * @return The insert throughput in rows per second.
+     */
+    public long getRowsPerSecond() {
+        return elapsedNanos == 0 ? 0 : rowCount * 1_000_000_000L / elapsedNanos;
+    }
+
+    /**
+     * Closes the prepared statements.
+     *
+     * @throws SQLException If an SQL exception occurs.
+     */
+    @Override
+    public void close() throws SQLException {
+        for (PreparedStatement statement : statements.values()) {
+            statement.close();
+        }
+        statements.clear();
+    }
+}
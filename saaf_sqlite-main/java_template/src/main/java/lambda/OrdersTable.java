@@ -0,0 +1,427 @@
+/**
+ * Schema, loading and migration of the SQLite Orders table shared by the Load, Query and TLQ functions.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package lambda;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import org.sqlite.Function;
+
+/**
+ * The OrdersTable class knows the two layouts of the Orders table.
+ *
+ * The text schema is the original one: every column is TEXT, values are stored as written in
+ * output.csv and OrderID is a TEXT primary key. The typed schema stores the numeric columns as
+ * INTEGER and REAL, dates as days since 1970-01-01 and OrderID as INTEGER PRIMARY KEY, i.e. as
+ * the rowid, so aggregates need no text conversion and the primary key needs no separate index.
+ * A database can be migrated from the text to the typed schema in place.
+ *
+ * Either schema can also be bulk loaded: the rows go into an unindexed temporary table with
+ * journaling and syncing off, and the primary key is built in one sorted pass at the end.
+ */
+public class OrdersTable {
+
+    /**
+     * The SQL column names, in the order of the transformed CSV header.
+     */
+    public static final String[] COLUMNS = {
+        "Region", "Country", "ItemType", "SalesChannel", "OrderPriority", "OrderDate", "OrderID",
+        "ShipDate", "UnitsSold", "UnitPrice", "UnitCost", "TotalRevenue", "TotalCost", "TotalProfit",
+        "OrderProcessingTime", "GrossMargin"
+    };
+
+    private static final String[] TYPED_DECLARATIONS = {
+        "TEXT", "TEXT", "TEXT", "TEXT", "TEXT", "INTEGER", "INTEGER PRIMARY KEY",
+        "INTEGER", "INTEGER", "REAL", "REAL", "REAL", "REAL", "REAL",
+        "INTEGER", "REAL"
+    };
+
+    /**
+     * The connection settings used while bulk loading. The page size only takes effect on a new
+     * database file; the cache size is in KiB when negative; the staging table is kept in memory.
+     */
+    private static final String[] BULK_LOAD_PRAGMAS = {
+        "PRAGMA page_size = 8192",
+        "PRAGMA journal_mode = OFF",
+        "PRAGMA synchronous = OFF",
+        "PRAGMA cache_size = -65536",
+        "PRAGMA locking_mode = EXCLUSIVE",
+        "PRAGMA temp_store = MEMORY"
+    };
+
+    private OrdersTable() {
+    }
+
+    /**
+     * Creates the Orders table if it does not exist.
+     *
+     * @param connection The database connection.
+     * @param typed      True for the typed schema, false for the all-TEXT schema.
+     * @throws SQLException If an SQL exception occurs.
+     */
+    public static void create(Connection connection, boolean typed) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate(createSql("Orders", typed, true));
+        }
+    }
+
+    private static String createSql(String table, boolean typed, boolean keyed) {
+        StringBuilder sql = new StringBuilder("CREATE TABLE IF NOT EXISTS ").append(table).append(" (");
+        for (int c = 0; c < COLUMNS.length; c++) {
+            String declaration = typed ? TYPED_DECLARATIONS[c] : "TEXT";
+            if (!keyed) {
+                declaration = declaration.replace(" PRIMARY KEY", "");
+            } else if (!typed && COLUMNS[c].equals("OrderID")) {
+                declaration = "TEXT PRIMARY KEY";
+            }
+            sql.append(c == 0 ? "" : ",").append(COLUMNS[c]).append(' ').append(declaration);
+        }
+        return sql.append(')').toString();
+    }
+
+    /**
+     * @return The single-row INSERT statement binding one parameter per column, in {@link #COLUMNS} order.
+     */
+    public static String insertSql() {
+        StringBuilder sql = new StringBuilder("INSERT INTO Orders (");
+        sql.append(String.join(", ", COLUMNS)).append(") VALUES (");
+        for (int c = 0; c < COLUMNS.length; c++) {
+            sql.append(c == 0 ? "?" : ", ?");
+        }
+        return sql.append(')').toString();
+    }
+
+    /**
+     * Inserts every row of a transformed dataset with multi-row INSERT statements. The caller commits.
+     *
+     * @param connection The database connection, with auto-commit off.
+     * @param dataset    The transformed data.
+     * @param typed      True to bind typed values, false to bind the CSV text of each value.
+     * @return The number of rows inserted.
+     * @throws SQLException If an SQL exception occurs.
+     */
+    public static long insert(Connection connection, Dataset dataset, boolean typed) throws SQLException {
+        return insert(connection, "Orders", dataset, null, typed);
+    }
+
+    /**
+     * Inserts some rows of a transformed dataset with multi-row INSERT statements. The caller commits.
+     *
+     * @param connection The database connection, with auto-commit off.
+     * @param dataset    The transformed data.
+     * @param rows       The indexes of the rows to insert.
+     * @param typed      True to bind typed values, false to bind the CSV text of each value.
+     * @return The number of rows inserted.
+     * @throws SQLException If an SQL exception occurs.
+     */
+    public static long insert(Connection connection, Dataset dataset, int[] rows, boolean typed)
+            throws SQLException {
+        return insert(connection, "Orders", dataset, rows, typed);
+    }
+
+    private static long insert(Connection connection, String table, Dataset dataset, int[] rows, boolean typed)
+            throws SQLException {
+        Dataset.Column[] columns = bindColumns(dataset);
+        try (MultiRowInserter inserter = new MultiRowInserter(connection, table, COLUMNS)) {
+            return inserter.insert(rows == null ? dataset.getRowCount() : rows.length, (statement, parameter, i) -> {
+                int row = rows == null ? i : rows[i];
+                for (int c = 0; c < columns.length; c++) {
+                    bind(statement, parameter + c, columns[c], row, typed);
+                }
+            });
+        }
+    }
+
+    /**
+     * Applies the bulk-load settings to a connection. They last until it is closed, so a database
+     * loaded this way is not crash-safe until the connection has committed and closed, and no other
+     * connection can open the file until then.
+     *
+     * @param connection The database connection, before any transaction is started.
+     * @throws SQLException If an SQL exception occurs.
+     */
+    public static void configureBulkLoad(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String pragma : BULK_LOAD_PRAGMAS) {
+                statement.execute(pragma);
+            }
+        }
+    }
+
+    /**
+     * Creates the Orders table if needed and bulk inserts a transformed dataset. The rows are
+     * first inserted into an unindexed temporary table, then copied into Orders sorted by OrderID
+     * so the primary key is built by appending rather than by one random B-tree insert per row.
+     * The caller commits.
+     *
+     * @param connection The database connection, configured by {@link #configureBulkLoad} and
+     *                   with auto-commit off.
+     * @param dataset    The transformed data.
+     * @param typed      True to bind typed values, false to bind the CSV text of each value.
+     * @return The number of rows inserted.
+     * @throws SQLException If an SQL exception occurs.
+     */
+    public static long bulkInsert(Connection connection, Dataset dataset, boolean typed) throws SQLException {
+        return bulkInsert(connection, dataset, null, typed);
+    }
+
+    /**
+     * Bulk inserts some rows of a transformed dataset, as {@link #bulkInsert(Connection, Dataset, boolean)}.
+     *
+     * @param connection The database connection, configured by {@link #configureBulkLoad} and
+     *                   with auto-commit off.
+     * @param dataset    The transformed data.
+     * @param rows       The indexes of the rows to insert, in order, or null for all rows.
+     * @param typed      True to bind typed values, false to bind the CSV text of each value.
+     * @return The number of rows inserted.
+     * @throws SQLException If an SQL exception occurs.
+     */
+    public static long bulkInsert(Connection connection, Dataset dataset, int[] rows, boolean typed)
+            throws SQLException {
+        return loadThroughStaging(connection, dataset, rows, typed, "INSERT", "");
+    }
+
+    /**
+     * Merges a transformed dataset into an existing Orders table, keyed on OrderID, through the
+     * same staging table as {@link #bulkInsert}. Rows whose OrderID is already stored are either
+     * left as stored or replaced column by column. The caller commits.
+     *
+     * @param connection The database connection, with auto-commit off.
+     * @param dataset    The new data.
+     * @param typed      True if the table uses the typed schema.
+     * @param upsert     True to overwrite stored rows with new values, false to keep stored rows.
+     * @return The number of rows inserted or, with upsert, inserted or changed.
+     * @throws SQLException If an SQL exception occurs.
+     */
+    public static long merge(Connection connection, Dataset dataset, boolean typed, boolean upsert)
+            throws SQLException {
+        if (!upsert) {
+            return loadThroughStaging(connection, dataset, null, typed, "INSERT OR IGNORE", "");
+        }
+        // Rows that are stored unchanged are not rewritten, so they are not counted either.
+        StringBuilder update = new StringBuilder(" ON CONFLICT(OrderID) DO UPDATE SET ");
+        StringBuilder changed = new StringBuilder(" WHERE ");
+        for (int c = 0, n = 0; c < COLUMNS.length; c++) {
+            if (!COLUMNS[c].equals("OrderID")) {
+                update.append(n == 0 ? "" : ", ").append(COLUMNS[c]).append(" = excluded.").append(COLUMNS[c]);
+                changed.append(n == 0 ? "" : " OR ").append(COLUMNS[c]).append(" IS NOT excluded.").append(COLUMNS[c]);
+                n++;
+            }
+        }
+        return loadThroughStaging(connection, dataset, null, typed, "INSERT", update.append(changed).toString());
+    }
+
+    private static long loadThroughStaging(Connection connection, Dataset dataset, int[] rows, boolean typed,
+            String insert, String conflict) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DROP TABLE IF EXISTS temp.Orders_load");
+            statement.executeUpdate(createSql("temp.Orders_load", typed, false));
+            insert(connection, "temp.Orders_load", dataset, rows, typed);
+
+            statement.executeUpdate(createSql("Orders", typed, true));
+            // SQLite needs a WHERE before an upsert clause on INSERT ... SELECT to parse it.
+            String where = conflict.isEmpty() ? "" : " WHERE true";
+            long changes = statement.executeUpdate(insert + " INTO Orders (" + String.join(", ", COLUMNS)
+                    + ") SELECT " + String.join(", ", COLUMNS) + " FROM temp.Orders_load" + where
+                    + " ORDER BY OrderID" + conflict);
+            statement.executeUpdate("DROP TABLE temp.Orders_load");
+            return changes;
+        }
+    }
+
+    /**
+     * Resolves the dataset column holding each SQL column, by header name without spaces.
+     *
+     * @param dataset The transformed data.
+     * @return The dataset columns, in {@link #COLUMNS} order.
+     */
+    public static Dataset.Column[] bindColumns(Dataset dataset) {
+        Dataset.Column[] columns = new Dataset.Column[COLUMNS.length];
+        for (String name : dataset.getNames()) {
+            String column = name.replace(" ", "");
+            for (int c = 0; c < COLUMNS.length; c++) {
+                if (COLUMNS[c].equals(column)) {
+                    columns[c] = dataset.getColumn(name);
+                }
+            }
+        }
+        for (int c = 0; c < COLUMNS.length; c++) {
+            if (columns[c] == null) {
+                throw new IllegalArgumentException("The data has no column for " + COLUMNS[c]);
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Binds one value of a row.
+     *
+     * @param statement The statement being filled.
+     * @param index     The parameter index.
+     * @param column    The dataset column, from {@link #bindColumns}.
+     * @param row       The row.
+     * @param typed     True to bind the typed value, false to bind its CSV text.
+     * @throws SQLException If an SQL exception occurs.
+     */
+    public static void bind(PreparedStatement statement, int index, Dataset.Column column, int row, boolean typed)
+            throws SQLException {
+        if (!typed) {
+            statement.setString(index, column.format(row));
+            return;
+        }
+        if (column.isMissing(row)) {
+            statement.setNull(index, Types.NULL);
+            return;
+        }
+        switch (column.getType()) {
+            case DATE:
+                statement.setInt(index, ((Dataset.DateColumn) column).get(row));
+                break;
+            case INTEGER:
+                statement.setLong(index, ((Dataset.IntegerColumn) column).get(row));
+                break;
+            case REAL:
+                // Rounded as its CSV text is, so a typed load matches a load of the CSV
+                statement.setDouble(index, Dataset.roundDecimal(((Dataset.RealColumn) column).get(row)));
+                break;
+            default:
+                statement.setString(index, ((Dataset.TextColumn) column).get(row));
+                break;
+        }
+    }
+
+    /**
+     * @param connection The database connection.
+     * @return True if the database has an Orders table.
+     * @throws SQLException If an SQL exception occurs.
+     */
+    public static boolean exists(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet tables = statement.executeQuery(
+                     "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'Orders'")) {
+            return tables.next();
+        }
+    }
+
+    /**
+     * Tells whether an existing Orders table uses the typed schema.
+     *
+     * @param connection The database connection.
+     * @return True if OrderID is declared INTEGER.
+     * @throws SQLException If an SQL exception occurs.
+     */
+    public static boolean isTyped(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet columns = statement.executeQuery("PRAGMA table_info(Orders)")) {
+            while (columns.next()) {
+                if (columns.getString("name").equals("OrderID")) {
+                    return columns.getString("type").equalsIgnoreCase("INTEGER");
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tells whether a column holds dates, which the typed schema stores as epoch days.
+     *
+     * @param column The SQL column name.
+     * @return True for OrderDate and ShipDate.
+     */
+    public static boolean isDateColumn(String column) {
+        return column.equals("OrderDate") || column.equals("ShipDate");
+    }
+
+    /**
+     * Renders a filter value as an SQL literal for a column. Dates become epoch days in the typed
+     * schema so a filter written as in the CSV still matches.
+     *
+     * @param column The SQL column name.
+     * @param value  The filter value as written in the CSV.
+     * @param typed  True if the table uses the typed schema.
+     * @return The SQL literal.
+     */
+    public static String literal(String column, String value, boolean typed) {
+        if (typed && isDateColumn(column)) {
+            int epochDay = new DateParser().parse(value);
+            if (epochDay != DateParser.INVALID) {
+                return Integer.toString(epochDay);
+            }
+        }
+        return "'" + value.replace("'", "''") + "'";
+    }
+
+    /**
+     * Converts an all-TEXT Orders table to the typed schema in place and compacts the file.
+     * Does nothing if there is no table or it is already typed.
+     *
+     * @param connection The database connection, with auto-commit on.
+     * @return The number of rows migrated.
+     * @throws SQLException If an SQL exception occurs; the table is then left unchanged.
+     */
+    public static long migrateToTyped(Connection connection) throws SQLException {
+        if (!exists(connection) || isTyped(connection)) {
+            return 0;
+        }
+        // Dates are parsed by the same code as the CSV loader, exposed to SQL as epoch_day(text).
+        Function.create(connection, "epoch_day", new Function() {
+            private final DateParser parser = new DateParser();
+
+            @Override
+            protected void xFunc() throws SQLException {
+                String text = value_text(0);
+                int epochDay = text == null ? DateParser.INVALID : parser.parse(text);
+                if (epochDay == DateParser.INVALID) {
+                    result();
+                } else {
+                    result(epochDay);
+                }
+            }
+        });
+
+        StringBuilder select = new StringBuilder("INSERT INTO Orders_typed SELECT ");
+        for (int c = 0; c < COLUMNS.length; c++) {
+            String column = COLUMNS[c];
+            String value;
+            if (isDateColumn(column)) {
+                value = "epoch_day(" + column + ")";
+            } else if (TYPED_DECLARATIONS[c].startsWith("TEXT")) {
+                value = column;
+            } else {
+                String type = TYPED_DECLARATIONS[c].startsWith("REAL") ? "REAL" : "INTEGER";
+                value = "CAST(NULLIF(" + column + ", '') AS " + type + ")";
+            }
+            select.append(c == 0 ? "" : ", ").append(value);
+        }
+        select.append(" FROM Orders");
+
+        long rows;
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DROP TABLE IF EXISTS Orders_typed");
+            statement.executeUpdate(createSql("Orders_typed", true, true));
+            rows = statement.executeUpdate(select.toString());
+            statement.executeUpdate("DROP TABLE Orders");
+            statement.executeUpdate("ALTER TABLE Orders_typed RENAME TO Orders");
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        if (autoCommit) {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("VACUUM");
+            }
+        }
+        return rows;
+    }
+}
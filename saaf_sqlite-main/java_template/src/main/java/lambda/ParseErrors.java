@@ -0,0 +1,122 @@
+/**
+ * Counts malformed input values instead of printing a stack trace for each one.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package lambda;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import saaf.Inspector;
+
+/**
+ * The ParseErrors class is the error channel for values that cannot be parsed. It keeps a total,
+ * a count per column and the first few offending values so a bad file can be diagnosed from the
+ * function output without flooding the logs.
+ */
+public class ParseErrors {
+
+    private static final int MAX_SAMPLES = 10;
+
+    private final Map<String, Long> countsByColumn = new LinkedHashMap<>();
+    private final List<Sample> samples = new ArrayList<>();
+    private long count;
+
+    /**
+     * Records a malformed value.
+     *
+     * @param column The column name.
+     * @param row    The row number in the parsed input.
+     * @param value  The offending value.
+     */
+    public void record(String column, long row, String value) {
+        count++;
+        countsByColumn.merge(column, 1L, Long::sum);
+        if (samples.size() < MAX_SAMPLES) {
+            samples.add(new Sample(column, row, value));
+        }
+    }
+
+    /**
+     * Adds the errors recorded by another channel, e.g. one per parallel range.
+     *
+     * @param other The other channel.
+     */
+    public void addAll(ParseErrors other) {
+        count += other.count;
+        other.countsByColumn.forEach((column, n) -> countsByColumn.merge(column, n, Long::sum));
+        for (Sample sample : other.samples) {
+            if (samples.size() < MAX_SAMPLES) {
+                samples.add(new Sample(sample.column, sample.row, sample.value));
+            }
+        }
+    }
+
+    /**
+     * Shifts the row numbers of the samples, for errors recorded by a parser that started counting
+     * part-way through the input, e.g. at a byte range.
+     *
+     * @param offset The row number in the whole input of the parser's row 0.
+     */
+    public void offsetRows(long offset) {
+        for (Sample sample : samples) {
+            sample.row += offset;
+        }
+    }
+
+    /**
+     * Adds the total to the function output, with the counts per column and the samples if any.
+     *
+     * @param inspector The inspector receiving parseErrors, parseErrorsByColumn and parseErrorSamples.
+     */
+    public void report(Inspector inspector) {
+        inspector.addAttribute("parseErrors", count);
+        if (count > 0) {
+            inspector.addAttribute("parseErrorsByColumn", countsByColumn);
+            inspector.addAttribute("parseErrorSamples", getSamples());
+        }
+    }
+
+    /**
+     * @return The total number of malformed values.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return The number of malformed values per column.
+     */
+    public Map<String, Long> getCountsByColumn() {
+        return countsByColumn;
+    }
+
+    /**
+     * @return The first malformed values, as column@row='value'.
+     */
+    public List<String> getSamples() {
+        List<String> formatted = new ArrayList<>(samples.size());
+        for (Sample sample : samples) {
+            formatted.add(sample.column + "@" + sample.row + "='" + sample.value + "'");
+        }
+        return formatted;
+    }
+
+    /**
+     * One malformed value and where it was found.
+     */
+    private static class Sample {
+
+        private final String column;
+        private long row;
+        private final String value;
+
+        Sample(String column, long row, String value) {
+            this.column = column;
+            this.row = row;
+            this.value = value;
+        }
+    }
+}
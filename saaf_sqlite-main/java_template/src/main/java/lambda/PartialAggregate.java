@@ -0,0 +1,132 @@
+/**
+ * One requested aggregation computed as partial results that can be merged across databases.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package lambda;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The PartialAggregate class rewrites an aggregation such as avg(GrossMargin) into the columns
+ * each partition has to return, and folds the partition rows into the final value.
+ *
+ * sum, total and count add up; min and max keep the extreme; avg is returned by each partition
+ * as a sum and a count and divided only at the end, since an average of averages is wrong when
+ * partitions differ in size. As for a single database read with getDouble, an aggregate over no
+ * rows is 0.
+ */
+public class PartialAggregate {
+
+    private static final Pattern AGGREGATION =
+            Pattern.compile("\\s*(avg|sum|total|count|min|max)\\s*\\(\\s*(\\*|\\w+)\\s*\\)\\s*", Pattern.CASE_INSENSITIVE);
+
+    private final String aggregation;
+    private final String function;
+    private final String argument;
+
+    private double value;
+    private long count;
+    private boolean seen;
+
+    private PartialAggregate(String aggregation, String function, String argument) {
+        this.aggregation = aggregation;
+        this.function = function;
+        this.argument = argument;
+    }
+
+    /**
+     * @param aggregation The aggregation as requested, like "avg(GrossMargin)".
+     * @return The aggregation ready to collect partial results.
+     * @throws IllegalArgumentException If the aggregation is not one function of a column or *.
+     */
+    public static PartialAggregate parse(String aggregation) {
+        Matcher matcher = AGGREGATION.matcher(aggregation);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Cannot merge the aggregation " + aggregation + " across partitions");
+        }
+        String function = matcher.group(1).toLowerCase(Locale.ROOT);
+        if (matcher.group(2).equals("*") && !function.equals("count")) {
+            throw new IllegalArgumentException("Cannot merge the aggregation " + aggregation + " across partitions");
+        }
+        return new PartialAggregate(aggregation, function, matcher.group(2));
+    }
+
+    /**
+     * @return The aggregation as requested, the key of its result.
+     */
+    public String getAggregation() {
+        return aggregation;
+    }
+
+    /**
+     * @return The aggregate function in lower case: avg, sum, total, count, min or max.
+     */
+    public String getFunction() {
+        return function;
+    }
+
+    /**
+     * @return The aggregated column, or * for count(*).
+     */
+    public String getArgument() {
+        return argument;
+    }
+
+    /**
+     * @return The SQL expressions each partition returns for this aggregation.
+     */
+    public List<String> getPartialColumns() {
+        List<String> columns = new ArrayList<>();
+        if (function.equals("avg")) {
+            columns.add("sum(" + argument + ")");
+            columns.add("count(" + argument + ")");
+        } else {
+            columns.add((function.equals("total") ? "sum" : function) + "(" + argument + ")");
+        }
+        return columns;
+    }
+
+    /**
+     * Folds in the partial result of one partition.
+     *
+     * @param row    The partition's result row, null where SQL returned NULL.
+     * @param column The index of the first of {@link #getPartialColumns()} in the row.
+     */
+    public void add(Double[] row, int column) {
+        if (row[column] == null) {
+            return;
+        }
+        double partial = row[column];
+        switch (function) {
+            case "avg":
+                value += partial;
+                count += row[column + 1].longValue();
+                break;
+            case "min":
+                value = seen ? Math.min(value, partial) : partial;
+                break;
+            case "max":
+                value = seen ? Math.max(value, partial) : partial;
+                break;
+            default:
+                value += partial;
+                break;
+        }
+        seen = true;
+    }
+
+    /**
+     * @return The merged value.
+     */
+    public double getResult() {
+        if (function.equals("avg")) {
+            return count == 0 ? 0 : value / count;
+        }
+        return value;
+    }
+}
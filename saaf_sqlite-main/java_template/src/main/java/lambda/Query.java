@@ -13,18 +13,20 @@ import com.amazonaws.services.lambda.runtime.LambdaLogger;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
-import com.amazonaws.services.s3.model.GetObjectRequest;
-import com.amazonaws.services.s3.model.S3Object;
 import java.io.File;
-import java.io.InputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import org.sqlite.SQLiteConfig;
 import saaf.Inspector;
 
 /**
@@ -32,9 +34,19 @@ import saaf.Inspector;
  */
 public class Query implements RequestHandler<Request, HashMap<String, Object>> {
 
+    // The number of query shapes whose statements stay prepared
+    private static final int MAX_STATEMENTS = 64;
+
+    // Kept open across warm invocations, together with the ETag of the /tmp copy it reads
+    private static Connection connection;
+    private static StatementCache statements;
+    private static String databaseETag;
+    // Orders copied into arrays for the columnar engine, loaded on first use and dropped with the connection
+    private static ColumnarEngine engine;
+
     // Instance variables
-    Connection connection;
     String bucketname;
+    AmazonS3 s3Client;
 
     /**
      * Handles Lambda function requests.
@@ -45,14 +57,25 @@ public class Query implements RequestHandler<Request, HashMap<String, Object>> {
      */
     @Override
     public HashMap<String, Object> handleRequest(Request request, Context context) {
+        long start = System.nanoTime();
         Inspector inspector = new Inspector();
         inspector.inspectAll();
+        boolean warm = connection != null;
 
         bucketname = request.getBucketname();
+        s3Client = AmazonS3ClientBuilder.standard().build();
 
-        downloadDbFileFromS3();
-
-        Map<String, Object> service3Response = processService3Request(request);
+        Map<String, Object> service3Response;
+        if (request.getShardBy() != null) {
+            service3Response = processShardedRequest(request);
+        } else if (request.getQueries() != null) {
+            service3Response = processBatchRequest(request, inspector);
+        } else {
+            service3Response = processCachedRequest(request, inspector);
+        }
+        if (request.isRecordWorkload()) {
+            recordWorkload(request);
+        }
 
         LambdaLogger logger = context.getLogger();
 
@@ -60,112 +83,319 @@ public class Query implements RequestHandler<Request, HashMap<String, Object>> {
             inspector.addAttribute(key, service3Response.get(key));
             System.out.println(key + ": " + service3Response.get(key));
         }
+        inspector.addAttribute("connectionReused", warm);
+        inspector.addAttribute(warm ? "warmRequestMs" : "coldRequestMs", (System.nanoTime() - start) / 1_000_000);
 
         return inspector.finish();
     }
 
     /**
-     * Downloads the SQLite database file from the specified S3 bucket and saves it to /tmp directory.
+     * Brings the copy of the SQLite database in /tmp up to date with the one in the S3 bucket. A
+     * warm container sends a conditional GET with the ETag of its copy and keeps it when the object
+     * is unchanged; otherwise the database is downloaded next to the copy, decompressed on the way
+     * if it was published compressed, and moved over it once the open connection is closed.
+     *
+     * @param inspector The inspector receiving download statistics.
+     * @return The ETag of the copy in /tmp, or null if there is none.
      */
-    private void downloadDbFileFromS3() {
+    private String downloadDbFileFromS3(Inspector inspector) {
         String key = "sales.db";
+        File databaseFile = new File("/tmp/sales.db");
+        File downloadFile = new File("/tmp/sales.db.download");
 
         try {
-            // Download the object
-            AmazonS3 s3Client = AmazonS3ClientBuilder.standard().build();
-
-            S3Object s3Object = s3Client.getObject(new GetObjectRequest(bucketname, key));
-            InputStream objectData = s3Object.getObjectContent();
-
-            // Specify an absolute path for the target file in /tmp
-            java.nio.file.Path targetPath = java.nio.file.Paths.get("/tmp/sales.db");
-
-            // Copy the input stream to the target path
-            java.nio.file.Files.copy(objectData, targetPath);
-
-            // Close the input stream
-            objectData.close();
+            String current = databaseFile.exists() ? databaseETag : null;
+            String eTag = DatabaseSnapshot.download(s3Client, bucketname, key, downloadFile, current, inspector);
+            inspector.addAttribute("dbDownloaded", eTag != null);
+            if (eTag != null) {
+                closeConnection();
+                Files.move(downloadFile.toPath(), databaseFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                databaseETag = eTag;
+            }
         } catch (Exception e) {
             System.out.println("Failed to download the database");
             e.printStackTrace();
             // Handle exceptions appropriately
         }
+        return databaseFile.exists() ? databaseETag : null;
+    }
+
+    /**
+     * Returns the read-only connection to /tmp/sales.db, opening it with an empty statement cache
+     * on the first invocation of the container and after the database is replaced.
+     *
+     * @param inspector The inspector receiving the connection time.
+     * @return The connection.
+     * @throws ClassNotFoundException If the SQLite driver is missing.
+     * @throws SQLException           If the database cannot be opened.
+     */
+    private static synchronized Connection openConnection(Inspector inspector)
+            throws ClassNotFoundException, SQLException {
+        if (connection == null) {
+            long start = System.nanoTime();
+            Class.forName("org.sqlite.JDBC");
+            SQLiteConfig config = new SQLiteConfig();
+            config.setReadOnly(true);
+            connection = DriverManager.getConnection("jdbc:sqlite:/tmp/sales.db", config.toProperties());
+            connection.setAutoCommit(false);
+            statements = new StatementCache(connection, MAX_STATEMENTS);
+            inspector.addAttribute("connectMs", (System.nanoTime() - start) / 1_000_000);
+        }
+        return connection;
+    }
+
+    /**
+     * Closes the read-only connection, if open, so the next invocation opens a new one.
+     */
+    private static synchronized void closeConnection() {
+        if (connection != null) {
+            statements.close();
+            statements = null;
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                System.out.println("Failed to close the database connection");
+                e.printStackTrace();
+            }
+            connection = null;
+            engine = null;
+        }
+    }
+
+    /**
+     * Returns the columnar engine over the database of the open connection, reading Orders into
+     * it, with its bitmap indexes, on the first columnar query of the container and after the
+     * database is replaced.
+     *
+     * @param connection The open connection.
+     * @param inspector  The inspector receiving the load time, row count and bitmap memory use.
+     * @return The engine.
+     * @throws SQLException If Orders cannot be read.
+     */
+    private static synchronized ColumnarEngine openEngine(Connection connection, Inspector inspector)
+            throws SQLException {
+        if (engine == null) {
+            long start = System.nanoTime();
+            engine = ColumnarEngine.load(connection);
+            inspector.addAttribute("engineLoadMs", (System.nanoTime() - start) / 1_000_000);
+            inspector.addAttribute("engineRows", engine.getRowCount());
+            BitmapIndex bitmaps = engine.getBitmapIndex();
+            inspector.addAttribute("bitmapColumns", bitmaps != null ? bitmaps.getColumns() : new ArrayList<String>());
+            inspector.addAttribute("bitmapBytes", bitmaps != null ? bitmaps.sizeInBytes() : 0L);
+        }
+        return engine;
     }
 
     /**
      * Processes the Service 3 request by executing the SQL query and generating a response.
      *
-     * @param request The request object containing filters and aggregations.
+     * @param request   The request object containing filters and aggregations.
+     * @param inspector The inspector receiving the connection time.
      * @return A map containing the response with aggregated values.
      */
-    private Map<String, Object> processService3Request(Request request) {
+    private Map<String, Object> processService3Request(Request request, Inspector inspector) {
         Map<String, Object> response = new HashMap<>();
         // Extract filters and aggregations from the JSON request
         Map<String, String> filters = request.getFilters();
         List<String> aggregations = request.getAggregations();
-        // Build SQL query dynamically based on filters and aggregations
-        String sql = buildSQLQuery(filters, aggregations);
 
         // Execute the SQL query
 
         try {
-            File databaseFile = new File("/tmp/sales.db");
-
-            Class.forName("org.sqlite.JDBC");
-            String dbUrl = "jdbc:sqlite:" + databaseFile.getAbsolutePath();
-
-            // Establish the database connection
-            connection = DriverManager.getConnection(dbUrl);
-            connection.setAutoCommit(false);
-            try (Statement statement = connection.createStatement();
-                 ResultSet resultSet = statement.executeQuery(sql)) {
+            // Reuse the connection of earlier invocations, or establish it
+            Connection connection = openConnection(inspector);
 
-                // Process the query results and create a response
-                while (resultSet.next()) {
-                    // Process each row and create a JSON object for the response
+            // Validate the filters, aggregations and grouping and build the SQL of their shape, reading
+            // a rollup instead of Orders when one covers them; the values are bound, not pasted in
+            AggregationQuery query = AggregationQuery.of(filters, aggregations, request.getGroupBy(),
+                    request.getOrderBy(), request.getLimit());
+            boolean typed = OrdersTable.isTyped(connection);
+            String rollup = Rollups.choose(connection, query);
+            String engineName = request.getEngine() != null ? request.getEngine() : "sqlite";
+            if (!engineName.equals("sqlite") && !engineName.equals("columnar")) {
+                throw new IllegalArgumentException("Unknown query engine " + engineName);
+            }
 
-                    // Process each aggregation and add it to the response map
-                    for (String aggregation : aggregations) {
-                        // Get the value from the result set using the aggregation name
-                        double value = resultSet.getDouble(aggregation);
-                        // Add the value to the response map
-                        response.put(aggregation, value);
-                    }
+            // A rollup is smaller than any copy of Orders; otherwise the columnar engine answers
+            // the shapes it handles, and SQLite the rest
+            double[] values = null;
+            long start = System.currentTimeMillis();
+            if (engineName.equals("columnar") && rollup == null && typed) {
+                ColumnarEngine columnar = openEngine(connection, inspector);
+                start = System.currentTimeMillis();
+                values = columnar.run(query, response);
+            }
+            if (values != null) {
+                query.read(values, response);
+                response.put("queryEngine", "columnar");
+            } else {
+                String sql = rollup != null ? Rollups.sql(rollup, query) : query.sql();
+                response.put("queryRollup", rollup != null ? rollup : "none");
+                StatementCache.Entry prepared = statements.prepare(sql);
+                response.put("queryPlan", prepared.getPlan());
+                response.put("queryIndex", IndexAdvisor.indexUsed(prepared.getPlan()));
+                start = System.currentTimeMillis();
+                PreparedStatement statement = prepared.getStatement();
+                query.bind(statement, typed);
+                try (ResultSet resultSet = statement.executeQuery()) {
 
+                    // Process the query results: each aggregation, or the groups as arrays, into the response map
+                    query.readAll(resultSet, typed, response);
                 }
+                response.put("queryEngine", "sqlite");
             }
+            response.put("queryMs", System.currentTimeMillis() - start);
+            statements.report(response);
             connection.commit();
+        } catch (IllegalArgumentException e) {
+            System.out.println("Failed to validate the query: " + e.getMessage());
+            response.put("queryError", e.getMessage());
         } catch (ClassNotFoundException | SQLException e) {
             e.printStackTrace();
+            closeConnection();
         }
 
         return response;
     }
 
     /**
-     * Builds the SQL query dynamically based on filters and aggregations.
+     * Brings the database in /tmp up to date, then answers the Service 3 request from the result
+     * cache when the same filters and aggregations were already queried against this version of
+     * sales.db, and otherwise runs the query and caches its result.
+     *
+     * @param request   The request object containing filters and aggregations.
+     * @param inspector The inspector receiving download and connection statistics.
+     * @return A map containing the response with aggregated values.
+     */
+    private Map<String, Object> processCachedRequest(Request request, Inspector inspector) {
+        String etag = downloadDbFileFromS3(inspector);
+        // Grouped results are not cached, the cache holds one value per aggregation
+        int maxEntries = request.getResultCacheEntries();
+        boolean grouped = request.getGroupBy() != null && !request.getGroupBy().isEmpty();
+        String key = maxEntries > 0 && etag != null && !grouped
+                ? QueryResultCache.key(etag, request.getFilters(), request.getAggregations()) : null;
+
+        Map<String, Object> response = key != null
+                ? QueryResultCache.get(key, request.getAggregations(), maxEntries) : null;
+        if (response == null) {
+            response = processService3Request(request, inspector);
+            if (key != null) {
+                QueryResultCache.put(key, response, request.getAggregations(), maxEntries);
+            }
+            response.put("resultCache", key != null ? "miss" : "off");
+        }
+        QueryResultCache.report(response);
+        return response;
+    }
+
+    /**
+     * Processes a batch request: brings the database in /tmp up to date, takes the queries it can
+     * from the result cache and answers the rest together, sharing a pass over Orders among the
+     * queries of one shape.
      *
-     * @param filters      The map containing filters.
-     * @param aggregations The list containing aggregations.
-     * @return The dynamically generated SQL query.
+     * @param request   The request object containing the queries.
+     * @param inspector The inspector receiving download and connection statistics.
+     * @return A map containing the result of each query under "queries", in order, and batch statistics.
      */
-    private String buildSQLQuery(Map<String, String> filters, List<String> aggregations) {
-        // Build the SQL query dynamically based on filters and aggregations
-        StringBuilder sqlBuilder = new StringBuilder("SELECT ");
-        for (String aggregation : aggregations) {
-            sqlBuilder.append(aggregation).append(", ");
+    private Map<String, Object> processBatchRequest(Request request, Inspector inspector) {
+        Map<String, Object> response = new HashMap<>();
+        String etag = downloadDbFileFromS3(inspector);
+        int maxEntries = request.getResultCacheEntries();
+        List<BatchQuery> queries = request.getQueries();
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        List<BatchQuery> misses = new ArrayList<>();
+        List<Integer> missed = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        for (int q = 0; q < queries.size(); q++) {
+            BatchQuery query = queries.get(q);
+            String key = maxEntries > 0 && etag != null && query.getFilters() != null && query.getAggregations() != null
+                    ? QueryResultCache.key(etag, query.getFilters(), query.getAggregations()) : null;
+            Map<String, Object> cached = key != null
+                    ? QueryResultCache.get(key, query.getAggregations(), maxEntries) : null;
+            results.add(cached != null ? cached : new HashMap<>());
+            if (cached == null) {
+                misses.add(query);
+                missed.add(q);
+                keys.add(key);
+            }
         }
-        // Remove the trailing comma
-        sqlBuilder.delete(sqlBuilder.length() - 2, sqlBuilder.length());
-        sqlBuilder.append(" FROM Orders WHERE ");
-        for (Map.Entry<String, String> filter : filters.entrySet()) {
-            sqlBuilder.append(filter.getKey()).append("='").append(filter.getValue()).append("' AND ");
+
+        try {
+            Connection connection = openConnection(inspector);
+            List<Map<String, Object>> answered = QueryBatch.run(connection, statements, misses,
+                    OrdersTable.isTyped(connection), response);
+            for (int m = 0; m < answered.size(); m++) {
+                Map<String, Object> result = answered.get(m);
+                String key = keys.get(m);
+                if (key != null && !result.containsKey("queryError")) {
+                    QueryResultCache.put(key, result, misses.get(m).getAggregations(), maxEntries);
+                }
+                result.put("resultCache", key != null ? "miss" : "off");
+                results.set(missed.get(m), result);
+            }
+            statements.report(response);
+            connection.commit();
+        } catch (ClassNotFoundException | SQLException e) {
+            e.printStackTrace();
+            closeConnection();
         }
-        // Remove the trailing "AND"
-        sqlBuilder.delete(sqlBuilder.length() - 5, sqlBuilder.length());
-        sqlBuilder.append(";");
+        response.put("queries", results);
+        QueryResultCache.report(response);
+        return response;
+    }
 
-        return sqlBuilder.toString();
+    /**
+     * Processes the Service 3 request against the shards of the request's shard column, opening
+     * only the shard a filter on that column selects, or all of them in parallel. The shards answer
+     * single queries without grouping on SQLite; a request asking for more is rejected with a
+     * queryError rather than answered without it.
+     *
+     * @param request The request object containing filters, aggregations and the shard column.
+     * @return A map containing the response with aggregated values.
+     */
+    private Map<String, Object> processShardedRequest(Request request) {
+        try {
+            if (request.getQueries() != null) {
+                throw new IllegalArgumentException("Cannot run a batch over shards");
+            }
+            if ((request.getGroupBy() != null && !request.getGroupBy().isEmpty()) || request.getOrderBy() != null
+                    || request.getLimit() != 0) {
+                throw new IllegalArgumentException("Cannot group, order or limit a query over shards");
+            }
+            if (request.getEngine() != null && !request.getEngine().equals("sqlite")) {
+                throw new IllegalArgumentException("Cannot query shards with the " + request.getEngine() + " engine");
+            }
+            Class.forName("org.sqlite.JDBC");
+            return ShardedOrders.query(s3Client, bucketname, request.getShardBy(), request.getFilters(),
+                    request.getAggregations(), request.getLoadThreads());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Failed to validate the query: " + e.getMessage());
+            Map<String, Object> response = new HashMap<>();
+            response.put("queryError", e.getMessage());
+            return response;
+        } catch (ClassNotFoundException | IOException | SQLException e) {
+            System.out.println("Failed to query the shards");
+            e.printStackTrace();
+            return new HashMap<>();
+        }
+    }
+
+    /**
+     * Adds the filter columns of the request, or of each shape in its batch, to the workload log
+     * Load chooses indexes from, when the request opts in. The log is written in the background.
+     * A failure is logged and does not affect the query.
+     *
+     * @param request The request object containing filters.
+     */
+    private void recordWorkload(Request request) {
+        try {
+            WorkloadLog.record(s3Client, bucketname, request);
+        } catch (RuntimeException e) {
+            System.out.println("Failed to record the query workload");
+            e.printStackTrace();
+        }
     }
 
 }
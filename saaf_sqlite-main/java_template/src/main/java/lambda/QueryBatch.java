@@ -0,0 +1,206 @@
+/**
+ * Runs the queries of a batch request, sharing one pass over Orders among queries of the same shape.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package lambda;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The QueryBatch class answers a list of queries on one connection. Queries filtering on the same
+ * columns differ only in their values, so they are answered together by one grouped statement:
+ *
+ * <pre>
+ * SELECT Region, ItemType, &lt;every aggregation of the group&gt; FROM Orders
+ * WHERE (Region, ItemType) IN (VALUES (?, ?), (?, ?), ...) GROUP BY Region, ItemType
+ * </pre>
+ *
+ * which reads each matching row once however many queries want it, and a query takes its values
+ * from the row of its group. A query alone in its shape, or whose shape a rollup covers, runs by
+ * itself, as does a query whose group returned no row, so that it gets the same answer over no
+ * rows as a single query would. Invalid queries are answered with a queryError and do not stop the
+ * others.
+ *
+ * Each result carries queryMs, the time of the statement that answered it, queryPass, the index
+ * of that statement within the batch, and querySharedWith, the number of queries it answered.
+ */
+public class QueryBatch {
+
+    /**
+     * The most distinct filter values one grouped statement binds; larger groups take more passes.
+     */
+    public static final int MAX_GROUP_KEYS = 256;
+
+    private QueryBatch() {
+    }
+
+    /**
+     * Runs a batch.
+     *
+     * @param connection The connection to the database.
+     * @param statements The statement cache of the connection.
+     * @param queries    The queries.
+     * @param typed      True if the Orders table uses the typed schema.
+     * @param stats      Receives batchQueries, batchPasses and batchMs.
+     * @return The result of each query, in order.
+     * @throws SQLException If a statement fails.
+     */
+    public static List<Map<String, Object>> run(Connection connection, StatementCache statements,
+            List<BatchQuery> queries, boolean typed, Map<String, Object> stats) throws SQLException {
+        long start = System.nanoTime();
+        List<Map<String, Object>> results = new ArrayList<>();
+        AggregationQuery[] parsed = new AggregationQuery[queries.size()];
+        Map<List<String>, List<Integer>> shapes = new LinkedHashMap<>();
+        for (int q = 0; q < queries.size(); q++) {
+            Map<String, Object> result = new LinkedHashMap<>();
+            results.add(result);
+            BatchQuery query = queries.get(q);
+            try {
+                parsed[q] = AggregationQuery.of(query.getFilters() != null ? query.getFilters()
+                        : Collections.<String, String>emptyMap(), query.getAggregations());
+                shapes.computeIfAbsent(parsed[q].getColumns(), columns -> new ArrayList<>()).add(q);
+            } catch (IllegalArgumentException e) {
+                result.put("queryError", e.getMessage());
+            }
+        }
+
+        int passes = 0;
+        for (List<Integer> shape : shapes.values()) {
+            List<String> selected = new ArrayList<>();
+            for (int q : shape) {
+                for (String aggregation : parsed[q].getSelected()) {
+                    if (!selected.contains(aggregation)) {
+                        selected.add(aggregation);
+                    }
+                }
+            }
+            selected.sort(null);
+            Map<String, String> filters = queries.get(shape.get(0)).getFilters();
+            String rollup = Rollups.choose(connection, filters != null ? filters
+                    : Collections.<String, String>emptyMap(), selected);
+
+            List<Integer> alone = new ArrayList<>();
+            if (shape.size() == 1 || rollup != null) {
+                alone.addAll(shape);
+            } else {
+                Map<List<String>, List<Integer>> keys = new LinkedHashMap<>();
+                for (int q : shape) {
+                    keys.computeIfAbsent(parsed[q].key(typed), key -> new ArrayList<>()).add(q);
+                }
+                List<List<String>> distinct = new ArrayList<>(keys.keySet());
+                for (int from = 0; from < distinct.size(); from += MAX_GROUP_KEYS) {
+                    List<List<String>> chunk =
+                            distinct.subList(from, Math.min(distinct.size(), from + MAX_GROUP_KEYS));
+                    Map<List<String>, List<Integer>> chunkKeys = new LinkedHashMap<>();
+                    for (List<String> key : chunk) {
+                        chunkKeys.put(key, keys.get(key));
+                    }
+                    grouped(statements, parsed, chunkKeys, selected, typed, passes++, results);
+                    for (List<Integer> unanswered : chunkKeys.values()) {
+                        alone.addAll(unanswered);
+                    }
+                }
+            }
+            for (int q : alone) {
+                single(statements, parsed[q], rollup, typed, passes++, results.get(q));
+            }
+        }
+
+        stats.put("batchQueries", queries.size());
+        stats.put("batchPasses", passes);
+        stats.put("batchMs", (System.nanoTime() - start) / 1_000_000);
+        return results;
+    }
+
+    /**
+     * Answers the queries of one shape with a single grouped statement. The keys whose group
+     * returned a row are removed from keys; what remains is left for {@link #single}.
+     */
+    private static void grouped(StatementCache statements, AggregationQuery[] parsed,
+            Map<List<String>, List<Integer>> keys, List<String> selected, boolean typed, int pass,
+            List<Map<String, Object>> results) throws SQLException {
+        AggregationQuery first = parsed[keys.values().iterator().next().get(0)];
+        List<String> columns = first.getColumns();
+        String columnList = String.join(", ", columns);
+        StringBuilder sql = new StringBuilder("SELECT ");
+        if (!columns.isEmpty()) {
+            sql.append(columnList).append(", ");
+        }
+        sql.append(String.join(", ", selected)).append(" FROM Orders");
+        if (!columns.isEmpty()) {
+            String tuple = columns.size() == 1 ? "?"
+                    : "(" + String.join(", ", Collections.nCopies(columns.size(), "?")) + ")";
+            sql.append(" WHERE ").append(columns.size() == 1 ? columnList : "(" + columnList + ")")
+                    .append(columns.size() == 1 ? " IN (" : " IN (VALUES ")
+                    .append(String.join(", ", Collections.nCopies(keys.size(), tuple)))
+                    .append(") GROUP BY ").append(columnList);
+        }
+
+        long start = System.nanoTime();
+        PreparedStatement statement = statements.prepare(sql.toString()).getStatement();
+        int parameter = 1;
+        for (List<Integer> queries : keys.values()) {
+            parameter = parsed[queries.get(0)].bind(statement, parameter, typed);
+        }
+        Map<List<String>, List<Integer>> answered = new HashMap<>();
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                List<String> key = new ArrayList<>();
+                for (int c = 1; c <= columns.size(); c++) {
+                    key.add(resultSet.getString(c));
+                }
+                List<Integer> queries = keys.remove(key);
+                if (queries == null) {
+                    continue;
+                }
+                answered.put(key, queries);
+                for (int q : queries) {
+                    parsed[q].read(resultSet, selected, columns.size(), results.get(q));
+                }
+            }
+        }
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        int shared = 0;
+        for (List<Integer> queries : answered.values()) {
+            shared += queries.size();
+        }
+        for (List<Integer> queries : answered.values()) {
+            for (int q : queries) {
+                results.get(q).put("queryRollup", "none");
+                results.get(q).put("queryMs", elapsed);
+                results.get(q).put("queryPass", pass);
+                results.get(q).put("querySharedWith", shared);
+            }
+        }
+    }
+
+    /**
+     * Answers one query by itself, over a rollup when one covers its shape.
+     */
+    private static void single(StatementCache statements, AggregationQuery query, String rollup, boolean typed,
+            int pass, Map<String, Object> result) throws SQLException {
+        long start = System.nanoTime();
+        PreparedStatement statement = statements.prepare(rollup != null ? Rollups.sql(rollup, query)
+                : query.sql()).getStatement();
+        query.bind(statement, typed);
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                query.read(resultSet, result);
+            }
+        }
+        result.put("queryRollup", rollup != null ? rollup : "none");
+        result.put("queryMs", (System.nanoTime() - start) / 1_000_000);
+        result.put("queryPass", pass);
+        result.put("querySharedWith", 1);
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ * Per-container cache of query results, on the heap and in /tmp.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package lambda;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The QueryResultCache class keeps the aggregate values of recent queries so that a warm container
+ * answers a repeated request without reading sales.db.
+ *
+ * A result is keyed by the ETag of sales.db and the normalized request: filters sorted by column,
+ * aggregations with whitespace removed, de-duplicated and sorted. A new sales.db therefore never
+ * serves old results; its entries simply stop being used and age out. Both the heap map and the
+ * /tmp directory are LRU with an entry cap. The /tmp copy outlives the handler instance, and on a
+ * heap miss a disk hit is promoted back to the heap. Last-modified times order the files, and a hit
+ * touches its file.
+ */
+public class QueryResultCache {
+
+    /**
+     * The directory holding the cached results, one file per entry.
+     */
+    public static final File DIRECTORY = new File("/tmp/query-cache");
+
+    private static final LinkedHashMap<String, Map<String, Double>> HEAP = new LinkedHashMap<>(16, 0.75f, true);
+    private static long hits;
+    private static long misses;
+
+    private QueryResultCache() {
+    }
+
+    /**
+     * Builds the cache key of a request.
+     *
+     * @param etag         The ETag of the database queried.
+     * @param filters      The filters of the request.
+     * @param aggregations The aggregations of the request.
+     * @return The key.
+     */
+    public static String key(String etag, Map<String, String> filters, List<String> aggregations) {
+        StringBuilder key = new StringBuilder(etag).append('\n');
+        for (Map.Entry<String, String> filter : new TreeMap<>(filters).entrySet()) {
+            key.append(filter.getKey()).append('=').append(filter.getValue()).append('\n');
+        }
+        TreeSet<String> normalized = new TreeSet<>();
+        for (String aggregation : aggregations) {
+            normalized.add(normalize(aggregation));
+        }
+        return key.append(String.join("\n", normalized)).toString();
+    }
+
+    /**
+     * Looks up the result of a request, first on the heap, then in /tmp.
+     *
+     * @param key          The key from {@link #key}.
+     * @param aggregations The aggregations of the request, as the response should name them.
+     * @param maxEntries   The entry cap of each tier.
+     * @return The value of each aggregation and "resultCache" set to "memory" or "disk", or null on a miss.
+     */
+    public static synchronized Map<String, Object> get(String key, List<String> aggregations, int maxEntries) {
+        String tier = "memory";
+        Map<String, Double> values = HEAP.get(key);
+        if (values == null) {
+            tier = "disk";
+            values = readFile(key);
+            if (values != null) {
+                putHeap(key, values, maxEntries);
+            }
+        }
+        if (values == null) {
+            misses++;
+            return null;
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        for (String aggregation : aggregations) {
+            Double value = values.get(normalize(aggregation));
+            if (value == null) {
+                misses++;
+                return null;
+            }
+            response.put(aggregation, value);
+        }
+        hits++;
+        response.put("resultCache", tier);
+        return response;
+    }
+
+    /**
+     * Stores the result of a request in both tiers, evicting the least recently used entries beyond the cap.
+     *
+     * @param key          The key from {@link #key}.
+     * @param response     The response of the query, holding a value for each aggregation.
+     * @param aggregations The aggregations of the request.
+     * @param maxEntries   The entry cap of each tier.
+     */
+    public static synchronized void put(String key, Map<String, Object> response, List<String> aggregations,
+                                        int maxEntries) {
+        Map<String, Double> values = new LinkedHashMap<>();
+        for (String aggregation : aggregations) {
+            Object value = response.get(aggregation);
+            if (!(value instanceof Double)) {
+                return;
+            }
+            values.put(normalize(aggregation), (Double) value);
+        }
+        putHeap(key, values, maxEntries);
+        try {
+            writeFile(key, values);
+            evictFiles(maxEntries);
+        } catch (IOException e) {
+            System.out.println("Failed to write the query result cache");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Adds the container's hit and miss counts and the tier sizes to a response.
+     *
+     * @param response The response.
+     */
+    public static synchronized void report(Map<String, Object> response) {
+        response.put("resultCacheHits", hits);
+        response.put("resultCacheMisses", misses);
+        response.put("resultCacheEntries", HEAP.size());
+        String[] files = DIRECTORY.list();
+        response.put("resultCacheFiles", files == null ? 0 : files.length);
+    }
+
+    /**
+     * Empties the heap tier, as a new container starts. The /tmp tier is kept.
+     */
+    public static synchronized void clearHeap() {
+        HEAP.clear();
+    }
+
+    private static String normalize(String aggregation) {
+        return aggregation.replaceAll("\\s+", "");
+    }
+
+    private static void putHeap(String key, Map<String, Double> values, int maxEntries) {
+        HEAP.put(key, values);
+        while (HEAP.size() > maxEntries) {
+            HEAP.remove(HEAP.keySet().iterator().next());
+        }
+    }
+
+    private static File file(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest) {
+                name.append(String.format("%02x", b));
+            }
+            return new File(DIRECTORY, name.toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads an entry, checking the key stored in it so that a hash collision is a miss.
+     */
+    private static Map<String, Double> readFile(String key) {
+        File file = file(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file.toPath()))) {
+            if (!in.readUTF().equals(key)) {
+                return null;
+            }
+            Map<String, Double> values = new LinkedHashMap<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                values.put(in.readUTF(), in.readDouble());
+            }
+            file.setLastModified(System.currentTimeMillis());
+            return values;
+        } catch (IOException e) {
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Writes an entry to a temporary file and renames it, so readers never see a partial entry.
+     */
+    private static void writeFile(String key, Map<String, Double> values) throws IOException {
+        DIRECTORY.mkdirs();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(key);
+        out.writeInt(values.size());
+        for (Map.Entry<String, Double> value : values.entrySet()) {
+            out.writeUTF(value.getKey());
+            out.writeDouble(value.getValue());
+        }
+        out.flush();
+        File file = file(key);
+        File temporary = new File(DIRECTORY, file.getName() + ".tmp");
+        Files.write(temporary.toPath(), bytes.toByteArray());
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+        }
+    }
+
+    private static void evictFiles(int maxEntries) {
+        File[] files = DIRECTORY.listFiles();
+        if (files == null || files.length <= maxEntries) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < files.length - maxEntries; i++) {
+            files[i].delete();
+        }
+    }
+}
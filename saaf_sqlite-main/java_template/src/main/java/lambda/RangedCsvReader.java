@@ -0,0 +1,393 @@
+/**
+ * Reads a large CSV object from S3 with concurrent byte-range GETs and parses the ranges in parallel.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package lambda;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * The RangedCsvReader class splits an object into fixed-size byte ranges, downloads them
+ * concurrently and parses each range on its own thread.
+ *
+ * Each range owns the records that start inside it: it skips the partial record at its head and
+ * completes its last record with the head of the following range. A range is fetched with the byte
+ * before it, so that one starting right after a line feed knows its first record is whole. Ranges
+ * are therefore aligned on line breaks, which assumes quoted fields do not contain line breaks
+ * (true for our sales files). The first record of the object is the header. Parsed rows go to one sink per range and the sinks
+ * are returned in object order, so callers see rows in exactly the order of a sequential read.
+ *
+ * Downloads run a bounded window ahead of the parsers and each range's bytes are dropped once
+ * parsed, so the raw object is never held whole next to the parsed rows.
+ */
+public class RangedCsvReader implements AutoCloseable {
+
+    /**
+     * The largest range in MB; a range is held in one array, with the byte before it.
+     */
+    public static final int MAX_CHUNK_MB = 1024;
+
+    private final AmazonS3 s3Client;
+    private final int threads;
+    private final int chunkSize;
+    private final ExecutorService downloader;
+    private final ExecutorService parser;
+
+    private ArrayList<String> header;
+    private long rowCount;
+    private long byteCount;
+    private long elapsedMillis;
+
+    /**
+     * Creates a reader.
+     *
+     * @param s3Client  The S3 client used for the ranged GETs.
+     * @param threads   The number of concurrent downloads and parsers.
+     * @param chunkSize The size of each byte range in bytes.
+     */
+    public RangedCsvReader(AmazonS3 s3Client, int threads, int chunkSize) {
+        this.s3Client = s3Client;
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+        this.downloader = Executors.newFixedThreadPool(threads);
+        this.parser = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Converts a range size in MB, as requests give it, to bytes.
+     *
+     * @param chunkMB The size of each byte range in MB.
+     * @return The size in bytes.
+     * @throws IllegalArgumentException If the size is not between 1 and {@link #MAX_CHUNK_MB} MB.
+     */
+    public static int chunkSize(int chunkMB) {
+        if (chunkMB < 1 || chunkMB > MAX_CHUNK_MB) {
+            throw new IllegalArgumentException("Range size " + chunkMB + " MB is not between 1 and " + MAX_CHUNK_MB);
+        }
+        return (int) (chunkMB * 1024L * 1024L);
+    }
+
+    /**
+     * Reads and parses an object.
+     *
+     * @param bucketname  The name of the S3 bucket.
+     * @param key         The object key.
+     * @param sinkFactory Creates the row sink for one range, given the header row.
+     * @param <T>         The sink type.
+     * @return The sinks holding the data rows, in object order.
+     * @throws IOException If a range cannot be read.
+     */
+    public <T extends CsvParser.RowHandler> List<T> read(String bucketname, String key,
+            Function<List<String>, T> sinkFactory) throws IOException {
+        long start = System.currentTimeMillis();
+        long length = s3Client.getObjectMetadata(bucketname, key).getContentLength();
+        if (length == 0) {
+            header = new ArrayList<>();
+            return new ArrayList<>();
+        }
+        int chunks = (int) Math.max(1, (length + chunkSize - 1) / chunkSize);
+        Ranges ranges = new Ranges(bucketname, key, length, chunks);
+        ranges.prefetch();
+        int bodyStart = readHeader(ranges);
+
+        // Parse the ranges in order on the parser threads, each once it and the ranges completing its
+        // last record have arrived.
+        List<CompletableFuture<T>> parses = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            int index = i;
+            parses.add(CompletableFuture.supplyAsync(() -> parseRange(ranges, index, bodyStart, sinkFactory),
+                    parser));
+        }
+
+        List<T> sinks = new ArrayList<>(chunks);
+        for (CompletableFuture<T> parse : parses) {
+            sinks.add(join(parse));
+        }
+        byteCount = length;
+        elapsedMillis = System.currentTimeMillis() - start;
+        return sinks;
+    }
+
+    /**
+     * Parses the header, the first record of the object, which may run past the first range.
+     *
+     * @return The offset of the first data record in the first range, or -1 if it is not in it.
+     */
+    private int readHeader(Ranges ranges) {
+        byte[] firstChunk = ranges.get(0);
+        int headerEnd = indexOfLineFeed(firstChunk, 0);
+        List<ArrayList<String>> headerRows = new ArrayList<>();
+        CsvParser headerParser = new CsvParser(row -> headerRows.add(row.toList()));
+        headerParser.feed(firstChunk, 0, headerEnd < 0 ? firstChunk.length : headerEnd + 1);
+        for (int next = 1; headerEnd < 0 && next < ranges.count; next++) {
+            byte[] following = ranges.get(next);
+            int lineFeed = indexOfLineFeed(following, 1);
+            headerParser.feed(following, 1, (lineFeed < 0 ? following.length : lineFeed + 1) - 1);
+            if (lineFeed >= 0) {
+                break;
+            }
+        }
+        headerParser.finish();
+        header = headerRows.isEmpty() ? new ArrayList<>() : headerRows.get(0);
+        return headerEnd < 0 ? -1 : headerEnd + 1;
+    }
+
+    /**
+     * Reads an object into a list of rows, header first.
+     *
+     * @param bucketname The name of the S3 bucket.
+     * @param key        The object key.
+     * @return The rows of the object in order.
+     * @throws IOException If a range cannot be read.
+     */
+    public List<ArrayList<String>> readRows(String bucketname, String key) throws IOException {
+        List<RowList> parts = read(bucketname, key, header -> new RowList());
+        List<ArrayList<String>> rows = new ArrayList<>((int) rowCount + 1);
+        rows.add(header);
+        for (RowList part : parts) {
+            rows.addAll(part);
+        }
+        return rows;
+    }
+
+    /**
+     * Reads an object into a columnar dataset. Each range is parsed into its own dataset and the
+     * parts are concatenated in order.
+     *
+     * @param bucketname The name of the S3 bucket.
+     * @param key        The object key.
+     * @return The dataset holding the rows of the object in order.
+     * @throws IOException If a range cannot be read.
+     */
+    public Dataset readDataset(String bucketname, String key) throws IOException {
+        List<Dataset> parts = read(bucketname, key, Dataset::new);
+        // Each range counts its rows from 0; in the object the header is row 0.
+        long offset = 1;
+        for (Dataset part : parts) {
+            part.getParseErrors().offsetRows(offset);
+            offset += part.getRowCount();
+        }
+        return parts.isEmpty() ? new Dataset(header) : Dataset.concat(parts);
+    }
+
+    /**
+     * Parses the records starting in one range. The first range starts after the header, or owns
+     * nothing if the header runs past it; any other range owns its first record if the byte before
+     * it, the first of its chunk, ends a line, and otherwise starts after its first line feed.
+     */
+    private <T extends CsvParser.RowHandler> T parseRange(Ranges ranges, int index, int headerEnd,
+            Function<List<String>, T> sinkFactory) {
+        try {
+            T sink = sinkFactory.apply(header);
+            byte[] chunk = ranges.get(index);
+            int bodyStart;
+            if (index == 0) {
+                if (headerEnd < 0) {
+                    return sink;
+                }
+                bodyStart = headerEnd;
+            } else if (chunk[0] == '\n') {
+                bodyStart = 1;
+            } else {
+                // Skip the tail of the record owned by an earlier range.
+                int lineFeed = indexOfLineFeed(chunk, 1);
+                if (lineFeed < 0) {
+                    return sink;
+                }
+                bodyStart = lineFeed + 1;
+            }
+
+            CsvParser parser = new CsvParser(sink);
+            parser.feed(chunk, bodyStart, chunk.length - bodyStart);
+            boolean complete = chunk[chunk.length - 1] == '\n';
+            for (int next = index + 1; !complete && next < ranges.count; next++) {
+                // Past the overlap byte, which this chunk already holds
+                byte[] following = ranges.get(next);
+                int lineFeed = indexOfLineFeed(following, 1);
+                parser.feed(following, 1, (lineFeed < 0 ? following.length : lineFeed + 1) - 1);
+                complete = lineFeed >= 0;
+            }
+            parser.finish();
+            synchronized (this) {
+                rowCount += parser.getRowCount();
+            }
+            return sink;
+        } finally {
+            ranges.parsed(index);
+        }
+    }
+
+    private byte[] download(String bucketname, String key, long first, long last) {
+        byte[] chunk = new byte[(int) (last - first + 1)];
+        S3Object s3Object = s3Client.getObject(new GetObjectRequest(bucketname, key).withRange(first, last));
+        try (InputStream in = s3Object.getObjectContent()) {
+            int offset = 0;
+            int n;
+            while (offset < chunk.length && (n = in.read(chunk, offset, chunk.length - offset)) != -1) {
+                offset += n;
+            }
+            if (offset != chunk.length) {
+                throw new IOException("Short read of " + key + " at byte " + (first + offset));
+            }
+            return chunk;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static int indexOfLineFeed(byte[] data, int from) {
+        for (int i = from; i < data.length; i++) {
+            if (data[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static <V> V join(CompletableFuture<V> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading ranges", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * @return The header row of the last object read.
+     */
+    public ArrayList<String> getHeader() {
+        return header;
+    }
+
+    /**
+     * @return The number of data rows read, header excluded.
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return The number of bytes downloaded.
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * @return The wall-clock time of the last read in milliseconds.
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return The end-to-end throughput of the last read in rows per second.
+     */
+    public long getRowsPerSecond() {
+        return elapsedMillis == 0 ? 0 : rowCount * 1000 / elapsedMillis;
+    }
+
+    @Override
+    public void close() {
+        downloader.shutdownNow();
+        parser.shutdownNow();
+    }
+
+    /**
+     * The byte ranges of one object. A range is downloaded when it comes within a window of twice
+     * the thread count past the first range not yet parsed, or sooner if a parse needs it, and is
+     * dropped once it and every range before it are parsed, since only those read it. At most the
+     * window is held in memory, not the whole object.
+     */
+    private class Ranges {
+
+        private final String bucketname;
+        private final String key;
+        private final long length;
+        private final int count;
+        private final List<CompletableFuture<byte[]>> downloads;
+        private final boolean[] parsed;
+        private int released;
+
+        Ranges(String bucketname, String key, long length, int count) {
+            this.bucketname = bucketname;
+            this.key = key;
+            this.length = length;
+            this.count = count;
+            this.downloads = new ArrayList<>(Collections.nCopies(count, null));
+            this.parsed = new boolean[count];
+        }
+
+        /**
+         * @param index A range no earlier range has finished with.
+         * @return The bytes of the range, starting with the byte before it for every range but the first.
+         */
+        byte[] get(int index) {
+            return join(download(index));
+        }
+
+        private synchronized CompletableFuture<byte[]> download(int index) {
+            if (index < released) {
+                throw new IllegalStateException("Range " + index + " was already released");
+            }
+            CompletableFuture<byte[]> download = downloads.get(index);
+            if (download == null) {
+                // Every range after the first also fetches the byte before it, which tells whether it starts a record.
+                long first = Math.max(0, (long) index * chunkSize - 1);
+                long last = Math.min(length, (long) index * chunkSize + chunkSize) - 1;
+                download = CompletableFuture.supplyAsync(() -> RangedCsvReader.this.download(bucketname, key,
+                        first, last), downloader);
+                downloads.set(index, download);
+            }
+            return download;
+        }
+
+        synchronized void prefetch() {
+            for (int i = released; i < Math.min(count, released + 2 * threads); i++) {
+                download(i);
+            }
+        }
+
+        synchronized void parsed(int index) {
+            parsed[index] = true;
+            while (released < count && parsed[released]) {
+                downloads.set(released++, null);
+            }
+            prefetch();
+        }
+    }
+
+    /**
+     * Collects the rows of one range as lists of Strings.
+     */
+    private static class RowList extends ArrayList<ArrayList<String>> implements CsvParser.RowHandler {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void handleRow(CsvParser.Row row) {
+            add(row.toList());
+        }
+    }
+}
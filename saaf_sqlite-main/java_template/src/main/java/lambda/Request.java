@@ -19,6 +19,58 @@ public class Request {
     
     private List<String> aggregations;
 
+    private int ingestThreads = 1;
+
+    private int ingestChunkMB = 8;
+
+    private int dedupMemoryMB = 256;
+
+    private int transformThreads = 1;
+
+    private boolean typedSchema;
+
+    private boolean bulkLoad;
+
+    private int indexBudgetMB;
+
+    private boolean incremental;
+
+    private boolean upsert;
+
+    private int uploadPartMB = 8;
+
+    private int uploadThreads = 4;
+
+    private String shardBy;
+
+    private int loadThreads = 4;
+
+    private boolean compressSnapshot;
+
+    private List<String> rollups;
+
+    private boolean inMemory;
+
+    private String format = "csv";
+
+    private int resultCacheEntries = 1024;
+
+    private List<BatchQuery> queries;
+
+    private List<String> groupBy;
+
+    private String orderBy;
+
+    private int limit;
+
+    private String engine = "sqlite";
+
+    private List<String> bitmapIndexes;
+
+    private boolean recordWorkload;
+
+    private String sourceBucket;
+
     public String getName() {
         return name;
     }
@@ -103,5 +155,367 @@ public class Request {
         this.aggregations = aggregations;
     }
 
-    
+    /**
+     * @return the number of concurrent ranged GETs used to read the input, 1 for a single stream
+     */
+    public int getIngestThreads() {
+        return ingestThreads;
+    }
+
+    /**
+     * @param ingestThreads the number of concurrent ranged GETs used to read the input
+     */
+    public void setIngestThreads(int ingestThreads) {
+        this.ingestThreads = ingestThreads;
+    }
+
+    /**
+     * @return the size of each ranged GET in MB
+     */
+    public int getIngestChunkMB() {
+        return ingestChunkMB;
+    }
+
+    /**
+     * @param ingestChunkMB the size of each ranged GET in MB
+     */
+    public void setIngestChunkMB(int ingestChunkMB) {
+        this.ingestChunkMB = ingestChunkMB;
+    }
+
+    /**
+     * @return the memory budget in MB of the Order ID set used for deduplication
+     */
+    public int getDedupMemoryMB() {
+        return dedupMemoryMB;
+    }
+
+    /**
+     * @param dedupMemoryMB the memory budget in MB of the Order ID set before it spills to disk
+     */
+    public void setDedupMemoryMB(int dedupMemoryMB) {
+        this.dedupMemoryMB = dedupMemoryMB;
+    }
+
+    /**
+     * @return the size in MB of each part of the output.csv upload
+     */
+    public int getUploadPartMB() {
+        return uploadPartMB;
+    }
+
+    /**
+     * @param uploadPartMB the size in MB of each part of the output.csv upload, at least 5
+     */
+    public void setUploadPartMB(int uploadPartMB) {
+        this.uploadPartMB = uploadPartMB;
+    }
+
+    /**
+     * @return the number of output.csv parts uploaded concurrently
+     */
+    public int getUploadThreads() {
+        return uploadThreads;
+    }
+
+    /**
+     * @param uploadThreads the number of output.csv parts uploaded concurrently
+     */
+    public void setUploadThreads(int uploadThreads) {
+        this.uploadThreads = uploadThreads;
+    }
+
+    /**
+     * @return the number of threads running the transformation, 1 for the calling thread only
+     */
+    public int getTransformThreads() {
+        return transformThreads;
+    }
+
+    /**
+     * @param transformThreads the number of threads running the transformation
+     */
+    public void setTransformThreads(int transformThreads) {
+        this.transformThreads = transformThreads;
+    }
+
+    /**
+     * @return true to load Orders with INTEGER/REAL columns and an INTEGER OrderID key, false for all TEXT
+     */
+    public boolean isTypedSchema() {
+        return typedSchema;
+    }
+
+    /**
+     * @param typedSchema true to load Orders with the typed schema, migrating an existing all-TEXT table
+     */
+    public void setTypedSchema(boolean typedSchema) {
+        this.typedSchema = typedSchema;
+    }
+
+    /**
+     * @return true to load Orders with journaling off and the primary key built after the inserts
+     */
+    public boolean isBulkLoad() {
+        return bulkLoad;
+    }
+
+    /**
+     * @param bulkLoad true to load Orders with the bulk-load settings and a deferred primary key
+     */
+    public void setBulkLoad(boolean bulkLoad) {
+        this.bulkLoad = bulkLoad;
+    }
+
+    /**
+     * @return the size budget in MB of the indexes built from the workload log, 0 for none
+     */
+    public int getIndexBudgetMB() {
+        return indexBudgetMB;
+    }
+
+    /**
+     * @param indexBudgetMB the size budget in MB of the indexes built from the workload log
+     */
+    public void setIndexBudgetMB(int indexBudgetMB) {
+        this.indexBudgetMB = indexBudgetMB;
+    }
+
+    /**
+     * @return true to merge only new source rows into the stored sales.db instead of rebuilding it
+     */
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * @param incremental true to merge only new source rows into the stored sales.db
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * @return true to overwrite stored rows with the same OrderID when merging, false to keep them
+     */
+    public boolean isUpsert() {
+        return upsert;
+    }
+
+    /**
+     * @param upsert true to overwrite stored rows with the same OrderID when merging
+     */
+    public void setUpsert(boolean upsert) {
+        this.upsert = upsert;
+    }
+
+    /**
+     * @return the Orders column whose values each get their own database, or null for one sales.db
+     */
+    public String getShardBy() {
+        return shardBy;
+    }
+
+    /**
+     * @param shardBy the Orders column whose values each get their own database
+     */
+    public void setShardBy(String shardBy) {
+        this.shardBy = shardBy;
+    }
+
+    /**
+     * @return the number of shards loaded or queried concurrently
+     */
+    public int getLoadThreads() {
+        return loadThreads;
+    }
+
+    /**
+     * @param loadThreads the number of shards loaded or queried concurrently
+     */
+    public void setLoadThreads(int loadThreads) {
+        this.loadThreads = loadThreads;
+    }
+
+    /**
+     * @return true to gzip the published sales.db snapshot
+     */
+    public boolean isCompressSnapshot() {
+        return compressSnapshot;
+    }
+
+    /**
+     * @param compressSnapshot true to gzip the published sales.db snapshot
+     */
+    public void setCompressSnapshot(boolean compressSnapshot) {
+        this.compressSnapshot = compressSnapshot;
+    }
+
+    /**
+     * @return the dimension sets to build rollup tables for, like "Region" or "Region+ItemType"
+     */
+    public List<String> getRollups() {
+        return rollups;
+    }
+
+    /**
+     * @param rollups the dimension sets to build rollup tables for
+     */
+    public void setRollups(List<String> rollups) {
+        this.rollups = rollups;
+    }
+
+    /**
+     * @return true to load and query an in-memory database, written to a file only to publish it
+     */
+    public boolean isInMemory() {
+        return inMemory;
+    }
+
+    /**
+     * @param inMemory true to load and query an in-memory database
+     */
+    public void setInMemory(boolean inMemory) {
+        this.inMemory = inMemory;
+    }
+
+    /**
+     * @return the format of the transformed data handed from Transform to Load, "csv" or "columnar"
+     */
+    public String getFormat() {
+        return format;
+    }
+
+    /**
+     * @param format the format of the transformed data, "csv" or "columnar"
+     */
+    public void setFormat(String format) {
+        this.format = format;
+    }
+
+    /**
+     * @return the number of query results each tier of the result cache keeps, 0 to disable it
+     */
+    public int getResultCacheEntries() {
+        return resultCacheEntries;
+    }
+
+    /**
+     * @param resultCacheEntries the number of query results each tier of the result cache keeps
+     */
+    public void setResultCacheEntries(int resultCacheEntries) {
+        this.resultCacheEntries = resultCacheEntries;
+    }
+
+    /**
+     * @return the queries of a batch request, answered together in place of filters and aggregations
+     */
+    public List<BatchQuery> getQueries() {
+        return queries;
+    }
+
+    /**
+     * @param queries the queries of a batch request
+     */
+    public void setQueries(List<BatchQuery> queries) {
+        this.queries = queries;
+    }
+
+    /**
+     * @return the Orders columns to group by, one result row per group
+     */
+    public List<String> getGroupBy() {
+        return groupBy;
+    }
+
+    /**
+     * @param groupBy the Orders columns to group by
+     */
+    public void setGroupBy(List<String> groupBy) {
+        this.groupBy = groupBy;
+    }
+
+    /**
+     * @return the group-by column or aggregation the groups are ordered by, optionally followed by asc or desc
+     */
+    public String getOrderBy() {
+        return orderBy;
+    }
+
+    /**
+     * @param orderBy the group-by column or aggregation the groups are ordered by
+     */
+    public void setOrderBy(String orderBy) {
+        this.orderBy = orderBy;
+    }
+
+    /**
+     * @return the most groups returned, 0 for all
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @param limit the most groups returned, 0 for all
+     */
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * @return the engine answering a query, sqlite or columnar
+     */
+    public String getEngine() {
+        return engine;
+    }
+
+    /**
+     * @param engine the engine answering a query, sqlite or columnar
+     */
+    public void setEngine(String engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * @return the dimension columns Load builds bitmap indexes on
+     */
+    public List<String> getBitmapIndexes() {
+        return bitmapIndexes;
+    }
+
+    /**
+     * @param bitmapIndexes the dimension columns Load builds bitmap indexes on
+     */
+    public void setBitmapIndexes(List<String> bitmapIndexes) {
+        this.bitmapIndexes = bitmapIndexes;
+    }
+
+    /**
+     * @return true if the filter columns of the query are added to the workload log
+     */
+    public boolean isRecordWorkload() {
+        return recordWorkload;
+    }
+
+    /**
+     * @param recordWorkload true to add the filter columns of the query to the workload log
+     */
+    public void setRecordWorkload(boolean recordWorkload) {
+        this.recordWorkload = recordWorkload;
+    }
+
+    /**
+     * @return the bucket holding the source object of an incremental load, null for the bucketname
+     */
+    public String getSourceBucket() {
+        return sourceBucket;
+    }
+
+    /**
+     * @param sourceBucket the bucket holding the source object of an incremental load
+     */
+    public void setSourceBucket(String sourceBucket) {
+        this.sourceBucket = sourceBucket;
+    }
 }
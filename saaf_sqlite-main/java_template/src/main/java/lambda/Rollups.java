@@ -0,0 +1,293 @@
+/**
+ * Pre-aggregated rollup tables of Orders, built at load time and used to answer queries.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package lambda;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import saaf.Inspector;
+
+/**
+ * The Rollups class keeps, for each configured set of dimension columns, a table with one row per
+ * group of Orders holding the row count and, for every measure column, its sum, non-NULL count,
+ * minimum and maximum. The RollupCatalog table lists the rollups with their dimensions and number
+ * of groups.
+ *
+ * A query whose filters are all dimensions of a rollup and whose aggregations are avg, sum, total,
+ * count, min or max of a measure (or count(*)) is answered by aggregating the matching groups:
+ * sums and counts add up, averages are the summed sum over the summed count, and extremes are the
+ * extreme of the extremes. Its cost then depends on the number of groups instead of the number of
+ * orders. Dimension sets are written like workload shapes, for example "Region+ItemType".
+ *
+ * Rollups are rebuilt in full by every load, so they always describe the rows they were built
+ * with; rollups no longer configured are dropped.
+ */
+public class Rollups {
+
+    /**
+     * The table listing the rollups.
+     */
+    public static final String CATALOG = "RollupCatalog";
+
+    /**
+     * The name prefix of rollup tables.
+     */
+    public static final String TABLE_PREFIX = "rollup_";
+
+    /**
+     * The columns rollups aggregate.
+     */
+    public static final List<String> MEASURES = Arrays.asList("UnitsSold", "UnitPrice", "UnitCost", "TotalRevenue",
+            "TotalCost", "TotalProfit", "OrderProcessingTime", "GrossMargin");
+
+    private Rollups() {
+    }
+
+    /**
+     * Replaces the rollups with one per dimension set. The caller commits.
+     *
+     * @param connection    The database connection, with auto-commit off.
+     * @param dimensionSets The dimension sets, like "Region" or "Region+ItemType"; null or empty for none.
+     * @param inspector     The inspector receiving the rollups built and their number of groups.
+     * @throws SQLException             If an SQL exception occurs.
+     * @throws IllegalArgumentException If a dimension is not an Orders column or is a measure.
+     */
+    public static void build(Connection connection, List<String> dimensionSets, Inspector inspector)
+            throws SQLException {
+        long start = System.nanoTime();
+        List<List<String>> sets = new ArrayList<>();
+        if (dimensionSets != null) {
+            for (String dimensionSet : dimensionSets) {
+                List<String> dimensions = WorkloadLog.columnsOf(dimensionSet);
+                if (dimensions.isEmpty()) {
+                    throw new IllegalArgumentException("Cannot build a rollup on no dimensions");
+                }
+                for (String dimension : dimensions) {
+                    if (!Arrays.asList(OrdersTable.COLUMNS).contains(dimension) || MEASURES.contains(dimension)) {
+                        throw new IllegalArgumentException("Cannot build a rollup on " + dimensionSet);
+                    }
+                }
+                dimensions.sort(null);
+                if (!sets.contains(dimensions)) {
+                    sets.add(dimensions);
+                }
+            }
+        }
+
+        try (Statement statement = connection.createStatement()) {
+            for (String name : catalog(connection).keySet()) {
+                statement.executeUpdate("DROP TABLE IF EXISTS " + name);
+            }
+            statement.executeUpdate("DROP TABLE IF EXISTS " + CATALOG);
+            if (sets.isEmpty()) {
+                return;
+            }
+            statement.executeUpdate("CREATE TABLE " + CATALOG
+                    + " (Name TEXT PRIMARY KEY, Dimensions TEXT NOT NULL, Groups INTEGER NOT NULL)");
+
+            // Wider dimension sets first, so that narrower ones are summed from their groups instead of Orders.
+            sets.sort((a, b) -> b.size() - a.size());
+            Map<String, Long> groups = new LinkedHashMap<>();
+            Map<String, String> sources = new LinkedHashMap<>();
+            Map<String, List<String>> builtDimensions = new LinkedHashMap<>();
+            for (List<String> dimensions : sets) {
+                String name = TABLE_PREFIX + String.join("_", dimensions);
+                String columns = String.join(", ", dimensions);
+                String source = "Orders";
+                for (Map.Entry<String, Long> built : groups.entrySet()) {
+                    if (builtDimensions.get(built.getKey()).containsAll(dimensions)
+                            && (source.equals("Orders") || built.getValue() < groups.get(source))) {
+                        source = built.getKey();
+                    }
+                }
+                StringBuilder sql = new StringBuilder("CREATE TABLE ").append(name).append(" AS SELECT ")
+                        .append(columns);
+                if (source.equals("Orders")) {
+                    sql.append(", count(*) AS n");
+                    for (String measure : MEASURES) {
+                        sql.append(", sum(").append(measure).append(") AS sum_").append(measure)
+                                .append(", count(").append(measure).append(") AS cnt_").append(measure)
+                                .append(", min(").append(measure).append(") AS min_").append(measure)
+                                .append(", max(").append(measure).append(") AS max_").append(measure);
+                    }
+                } else {
+                    sql.append(", sum(n) AS n");
+                    for (String measure : MEASURES) {
+                        sql.append(", sum(sum_").append(measure).append(") AS sum_").append(measure)
+                                .append(", sum(cnt_").append(measure).append(") AS cnt_").append(measure)
+                                .append(", min(min_").append(measure).append(") AS min_").append(measure)
+                                .append(", max(max_").append(measure).append(") AS max_").append(measure);
+                    }
+                }
+                sql.append(" FROM ").append(source).append(" GROUP BY ").append(columns);
+                statement.executeUpdate(sql.toString());
+                long count;
+                try (ResultSet rows = statement.executeQuery("SELECT count(*) FROM " + name)) {
+                    rows.next();
+                    count = rows.getLong(1);
+                }
+                try (PreparedStatement insert = connection.prepareStatement(
+                        "INSERT INTO " + CATALOG + " VALUES (?, ?, ?)")) {
+                    insert.setString(1, name);
+                    insert.setString(2, String.join("+", dimensions));
+                    insert.setLong(3, count);
+                    insert.executeUpdate();
+                }
+                groups.put(name, count);
+                sources.put(name, source);
+                builtDimensions.put(name, dimensions);
+            }
+            inspector.addAttribute("rollups", groups);
+            inspector.addAttribute("rollupSources", sources);
+            inspector.addAttribute("rollupMs", (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    /**
+     * Picks the rollup with the fewest groups that can answer a query.
+     *
+     * @param connection   The database connection.
+     * @param filters      The equality filters by Orders column.
+     * @param aggregations The aggregations.
+     * @return The rollup table name, or null if the query has to read Orders.
+     * @throws SQLException If an SQL exception occurs.
+     */
+    public static String choose(Connection connection, Map<String, String> filters, List<String> aggregations)
+            throws SQLException {
+        return choose(connection, filters.keySet(), aggregations);
+    }
+
+    /**
+     * Picks the rollup with the fewest groups that can answer a validated query: one holding each
+     * of its filter and group-by columns.
+     *
+     * @param connection The database connection.
+     * @param query      The query.
+     * @return The rollup table name, or null if the query has to read Orders.
+     * @throws SQLException If an SQL exception occurs.
+     */
+    public static String choose(Connection connection, AggregationQuery query) throws SQLException {
+        List<String> columns = new ArrayList<>(query.getColumns());
+        columns.addAll(query.getGroupBy());
+        return choose(connection, columns, query.getSelected());
+    }
+
+    private static String choose(Connection connection, Collection<String> columns, List<String> aggregations)
+            throws SQLException {
+        for (String aggregation : aggregations) {
+            PartialAggregate partial;
+            try {
+                partial = PartialAggregate.parse(aggregation);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+            if (!partial.getArgument().equals("*") && !MEASURES.contains(partial.getArgument())) {
+                return null;
+            }
+        }
+        String best = null;
+        long bestGroups = Long.MAX_VALUE;
+        for (Map.Entry<String, Object[]> rollup : catalog(connection).entrySet()) {
+            List<String> dimensions = WorkloadLog.columnsOf((String) rollup.getValue()[0]);
+            long groups = (Long) rollup.getValue()[1];
+            if (dimensions.containsAll(columns) && groups < bestGroups) {
+                best = rollup.getKey();
+                bestGroups = groups;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Builds the query over a rollup answering the aggregations, with each result column named
+     * after its aggregation as requested.
+     *
+     * @param rollup       The rollup table name, from {@link #choose}.
+     * @param filters      The equality filters by Orders column.
+     * @param aggregations The aggregations.
+     * @param typed        True if the Orders table uses the typed schema, so dates are compared as epoch days.
+     * @return The SQL query.
+     */
+    public static String sql(String rollup, Map<String, String> filters, List<String> aggregations, boolean typed) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        String separator = "";
+        for (String aggregation : aggregations) {
+            sql.append(separator).append(expression(PartialAggregate.parse(aggregation)))
+                    .append(" AS \"").append(aggregation.replace("\"", "\"\"")).append('"');
+            separator = ", ";
+        }
+        sql.append(" FROM ").append(rollup);
+        separator = " WHERE ";
+        for (Map.Entry<String, String> filter : filters.entrySet()) {
+            sql.append(separator).append(filter.getKey()).append('=')
+                    .append(OrdersTable.literal(filter.getKey(), filter.getValue(), typed));
+            separator = " AND ";
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Builds the query over a rollup answering a validated query, selecting its groups and
+     * aggregations in the same order and binding its values as {@link AggregationQuery#sql()} does
+     * over Orders.
+     *
+     * @param rollup The rollup table name, from {@link #choose}.
+     * @param query  The query.
+     * @return The SQL query.
+     */
+    public static String sql(String rollup, AggregationQuery query) {
+        List<String> expressions = new ArrayList<>();
+        for (String aggregation : query.getSelected()) {
+            expressions.add(expression(PartialAggregate.parse(aggregation)));
+        }
+        return query.sql(rollup, expressions);
+    }
+
+    /**
+     * @return The expression over a rollup's partial columns giving the aggregation.
+     */
+    private static String expression(PartialAggregate partial) {
+        String function = partial.getFunction();
+        String argument = partial.getArgument();
+        if (argument.equals("*")) {
+            return "total(n)";
+        } else if (function.equals("avg")) {
+            return "sum(sum_" + argument + ") * 1.0 / sum(cnt_" + argument + ")";
+        } else if (function.equals("count")) {
+            return "total(cnt_" + argument + ")";
+        }
+        return function + "(" + (function.equals("total") ? "sum" : function) + "_" + argument + ")";
+    }
+
+    /**
+     * @return The dimensions and number of groups of each rollup by table name, empty without a catalog.
+     */
+    private static Map<String, Object[]> catalog(Connection connection) throws SQLException {
+        Map<String, Object[]> rollups = new LinkedHashMap<>();
+        try (Statement statement = connection.createStatement()) {
+            try (ResultSet tables = statement.executeQuery(
+                    "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = '" + CATALOG + "'")) {
+                if (!tables.next()) {
+                    return rollups;
+                }
+            }
+            try (ResultSet rows = statement.executeQuery("SELECT Name, Dimensions, Groups FROM " + CATALOG)) {
+                while (rows.next()) {
+                    rollups.put(rows.getString(1), new Object[] {rows.getString(2), rows.getLong(3)});
+                }
+            }
+        }
+        return rollups;
+    }
+}
@@ -0,0 +1,352 @@
+/**
+ * Compressed set of row positions, stored per chunk of 65536 rows as a sorted array or a bitmap.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package lambda;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The RowBitmap class splits row positions by their high 16 bits into chunks and keeps each
+ * non-empty chunk in the smaller of two forms: up to 4096 rows as a sorted char array of their low
+ * 16 bits, more as a bitmap of 1024 longs. A value held by a few rows costs two bytes per row, one
+ * held by most rows at most 8 KB per chunk, and chunks no row falls in cost nothing.
+ *
+ * Bitmaps are built by adding rows in increasing order and are immutable once built; and and or
+ * return new bitmaps, combining chunk by chunk, word by word where both are bitmaps.
+ */
+public class RowBitmap {
+
+    // A chunk of more rows than this is a bitmap, where it takes no more room than the array
+    private static final int MAX_ARRAY = 4096;
+    private static final int WORDS = 1024;
+
+    private char[] keys;
+    // char[] or long[] per key
+    private Object[] chunks;
+    private int[] cardinalities;
+    private int size;
+
+    private RowBitmap(int capacity) {
+        keys = new char[Math.max(1, capacity)];
+        chunks = new Object[keys.length];
+        cardinalities = new int[keys.length];
+    }
+
+    /**
+     * @return An empty bitmap to add rows to.
+     */
+    public static RowBitmap empty() {
+        return new RowBitmap(1);
+    }
+
+    /**
+     * Adds a row, greater than every row added before.
+     *
+     * @param row The row position.
+     * @throws IllegalArgumentException If the row is not greater than the last one.
+     */
+    public void add(int row) {
+        char key = (char) (row >>> 16);
+        char low = (char) row;
+        if (size == 0 || keys[size - 1] != key) {
+            if (size > 0 && keys[size - 1] > key) {
+                throw new IllegalArgumentException("Rows must be added in increasing order");
+            }
+            append(key, new char[4], 0);
+        }
+        int last = size - 1;
+        int cardinality = cardinalities[last];
+        Object chunk = chunks[last];
+        if (chunk instanceof char[]) {
+            char[] array = (char[]) chunk;
+            if (cardinality > 0 && array[cardinality - 1] >= low) {
+                throw new IllegalArgumentException("Rows must be added in increasing order");
+            }
+            if (cardinality < MAX_ARRAY) {
+                if (cardinality == array.length) {
+                    array = Arrays.copyOf(array, Math.min(MAX_ARRAY, array.length * 2));
+                    chunks[last] = array;
+                }
+                array[cardinality] = low;
+            } else {
+                long[] words = toWords(array, cardinality);
+                words[low >>> 6] |= 1L << low;
+                chunks[last] = words;
+            }
+        } else {
+            long[] words = (long[]) chunk;
+            words[low >>> 6] |= 1L << low;
+        }
+        cardinalities[last] = cardinality + 1;
+    }
+
+    /**
+     * @return The number of rows in the bitmap.
+     */
+    public int cardinality() {
+        int cardinality = 0;
+        for (int k = 0; k < size; k++) {
+            cardinality += cardinalities[k];
+        }
+        return cardinality;
+    }
+
+    /**
+     * @param other Another bitmap.
+     * @return The rows in both bitmaps.
+     */
+    public RowBitmap and(RowBitmap other) {
+        RowBitmap result = new RowBitmap(Math.min(size, other.size));
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Object a = chunks[i];
+                Object b = other.chunks[j];
+                if (a instanceof long[] && b instanceof long[]) {
+                    long[] words = new long[WORDS];
+                    long[] x = (long[]) a;
+                    long[] y = (long[]) b;
+                    int cardinality = 0;
+                    for (int w = 0; w < WORDS; w++) {
+                        words[w] = x[w] & y[w];
+                        cardinality += Long.bitCount(words[w]);
+                    }
+                    result.appendWords(keys[i], words, cardinality);
+                } else if (a instanceof char[] && b instanceof char[]) {
+                    char[] x = (char[]) a;
+                    char[] y = (char[]) b;
+                    char[] array = new char[Math.min(cardinalities[i], other.cardinalities[j])];
+                    int cardinality = 0;
+                    for (int p = 0, q = 0; p < cardinalities[i] && q < other.cardinalities[j]; ) {
+                        if (x[p] < y[q]) {
+                            p++;
+                        } else if (x[p] > y[q]) {
+                            q++;
+                        } else {
+                            array[cardinality++] = x[p];
+                            p++;
+                            q++;
+                        }
+                    }
+                    result.appendArray(keys[i], array, cardinality);
+                } else {
+                    // An array against a bitmap: keep the array rows whose bit is set
+                    boolean arrayFirst = a instanceof char[];
+                    char[] x = (char[]) (arrayFirst ? a : b);
+                    long[] y = (long[]) (arrayFirst ? b : a);
+                    int length = arrayFirst ? cardinalities[i] : other.cardinalities[j];
+                    char[] array = new char[length];
+                    int cardinality = 0;
+                    for (int p = 0; p < length; p++) {
+                        char low = x[p];
+                        array[cardinality] = low;
+                        cardinality += (int) (y[low >>> 6] >>> low) & 1;
+                    }
+                    result.appendArray(keys[i], array, cardinality);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param other Another bitmap.
+     * @return The rows in either bitmap.
+     */
+    public RowBitmap or(RowBitmap other) {
+        RowBitmap result = new RowBitmap(size + other.size);
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+                result.append(keys[i], copy(chunks[i]), cardinalities[i]);
+                i++;
+            } else if (i == size || keys[i] > other.keys[j]) {
+                result.append(other.keys[j], copy(other.chunks[j]), other.cardinalities[j]);
+                j++;
+            } else {
+                long[] words = chunks[i] instanceof long[] ? ((long[]) chunks[i]).clone()
+                        : toWords((char[]) chunks[i], cardinalities[i]);
+                Object b = other.chunks[j];
+                if (b instanceof long[]) {
+                    long[] y = (long[]) b;
+                    for (int w = 0; w < WORDS; w++) {
+                        words[w] |= y[w];
+                    }
+                } else {
+                    char[] y = (char[]) b;
+                    for (int q = 0; q < other.cardinalities[j]; q++) {
+                        words[y[q] >>> 6] |= 1L << y[q];
+                    }
+                }
+                int cardinality = 0;
+                for (int w = 0; w < WORDS; w++) {
+                    cardinality += Long.bitCount(words[w]);
+                }
+                result.appendWords(keys[i], words, cardinality);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes the rows in increasing order.
+     *
+     * @param rows Receives the rows, at least {@link #cardinality()} long.
+     * @return The number of rows written.
+     */
+    public int toArray(int[] rows) {
+        int n = 0;
+        for (int k = 0; k < size; k++) {
+            int high = keys[k] << 16;
+            Object chunk = chunks[k];
+            if (chunk instanceof char[]) {
+                char[] array = (char[]) chunk;
+                for (int p = 0; p < cardinalities[k]; p++) {
+                    rows[n++] = high | array[p];
+                }
+            } else {
+                long[] words = (long[]) chunk;
+                for (int w = 0; w < WORDS; w++) {
+                    long word = words[w];
+                    while (word != 0) {
+                        rows[n++] = high | (w << 6) | Long.numberOfTrailingZeros(word);
+                        word &= word - 1;
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return The bytes {@link #serialize()} writes, which is also about the heap the rows take.
+     */
+    public long sizeInBytes() {
+        long bytes = 4;
+        for (int k = 0; k < size; k++) {
+            bytes += 6 + (chunks[k] instanceof long[] ? WORDS * 8L : cardinalities[k] * 2L);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return The bitmap as bytes for {@link #deserialize}.
+     */
+    public byte[] serialize() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) sizeInBytes());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(size);
+            for (int k = 0; k < size; k++) {
+                out.writeChar(keys[k]);
+                out.writeInt(cardinalities[k]);
+                if (chunks[k] instanceof long[]) {
+                    for (long word : (long[]) chunks[k]) {
+                        out.writeLong(word);
+                    }
+                } else {
+                    char[] array = (char[]) chunks[k];
+                    for (int p = 0; p < cardinalities[k]; p++) {
+                        out.writeChar(array[p]);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param data Bytes from {@link #serialize()}.
+     * @return The bitmap.
+     * @throws IOException If the bytes are not a serialized bitmap.
+     */
+    public static RowBitmap deserialize(byte[] data) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            int size = in.readInt();
+            RowBitmap bitmap = new RowBitmap(size);
+            for (int k = 0; k < size; k++) {
+                char key = in.readChar();
+                int cardinality = in.readInt();
+                if (cardinality > MAX_ARRAY) {
+                    long[] words = new long[WORDS];
+                    for (int w = 0; w < WORDS; w++) {
+                        words[w] = in.readLong();
+                    }
+                    bitmap.append(key, words, cardinality);
+                } else {
+                    char[] array = new char[cardinality];
+                    for (int p = 0; p < cardinality; p++) {
+                        array[p] = in.readChar();
+                    }
+                    bitmap.append(key, array, cardinality);
+                }
+            }
+            return bitmap;
+        }
+    }
+
+    private void appendWords(char key, long[] words, int cardinality) {
+        if (cardinality > MAX_ARRAY) {
+            append(key, words, cardinality);
+        } else if (cardinality > 0) {
+            char[] array = new char[cardinality];
+            int n = 0;
+            for (int w = 0; w < WORDS; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    array[n++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            append(key, array, cardinality);
+        }
+    }
+
+    private void appendArray(char key, char[] array, int cardinality) {
+        if (cardinality > 0) {
+            append(key, array, cardinality);
+        }
+    }
+
+    private void append(char key, Object chunk, int cardinality) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            chunks = Arrays.copyOf(chunks, size * 2);
+            cardinalities = Arrays.copyOf(cardinalities, size * 2);
+        }
+        keys[size] = key;
+        chunks[size] = chunk;
+        cardinalities[size] = cardinality;
+        size++;
+    }
+
+    private static long[] toWords(char[] array, int cardinality) {
+        long[] words = new long[WORDS];
+        for (int p = 0; p < cardinality; p++) {
+            words[array[p] >>> 6] |= 1L << array[p];
+        }
+        return words;
+    }
+
+    private static Object copy(Object chunk) {
+        return chunk instanceof long[] ? ((long[]) chunk).clone() : ((char[]) chunk).clone();
+    }
+}
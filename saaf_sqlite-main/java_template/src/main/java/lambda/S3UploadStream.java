@@ -0,0 +1,289 @@
+/**
+ * OutputStream that uploads to S3 in parts while it is being written.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package lambda;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The S3UploadStream class writes an object with a multipart upload so that it never holds the
+ * whole object in memory.
+ *
+ * Bytes are collected in a part-sized buffer; each full buffer is sent as one part on a small
+ * thread pool while the caller keeps writing into the next buffer. Buffers come from a fixed pool
+ * of {@code maxInFlight + 1}, so a writer that outpaces the uploads blocks until a part finishes
+ * and memory never exceeds {@code (maxInFlight + 1) * partSize}. An object smaller than one part
+ * is sent with a single putObject instead. If anything fails the upload is aborted, so no partial
+ * object becomes visible.
+ */
+public class S3UploadStream extends OutputStream {
+
+    /**
+     * The smallest part S3 accepts, except for the last one.
+     */
+    public static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    private final AmazonS3 s3Client;
+    private final String bucketname;
+    private final String key;
+    private final int partSize;
+    private final int maxBuffers;
+    private final ExecutorService executor;
+    private final BlockingQueue<byte[]> freeBuffers;
+    private final List<CompletableFuture<PartETag>> parts = new ArrayList<>();
+
+    private byte[] buffer;
+    private int position;
+    private int allocatedBuffers;
+    private String uploadId;
+    private long byteCount;
+    private String eTag;
+    private long elapsedMillis;
+    private final long start = System.currentTimeMillis();
+    private boolean closed;
+
+    /**
+     * The largest part in MB; a part is buffered in one array.
+     */
+    public static final int MAX_PART_MB = 1024;
+
+    /**
+     * Converts a part size in MB, as requests give it, to bytes.
+     *
+     * @param partMB The size of each part in MB.
+     * @return The size in bytes.
+     * @throws IllegalArgumentException If the size is not between 5 and {@link #MAX_PART_MB} MB.
+     */
+    public static int partSize(int partMB) {
+        if (partMB < MIN_PART_SIZE / (1024 * 1024) || partMB > MAX_PART_MB) {
+            throw new IllegalArgumentException("Part size " + partMB + " MB is not between "
+                    + MIN_PART_SIZE / (1024 * 1024) + " and " + MAX_PART_MB);
+        }
+        return (int) (partMB * 1024L * 1024L);
+    }
+
+    /**
+     * Creates a stream writing one object.
+     *
+     * @param s3Client    The S3 client.
+     * @param bucketname  The name of the S3 bucket.
+     * @param key         The object key.
+     * @param partSize    The size of each part in bytes, at least {@link #MIN_PART_SIZE}.
+     * @param maxInFlight The number of parts uploaded concurrently.
+     */
+    public S3UploadStream(AmazonS3 s3Client, String bucketname, String key, int partSize, int maxInFlight) {
+        if (partSize < MIN_PART_SIZE) {
+            throw new IllegalArgumentException("Part size " + partSize + " is below the S3 minimum of " + MIN_PART_SIZE);
+        }
+        this.s3Client = s3Client;
+        this.bucketname = bucketname;
+        this.key = key;
+        this.partSize = partSize;
+        this.maxBuffers = Math.max(1, maxInFlight) + 1;
+        this.executor = Executors.newFixedThreadPool(Math.max(1, maxInFlight));
+        this.freeBuffers = new ArrayBlockingQueue<>(maxBuffers);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (buffer == null || position == buffer.length) {
+            nextBuffer();
+        }
+        buffer[position++] = (byte) b;
+        byteCount++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (buffer == null || position == buffer.length) {
+                nextBuffer();
+            }
+            int n = Math.min(len, buffer.length - position);
+            System.arraycopy(b, off, buffer, position, n);
+            position += n;
+            off += n;
+            len -= n;
+            byteCount += n;
+        }
+    }
+
+    /**
+     * Sends the remaining bytes and completes the upload.
+     *
+     * @throws IOException If a part or the completion fails; the upload is then aborted.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (uploadId == null) {
+                // Everything fit in the first buffer: one plain PUT is cheaper than a multipart upload.
+                byte[] content = buffer == null ? new byte[0] : buffer;
+                ObjectMetadata metadata = new ObjectMetadata();
+                metadata.setContentLength(position);
+                eTag = s3Client.putObject(new PutObjectRequest(bucketname, key,
+                        new ByteArrayInputStream(content, 0, position), metadata)).getETag();
+            } else {
+                if (position > 0) {
+                    uploadPart();
+                }
+                List<PartETag> etags = new ArrayList<>(parts.size());
+                for (CompletableFuture<PartETag> part : parts) {
+                    etags.add(join(part));
+                }
+                etags.sort(Comparator.comparingInt(PartETag::getPartNumber));
+                eTag = s3Client.completeMultipartUpload(
+                        new CompleteMultipartUploadRequest(bucketname, key, uploadId, etags)).getETag();
+            }
+        } catch (IOException | RuntimeException e) {
+            abort();
+            throw e instanceof IOException ? (IOException) e : new IOException("Failed to upload " + key, e);
+        } finally {
+            executor.shutdownNow();
+            buffer = null;
+            freeBuffers.clear();
+            elapsedMillis = System.currentTimeMillis() - start;
+        }
+    }
+
+    /**
+     * Abandons the object: stops the part uploads and aborts the multipart upload, if any.
+     */
+    public void abort() {
+        closed = true;
+        executor.shutdownNow();
+        if (uploadId != null) {
+            try {
+                s3Client.abortMultipartUpload(new AbortMultipartUploadRequest(bucketname, key, uploadId));
+            } catch (RuntimeException e) {
+                System.out.println("Failed to abort the upload of " + key);
+                e.printStackTrace();
+            }
+            uploadId = null;
+        }
+    }
+
+    private void nextBuffer() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (buffer != null) {
+            if (uploadId == null) {
+                uploadId = s3Client.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucketname, key)).getUploadId();
+            }
+            uploadPart();
+        }
+        buffer = freeBuffers.poll();
+        if (buffer == null && allocatedBuffers < maxBuffers) {
+            allocatedBuffers++;
+            buffer = new byte[partSize];
+        }
+        if (buffer == null) {
+            try {
+                buffer = freeBuffers.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a part upload", e);
+            }
+        }
+        position = 0;
+    }
+
+    private void uploadPart() throws IOException {
+        // Fail fast instead of writing the rest of the object after a part was rejected.
+        for (CompletableFuture<PartETag> part : parts) {
+            if (part.isCompletedExceptionally()) {
+                join(part);
+            }
+        }
+        byte[] content = buffer;
+        int length = position;
+        int partNumber = parts.size() + 1;
+        buffer = null;
+        parts.add(CompletableFuture.supplyAsync(() -> {
+            try {
+                UploadPartRequest request = new UploadPartRequest()
+                        .withBucketName(bucketname)
+                        .withKey(key)
+                        .withUploadId(uploadId)
+                        .withPartNumber(partNumber)
+                        .withInputStream(new ByteArrayInputStream(content, 0, length))
+                        .withPartSize(length);
+                return s3Client.uploadPart(request).getPartETag();
+            } finally {
+                freeBuffers.offer(content);
+            }
+        }, executor));
+    }
+
+    private static PartETag join(CompletableFuture<PartETag> part) throws IOException {
+        try {
+            return part.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a part upload", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to upload a part", e.getCause());
+        }
+    }
+
+    /**
+     * @return The number of bytes written.
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * @return The number of parts uploaded, 0 when the object was sent with a single PUT.
+     */
+    public int getPartCount() {
+        return parts.size();
+    }
+
+    /**
+     * @return The memory held by part buffers at the peak, in bytes.
+     */
+    public long getBufferBytes() {
+        return (long) allocatedBuffers * partSize;
+    }
+
+    /**
+     * @return The time from creating the stream to completing the upload, in milliseconds.
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return The ETag of the uploaded object, or null until the upload has completed.
+     */
+    public String getETag() {
+        return eTag;
+    }
+}
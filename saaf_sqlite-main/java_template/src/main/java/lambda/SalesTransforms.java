@@ -0,0 +1,269 @@
+/**
+ * The Service #1 transformations of the sales data, shared by Transform and TransformLoadQuery.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package lambda;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.UnaryOperator;
+import saaf.Inspector;
+
+/**
+ * The SalesTransforms class builds the pipeline that adds [Order Processing Time], expands
+ * [Order Priority], adds [Gross Margin] and removes duplicate [Order ID]s, and holds the stages
+ * doing so.
+ */
+public class SalesTransforms {
+
+    private SalesTransforms() {
+    }
+
+    /**
+     * Builds the sales transformation pipeline.
+     *
+     * @param dedupMemoryBytes The memory budget of the Order ID set before it spills to disk.
+     * @return The pipeline.
+     */
+    public static TransformPipeline pipeline(long dedupMemoryBytes) {
+        return new TransformPipeline()
+                .add(new OrderProcessingTime())
+                .add(new MapValues("Order Priority", SalesTransforms::expandOrderPriority))
+                .add(new GrossMargin())
+                .add(new DistinctKeys("Order ID", dedupMemoryBytes));
+    }
+
+    /**
+     * Transforms the sales data in place and reports the transformation statistics.
+     *
+     * @param dataset       The sales data.
+     * @param dedupMemoryMB The memory budget of the Order ID set before it spills to disk.
+     * @param threads       The number of threads running the transformation.
+     * @param inspector     The inspector receiving the statistics.
+     */
+    public static void transform(Dataset dataset, int dedupMemoryMB, int threads, Inspector inspector) {
+        TransformPipeline pipeline = pipeline(dedupMemoryMB * 1024L * 1024L);
+        try {
+            pipeline.run(dataset, threads);
+            DistinctKeys orderIDs = (DistinctKeys) pipeline.getStages().get(pipeline.getStages().size() - 1);
+            inspector.addAttribute("transformMs", pipeline.getElapsedMillis());
+            inspector.addAttribute("transformThreads", pipeline.getThreads());
+            inspector.addAttribute("dedupDuplicates", orderIDs.getDuplicateCount());
+            inspector.addAttribute("dedupPartitions", orderIDs.getPartitions());
+        } catch (IOException e) {
+            System.out.println("Failed to transform the data");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Calculates the number of days between the order date and the ship date.
+     *
+     * @param orderDate The order date in days since 1970-01-01.
+     * @param shipDate  The ship date in days since 1970-01-01.
+     * @return The number of days between the two dates, or missing if either date is missing.
+     */
+    public static long calculateOrderProcessingTime(int orderDate, int shipDate) {
+        if (orderDate == Dataset.DateColumn.MISSING || shipDate == Dataset.DateColumn.MISSING) {
+            return Dataset.IntegerColumn.MISSING;
+        }
+        return shipDate - orderDate;
+    }
+
+    /**
+     * Transforms the order priority from a single letter to a full word.
+     *
+     * @param orderPriority The order priority as a single letter.
+     * @return The full word representation of the order priority.
+     */
+    public static String expandOrderPriority(String orderPriority) {
+        switch (orderPriority) {
+            case "L":
+                return "Low";
+            case "M":
+                return "Medium";
+            case "H":
+                return "High";
+            case "C":
+                return "Critical";
+            default:
+                return orderPriority;
+        }
+    }
+
+    /**
+     * Calculates the gross margin as a percentage. It is not rounded here: it is written with two
+     * decimals by {@link Dataset#formatDecimal} and stored rounded by {@link OrdersTable#bind}, so
+     * it is rounded once.
+     *
+     * @param totalProfit  The total profit.
+     * @param totalRevenue The total revenue.
+     * @return The gross margin percentage, 0 if revenue is zero, or NaN if either input is missing.
+     */
+    public static double calculateGrossMargin(double totalProfit, double totalRevenue) {
+        if (Double.isNaN(totalProfit) || Double.isNaN(totalRevenue)) {
+            return Double.NaN;
+        }
+        return totalRevenue != 0 ? (totalProfit / totalRevenue) * 100 : 0.0;
+    }
+
+    /**
+     * Adds [Order Processing Time], the days from [Order Date] to [Ship Date].
+     */
+    public static class OrderProcessingTime implements TransformStage {
+
+        private Dataset.DateColumn orderDates;
+        private Dataset.DateColumn shipDates;
+        private Dataset.IntegerColumn processingTimes;
+
+        @Override
+        public void bind(Dataset dataset) {
+            orderDates = (Dataset.DateColumn) dataset.getColumn("Order Date");
+            shipDates = (Dataset.DateColumn) dataset.getColumn("Ship Date");
+            processingTimes = new Dataset.IntegerColumn(dataset.getRowCount());
+            dataset.addColumn("Order Processing Time", processingTimes);
+        }
+
+        @Override
+        public boolean apply(int row) {
+            processingTimes.set(row, calculateOrderProcessingTime(orderDates.get(row), shipDates.get(row)));
+            return true;
+        }
+    }
+
+    /**
+     * Adds [Gross Margin], the profit as a percentage of revenue.
+     */
+    public static class GrossMargin implements TransformStage {
+
+        private Dataset.RealColumn totalProfits;
+        private Dataset.RealColumn totalRevenues;
+        private Dataset.RealColumn grossMargins;
+
+        @Override
+        public void bind(Dataset dataset) {
+            totalProfits = (Dataset.RealColumn) dataset.getColumn("Total Profit");
+            totalRevenues = (Dataset.RealColumn) dataset.getColumn("Total Revenue");
+            grossMargins = new Dataset.RealColumn(dataset.getRowCount());
+            dataset.addColumn("Gross Margin", grossMargins);
+        }
+
+        @Override
+        public boolean apply(int row) {
+            grossMargins.set(row, calculateGrossMargin(totalProfits.get(row), totalRevenues.get(row)));
+            return true;
+        }
+    }
+
+    /**
+     * Rewrites the values of a text column. The mapping runs once per distinct value when the
+     * stage binds, so it costs nothing per row.
+     */
+    public static class MapValues implements TransformStage {
+
+        private final String column;
+        private final UnaryOperator<String> mapping;
+
+        /**
+         * @param column  The text column to rewrite.
+         * @param mapping The new value of each old value.
+         */
+        public MapValues(String column, UnaryOperator<String> mapping) {
+            this.column = column;
+            this.mapping = mapping;
+        }
+
+        @Override
+        public void bind(Dataset dataset) {
+            ((Dataset.TextColumn) dataset.getColumn(column)).mapValues(mapping);
+        }
+
+        @Override
+        public boolean apply(int row) {
+            return true;
+        }
+    }
+
+    /**
+     * Keeps the first row of each key of an integer column. It should be the first filter of its
+     * pipeline: in a parallel pass, or when the keys outgrow the memory budget, the first rows are
+     * found up front with a {@link Deduplicator}, which sees every row.
+     */
+    public static class DistinctKeys implements TransformStage {
+
+        private final String column;
+        private final long memoryBudgetBytes;
+
+        private Dataset.IntegerColumn keys;
+        private LongHashSet seen;
+        private BitSet firstRows;
+        private int duplicateCount;
+        private int partitions;
+
+        /**
+         * @param column            The key column.
+         * @param memoryBudgetBytes The memory budget of the key set before it spills to disk.
+         */
+        public DistinctKeys(String column, long memoryBudgetBytes) {
+            this.column = column;
+            this.memoryBudgetBytes = memoryBudgetBytes;
+        }
+
+        @Override
+        public void bind(Dataset dataset) throws IOException {
+            bind(dataset, null);
+        }
+
+        @Override
+        public void bind(Dataset dataset, ForkJoinPool pool) throws IOException {
+            keys = (Dataset.IntegerColumn) dataset.getColumn(column);
+            duplicateCount = 0;
+            seen = null;
+            firstRows = null;
+            partitions = 1;
+            int rows = dataset.getRowCount();
+            if (pool == null && LongHashSet.heapBytesFor(rows) <= memoryBudgetBytes) {
+                seen = new LongHashSet(rows);
+            } else {
+                // Resolve first occurrences up front, in parallel or through spill files.
+                Deduplicator deduplicator = new Deduplicator(memoryBudgetBytes);
+                firstRows = pool != null ? deduplicator.firstOccurrences(keys, pool) : deduplicator.firstOccurrences(keys);
+                duplicateCount = deduplicator.getDuplicateCount();
+                partitions = deduplicator.getPartitions();
+            }
+        }
+
+        @Override
+        public boolean isThreadSafe() {
+            return seen == null;
+        }
+
+        @Override
+        public boolean apply(int row) {
+            if (seen == null) {
+                return firstRows.get(row);
+            }
+            if (seen.add(keys.get(row))) {
+                return true;
+            }
+            duplicateCount++;
+            return false;
+        }
+
+        /**
+         * @return The number of rows dropped as duplicates by the last run.
+         */
+        public int getDuplicateCount() {
+            return duplicateCount;
+        }
+
+        /**
+         * @return The number of spill partitions used by the last run, 1 when it stayed in memory.
+         */
+        public int getPartitions() {
+            return partitions;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/**
+ * Orders partitioned into one SQLite database per value of a column, loaded and queried in parallel.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package lambda;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.DeleteObjectRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import saaf.Inspector;
+
+/**
+ * The ShardedOrders class stores Orders as one database per value of a shard column, for instance
+ * one per Region, under shards/&lt;column&gt;/&lt;value&gt;.db in the bucket.
+ *
+ * Loading splits the rows by value and loads every shard on its own thread and connection, then
+ * uploads it. A query filtering on the shard column opens only that shard; any other query runs
+ * on every shard in parallel, each returning partial aggregates that are merged, see
+ * {@link PartialAggregate}.
+ */
+public class ShardedOrders {
+
+    /**
+     * The key prefix of the shards.
+     */
+    public static final String PREFIX = "shards/";
+
+    /**
+     * The most shards a load may create, to keep a high-cardinality column from being chosen.
+     */
+    public static final int MAX_SHARDS = 256;
+
+    private static final Path LOCAL_DIRECTORY = Paths.get("/tmp/shards");
+
+    private ShardedOrders() {
+    }
+
+    /**
+     * @param column The shard column.
+     * @param value  The shard value.
+     * @return The S3 key of the shard.
+     */
+    public static String key(String column, String value) {
+        try {
+            return PREFIX + column + "/" + URLEncoder.encode(value, "UTF-8") + ".db";
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Groups the rows of a dataset by the value of the shard column.
+     *
+     * @param dataset The transformed data.
+     * @param column  The shard column, an Orders column name.
+     * @return The row indexes of each value, in row order, by value.
+     * @throws IllegalArgumentException If the column is unknown or has more than {@link #MAX_SHARDS} values.
+     */
+    public static Map<String, int[]> partition(Dataset dataset, String column) {
+        int index = Arrays.asList(OrdersTable.COLUMNS).indexOf(column);
+        if (index < 0) {
+            throw new IllegalArgumentException("Orders has no column " + column);
+        }
+        Dataset.Column values = OrdersTable.bindColumns(dataset)[index];
+        Map<String, int[]> rows = new TreeMap<>();
+        Map<String, Integer> counts = new HashMap<>();
+        for (int row = 0; row < dataset.getRowCount(); row++) {
+            counts.merge(values.format(row), 1, Integer::sum);
+            if (counts.size() > MAX_SHARDS) {
+                throw new IllegalArgumentException(column + " has more than " + MAX_SHARDS + " values to shard on");
+            }
+        }
+        Map<String, Integer> filled = new HashMap<>();
+        for (Map.Entry<String, Integer> count : counts.entrySet()) {
+            rows.put(count.getKey(), new int[count.getValue()]);
+            filled.put(count.getKey(), 0);
+        }
+        for (int row = 0; row < dataset.getRowCount(); row++) {
+            String value = values.format(row);
+            int position = filled.merge(value, 1, Integer::sum) - 1;
+            rows.get(value)[position] = row;
+        }
+        return rows;
+    }
+
+    /**
+     * Loads and uploads one database per value of the shard column, in parallel, and removes the
+     * shards of values no longer present.
+     *
+     * @param dataset    The transformed data.
+     * @param s3Client   The Amazon S3 client.
+     * @param bucketname The bucket receiving the shards.
+     * @param column     The shard column.
+     * @param typed      True for the typed Orders schema.
+     * @param bulk       True to load with the bulk-load settings.
+     * @param threads    The number of shards loaded at once.
+     * @param inspector  The inspector receiving load statistics.
+     * @throws IOException  If a shard cannot be written or uploaded.
+     * @throws SQLException If an SQL exception occurs.
+     */
+    public static void load(Dataset dataset, AmazonS3 s3Client, String bucketname, String column, boolean typed,
+            boolean bulk, int threads, Inspector inspector) throws IOException, SQLException {
+        long start = System.nanoTime();
+        Map<String, int[]> partitions = partition(dataset, column);
+        Path directory = LOCAL_DIRECTORY.resolve(column);
+        Files.createDirectories(directory);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, partitions.size())));
+        Map<String, Future<Long>> loads = new LinkedHashMap<>();
+        try {
+            for (Map.Entry<String, int[]> partition : partitions.entrySet()) {
+                loads.put(partition.getKey(), executor.submit(() -> {
+                    long shardStart = System.nanoTime();
+                    String key = key(column, partition.getKey());
+                    File file = directory.resolve(key.substring(key.lastIndexOf('/') + 1)).toFile();
+                    Files.deleteIfExists(file.toPath());
+                    try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file)) {
+                        if (bulk) {
+                            OrdersTable.configureBulkLoad(connection);
+                        }
+                        connection.setAutoCommit(false);
+                        if (bulk) {
+                            OrdersTable.bulkInsert(connection, dataset, partition.getValue(), typed);
+                        } else {
+                            OrdersTable.create(connection, typed);
+                            OrdersTable.insert(connection, dataset, partition.getValue(), typed);
+                        }
+                        connection.commit();
+                    }
+                    s3Client.putObject(new PutObjectRequest(bucketname, key, file));
+                    return (System.nanoTime() - shardStart) / 1_000_000;
+                }));
+            }
+            Map<String, Long> shardMs = new LinkedHashMap<>();
+            for (Map.Entry<String, Future<Long>> load : loads.entrySet()) {
+                shardMs.put(load.getKey(), load.getValue().get());
+            }
+            inspector.addAttribute("shardLoadMs", shardMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading shards", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new IOException("Failed to load a shard", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<String> current = new ArrayList<>();
+        for (String value : partitions.keySet()) {
+            current.add(key(column, value));
+        }
+        int removed = 0;
+        for (String key : list(s3Client, bucketname, column)) {
+            if (!current.contains(key)) {
+                s3Client.deleteObject(new DeleteObjectRequest(bucketname, key));
+                removed++;
+            }
+        }
+
+        Map<String, Integer> shardRows = new LinkedHashMap<>();
+        for (Map.Entry<String, int[]> partition : partitions.entrySet()) {
+            shardRows.put(partition.getKey(), partition.getValue().length);
+        }
+        long elapsed = System.nanoTime() - start;
+        inspector.addAttribute("schema", typed ? "typed" : "text");
+        inspector.addAttribute("loadMode", bulk ? "bulk" : "default");
+        inspector.addAttribute("shardBy", column);
+        inspector.addAttribute("shardRows", shardRows);
+        inspector.addAttribute("shardsRemoved", removed);
+        inspector.addAttribute("loadRows", dataset.getRowCount());
+        inspector.addAttribute("loadMs", elapsed / 1_000_000);
+        inspector.addAttribute("loadRowsPerSec", elapsed == 0 ? 0 : dataset.getRowCount() * 1_000_000_000L / elapsed);
+    }
+
+    /**
+     * Runs an aggregation query over the shards it needs and merges the partial results.
+     *
+     * @param s3Client     The Amazon S3 client.
+     * @param bucketname   The bucket holding the shards.
+     * @param column       The shard column.
+     * @param filters      The equality filters by Orders column, may be null.
+     * @param aggregations The aggregations, see {@link PartialAggregate#parse}.
+     * @param threads      The number of shards downloaded and queried at once.
+     * @return The value of each aggregation, and the shards queried and the query time.
+     * @throws IOException              If a shard cannot be downloaded.
+     * @throws SQLException             If an SQL exception occurs.
+     * @throws IllegalArgumentException If the shard column, a filter column or an aggregation is not
+     *                                  allowed, as checked by {@link AggregationQuery#of}.
+     */
+    public static Map<String, Object> query(AmazonS3 s3Client, String bucketname, String column,
+            Map<String, String> filters, List<String> aggregations, int threads) throws IOException, SQLException {
+        long start = System.currentTimeMillis();
+        if (!Arrays.asList(OrdersTable.COLUMNS).contains(column)) {
+            throw new IllegalArgumentException("Cannot shard by " + column);
+        }
+        // Validates the filter columns and aggregations; its filter values are bound, not pasted in
+        AggregationQuery query = AggregationQuery.of(filters, aggregations);
+        if (filters == null) {
+            filters = new HashMap<>();
+        }
+        List<PartialAggregate> partials = new ArrayList<>();
+        List<String> columns = new ArrayList<>();
+        for (String aggregation : aggregations) {
+            PartialAggregate partial = PartialAggregate.parse(aggregation);
+            partials.add(partial);
+            columns.addAll(partial.getPartialColumns());
+        }
+
+        List<String> shards = list(s3Client, bucketname, column);
+        int total = shards.size();
+        if (filters.containsKey(column)) {
+            // Only the shard holding the filtered value can match.
+            shards.retainAll(Arrays.asList(key(column, filters.get(column))));
+        }
+
+        Path directory = LOCAL_DIRECTORY.resolve(column);
+        Files.createDirectories(directory);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, shards.size())));
+        List<Future<Double[]>> results = new ArrayList<>();
+        try {
+            for (String key : shards) {
+                results.add(executor.submit(() -> {
+                    Path file = directory.resolve(key.substring(key.lastIndexOf('/') + 1));
+                    S3Object s3Object = s3Client.getObject(new GetObjectRequest(bucketname, key));
+                    try (InputStream objectData = s3Object.getObjectContent()) {
+                        Files.copy(objectData, file, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    return queryShard(file, columns, query);
+                }));
+            }
+            for (Future<Double[]> result : results) {
+                Double[] row = result.get();
+                int c = 0;
+                for (PartialAggregate partial : partials) {
+                    partial.add(row, c);
+                    c += partial.getPartialColumns().size();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while querying shards", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new IOException("Failed to query a shard", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        for (PartialAggregate partial : partials) {
+            response.put(partial.getAggregation(), partial.getResult());
+        }
+        response.put("shardsQueried", shards.size());
+        response.put("shardsTotal", total);
+        response.put("queryMs", System.currentTimeMillis() - start);
+        return response;
+    }
+
+    /**
+     * Runs the partial aggregates on one shard.
+     *
+     * @return The value of each partial column, null where SQL returned NULL.
+     */
+    private static Double[] queryShard(Path file, List<String> columns, AggregationQuery query)
+            throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file)) {
+            boolean typed = OrdersTable.isTyped(connection);
+            try (PreparedStatement statement = connection.prepareStatement(query.sql("Orders", columns))) {
+                query.bind(statement, typed);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    resultSet.next();
+                    Double[] row = new Double[columns.size()];
+                    for (int c = 0; c < columns.size(); c++) {
+                        double value = resultSet.getDouble(c + 1);
+                        row[c] = resultSet.wasNull() ? null : value;
+                    }
+                    return row;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The keys of the shards stored for a column.
+     */
+    private static List<String> list(AmazonS3 s3Client, String bucketname, String column) {
+        List<String> keys = new ArrayList<>();
+        ListObjectsV2Request listRequest = new ListObjectsV2Request().withBucketName(bucketname)
+                .withPrefix(PREFIX + column + "/");
+        ListObjectsV2Result listing;
+        do {
+            listing = s3Client.listObjectsV2(listRequest);
+            for (S3ObjectSummary summary : listing.getObjectSummaries()) {
+                if (summary.getKey().endsWith(".db")) {
+                    keys.add(summary.getKey());
+                }
+            }
+            listRequest.setContinuationToken(listing.getNextContinuationToken());
+        } while (listing.isTruncated());
+        return keys;
+    }
+}
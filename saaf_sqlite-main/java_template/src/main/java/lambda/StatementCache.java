@@ -0,0 +1,124 @@
+/**
+ * LRU cache of the prepared statements of one connection.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package lambda;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The StatementCache class keeps the statements a connection has compiled, by SQL, so that a
+ * query of a shape seen before is only bound and run. The query plan of each statement is kept
+ * with it, since it is the same for every set of values bound.
+ *
+ * A statement belongs to its connection: the cache is closed with it, and a statement evicted
+ * beyond the cap is closed then. Hits, misses and the time spent preparing are counted over the
+ * life of the cache.
+ */
+public class StatementCache {
+
+    private final Connection connection;
+    private final int maxStatements;
+    private final LinkedHashMap<String, Entry> statements = new LinkedHashMap<>(16, 0.75f, true);
+    private long hits;
+    private long misses;
+    private long prepareNanos;
+
+    /**
+     * @param connection    The connection the statements are prepared on.
+     * @param maxStatements The number of statements kept open.
+     */
+    public StatementCache(Connection connection, int maxStatements) {
+        this.connection = connection;
+        this.maxStatements = maxStatements;
+    }
+
+    /**
+     * Returns the statement for the SQL, preparing it and explaining its plan on a miss.
+     *
+     * @param sql The SQL.
+     * @return The statement and its plan, with no parameters bound.
+     * @throws SQLException If the SQL cannot be prepared.
+     */
+    public synchronized Entry prepare(String sql) throws SQLException {
+        Entry entry = statements.get(sql);
+        if (entry != null) {
+            hits++;
+            entry.statement.clearParameters();
+            return entry;
+        }
+        misses++;
+        long start = System.nanoTime();
+        PreparedStatement statement = connection.prepareStatement(sql);
+        prepareNanos += System.nanoTime() - start;
+        entry = new Entry(statement, IndexAdvisor.explain(connection, sql));
+        statements.put(sql, entry);
+        while (statements.size() > maxStatements) {
+            Map.Entry<String, Entry> eldest = statements.entrySet().iterator().next();
+            statements.remove(eldest.getKey());
+            eldest.getValue().statement.close();
+        }
+        return entry;
+    }
+
+    /**
+     * Adds the hit and miss counts and the total prepare time to a response.
+     *
+     * @param response The response.
+     */
+    public synchronized void report(Map<String, Object> response) {
+        response.put("statementCacheHits", hits);
+        response.put("statementCacheMisses", misses);
+        response.put("statementCacheHitRate", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+        response.put("statementPrepareMs", prepareNanos / 1e6);
+    }
+
+    /**
+     * Closes every statement.
+     */
+    public synchronized void close() {
+        for (Entry entry : statements.values()) {
+            try {
+                entry.statement.close();
+            } catch (SQLException e) {
+                System.out.println("Failed to close a prepared statement");
+                e.printStackTrace();
+            }
+        }
+        statements.clear();
+    }
+
+    /**
+     * A prepared statement and its query plan.
+     */
+    public static class Entry {
+
+        private final PreparedStatement statement;
+        private final List<String> plan;
+
+        Entry(PreparedStatement statement, List<String> plan) {
+            this.statement = statement;
+            this.plan = plan;
+        }
+
+        /**
+         * @return The statement.
+         */
+        public PreparedStatement getStatement() {
+            return statement;
+        }
+
+        /**
+         * @return The lines of its EXPLAIN QUERY PLAN.
+         */
+        public List<String> getPlan() {
+            return plan;
+        }
+    }
+}
@@ -12,25 +12,14 @@ import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.amazonaws.services.s3.model.GetObjectRequest;
-import com.amazonaws.services.s3.model.ObjectMetadata;
-import com.amazonaws.services.s3.model.PutObjectRequest;
-import com.amazonaws.services.s3.model.PutObjectResult;
 import com.amazonaws.services.s3.model.S3Object;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintWriter;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Date;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
-import java.util.List;
-import java.util.Scanner;
-import java.util.concurrent.TimeUnit;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
 import saaf.Inspector;
@@ -60,201 +49,167 @@ public class Transform implements RequestHandler<HashMap<String, Object>, HashMa
         String bucketname = (String) input.get("bucketname");
         String filename = (String) input.get("filename");
 
+        int ingestThreads = intOption(input, "ingestThreads", 1);
+        int ingestChunkMB = intOption(input, "ingestChunkMB", 8);
+        int dedupMemoryMB = intOption(input, "dedupMemoryMB", 256);
+        int transformThreads = intOption(input, "transformThreads", 1);
+        int uploadPartMB = intOption(input, "uploadPartMB", 8);
+        int uploadThreads = intOption(input, "uploadThreads", 4);
+        boolean columnar = "columnar".equals(input.get("format"));
+
         // Download CSV file from S3 and store its data.
-        List<ArrayList<String>> csvData = downloadCSVFileFromS3(bucketname, filename);
+        Dataset dataset = ingestThreads > 1
+                ? downloadCSVFileInRanges(bucketname, filename, ingestThreads, ingestChunkMB, inspector)
+                : downloadCSVFileFromS3(bucketname, filename, inspector);
+        inspector.addAttribute("datasetHeapBytes", dataset.heapBytes());
+        dataset.getParseErrors().report(inspector);
 
         // Perform data transformation.
-        transformData(csvData);
+        SalesTransforms.transform(dataset, dedupMemoryMB, transformThreads, inspector);
 
-        // Write the transformed data back to S3.
-        writeCsvToS3(bucketname, csvData);
+        // Write the transformed data back to S3, as CSV unless the columnar format is asked for.
+        if (columnar) {
+            writeColumnarToS3(bucketname, dataset, uploadPartMB, uploadThreads, inspector);
+        } else {
+            writeCsvToS3(bucketname, dataset, uploadPartMB, uploadThreads, inspector);
+        }
 
         // Finish the inspection and return the result.
         return inspector.finish();
     }
 
     /**
-     * Downloads a CSV file from S3 and reads its content into a list of lists.
+     * Downloads a CSV file from S3 and parses its content into a columnar dataset.
      *
      * @param bucketname The name of the S3 bucket.
      * @param filename   The name of the file to download.
-     * @return A List of ArrayLists, where each ArrayList represents a row of the CSV file.
+     * @param inspector  The inspector receiving parse statistics.
+     * @return A Dataset holding the header and rows of the CSV file.
      */
-    private List<ArrayList<String>> downloadCSVFileFromS3(String bucketname, String filename) {
-        List<ArrayList<String>> csvData = new ArrayList<>();
+    private Dataset downloadCSVFileFromS3(String bucketname, String filename, Inspector inspector) {
+        Dataset dataset = new Dataset();
         try {
             // Retrieve the object from S3.
             S3Object s3Object = s3Client.getObject(new GetObjectRequest(bucketname, filename));
-            InputStream objectData = s3Object.getObjectContent();
 
-            // Read the CSV data line by line.
-            Scanner scanner = new Scanner(objectData);
-            while (scanner.hasNextLine()) {
-                String line = scanner.nextLine();
-                String[] row = line.split(",");
-                csvData.add(new ArrayList<>(Arrays.asList(row)));
+            // Parse the CSV data straight from the object stream into columns.
+            CsvParser parser = new CsvParser(dataset);
+            try (InputStream objectData = s3Object.getObjectContent()) {
+                parser.parse(objectData);
             }
-            objectData.close();
+            inspector.addAttribute("csvRows", parser.getRowCount());
+            inspector.addAttribute("csvParseMs", parser.getElapsedMillis());
+            inspector.addAttribute("csvRowsPerSec", parser.getRowsPerSecond());
         } catch (Exception e) {
             System.out.println("Failed to download the csv");
             e.printStackTrace();
         }
-        return csvData;
-    }
-
-    /**
-     * Transforms the CSV data by adding additional columns and filtering data.
-     *
-     * @param csvData The original CSV data.
-     */
-    private void transformData(List<ArrayList<String>> csvData) {
-        // Add a new column for Order Processing Time.
-        csvData.get(0).add("Order Processing Time");
-
-        // Calculate and add processing time for each order.
-        for (int i = 1; i < csvData.size(); i++) {
-            String orderDate = csvData.get(i).get(5);
-            String shipDate = csvData.get(i).get(7);
-            csvData.get(i).add(calculateOrderProcessingTime(orderDate, shipDate));
-        }
-
-        // Transform 'Order Priority' column.
-        int orderPriorityIndex = getColumnIndex(csvData.get(0), "Order Priority");
-        for (int i = 1; i < csvData.size(); i++) {
-            String orderPriority = csvData.get(i).get(orderPriorityIndex);
-            csvData.get(i).set(orderPriorityIndex, transformOrderPriority(orderPriority));
-        }
-
-        // Add a new column for Gross Margin.
-        csvData.get(0).add("Gross Margin");
-
-        // Calculate and add gross margin for each order.
-        int totalProfitIndex = getColumnIndex(csvData.get(0), "Total Profit");
-        int totalRevenueIndex = getColumnIndex(csvData.get(0), "Total Revenue");
-        for (int i = 1; i < csvData.size(); i++) {
-            csvData.get(i).add(calculateGrossMargin(csvData.get(i).get(totalProfitIndex), csvData.get(i).get(totalRevenueIndex)));
-        }
-
-        // Filter out duplicate order IDs.
-        int orderIDIndex = getColumnIndex(csvData.get(0), "Order ID");
-        List<String> processedOrderIDs = new ArrayList<>();
-        List<ArrayList<String>> filteredData = new ArrayList<>();
-        for (ArrayList<String> row : csvData) {
-            String orderID = row.get(orderIDIndex);
-            if (!processedOrderIDs.contains(orderID)) {
-                processedOrderIDs.add(orderID);
-                filteredData.add(row);
-            }
-        }
-        csvData.clear();
-        csvData.addAll(filteredData);
+        return dataset;
     }
 
     /**
-     * Calculates the number of days between the order date and the ship date.
+     * Downloads a CSV file from S3 with concurrent ranged GETs and parses the ranges in parallel.
      *
-     * @param orderDate The order date in MM/dd/yyyy format.
-     * @param shipDate  The ship date in MM/dd/yyyy format.
-     * @return A string representing the number of days between the two dates.
+     * @param bucketname    The name of the S3 bucket.
+     * @param filename      The name of the file to download.
+     * @param threads       The number of concurrent ranged GETs.
+     * @param chunkMB       The size of each range in MB.
+     * @param inspector     The inspector receiving ingest statistics.
+     * @return A Dataset holding the header and rows of the CSV file.
      */
-    private String calculateOrderProcessingTime(String orderDate, String shipDate) {
-        try {
-            SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
-            Date orderDateObj = dateFormat.parse(orderDate);
-            Date shipDateObj = dateFormat.parse(shipDate);
-            long timeDifference = shipDateObj.getTime() - orderDateObj.getTime();
-            return String.valueOf(TimeUnit.MILLISECONDS.toDays(timeDifference));
-        } catch (ParseException e) {
+    private Dataset downloadCSVFileInRanges(String bucketname, String filename, int threads,
+            int chunkMB, Inspector inspector) {
+        try (RangedCsvReader reader = new RangedCsvReader(s3Client, threads, RangedCsvReader.chunkSize(chunkMB))) {
+            Dataset dataset = reader.readDataset(bucketname, filename);
+            inspector.addAttribute("csvRows", reader.getRowCount() + 1);
+            inspector.addAttribute("csvParseMs", reader.getElapsedMillis());
+            inspector.addAttribute("csvRowsPerSec", reader.getRowsPerSecond());
+            return dataset;
+        } catch (Exception e) {
+            System.out.println("Failed to download the csv");
             e.printStackTrace();
-            return "";
+            return new Dataset();
         }
     }
 
     /**
-     * Transforms the order priority from a single letter to a full word.
+     * Reads an integer option from the request input.
      *
-     * @param orderPriority The order priority as a single letter.
-     * @return The full word representation of the order priority.
+     * @param input        The input data for the Lambda function.
+     * @param key          The option name.
+     * @param defaultValue The value used when the option is absent.
+     * @return The option value.
      */
-    private String transformOrderPriority(String orderPriority) {
-        switch (orderPriority) {
-            case "L":
-                return "Low";
-            case "M":
-                return "Medium";
-            case "H":
-                return "High";
-            case "C":
-                return "Critical";
-            default:
-                return orderPriority;
-        }
+    private static int intOption(HashMap<String, Object> input, String key, int defaultValue) {
+        Object value = input.get(key);
+        return value instanceof Number ? ((Number) value).intValue()
+                : value != null ? Integer.parseInt(value.toString()) : defaultValue;
     }
 
     /**
-     * Calculates the gross margin as a percentage.
+     * Writes the transformed CSV data back to an S3 bucket. Rows are streamed to S3 in parts
+     * while they are formatted, so the output is never held in memory as a whole.
      *
-     * @param totalProfit   The total profit as a string.
-     * @param totalRevenue  The total revenue as a string.
-     * @return A string representing the gross margin percentage.
+     * @param bucketname The name of the S3 bucket.
+     * @param dataset    The CSV data to write.
+     * @param partMB     The size of each uploaded part in MB.
+     * @param threads    The number of parts uploaded concurrently.
+     * @param inspector  The inspector receiving upload statistics.
      */
-    private String calculateGrossMargin(String totalProfit, String totalRevenue) {
+    private void writeCsvToS3(String bucketname, Dataset dataset, int partMB, int threads, Inspector inspector) {
+        S3UploadStream upload = new S3UploadStream(s3Client, bucketname, "output.csv",
+                S3UploadStream.partSize(partMB), threads);
         try {
-            double profit = Double.parseDouble(totalProfit);
-            double revenue = Double.parseDouble(totalRevenue);
-            return revenue != 0 ? String.format("%.2f", (profit / revenue) * 100) : "0.0";
-        } catch (NumberFormatException e) {
-            e.printStackTrace();
-            return "";
-        }
-    }
-
-    /**
-     * Finds the column index for a given column name in the CSV data.
-     *
-     * @param header     The header row of the CSV data.
-     * @param columnName The name of the column to find.
-     * @return The index of the column, or -1 if not found.
-     */
-    private int getColumnIndex(ArrayList<String> header, String columnName) {
-        for (int i = 0; i < header.size(); i++) {
-            if (header.get(i).equals(columnName)) {
-                return i;
+            CSVPrinter csvPrinter = new CSVPrinter(
+                    new BufferedWriter(new OutputStreamWriter(upload, StandardCharsets.UTF_8), 64 * 1024), CSVFormat.DEFAULT);
+
+            // Print the header and each row of the CSV data to the upload stream.
+            csvPrinter.printRecord(dataset.getNames());
+            String[] row = new String[dataset.getColumnCount()];
+            for (int i = 0; i < dataset.getRowCount(); i++) {
+                for (int c = 0; c < row.length; c++) {
+                    row[c] = dataset.format(i, c);
+                }
+                csvPrinter.printRecord((Object[]) row);
             }
+
+            // Closing sends the last part and completes the upload.
+            csvPrinter.close();
+            inspector.addAttribute("uploadBytes", upload.getByteCount());
+            inspector.addAttribute("uploadParts", upload.getPartCount());
+            inspector.addAttribute("uploadBufferBytes", upload.getBufferBytes());
+            inspector.addAttribute("uploadMs", upload.getElapsedMillis());
+        } catch (IOException | RuntimeException e) {
+            upload.abort();
+            System.out.println("Failed to upload to S3");
+            e.printStackTrace();
         }
-        return -1;
     }
 
     /**
-     * Writes the transformed CSV data back to an S3 bucket.
+     * Writes the transformed data back to an S3 bucket as output.col, in the binary columnar
+     * format Load reads without parsing text. The file is streamed to S3 in parts.
      *
      * @param bucketname The name of the S3 bucket.
-     * @param csvData    The CSV data to write.
+     * @param dataset    The data to write.
+     * @param partMB     The size of each uploaded part in MB.
+     * @param threads    The number of parts uploaded concurrently.
+     * @param inspector  The inspector receiving upload statistics.
      */
-    private void writeCsvToS3(String bucketname, List<ArrayList<String>> csvData) {
+    private void writeColumnarToS3(String bucketname, Dataset dataset, int partMB, int threads, Inspector inspector) {
+        S3UploadStream upload = new S3UploadStream(s3Client, bucketname, "output.col",
+                S3UploadStream.partSize(partMB), threads);
         try {
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            CSVPrinter csvPrinter = new CSVPrinter(new PrintWriter(outputStream), CSVFormat.DEFAULT);
-
-            // Print each row of the CSV data to the output stream.
-            for (ArrayList<String> row : csvData) {
-                csvPrinter.printRecord(row);
-            }
-            csvPrinter.close();
-
-            // Prepare the content to be uploaded.
-            byte[] contentBytes = outputStream.toByteArray();
-            ObjectMetadata metadata = new ObjectMetadata();
-            metadata.setContentLength(contentBytes.length);
-
-            // Create and execute a PutObjectRequest to upload the data.
-            PutObjectRequest putObjectRequest = new PutObjectRequest(
-                    bucketname, "output.csv", new ByteArrayInputStream(contentBytes), metadata);
-
-            s3Client.putObject(putObjectRequest);
-        } catch (IOException e) {
+            ColumnarFile.write(dataset, upload);
+            upload.close();
+            inspector.addAttribute("uploadBytes", upload.getByteCount());
+            inspector.addAttribute("uploadParts", upload.getPartCount());
+            inspector.addAttribute("uploadBufferBytes", upload.getBufferBytes());
+            inspector.addAttribute("uploadMs", upload.getElapsedMillis());
+        } catch (IOException | RuntimeException e) {
+            upload.abort();
             System.out.println("Failed to upload to S3");
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+}
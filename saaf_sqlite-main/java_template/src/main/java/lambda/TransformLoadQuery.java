@@ -12,33 +12,26 @@ import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.amazonaws.services.s3.model.GetObjectRequest;
-import com.amazonaws.services.s3.model.ObjectMetadata;
-import com.amazonaws.services.s3.model.PutObjectRequest;
-import com.amazonaws.services.s3.model.PutObjectResult;
 import com.amazonaws.services.s3.model.S3Object;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintWriter;
-import java.nio.file.Files;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.csv.CSVFormat;
@@ -53,12 +46,19 @@ import saaf.Inspector;
  */
 
 public class TransformLoadQuery implements RequestHandler<Request, HashMap<String, Object>> {
-    
+
+    /**
+     * The in-memory database, shared by the connections of this class loader so that it can be
+     * backed up from a second connection while the query runs on the first.
+     */
+    private static final String MEMORY_URL = "jdbc:sqlite:file:sales?mode=memory&cache=shared";
  
     Connection connection;
     String bucketname;
     String filename;
-    List<ArrayList<String>> csvData;
+    Dataset dataset;
+    Request request;
+    Future<?> publication;
 
     public HashMap<String, Object> handleRequest(Request request, Context context) {
     Inspector inspector = new Inspector();
@@ -72,6 +72,7 @@ public class TransformLoadQuery implements RequestHandler<Request, HashMap<Strin
         {
         System.out.println("Interruption occurred while sleeping...");
         }
+    this.request = request;
     bucketname = request.getBucketname();
     filename = request.getFilename();
     
@@ -80,28 +81,55 @@ public class TransformLoadQuery implements RequestHandler<Request, HashMap<Strin
     
     AmazonS3 s3Client = AmazonS3ClientBuilder.standard().build();
 
-    S3Object s3Object = s3Client.getObject(new GetObjectRequest(bucketname, filename));
-    InputStream objectData = s3Object.getObjectContent();
-    
-    csvData = new ArrayList<>();
-    
-    Scanner scanner = new Scanner(objectData);
+    dataset = new Dataset();
+
+    if (request.getIngestThreads() > 1) {
+        // Concurrent ranged GETs, parsed in parallel and reassembled in file order
+        try (RangedCsvReader reader = new RangedCsvReader(s3Client, request.getIngestThreads(),
+                RangedCsvReader.chunkSize(request.getIngestChunkMB()))) {
+            dataset = reader.readDataset(bucketname, filename);
+            inspector.addAttribute("csvRows", reader.getRowCount() + 1);
+            inspector.addAttribute("csvParseMs", reader.getElapsedMillis());
+            inspector.addAttribute("csvRowsPerSec", reader.getRowsPerSecond());
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Failed to read the csv");
+            e.printStackTrace();
+        }
+    } else {
+        S3Object s3Object = s3Client.getObject(new GetObjectRequest(bucketname, filename));
+        InputStream objectData = s3Object.getObjectContent();
 
-    while (scanner.hasNextLine()) {
-        String line = scanner.nextLine();
-        String[] row = line.split(",");
-        ArrayList<String> list = new ArrayList<>(Arrays.asList(row));
-        csvData.add(list);
+        CsvParser parser = new CsvParser(dataset);
+        try {
+            parser.parse(objectData);
+            objectData.close();
+        } catch (IOException e) {
+            System.out.println("Failed to read the csv");
+            e.printStackTrace();
+        }
+        inspector.addAttribute("csvRows", parser.getRowCount());
+        inspector.addAttribute("csvParseMs", parser.getElapsedMillis());
+        inspector.addAttribute("csvRowsPerSec", parser.getRowsPerSecond());
     }
 
-    transformData(csvData);
-    writeCsvToS3(s3Client, csvData);
-    loadIntoSQLite(csvData, s3Client);
-    
-    Map<String, Object> service3Response = processService3Request(request);
-    
+    inspector.addAttribute("datasetHeapBytes", dataset.heapBytes());
+    dataset.getParseErrors().report(inspector);
 
-    scanner.close();
+    SalesTransforms.transform(dataset, request.getDedupMemoryMB(), request.getTransformThreads(), inspector);
+    if ("columnar".equals(request.getFormat())) {
+        writeColumnarToS3(s3Client, dataset, request, inspector);
+    } else {
+        writeCsvToS3(s3Client, dataset, request, inspector);
+    }
+    loadIntoSQLite(dataset, s3Client, request.isTypedSchema(), request.isBulkLoad(),
+            request.getIndexBudgetMB(), inspector);
+    
+    Map<String, Object> service3Response = request.getQueries() != null
+            ? processBatchRequest(request) : processService3Request(request);
+    if (request.isRecordWorkload()) {
+        recordWorkload(s3Client, request);
+    }
+    awaitPublication(inspector);
 
     logger.log("ProcessCSV bucketname:" + bucketname + " filename:" + filename);
 
@@ -123,317 +151,200 @@ public class TransformLoadQuery implements RequestHandler<Request, HashMap<Strin
     return inspector.finish();
 }
 
-/**
- * Transforms the CSV data by adding new columns, changing values, and removing duplicates.
- * It adds columns like 'Order Processing Time' and 'Gross Margin', transforms 'Order Priority',
- * and filters out duplicate entries based on 'Order ID'.
- *
- * @param csvData The CSV data as a list of rows, where each row is a list of strings.
- */
-
-    private void transformData(List<ArrayList<String>> csvData) {
-        // Service #1 Transformations
-
-        // 1. Add column [Order Processing Time]
-        csvData.get(0).add("Order Processing Time");
-        for (int i = 1; i < csvData.size(); i++) {
-            String orderDate = csvData.get(i).get(5);
-            String shipDate = csvData.get(i).get(7); 
-            // Calculate and add Order Processing Time         
-            String orderProcessingTime = calculateOrderProcessingTime(orderDate, shipDate);
-            csvData.get(i).add(orderProcessingTime);
-        }
-
-        // 2. Transform [Order Priority] column
-        int orderPriorityIndex = getColumnIndex(csvData.get(0), "Order Priority");
-        for (int i = 1; i < csvData.size(); i++) {
-            String orderPriority = csvData.get(i).get(orderPriorityIndex);
-            // Transform order priority as needed
-            String transformedOrderPriority = transformOrderPriority(orderPriority);
-            csvData.get(i).set(orderPriorityIndex, transformedOrderPriority);
-        }
-
-        // 3. Add a [Gross Margin] column
-        csvData.get(0).add("Gross Margin");
-        int totalProfitIndex = getColumnIndex(csvData.get(0), "Total Profit");
-        int totalRevenueIndex = getColumnIndex(csvData.get(0), "Total Revenue");
-        for (int i = 1; i < csvData.size(); i++) {
-            // Calculate and add Gross Margin
-       
-            String grossMargin = calculateGrossMargin(csvData.get(i).get(totalProfitIndex), csvData.get(i).get(totalRevenueIndex));
-            csvData.get(i).add(grossMargin);
-        }
-
-        // 4. Remove duplicate data identified by [Order ID]
-        int orderIDIndex = getColumnIndex(csvData.get(0), "Order ID");
-        List<String> processedOrderIDs = new ArrayList<>();
-        List<ArrayList<String>> filteredData = new ArrayList<>();
-        for (int i = 0; i < csvData.size(); i++) {
-            String orderID = csvData.get(i).get(orderIDIndex);
-            if (!processedOrderIDs.contains(orderID)) {
-                processedOrderIDs.add(orderID);
-                filteredData.add(csvData.get(i));
-            }
-        }
-        // Update csvData with filteredData
-        csvData.clear();
-        csvData.addAll(filteredData);
-    }
-
     /**
- * Calculates the number of days between the order date and the ship date.
- * Both dates are provided in the format "MM/dd/yyyy". This method parses the 
- * string dates into {@link Date} objects and computes the difference in days.
+ * Writes the transformed data to S3 as CSV, header first.
+ * The rows are streamed to S3 as a multipart upload while they are formatted.
  *
- * @param orderDate The date when the order was placed, in "MM/dd/yyyy" format.
- * @param shipDate  The date when the order was shipped, in "MM/dd/yyyy" format.
- * @return The number of days between the order date and ship date as a string. 
- *         Returns an empty string if there is a parsing error.
- * @throws ParseException if the string dates cannot be parsed into valid dates.
+ * @param s3Client The AmazonS3 client instance to use for uploading.
+ * @param dataset  The transformed data.
+ * @param request  The request holding the upload part size and concurrency.
+ * @param inspector The inspector receiving upload statistics.
  */
-
-    private String calculateOrderProcessingTime(String orderDate, String shipDate) {
-    try {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
-
-        Date orderDateObj = dateFormat.parse(orderDate);
-        Date shipDateObj = dateFormat.parse(shipDate);
-
-        long timeDifference = shipDateObj.getTime() - orderDateObj.getTime();
-        long daysDifference = TimeUnit.MILLISECONDS.toDays(timeDifference);
-
-        return String.valueOf(daysDifference);
-    } catch (ParseException e) {
-        e.printStackTrace();
-        return "";
-    }
-}
     
-    /**
- * Transforms a shorthand order priority into a more descriptive format.
- * Accepts a single-character priority indicator ('L', 'M', 'H', 'C') and converts it
- * into its full descriptive form.
- *
- * @param orderPriority The shorthand order priority (e.g., 'L', 'M', 'H', 'C').
- * @return The transformed order priority as a full word ('Low', 'Medium', 'High', 'Critical').
- */
-
-
-    private String transformOrderPriority(String orderPriority) {
-        switch (orderPriority) {
-            case "L":
-                return "Low";
-            case "M":
-                return "Medium";
-            case "H":
-                return "High";
-            case "C":
-                return "Critical";
-            default:
-                return orderPriority;
-        }
-    }
-   
-   /**
- * Calculates the gross margin as a percentage based on total profit and total revenue.
- * The gross margin is computed as (profit / revenue) * 100.
- *
- * @param totalProfit  The total profit in string format.
- * @param totalRevenue The total revenue in string format.
- * @return The calculated gross margin as a percentage to two decimal places, or "0.0" if revenue is zero.
- * @throws NumberFormatException if the input strings are not valid numbers.
- */
-
-    private String calculateGrossMargin(String totalProfit, String totalRevenue) {
+     private void writeCsvToS3(AmazonS3 s3Client, Dataset dataset, Request request, Inspector inspector) {
+        S3UploadStream upload = new S3UploadStream(s3Client, bucketname, "output.csv",
+                S3UploadStream.partSize(request.getUploadPartMB()), request.getUploadThreads());
         try {
-            double profit = Double.parseDouble(totalProfit);
-            double revenue = Double.parseDouble(totalRevenue);
-
-            if (revenue != 0) {
-                double margin = (profit / revenue) * 100; // Calculate as a percentage
-                return String.format("%.2f", margin); // Format to two decimal places
-            } else {
-                return "0.0"; // Handle division by zero
+            try (CSVPrinter csvPrinter = new CSVPrinter(
+                    new BufferedWriter(new OutputStreamWriter(upload, StandardCharsets.UTF_8), 64 * 1024), CSVFormat.DEFAULT)) {
+                csvPrinter.printRecord(dataset.getNames());
+                String[] row = new String[dataset.getColumnCount()];
+                for (int i = 0; i < dataset.getRowCount(); i++) {
+                    for (int c = 0; c < row.length; c++) {
+                        row[c] = dataset.format(i, c);
+                    }
+                    csvPrinter.printRecord((Object[]) row);
+                }
             }
-        } catch (NumberFormatException e) {
-            e.printStackTrace();
-            return "";
-        }
-    }
 
-    private int getColumnIndex(ArrayList<String> header, String columnName) {
-        // Helper method to get the index of a column in the header
-        for (int i = 0; i < header.size(); i++) {
-            if (header.get(i).equals(columnName)) {
-                return i;
-            }
+            System.out.println("Data written to S3 in " + upload.getPartCount() + " parts.");
+            inspector.addAttribute("uploadBytes", upload.getByteCount());
+            inspector.addAttribute("uploadParts", upload.getPartCount());
+            inspector.addAttribute("uploadBufferBytes", upload.getBufferBytes());
+            inspector.addAttribute("uploadMs", upload.getElapsedMillis());
+        } catch (IOException | RuntimeException e) {
+            upload.abort();
+            e.printStackTrace();
         }
-        return -1; // Return -1 if the column is not found
     }
 
-    /**
- * Retrieves the index of a specified column name in a CSV file header.
- * Iterates through the header row to find the matching column name.
+/**
+ * Writes the transformed data to S3 as output.col, in the binary columnar format.
  *
- * @param header     The header row of the CSV file as a list of strings.
- * @param columnName The name of the column to find.
- * @return The index of the column, or -1 if the column name is not found.
+ * @param s3Client  The AmazonS3 client instance to use for uploading.
+ * @param dataset   The transformed data.
+ * @param request   The request holding the upload part size and concurrency.
+ * @param inspector The inspector receiving upload statistics.
  */
-    
-    
-     private void writeCsvToS3(AmazonS3 s3Client, List<ArrayList<String>> csvData) {
-        try {
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            try (CSVPrinter csvPrinter = new CSVPrinter(new PrintWriter(outputStream), CSVFormat.DEFAULT)) {
-                for (ArrayList<String> row : csvData) {
-                    csvPrinter.printRecord(row);
-                }
-            }
-
-            byte[] contentBytes = outputStream.toByteArray();
-            ObjectMetadata metadata = new ObjectMetadata();
-            metadata.setContentLength(contentBytes.length);
-
-            PutObjectRequest putObjectRequest = new PutObjectRequest(
-                    bucketname,
-                    "output.csv",
-                    new ByteArrayInputStream(contentBytes),
-                    metadata
-            );
-
-            PutObjectResult putObjectResult = s3Client.putObject(putObjectRequest);
-            System.out.println("Data written to S3. ETag: " + putObjectResult.getETag());
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+private void writeColumnarToS3(AmazonS3 s3Client, Dataset dataset, Request request, Inspector inspector) {
+    S3UploadStream upload = new S3UploadStream(s3Client, bucketname, "output.col",
+            S3UploadStream.partSize(request.getUploadPartMB()), request.getUploadThreads());
+    try {
+        ColumnarFile.write(dataset, upload);
+        upload.close();
+        inspector.addAttribute("uploadBytes", upload.getByteCount());
+        inspector.addAttribute("uploadParts", upload.getPartCount());
+        inspector.addAttribute("uploadBufferBytes", upload.getBufferBytes());
+        inspector.addAttribute("uploadMs", upload.getElapsedMillis());
+    } catch (IOException | RuntimeException e) {
+        upload.abort();
+        e.printStackTrace();
     }
+}
 
 /**
  * Loads the provided CSV data into an SQLite database.
- * Establishes a connection to the SQLite database, creates the necessary table,
- * and inserts the CSV data into the database.
+ * Establishes a connection to the SQLite database, creates the Orders table
+ * in the requested schema, and inserts the CSV data into the database.
  *
- * @param csvData  The CSV data to load into the database.
+ * @param dataset  The transformed data to load into the database.
  * @param s3Client The AmazonS3 client instance, used for uploading the database.
- * @throws ClassNotFoundException if the SQLite JDBC driver class is not found.
- * @throws SQLException if there is an error establishing a database connection or executing SQL commands.
+ * @param typed    True for the typed Orders schema, false for the all-TEXT schema.
+ * @param bulk     True to load with the bulk-load settings and a deferred primary key.
+ * @param indexBudgetMB The size budget of the indexes chosen from the workload log, 0 for none.
+ * @param inspector The inspector receiving load statistics.
  */
      
-    private void loadIntoSQLite(List<ArrayList<String>> csvData, AmazonS3 s3Client) {
+    private void loadIntoSQLite(Dataset dataset, AmazonS3 s3Client, boolean typed, boolean bulk,
+            int indexBudgetMB, Inspector inspector) {
     try {
         File databaseFile = new File("/tmp/sales.db");
 
         Class.forName("org.sqlite.JDBC");
-        String dbUrl = "jdbc:sqlite:" + databaseFile.getAbsolutePath();
+        String dbUrl = request.isInMemory() ? MEMORY_URL : "jdbc:sqlite:" + databaseFile.getAbsolutePath();
 
         // Establish the database connection
         connection = DriverManager.getConnection(dbUrl);
-        connection.setAutoCommit(false);
-
-        createOrdersTable(connection);
-
-        try (PreparedStatement preparedStatement = connection.prepareStatement(
-                "INSERT INTO Orders (Region, Country, ItemType, SalesChannel, OrderPriority, OrderDate, OrderID, ShipDate, UnitsSold, UnitPrice, UnitCost, TotalRevenue, TotalCost, TotalProfit, OrderProcessingTime, GrossMargin) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)"
-        )) {
-            for (int i = 1; i < csvData.size(); i++) {
-                ArrayList<String> row = csvData.get(i);
-                preparedStatement.setString(1, row.get(0)); // Region
-                preparedStatement.setString(2, row.get(1)); // Country
-                preparedStatement.setString(3, row.get(2)); // ItemType
-                preparedStatement.setString(4, row.get(3)); // SalesChannel
-                preparedStatement.setString(5, row.get(4)); // OrderPriority
-                preparedStatement.setString(6, row.get(5)); // OrderDate
-                preparedStatement.setString(7, row.get(6)); // OrderID
-                preparedStatement.setString(8, row.get(7)); // ShipDate
-                preparedStatement.setString(9, row.get(8)); // UnitsSold
-                preparedStatement.setString(10, row.get(9)); // UnitPrice
-                preparedStatement.setString(11, row.get(10)); // UnitCost
-                preparedStatement.setString(12, row.get(11)); // TotalRevenue
-                preparedStatement.setString(13, row.get(12)); // TotalCost
-                preparedStatement.setString(14, row.get(13)); // TotalProfit
-                preparedStatement.setString(15, row.get(14)); // OrderProcessingTime
-                preparedStatement.setString(16, row.get(15)); // GrossMargin
-
-                preparedStatement.addBatch();
-                if (i % 1000 == 0) {
-                    preparedStatement.executeBatch();
-                    preparedStatement.clearBatch();
-                }
+        if (typed) {
+            // Convert a database left by an earlier all-TEXT load before adding rows
+            long migrated = OrdersTable.migrateToTyped(connection);
+            if (migrated > 0) {
+                inspector.addAttribute("migratedRows", migrated);
             }
-            preparedStatement.executeBatch();
-            connection.commit();
         }
-        
-        
+        if (bulk) {
+            OrdersTable.configureBulkLoad(connection);
+        }
+        connection.setAutoCommit(false);
 
-        uploadSQLiteToS3(s3Client, databaseFile);
+        long start = System.nanoTime();
+        long rows;
+        if (bulk) {
+            rows = OrdersTable.bulkInsert(connection, dataset, typed);
+        } else {
+            OrdersTable.create(connection, typed);
+            rows = OrdersTable.insert(connection, dataset, typed);
+        }
+        // The builders report their own times; loadMs covers the rows alone
+        long elapsed = System.nanoTime() - start;
+        Rollups.build(connection, request.getRollups(), inspector);
+        BitmapIndex.build(connection, request.getBitmapIndexes(), inspector);
+        IndexAdvisor.buildFromWorkload(connection, s3Client, bucketname, indexBudgetMB, inspector);
+        connection.commit();
+        inspector.addAttribute("schema", typed ? "typed" : "text");
+        inspector.addAttribute("loadMode", bulk ? "bulk" : "default");
+        inspector.addAttribute("loadRows", rows);
+        inspector.addAttribute("loadMs", elapsed / 1_000_000);
+        inspector.addAttribute("loadRowsPerSec", elapsed == 0 ? 0 : rows * 1_000_000_000L / elapsed);
+
+        if (request.isInMemory()) {
+            publishInBackground(s3Client, databaseFile, inspector);
+        } else {
+            uploadSQLiteToS3(s3Client, databaseFile, inspector);
+        }
 
-    } catch (ClassNotFoundException | SQLException e) {
+    } catch (ClassNotFoundException | SQLException | IllegalArgumentException e) {
         e.printStackTrace();
     }
 }
 
 /**
- * Creates the 'Orders' table in the SQLite database if it does not already exist.
- * Defines the structure of the table with appropriate columns.
+ * Publishes a compact snapshot of the SQLite database to an S3 bucket.
+ * The snapshot is streamed from disk, gzipped if the request asks for it, in a multipart upload.
  *
- * @param connection The connection to the SQLite database.
- * @throws SQLException if there is an error executing the table creation SQL command.
+ * @param s3Client     The AmazonS3 client instance to use for uploading.
+ * @param databaseFile The file object representing the SQLite database, open on 'connection'.
+ * @param inspector    The inspector receiving upload statistics.
  */
-private void createOrdersTable(Connection connection) throws SQLException {
-    try (PreparedStatement preparedStatement = connection.prepareStatement(
-            "CREATE TABLE IF NOT EXISTS Orders (" +
-                    "Region TEXT," +
-                    "Country TEXT," +
-                    "ItemType TEXT," +
-                    "SalesChannel TEXT," +
-                    "OrderPriority TEXT," +
-                    "OrderDate TEXT," +
-                    "OrderID TEXT PRIMARY KEY," +
-                    "ShipDate TEXT," +
-                    "UnitsSold TEXT," +
-                    "UnitPrice TEXT," +
-                    "UnitCost TEXT," +
-                    "TotalRevenue TEXT," +
-                    "TotalCost TEXT," +
-                    "TotalProfit TEXT," +
-                    "OrderProcessingTime TEXT," +
-                    "GrossMargin TEXT)"
-    )) {
-        preparedStatement.executeUpdate();
+private void uploadSQLiteToS3(AmazonS3 s3Client, File databaseFile, Inspector inspector) {
+    try {
+        DatabaseSnapshot.publish(connection, databaseFile, s3Client, bucketname, "sales.db",
+                request.isCompressSnapshot(), S3UploadStream.partSize(request.getUploadPartMB()),
+                request.getUploadThreads(), inspector);
+    } catch (IOException | SQLException | IllegalArgumentException e) {
+        System.out.println("Failed to upload to S3");
+        e.printStackTrace();
     }
 }
 
 /**
- * Uploads an SQLite database file to an S3 bucket.
- * Reads the database file from the local file system and uploads it to the specified S3 bucket.
+ * Starts writing the in-memory database to a file with SQLite's backup API and publishing it, on
+ * a second connection so that the query can run meanwhile. Until {@link #awaitPublication} the
+ * inspector belongs to the publishing thread.
  *
  * @param s3Client     The AmazonS3 client instance to use for uploading.
- * @param databaseFile The file object representing the SQLite database.
- * @throws IOException if there is an error reading the database file or uploading it.
+ * @param databaseFile The file the database is backed up to before it is uploaded.
+ * @param inspector    The inspector receiving backup and upload statistics.
  */
+private void publishInBackground(AmazonS3 s3Client, File databaseFile, Inspector inspector) {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    publication = executor.submit(() -> {
+        long start = System.nanoTime();
+        try (Connection backup = DriverManager.getConnection(MEMORY_URL);
+             Statement statement = backup.createStatement()) {
+            statement.executeUpdate("backup to " + databaseFile.getAbsolutePath());
+        }
+        inspector.addAttribute("backupMs", (System.nanoTime() - start) / 1_000_000);
+        DatabaseSnapshot.upload(databaseFile.toPath(), s3Client, bucketname, "sales.db",
+                request.isCompressSnapshot(), S3UploadStream.partSize(request.getUploadPartMB()),
+                request.getUploadThreads(), inspector);
+        inspector.addAttribute("publishMs", (System.nanoTime() - start) / 1_000_000);
+        return null;
+    });
+    executor.shutdown();
+}
 
-
-private void uploadSQLiteToS3(AmazonS3 s3Client, File databaseFile) {
+/**
+ * Waits for the database started by {@link #publishInBackground} to be published, if any.
+ *
+ * @param inspector The inspector receiving the time spent waiting after the query.
+ */
+private void awaitPublication(Inspector inspector) {
+    if (publication == null) {
+        return;
+    }
+    long start = System.nanoTime();
     try {
-        // Upload the SQLite database file to S3
-        byte[] contentBytes = Files.readAllBytes(databaseFile.toPath());
-        ObjectMetadata metadata = new ObjectMetadata();
-        metadata.setContentLength(contentBytes.length);
-
-        PutObjectRequest putObjectRequest = new PutObjectRequest(
-                bucketname, // Replace with your actual S3 bucket name
-                "sales.db",
-                new ByteArrayInputStream(contentBytes),
-                metadata
-        );
-
-        PutObjectResult putObjectResult = s3Client.putObject(putObjectRequest);
-        System.out.println("SQLite database written to S3. ETag: " + putObjectResult.getETag());
-
-    } catch (IOException e) {
-        e.printStackTrace();
+        publication.get();
+    } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        System.out.println("Interrupted while uploading to S3");
+    } catch (ExecutionException e) {
+        System.out.println("Failed to upload to S3");
+        e.getCause().printStackTrace();
     }
+    inspector.addAttribute("publishWaitMs", (System.nanoTime() - start) / 1_000_000);
+    publication = null;
 }
 
 /**
@@ -452,27 +363,38 @@ private Map<String, Object> processService3Request(Request request) {
     Map<String, String> filters = request.getFilters();
     List<String> aggregations = request.getAggregations();
 
-    // Build SQL query dynamically based on filters and aggregations
-    String sql = buildSQLQuery(filters, aggregations);
-
-    // Execute the SQL query
-    try (Statement statement = connection.createStatement();
-         ResultSet resultSet = statement.executeQuery(sql)) {
-
-        // Process the query results and create a response
-        while (resultSet.next()) {
-            // Process each row and create a JSON object for the response
-    
-
-            // Process each aggregation and add it to the response map
-            for (String aggregation : aggregations) {
-                // Get the value from the result set using the aggregation name
-                double value = resultSet.getDouble(aggregation);
-                // Add the value to the response map
-                response.put(aggregation, value);
-            }
+    // Validate the filters and aggregations and build the SQL of their shape, binding the values
+    AggregationQuery query;
+    String sql;
+    boolean typed;
+    try {
+        query = AggregationQuery.of(filters, aggregations, request.getGroupBy(),
+                request.getOrderBy(), request.getLimit());
+        // A rollup covering the filters and aggregations answers from its groups instead of Orders
+        typed = OrdersTable.isTyped(connection);
+        String rollup = Rollups.choose(connection, query);
+        sql = rollup != null ? Rollups.sql(rollup, query) : query.sql();
+        response.put("queryRollup", rollup != null ? rollup : "none");
+        List<String> plan = IndexAdvisor.explain(connection, sql);
+        response.put("queryPlan", plan);
+        response.put("queryIndex", IndexAdvisor.indexUsed(plan));
+    } catch (IllegalArgumentException e) {
+        System.out.println("Failed to validate the query: " + e.getMessage());
+        response.put("queryError", e.getMessage());
+        return response;
+    } catch (SQLException e) {
+        e.printStackTrace();
+        return response;
+    }
+    long start = System.currentTimeMillis();
+    try (PreparedStatement statement = connection.prepareStatement(sql)) {
+        query.bind(statement, typed);
+        try (ResultSet resultSet = statement.executeQuery()) {
 
+            // Process the query results: each aggregation, or the groups as arrays, into the response map
+            query.readAll(resultSet, typed, response);
         }
+        response.put("queryMs", System.currentTimeMillis() - start);
     } catch (SQLException e) {
         e.printStackTrace();
     }
@@ -481,32 +403,43 @@ private Map<String, Object> processService3Request(Request request) {
 }
 
 /**
- * Dynamically builds an SQL query based on provided filters and aggregations.
- * Constructs a SELECT query with conditions and aggregation functions as specified in the request.
+ * Answers the queries of a batch request together, sharing a pass over Orders among the queries
+ * of one shape.
  *
- * @param filters      A map of filters to apply in the WHERE clause of the query.
- * @param aggregations A list of aggregation functions to include in the SELECT clause.
- * @return The constructed SQL query as a string.
+ * @param request The request containing the queries.
+ * @return A map containing the result of each query under "queries", in order, and batch statistics.
  */
+private Map<String, Object> processBatchRequest(Request request) {
+    Map<String, Object> response = new HashMap<>();
+    StatementCache statements = new StatementCache(connection, request.getQueries().size() + 1);
+    try {
+        response.put("queries", QueryBatch.run(connection, statements, request.getQueries(),
+                OrdersTable.isTyped(connection), response));
+        statements.report(response);
+    } catch (SQLException e) {
+        e.printStackTrace();
+    } finally {
+        statements.close();
+    }
+    return response;
+}
 
-    private String buildSQLQuery(Map<String, String> filters, List<String> aggregations) {
-        // Build the SQL query dynamically based on filters and aggregations
-        StringBuilder sqlBuilder = new StringBuilder("SELECT ");
-        for (String aggregation : aggregations) {
-            sqlBuilder.append(aggregation).append(", ");
-        }
-        // Remove the trailing comma
-        sqlBuilder.delete(sqlBuilder.length() - 2, sqlBuilder.length());
-        sqlBuilder.append(" FROM Orders WHERE ");
-        for (Map.Entry<String, String> filter : filters.entrySet()) {
-            sqlBuilder.append(filter.getKey()).append("='").append(filter.getValue()).append("' AND ");
-        }
-        // Remove the trailing "AND"
-        sqlBuilder.delete(sqlBuilder.length() - 5, sqlBuilder.length());
-        sqlBuilder.append(";");
-
-        return sqlBuilder.toString();
-    }  
+/**
+ * Adds the filter columns of the request, or of each shape in its batch, to the workload log
+ * Load chooses indexes from, when the request opts in. The log is written in the background.
+ * A failure is logged and does not affect the query.
+ *
+ * @param s3Client The AmazonS3 client instance.
+ * @param request  The request containing filters.
+ */
+private void recordWorkload(AmazonS3 s3Client, Request request) {
+    try {
+        WorkloadLog.record(s3Client, bucketname, request);
+    } catch (RuntimeException e) {
+        System.out.println("Failed to record the query workload");
+        e.printStackTrace();
+    }
+}
 }
 
 
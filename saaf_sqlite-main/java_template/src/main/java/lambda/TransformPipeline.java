@@ -0,0 +1,180 @@
+/**
+ * Runs a chain of TransformStages over a dataset in one pass per row.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package lambda;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The TransformPipeline class binds its stages to the dataset, runs every stage on each row
+ * before moving to the next row, and finally drops the rows a filter rejected. Columns are looked
+ * up once per run rather than once per row.
+ *
+ * With more than one thread the rows are split into chunks processed on a ForkJoinPool. Chunks
+ * are multiples of 64 rows so each one owns whole words of the keep mask, and the rows kept are
+ * the same, in the same order, as in a sequential run.
+ */
+public class TransformPipeline {
+
+    private static final int CHUNK_ROWS = 64 * 256;
+
+    private final List<TransformStage> stages = new ArrayList<>();
+
+    private int inputRows;
+    private int outputRows;
+    private int threads = 1;
+    private long elapsedMillis;
+
+    /**
+     * Appends a stage.
+     *
+     * @param stage The stage, run after the stages already added.
+     * @return This pipeline.
+     */
+    public TransformPipeline add(TransformStage stage) {
+        stages.add(stage);
+        return this;
+    }
+
+    /**
+     * Transforms a dataset in place on the calling thread.
+     *
+     * @param dataset The dataset.
+     * @throws IOException If a stage cannot bind.
+     */
+    public void run(Dataset dataset) throws IOException {
+        run(dataset, 1);
+    }
+
+    /**
+     * Transforms a dataset in place.
+     *
+     * @param dataset The dataset.
+     * @param threads The number of threads; 1 runs on the calling thread.
+     * @throws IOException If a stage cannot bind.
+     */
+    public void run(Dataset dataset, int threads) throws IOException {
+        long start = System.currentTimeMillis();
+        inputRows = dataset.getRowCount();
+        TransformStage[] chain = stages.toArray(new TransformStage[0]);
+        long[] keep = new long[(inputRows + 63) / 64];
+
+        if (threads > 1 && inputRows > CHUNK_ROWS) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                boolean threadSafe = true;
+                for (TransformStage stage : chain) {
+                    stage.bind(dataset, pool);
+                    threadSafe &= stage.isThreadSafe();
+                }
+                if (threadSafe) {
+                    pool.invoke(new Pass(chain, keep, 0, inputRows));
+                    this.threads = threads;
+                } else {
+                    pass(chain, keep, 0, inputRows);
+                    this.threads = 1;
+                }
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            for (TransformStage stage : chain) {
+                stage.bind(dataset);
+            }
+            pass(chain, keep, 0, inputRows);
+            this.threads = 1;
+        }
+
+        BitSet kept = BitSet.valueOf(keep);
+        outputRows = kept.cardinality();
+        if (outputRows < inputRows) {
+            dataset.retain(kept);
+        }
+        elapsedMillis = System.currentTimeMillis() - start;
+    }
+
+    private static void pass(TransformStage[] chain, long[] keep, int from, int to) {
+        rows:
+        for (int row = from; row < to; row++) {
+            for (TransformStage stage : chain) {
+                if (!stage.apply(row)) {
+                    continue rows;
+                }
+            }
+            keep[row >>> 6] |= 1L << row;
+        }
+    }
+
+    /**
+     * @return The stages in order.
+     */
+    public List<TransformStage> getStages() {
+        return stages;
+    }
+
+    /**
+     * @return The number of rows before the last run.
+     */
+    public int getInputRows() {
+        return inputRows;
+    }
+
+    /**
+     * @return The number of rows kept by the last run.
+     */
+    public int getOutputRows() {
+        return outputRows;
+    }
+
+    /**
+     * @return The number of threads the last pass actually ran on.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return The wall-clock time of the last run in milliseconds.
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * Runs the stages over a range of rows, splitting it in halves until it is one chunk.
+     */
+    private static class Pass extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TransformStage[] chain;
+        private final long[] keep;
+        private final int from;
+        private final int to;
+
+        Pass(TransformStage[] chain, long[] keep, int from, int to) {
+            this.chain = chain;
+            this.keep = keep;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CHUNK_ROWS) {
+                pass(chain, keep, from, to);
+                return;
+            }
+            // Split on a multiple of 64 so no two tasks write the same keep word.
+            int middle = from + ((to - from) / 2 & ~63);
+            invokeAll(new Pass(chain, keep, from, middle), new Pass(chain, keep, middle, to));
+        }
+    }
+}
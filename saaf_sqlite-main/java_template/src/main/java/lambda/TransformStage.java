@@ -0,0 +1,60 @@
+/**
+ * One step of a row transformation run by a TransformPipeline.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package lambda;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The TransformStage interface is implemented by derived columns, value mappings and filters.
+ *
+ * A stage resolves the columns it reads once in {@link #bind(Dataset)}, where it may also add
+ * its output column (sized for every row, values missing until set) or do work that is done once
+ * per distinct value rather than once per row. {@link #apply(int)} is then called for each row
+ * in order, within a single pass shared by all stages of the pipeline.
+ *
+ * A pipeline may also run the pass in parallel, calling {@link #apply(int)} for different rows
+ * from several threads. Stages whose result depends on the rows seen before, like a filter keeping
+ * first occurrences, either resolve that up front in {@link #bind(Dataset, ForkJoinPool)} or
+ * report themselves not thread-safe, in which case the pass runs sequentially.
+ */
+public interface TransformStage {
+
+    /**
+     * Resolves column bindings and adds output columns.
+     *
+     * @param dataset The dataset being transformed.
+     * @throws IOException If the stage needs to spill to disk and cannot.
+     */
+    void bind(Dataset dataset) throws IOException;
+
+    /**
+     * Resolves column bindings for a parallel pass. Stages that can prepare in parallel override
+     * this; the default binds sequentially.
+     *
+     * @param dataset The dataset being transformed.
+     * @param pool    The pool running the pass.
+     * @throws IOException If the stage needs to spill to disk and cannot.
+     */
+    default void bind(Dataset dataset, ForkJoinPool pool) throws IOException {
+        bind(dataset);
+    }
+
+    /**
+     * @return True if {@link #apply(int)} may be called for different rows concurrently once bound.
+     */
+    default boolean isThreadSafe() {
+        return true;
+    }
+
+    /**
+     * Transforms one row. Rows dropped by an earlier stage are not passed to later stages.
+     *
+     * @param row The row index.
+     * @return False to drop the row.
+     */
+    boolean apply(int row);
+}
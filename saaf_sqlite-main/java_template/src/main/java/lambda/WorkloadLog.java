@@ -0,0 +1,217 @@
+/**
+ * Log of the filter shapes queried against the Orders table, kept in S3.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package lambda;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import java.io.ByteArrayInputStream;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The WorkloadLog class records which columns each query filtered on, not the values.
+ *
+ * Queries are counted by shape in the container, and the counts are written out in the
+ * background at most once per {@link #FLUSH_MILLIS}, so a query never waits on S3 and the log
+ * grows by one object per shape and container per flush rather than per query. S3 has no append,
+ * so a flush writes one empty object per shape whose key carries the shape and its count:
+ * workload/&lt;yyyy-MM-dd&gt;/&lt;Column+Column&gt;/&lt;time&gt;-&lt;id&gt;-&lt;count&gt;. Reading
+ * the log is then a listing of the recent days with no object downloads. Counts not yet flushed
+ * when a container is retired are lost, which only makes the log a sample. A shape is the sorted
+ * set of known Orders columns in the filter; unknown columns are left out.
+ */
+public class WorkloadLog {
+
+    /**
+     * The key prefix of the log.
+     */
+    public static final String PREFIX = "workload/";
+
+    /**
+     * The number of days, today included, read back by {@link #read}.
+     */
+    public static final int WINDOW_DAYS = 7;
+
+    /**
+     * The least time between two flushes of the counts of a container.
+     */
+    public static final long FLUSH_MILLIS = 60_000;
+
+    // Queries counted since the last flush, by bucket and shape
+    private static final Map<String, Map<String, Integer>> pending = new HashMap<>();
+    private static long lastFlush = System.currentTimeMillis();
+    private static final ExecutorService flusher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "workload-log");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private WorkloadLog() {
+    }
+
+    /**
+     * Normalizes filter column names into a shape.
+     *
+     * @param columns The filter column names.
+     * @return The known Orders columns, sorted and joined with '+', or an empty string if none.
+     */
+    public static String shapeOf(Collection<String> columns) {
+        List<String> known = new ArrayList<>();
+        for (String column : columns) {
+            if (Arrays.asList(OrdersTable.COLUMNS).contains(column) && !known.contains(column)) {
+                known.add(column);
+            }
+        }
+        known.sort(null);
+        return String.join("+", known);
+    }
+
+    /**
+     * Splits a shape back into its columns.
+     *
+     * @param shape The shape.
+     * @return The columns, sorted.
+     */
+    public static List<String> columnsOf(String shape) {
+        return shape.isEmpty() ? new ArrayList<>() : new ArrayList<>(Arrays.asList(shape.split("\\+")));
+    }
+
+    /**
+     * Records the queries of a request: its own filters, or for a batch each distinct shape once,
+     * so that a batch weighs like one query per shape it asks for.
+     *
+     * @param s3Client   The Amazon S3 client.
+     * @param bucketname The bucket holding sales.db.
+     * @param request    The request.
+     */
+    public static void record(AmazonS3 s3Client, String bucketname, Request request) {
+        if (request.getQueries() == null) {
+            if (request.getFilters() != null) {
+                record(s3Client, bucketname, request.getFilters().keySet());
+            }
+            return;
+        }
+        List<String> shapes = new ArrayList<>();
+        for (BatchQuery query : request.getQueries()) {
+            String shape = query.getFilters() == null ? "" : shapeOf(query.getFilters().keySet());
+            if (!shape.isEmpty() && !shapes.contains(shape)) {
+                shapes.add(shape);
+                record(s3Client, bucketname, columnsOf(shape));
+            }
+        }
+    }
+
+    /**
+     * Counts one query, and starts a flush in the background if the last one is
+     * {@link #FLUSH_MILLIS} old. Queries without a known filter column are not recorded.
+     *
+     * @param s3Client   The Amazon S3 client.
+     * @param bucketname The bucket holding sales.db.
+     * @param columns    The filter column names of the query.
+     */
+    public static void record(AmazonS3 s3Client, String bucketname, Collection<String> columns) {
+        String shape = shapeOf(columns);
+        if (shape.isEmpty()) {
+            return;
+        }
+        synchronized (pending) {
+            pending.computeIfAbsent(bucketname, bucket -> new HashMap<>()).merge(shape, 1, Integer::sum);
+            if (System.currentTimeMillis() - lastFlush < FLUSH_MILLIS) {
+                return;
+            }
+            lastFlush = System.currentTimeMillis();
+        }
+        flusher.execute(() -> {
+            try {
+                flush(s3Client, bucketname);
+            } catch (RuntimeException e) {
+                System.out.println("Failed to flush the query workload");
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Writes the counts recorded for a bucket since its last flush, one object per shape.
+     *
+     * @param s3Client   The Amazon S3 client.
+     * @param bucketname The bucket holding sales.db.
+     */
+    public static void flush(AmazonS3 s3Client, String bucketname) {
+        Map<String, Integer> counts;
+        synchronized (pending) {
+            counts = pending.remove(bucketname);
+        }
+        if (counts == null) {
+            return;
+        }
+        for (Map.Entry<String, Integer> count : counts.entrySet()) {
+            String key = PREFIX + LocalDate.now(ZoneOffset.UTC) + "/" + count.getKey() + "/"
+                    + System.currentTimeMillis() + "-" + UUID.randomUUID().toString().substring(0, 8)
+                    + "-" + count.getValue();
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(0);
+            s3Client.putObject(new PutObjectRequest(bucketname, key, new ByteArrayInputStream(new byte[0]), metadata));
+        }
+    }
+
+    /**
+     * Counts the queries of the last {@link #WINDOW_DAYS} days by shape.
+     *
+     * @param s3Client   The Amazon S3 client.
+     * @param bucketname The bucket holding sales.db.
+     * @return The number of queries of each shape.
+     */
+    public static Map<String, Integer> read(AmazonS3 s3Client, String bucketname) {
+        Map<String, Integer> counts = new HashMap<>();
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        for (int day = 0; day < WINDOW_DAYS; day++) {
+            String prefix = PREFIX + today.minusDays(day) + "/";
+            ListObjectsV2Request listRequest = new ListObjectsV2Request().withBucketName(bucketname).withPrefix(prefix);
+            ListObjectsV2Result listing;
+            do {
+                listing = s3Client.listObjectsV2(listRequest);
+                for (S3ObjectSummary summary : listing.getObjectSummaries()) {
+                    String rest = summary.getKey().substring(prefix.length());
+                    int slash = rest.indexOf('/');
+                    if (slash > 0) {
+                        counts.merge(rest.substring(0, slash), countOf(rest.substring(slash + 1)), Integer::sum);
+                    }
+                }
+                listRequest.setContinuationToken(listing.getNextContinuationToken());
+            } while (listing.isTruncated());
+        }
+        return counts;
+    }
+
+    /**
+     * @return The count a log object name ends with, or 1 for a name written one per query.
+     */
+    private static int countOf(String name) {
+        String[] parts = name.split("-");
+        if (parts.length < 3) {
+            return 1;
+        }
+        try {
+            return Integer.parseInt(parts[parts.length - 1]);
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+}
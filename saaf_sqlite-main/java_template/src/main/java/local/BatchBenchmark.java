@@ -0,0 +1,142 @@
+/**
+ * Compares answering a dashboard's slices one query at a time with answering them as one batch.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package local;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import lambda.AggregationQuery;
+import lambda.BatchQuery;
+import lambda.Dataset;
+import lambda.OrdersTable;
+import lambda.QueryBatch;
+import lambda.StatementCache;
+
+/**
+ * Usage: BatchBenchmark [rows] [slices] [indexed]
+ *
+ * Bulk loads sales.db, optionally with an index on Region+ItemType, and builds a dashboard of
+ * slices: mostly Region+ItemType pairs, some SalesChannel and Region+OrderPriority slices and one
+ * unfiltered total, each with a different subset of aggregations. The slices are answered one
+ * prepared query at a time, then with {@link QueryBatch}. Reports the median time of each over
+ * five runs and the number of statements the batch ran; every slice must get the same answer, up
+ * to the rounding of sums added up in a different row order.
+ */
+public class BatchBenchmark {
+
+    private static final int RUNS = 5;
+
+    private static final List<String> AGGREGATIONS = Arrays.asList("avg(OrderProcessingTime)", "avg(GrossMargin)",
+            "sum(TotalProfit)", "count(*)", "min(UnitPrice)", "max(UnitsSold)", "sum(TotalRevenue)");
+
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 500_000;
+        int slices = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        boolean indexed = args.length > 2 && Boolean.parseBoolean(args[2]);
+        Dataset dataset = SalesRecords.transformedDataset(rows, 0.05, 42);
+        Path database = Files.createTempDirectory("batch-benchmark").resolve("sales.db");
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database)) {
+            OrdersTable.configureBulkLoad(connection);
+            connection.setAutoCommit(false);
+            OrdersTable.bulkInsert(connection, dataset, true);
+            if (indexed) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.executeUpdate("CREATE INDEX wl_ItemType_Region ON Orders (Region, ItemType)");
+                }
+            }
+            connection.commit();
+
+            Random random = new Random(5);
+            List<BatchQuery> queries = new ArrayList<>();
+            for (int s = 0; s < slices; s++) {
+                int row = random.nextInt(dataset.getRowCount());
+                Map<String, String> filters = new LinkedHashMap<>();
+                if (s == 0) {
+                    // the unfiltered total
+                } else if (s % 7 == 0) {
+                    filters.put("SalesChannel", value(dataset, row, "SalesChannel"));
+                } else if (s % 5 == 0) {
+                    filters.put("Region", value(dataset, row, "Region"));
+                    filters.put("OrderPriority", value(dataset, row, "OrderPriority"));
+                } else {
+                    filters.put("ItemType", value(dataset, row, "ItemType"));
+                    filters.put("Region", value(dataset, row, "Region"));
+                }
+                List<String> aggregations = new ArrayList<>();
+                for (String aggregation : AGGREGATIONS) {
+                    if (random.nextInt(3) > 0) {
+                        aggregations.add(aggregation);
+                    }
+                }
+                aggregations.add("count(*)");
+                queries.add(new BatchQuery(filters, aggregations));
+            }
+
+            StatementCache statements = new StatementCache(connection, 64);
+            long[] separate = new long[RUNS];
+            long[] batched = new long[RUNS];
+            List<Map<String, Object>> expected = new ArrayList<>();
+            Map<String, Object> stats = new HashMap<>();
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                expected.clear();
+                for (BatchQuery query : queries) {
+                    AggregationQuery parsed = AggregationQuery.of(query.getFilters(), query.getAggregations());
+                    PreparedStatement statement = statements.prepare(parsed.sql()).getStatement();
+                    parsed.bind(statement, true);
+                    Map<String, Object> result = new HashMap<>();
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        resultSet.next();
+                        parsed.read(resultSet, result);
+                    }
+                    expected.add(result);
+                }
+                separate[run] = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                List<Map<String, Object>> results = QueryBatch.run(connection, statements, queries, true, stats);
+                batched[run] = System.nanoTime() - start;
+                for (int q = 0; q < queries.size(); q++) {
+                    for (String aggregation : queries.get(q).getAggregations()) {
+                        double value = (Double) results.get(q).get(aggregation);
+                        double answer = (Double) expected.get(q).get(aggregation);
+                        if (Math.abs(value - answer) > 1e-9 * Math.max(1, Math.abs(answer))) {
+                            throw new AssertionError("slice " + q + " " + aggregation + ": " + value + " vs "
+                                    + expected.get(q).get(aggregation));
+                        }
+                    }
+                }
+            }
+            Arrays.sort(separate);
+            Arrays.sort(batched);
+            System.out.printf("%,d rows, %d slices, %s%n", dataset.getRowCount(), slices,
+                    indexed ? "index on Region+ItemType" : "no index");
+            System.out.printf("separate %8.1f ms, %d statements%n", separate[RUNS / 2] / 1e6, slices);
+            System.out.printf("batch    %8.1f ms, %s statements%n", batched[RUNS / 2] / 1e6, stats.get("batchPasses"));
+            statements.close();
+        }
+    }
+
+    private static String value(Dataset dataset, int row, String column) {
+        for (String name : dataset.getNames()) {
+            if (name.replace(" ", "").equals(column)) {
+                return dataset.format(row, dataset.columnIndex(name));
+            }
+        }
+        throw new IllegalArgumentException(column);
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Compares answering multi-filter queries by scanning with answering them from bitmap indexes.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package local;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import lambda.AggregationQuery;
+import lambda.BitmapIndex;
+import lambda.ColumnarEngine;
+import lambda.Dataset;
+import lambda.OrdersTable;
+import lambda.StatementCache;
+import saaf.Inspector;
+
+/**
+ * Usage: BitmapBenchmark [rows] [requests per shape]
+ *
+ * Bulk loads a typed sales.db with an index on Region, as a workload of Region queries would
+ * leave it, and runs requests over combinations of low-cardinality filters, with values drawn
+ * from the data: with SQLite, with a {@link ColumnarEngine} scanning its columns, and with one
+ * reading the {@link BitmapIndex} built on the five dimensions. Reports the size and build time of
+ * the bitmaps and, per shape, the mean selectivity and request time of each; every answer must
+ * match up to the rounding of sums added up in a different row order.
+ */
+public class BitmapBenchmark {
+
+    private static final List<List<String>> SHAPES = Arrays.asList(
+            Arrays.asList("SalesChannel"), Arrays.asList("Region", "SalesChannel"),
+            Arrays.asList("Region", "SalesChannel", "OrderPriority"), Arrays.asList("ItemType", "OrderPriority"),
+            Arrays.asList("Country", "ItemType", "SalesChannel"),
+            Arrays.asList("Region", "ItemType", "SalesChannel", "OrderPriority"));
+
+    private static final List<String> AGGREGATIONS = Arrays.asList("avg(OrderProcessingTime)", "avg(GrossMargin)",
+            "sum(TotalProfit)", "count(*)", "max(UnitsSold)");
+
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 500_000;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        Dataset dataset = SalesRecords.transformedDataset(rows, 0.05, 42);
+        Path database = Files.createTempDirectory("bitmap-benchmark").resolve("sales.db");
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database)) {
+            OrdersTable.configureBulkLoad(connection);
+            connection.setAutoCommit(false);
+            OrdersTable.bulkInsert(connection, dataset, true);
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("CREATE INDEX wl_Region ON Orders (Region)");
+            }
+            connection.commit();
+            ColumnarEngine scanning = ColumnarEngine.load(connection);
+
+            Inspector inspector = new Inspector();
+            BitmapIndex.build(connection, BitmapIndex.DIMENSIONS, inspector);
+            connection.commit();
+            Map<String, Object> built = inspector.finish();
+            ColumnarEngine indexed = ColumnarEngine.load(connection);
+            System.out.printf("%,d rows; bitmaps of %s values: %,d bytes stored, %,d on the heap, built in %s ms%n",
+                    dataset.getRowCount(), built.get("bitmapValues"), (Long) built.get("bitmapBytes"),
+                    indexed.getBitmapIndex().sizeInBytes(), built.get("bitmapMs"));
+            System.out.printf("%-44s %11s %10s %10s %10s%n", "mean ms", "selectivity", "sqlite", "scan",
+                    "bitmap");
+
+            Random random = new Random(11);
+            StatementCache statements = new StatementCache(connection, 64);
+            for (List<String> shape : SHAPES) {
+                List<Map<String, String>> stream = new ArrayList<>();
+                for (int r = 0; r < requests; r++) {
+                    int row = random.nextInt(dataset.getRowCount());
+                    Map<String, String> filters = new LinkedHashMap<>();
+                    for (String column : shape) {
+                        filters.put(column, value(dataset, row, column));
+                    }
+                    stream.add(filters);
+                }
+                // One untimed pass, so the JIT has compiled every path before it is measured
+                run(stream, statements, scanning, indexed, new long[3], new double[1]);
+                long[] nanos = new long[3];
+                double[] selectivity = new double[1];
+                run(stream, statements, scanning, indexed, nanos, selectivity);
+                System.out.printf("%-44s %10.3f%% %10.3f %10.3f %10.3f%n", String.join("+", shape),
+                        100 * selectivity[0] / requests, nanos[0] / 1e6 / requests, nanos[1] / 1e6 / requests,
+                        nanos[2] / 1e6 / requests);
+            }
+            statements.close();
+        }
+    }
+
+    private static void run(List<Map<String, String>> stream, StatementCache statements, ColumnarEngine scanning,
+            ColumnarEngine indexed, long[] nanos, double[] selectivity) throws Exception {
+        for (Map<String, String> filters : stream) {
+            long start = System.nanoTime();
+            AggregationQuery query = AggregationQuery.of(filters, AGGREGATIONS);
+            PreparedStatement statement = statements.prepare(query.sql()).getStatement();
+            query.bind(statement, true);
+            Map<String, Object> expected = new HashMap<>();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                query.readAll(resultSet, true, expected);
+            }
+            nanos[0] += System.nanoTime() - start;
+
+            Map<String, Object> scanned = new HashMap<>();
+            start = System.nanoTime();
+            query.read(scanning.run(query, new HashMap<>()), scanned);
+            nanos[1] += System.nanoTime() - start;
+
+            Map<String, Object> stats = new HashMap<>();
+            Map<String, Object> bitmapped = new HashMap<>();
+            start = System.nanoTime();
+            query.read(indexed.run(query, stats), bitmapped);
+            nanos[2] += System.nanoTime() - start;
+            if ((Integer) stats.get("bitmapFilters") != filters.size()) {
+                throw new AssertionError(filters + " used " + stats.get("bitmapFilters") + " bitmaps");
+            }
+            selectivity[0] += (Double) stats.get("filterSelectivity");
+
+            for (String aggregation : AGGREGATIONS) {
+                double answer = (Double) expected.get(aggregation);
+                for (Map<String, Object> actual : Arrays.asList(scanned, bitmapped)) {
+                    double value = (Double) actual.get(aggregation);
+                    if (Math.abs(value - answer) > 1e-9 * Math.max(1, Math.abs(answer))) {
+                        throw new AssertionError(filters + " " + aggregation + ": " + value + " vs " + answer);
+                    }
+                }
+            }
+        }
+    }
+
+    private static String value(Dataset dataset, int row, String column) {
+        for (String name : dataset.getNames()) {
+            if (name.replace(" ", "").equals(column)) {
+                return dataset.format(row, dataset.columnIndex(name));
+            }
+        }
+        throw new IllegalArgumentException(column);
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Compares ways of removing duplicate Order IDs at growing row counts.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package local;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import lambda.Dataset;
+import lambda.Deduplicator;
+
+/**
+ * Usage: DedupBenchmark [rows...]
+ *
+ * For each row count (10k, 1M and 10M by default) builds an Order ID column with 5% duplicates
+ * and times first-occurrence deduplication with the original List.contains scan (only where it
+ * finishes in reasonable time), a HashSet&lt;Long&gt;, the {@link Deduplicator} in memory, on one
+ * thread and on a pool of four, and the Deduplicator forced to spill with a 1 MB budget. Every
+ * method must keep the same rows.
+ */
+public class DedupBenchmark {
+
+    private static final int LIST_SCAN_LIMIT = 50_000;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = args.length > 0 ? new int[args.length] : new int[] {10_000, 1_000_000, 10_000_000};
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+        for (int rows : sizes) {
+            Dataset.IntegerColumn ids = orderIDs(rows, 0.05, 42);
+            System.out.printf("%,d rows%n", rows);
+
+            BitSet expected = hashSet(ids);
+            if (rows <= LIST_SCAN_LIMIT) {
+                time("List.contains", () -> listScan(ids), expected);
+            }
+            time("HashSet<Long>", () -> hashSet(ids), expected);
+
+            Deduplicator inMemory = new Deduplicator(256L * 1024 * 1024);
+            time("Deduplicator", () -> inMemory.firstOccurrences(ids), expected);
+            System.out.printf("  %-20s %d partitions%n", "", inMemory.getPartitions());
+            ForkJoinPool pool = new ForkJoinPool(4);
+            time("Deduplicator x4", () -> inMemory.firstOccurrences(ids, pool), expected);
+            pool.shutdown();
+            Deduplicator spilling = new Deduplicator(1024L * 1024);
+            time("Deduplicator 1MB", () -> spilling.firstOccurrences(ids), expected);
+            System.out.printf("  %-20s %d partitions, %.1f MB spilled, %d duplicates%n", "",
+                    spilling.getPartitions(), spilling.getSpilledBytes() / 1048576.0, spilling.getDuplicateCount());
+        }
+    }
+
+    private static Dataset.IntegerColumn orderIDs(int rows, double duplicateRate, long seed) {
+        Random random = new Random(seed);
+        Dataset.IntegerColumn ids = new Dataset.IntegerColumn();
+        for (int i = 0; i < rows; i++) {
+            if (i > 0 && random.nextDouble() < duplicateRate) {
+                ids.add(ids.get(random.nextInt(i)));
+            } else {
+                ids.add(100_000_000L + random.nextInt(900_000_000));
+            }
+        }
+        return ids;
+    }
+
+    private static BitSet listScan(Dataset.IntegerColumn ids) {
+        List<String> processedOrderIDs = new ArrayList<>();
+        BitSet keep = new BitSet(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            String orderID = Long.toString(ids.get(i));
+            if (!processedOrderIDs.contains(orderID)) {
+                processedOrderIDs.add(orderID);
+                keep.set(i);
+            }
+        }
+        return keep;
+    }
+
+    private static BitSet hashSet(Dataset.IntegerColumn ids) {
+        Set<Long> processedOrderIDs = new HashSet<>();
+        BitSet keep = new BitSet(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            if (processedOrderIDs.add(ids.get(i))) {
+                keep.set(i);
+            }
+        }
+        return keep;
+    }
+
+    private static void time(String method, Method run, BitSet expected) throws Exception {
+        long start = System.nanoTime();
+        BitSet keep = run.firstOccurrences();
+        long elapsed = System.nanoTime() - start;
+        if (!keep.equals(expected)) {
+            throw new AssertionError(method + " kept different rows");
+        }
+        System.out.printf("  %-20s %9.1f ms, %,d rows kept%n", method, elapsed / 1e6, keep.cardinality());
+    }
+
+    private interface Method {
+        BitSet firstOccurrences() throws Exception;
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * Compares answering aggregation queries with SQLite against the in-JVM columnar engine.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package local;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import lambda.AggregationQuery;
+import lambda.ColumnarEngine;
+import lambda.Dataset;
+import lambda.OrdersTable;
+import lambda.StatementCache;
+
+/**
+ * Usage: EngineBenchmark [rows] [requests per shape] [indexed]
+ *
+ * Bulk loads a typed sales.db, optionally with indexes on every filter shape, and runs the same
+ * requests over seven shapes, from no filter to a primary key lookup, with values drawn from the
+ * data: once as Query runs them, a cached prepared statement per shape, and once with a
+ * {@link ColumnarEngine} loaded from the database. Reports the time to load the engine and the
+ * mean request time of each shape for both; every answer must match up to the rounding of sums
+ * added up in a different row order.
+ */
+public class EngineBenchmark {
+
+    private static final List<List<String>> SHAPES = Arrays.asList(
+            Arrays.<String>asList(), Arrays.asList("SalesChannel"), Arrays.asList("Region"),
+            Arrays.asList("Region", "ItemType"), Arrays.asList("Country", "SalesChannel"),
+            Arrays.asList("OrderDate"), Arrays.asList("OrderID"));
+
+    private static final List<String> AGGREGATIONS = Arrays.asList("avg(OrderProcessingTime)", "avg(GrossMargin)",
+            "sum(TotalProfit)", "count(*)", "min(UnitPrice)", "max(UnitsSold)", "total(UnitsSold)");
+
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 500_000;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        boolean indexed = args.length > 2 && Boolean.parseBoolean(args[2]);
+        Dataset dataset = SalesRecords.transformedDataset(rows, 0.05, 42);
+        Path database = Files.createTempDirectory("engine-benchmark").resolve("sales.db");
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database)) {
+            OrdersTable.configureBulkLoad(connection);
+            connection.setAutoCommit(false);
+            OrdersTable.bulkInsert(connection, dataset, true);
+            if (indexed) {
+                try (Statement statement = connection.createStatement()) {
+                    for (List<String> shape : SHAPES) {
+                        if (!shape.isEmpty() && !shape.contains("OrderID")) {
+                            statement.executeUpdate("CREATE INDEX wl_" + String.join("_", shape) + " ON Orders ("
+                                    + String.join(", ", shape) + ")");
+                        }
+                    }
+                }
+            }
+            connection.commit();
+
+            Random random = new Random(7);
+            List<List<Map<String, String>>> streams = new ArrayList<>();
+            for (List<String> shape : SHAPES) {
+                List<Map<String, String>> stream = new ArrayList<>();
+                for (int r = 0; r < requests; r++) {
+                    int row = random.nextInt(dataset.getRowCount());
+                    Map<String, String> filters = new LinkedHashMap<>();
+                    for (String column : shape) {
+                        filters.put(column, value(dataset, row, column));
+                    }
+                    stream.add(filters);
+                }
+                streams.add(stream);
+            }
+
+            long start = System.nanoTime();
+            ColumnarEngine engine = ColumnarEngine.load(connection);
+            double loadMs = (System.nanoTime() - start) / 1e6;
+            System.out.printf("%,d rows, %s, engine loaded in %.0f ms%n", dataset.getRowCount(),
+                    indexed ? "indexed" : "no index", loadMs);
+            System.out.printf("%-22s %12s %12s %9s%n", "mean ms", "sqlite", "columnar", "speedup");
+
+            StatementCache statements = new StatementCache(connection, 64);
+            for (int s = 0; s < SHAPES.size(); s++) {
+                // One untimed pass of each, so the JIT has compiled both before they are measured
+                run(streams.get(s), connection, statements, engine, new long[2]);
+                long[] nanos = new long[2];
+                run(streams.get(s), connection, statements, engine, nanos);
+                String shape = SHAPES.get(s).isEmpty() ? "(none)" : String.join("+", SHAPES.get(s));
+                System.out.printf("%-22s %12.3f %12.3f %8.1fx%n", shape, nanos[0] / 1e6 / requests,
+                        nanos[1] / 1e6 / requests, (double) nanos[0] / nanos[1]);
+            }
+            statements.close();
+        }
+    }
+
+    private static void run(List<Map<String, String>> stream, Connection connection, StatementCache statements,
+            ColumnarEngine engine, long[] nanos) throws Exception {
+        for (Map<String, String> filters : stream) {
+            long start = System.nanoTime();
+            AggregationQuery query = AggregationQuery.of(filters, AGGREGATIONS);
+            PreparedStatement statement = statements.prepare(query.sql()).getStatement();
+            query.bind(statement, true);
+            Map<String, Object> expected = new HashMap<>();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                query.readAll(resultSet, true, expected);
+            }
+            nanos[0] += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            query = AggregationQuery.of(filters, AGGREGATIONS);
+            double[] values = engine.run(query, new HashMap<>());
+            Map<String, Object> actual = new HashMap<>();
+            query.read(values, actual);
+            nanos[1] += System.nanoTime() - start;
+
+            for (String aggregation : AGGREGATIONS) {
+                double value = (Double) actual.get(aggregation);
+                double answer = (Double) expected.get(aggregation);
+                if (Math.abs(value - answer) > 1e-9 * Math.max(1, Math.abs(answer))) {
+                    throw new AssertionError(filters + " " + aggregation + ": " + value + " vs " + answer);
+                }
+            }
+        }
+    }
+
+    private static String value(Dataset dataset, int row, String column) {
+        for (String name : dataset.getNames()) {
+            if (name.replace(" ", "").equals(column)) {
+                return dataset.format(row, dataset.columnIndex(name));
+            }
+        }
+        throw new IllegalArgumentException(column);
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Compares one query per dimension value with a single grouped query returning every group.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package local;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lambda.AggregationQuery;
+import lambda.Dataset;
+import lambda.OrdersTable;
+import lambda.Rollups;
+import saaf.Inspector;
+
+/**
+ * Usage: GroupByBenchmark [rows] [typed]
+ *
+ * Bulk loads sales.db and, for Country, Region and OrderDate, answers "these aggregations for every
+ * value" two ways: one filtered query per distinct value, as a client without groupBy has to, and
+ * one {@link AggregationQuery} grouped by the column. Then the ten ItemTypes with the highest total
+ * profit, grouped on Orders and on a rollup. Reports the time of each; the grouped answers must
+ * match the per-value ones.
+ */
+public class GroupByBenchmark {
+
+    private static final List<String> AGGREGATIONS =
+            Arrays.asList("sum(TotalProfit)", "avg(GrossMargin)", "count(*)", "max(UnitsSold)");
+
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 500_000;
+        boolean typed = args.length <= 1 || Boolean.parseBoolean(args[1]);
+        Dataset dataset = SalesRecords.transformedDataset(rows, 0.05, 42);
+        Path database = Files.createTempDirectory("group-by-benchmark").resolve("sales.db");
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database)) {
+            OrdersTable.configureBulkLoad(connection);
+            connection.setAutoCommit(false);
+            OrdersTable.bulkInsert(connection, dataset, typed);
+            connection.commit();
+            System.out.printf("%,d rows, %s schema%n", dataset.getRowCount(), typed ? "typed" : "text");
+            System.out.printf("%-12s %8s %14s %12s%n", "group by", "groups", "per value ms", "grouped ms");
+
+            for (String column : new String[] {"Country", "Region", "OrderDate"}) {
+                AggregationQuery grouped = AggregationQuery.of(null, AGGREGATIONS,
+                        Collections.singletonList(column), null, 0);
+                long start = System.nanoTime();
+                Map<String, Object> response = run(connection, grouped.sql(), grouped, typed);
+                double groupedMs = (System.nanoTime() - start) / 1e6;
+                @SuppressWarnings("unchecked")
+                Map<String, List<Object>> result = (Map<String, List<Object>>) response.get("result");
+                List<Object> values = result.get(column);
+
+                start = System.nanoTime();
+                for (int g = 0; g < values.size(); g++) {
+                    AggregationQuery single = AggregationQuery.of(
+                            Collections.singletonMap(column, values.get(g).toString()), AGGREGATIONS);
+                    Map<String, Object> answer = run(connection, single.sql(), single, typed);
+                    for (String aggregation : AGGREGATIONS) {
+                        check(column + "=" + values.get(g) + " " + aggregation, (Double) answer.get(aggregation),
+                                (Double) result.get(aggregation).get(g));
+                    }
+                }
+                double perValueMs = (System.nanoTime() - start) / 1e6;
+                System.out.printf("%-12s %8d %14.0f %12.0f%n", column, values.size(), perValueMs, groupedMs);
+            }
+
+            AggregationQuery top = AggregationQuery.of(null, AGGREGATIONS, Collections.singletonList("ItemType"),
+                    "sum(TotalProfit) desc", 10);
+            long start = System.nanoTime();
+            Map<String, Object> orders = run(connection, top.sql(), top, typed);
+            double ordersMs = (System.nanoTime() - start) / 1e6;
+            Rollups.build(connection, Collections.singletonList("Region+ItemType"), new Inspector());
+            connection.commit();
+            String rollup = Rollups.choose(connection, top);
+            start = System.nanoTime();
+            Map<String, Object> rolledUp = run(connection, Rollups.sql(rollup, top), top, typed);
+            double rollupMs = (System.nanoTime() - start) / 1e6;
+            @SuppressWarnings("unchecked")
+            Map<String, List<Object>> expected = (Map<String, List<Object>>) orders.get("result");
+            @SuppressWarnings("unchecked")
+            Map<String, List<Object>> actual = (Map<String, List<Object>>) rolledUp.get("result");
+            if (!expected.get("ItemType").equals(actual.get("ItemType"))) {
+                throw new AssertionError(actual.get("ItemType") + " vs " + expected.get("ItemType"));
+            }
+            for (int g = 0; g < expected.get("ItemType").size(); g++) {
+                check("top " + g, (Double) actual.get("sum(TotalProfit)").get(g),
+                        (Double) expected.get("sum(TotalProfit)").get(g));
+            }
+            System.out.printf("top 10 ItemType by sum(TotalProfit): Orders %.1f ms, %s %.2f ms%n", ordersMs, rollup,
+                    rollupMs);
+            System.out.println("  " + expected.get("ItemType"));
+        }
+    }
+
+    private static Map<String, Object> run(Connection connection, String sql, AggregationQuery query, boolean typed)
+            throws Exception {
+        Map<String, Object> response = new HashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            query.bind(statement, typed);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                query.readAll(resultSet, typed, response);
+            }
+        }
+        return response;
+    }
+
+    private static void check(String what, double actual, double expected) {
+        if (Math.abs(actual - expected) > 1e-9 * Math.max(1, Math.abs(expected))) {
+            throw new AssertionError(what + ": " + actual + " vs " + expected);
+        }
+    }
+}
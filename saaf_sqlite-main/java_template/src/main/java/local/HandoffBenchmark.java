@@ -0,0 +1,97 @@
+/**
+ * Compares handing the transformed data from Transform to Load as CSV and as a columnar file.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package local;
+
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import java.io.BufferedWriter;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import lambda.ColumnarFile;
+import lambda.CsvParser;
+import lambda.Dataset;
+import lambda.S3UploadStream;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+/**
+ * Usage: HandoffBenchmark [rows] [MB/s per stream]
+ *
+ * Writes a transformed dataset to a throttled {@link LocalS3} the way Transform does, once as
+ * output.csv through CSVPrinter and once as output.col, then reads each back the way Load does.
+ * Reports the object size and the write and read times; every value read back must format the
+ * same as the original.
+ */
+public class HandoffBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 500_000;
+        long bytesPerSecond = (args.length > 1 ? Long.parseLong(args[1]) : 50) * 1024 * 1024;
+        Dataset dataset = SalesRecords.transformedDataset(rows, 0.05, 42);
+        Path directory = Files.createTempDirectory("handoff-benchmark");
+        LocalS3 s3 = new LocalS3(directory, bytesPerSecond);
+        System.out.printf("%,d rows, %d MB/s per stream%n", dataset.getRowCount(), bytesPerSecond / 1048576);
+        System.out.printf("%-9s %8s %9s %8s %9s%n", "format", "MB", "write ms", "read ms", "total ms");
+
+        for (boolean columnar : new boolean[] {false, true}) {
+            String key = columnar ? "output.col" : "output.csv";
+            long start = System.nanoTime();
+            S3UploadStream upload = new S3UploadStream(s3, "b", key, 8 * 1024 * 1024, 4);
+            if (columnar) {
+                ColumnarFile.write(dataset, upload);
+                upload.close();
+            } else {
+                try (CSVPrinter csvPrinter = new CSVPrinter(new BufferedWriter(
+                        new OutputStreamWriter(upload, StandardCharsets.UTF_8), 64 * 1024), CSVFormat.DEFAULT)) {
+                    csvPrinter.printRecord(dataset.getNames());
+                    String[] row = new String[dataset.getColumnCount()];
+                    for (int i = 0; i < dataset.getRowCount(); i++) {
+                        for (int c = 0; c < row.length; c++) {
+                            row[c] = dataset.format(i, c);
+                        }
+                        csvPrinter.printRecord((Object[]) row);
+                    }
+                }
+            }
+            long written = System.nanoTime();
+
+            Dataset read;
+            if (columnar) {
+                read = ColumnarFile.read(s3, "b", key);
+            } else {
+                read = new Dataset();
+                try (InputStream in = s3.getObject(new GetObjectRequest("b", key)).getObjectContent()) {
+                    new CsvParser(read).parse(in);
+                }
+            }
+            long end = System.nanoTime();
+
+            check(dataset, read);
+            System.out.printf("%-9s %8.1f %9.0f %8.0f %9.0f%n", columnar ? "columnar" : "csv",
+                    upload.getByteCount() / 1048576.0, (written - start) / 1e6, (end - written) / 1e6,
+                    (end - start) / 1e6);
+        }
+    }
+
+    private static void check(Dataset expected, Dataset actual) {
+        if (!actual.getNames().equals(expected.getNames()) || actual.getRowCount() != expected.getRowCount()) {
+            throw new AssertionError(actual.getNames() + " x " + actual.getRowCount());
+        }
+        for (int c = 0; c < expected.getColumnCount(); c++) {
+            if (actual.getColumn(c).getType() != expected.getColumn(c).getType()) {
+                throw new AssertionError(expected.getNames().get(c) + " read as " + actual.getColumn(c).getType());
+            }
+            for (int row = 0; row < expected.getRowCount(); row++) {
+                if (!actual.format(row, c).equals(expected.format(row, c))) {
+                    throw new AssertionError(expected.getNames().get(c) + " row " + row + ": "
+                            + actual.format(row, c) + " vs " + expected.format(row, c));
+                }
+            }
+        }
+    }
+}
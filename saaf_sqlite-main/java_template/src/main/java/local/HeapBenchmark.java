@@ -0,0 +1,71 @@
+/**
+ * Measures heap per row of the row-of-Strings layout against the columnar Dataset.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package local;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+import lambda.CsvParser;
+import lambda.Dataset;
+
+/**
+ * Usage: HeapBenchmark [rows]
+ *
+ * Generates a sales file in memory, then holds it once as List&lt;ArrayList&lt;String&gt;&gt; read
+ * with Scanner and split (the layout the handlers used) and once as a {@link Dataset}, and reports
+ * the retained heap of each after a full GC.
+ */
+public class HeapBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+        ByteArrayOutputStream generated = new ByteArrayOutputStream();
+        SalesRecords.write(generated, rows, 0.05, 42);
+        byte[] csv = generated.toByteArray();
+        generated = null;
+        System.out.printf("%d rows, %.1f MB of CSV, max heap %d MB%n", rows, csv.length / 1048576.0,
+                Runtime.getRuntime().maxMemory() / 1048576);
+
+        long baseline = usedHeap();
+        List<ArrayList<String>> csvData = new ArrayList<>();
+        Scanner scanner = new Scanner(new ByteArrayInputStream(csv));
+        while (scanner.hasNextLine()) {
+            csvData.add(new ArrayList<>(Arrays.asList(scanner.nextLine().split(","))));
+        }
+        long rowLayout = usedHeap() - baseline;
+        report("List<ArrayList<String>>", rowLayout, rows);
+        csvData = null;
+
+        baseline = usedHeap();
+        Dataset dataset = new Dataset();
+        new CsvParser(dataset).parse(new ByteArrayInputStream(csv));
+        long columnar = usedHeap() - baseline;
+        report("Dataset", columnar, rows);
+        System.out.printf("%-24s %8.1f bytes/row (estimate from Dataset.heapBytes)%n", "", dataset.heapBytes() / (double) rows);
+        System.out.printf("ratio %.1fx%n", rowLayout / (double) columnar);
+    }
+
+    private static void report(String layout, long bytes, long rows) {
+        double perRow = bytes / (double) rows;
+        long rowsAt3008 = (long) (3008L * 1048576 / perRow);
+        System.out.printf("%-24s %8.1f bytes/row, %7.1f MB total, ~%,d rows fit in 3008 MB%n",
+                layout, perRow, bytes / 1048576.0, rowsAt3008);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(100);
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Measures the indexes chosen from a recorded workload against full table scans.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package local;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import lambda.Dataset;
+import lambda.IndexAdvisor;
+import lambda.OrdersTable;
+import lambda.WorkloadLog;
+
+/**
+ * Usage: IndexBenchmark [rows] [budgetMB...]
+ *
+ * Records a skewed workload of filter shapes in a local workload log and reads it back, then for
+ * each budget (0, 4 and 32 MB by default) loads a typed sales.db, builds the indexes the advisor
+ * chooses and reports their estimated and actual size, the build time, and for every query shape
+ * the index SQLite picked and the median latency. All budgets must give the same answers.
+ */
+public class IndexBenchmark {
+
+    private static final int RUNS = 7;
+
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 500_000;
+        int[] budgets = args.length > 1
+                ? Arrays.stream(args, 1, args.length).mapToInt(Integer::parseInt).toArray()
+                : new int[] {0, 4, 32};
+        Dataset dataset = SalesRecords.transformedDataset(rows, 0.05, 42);
+        int sample = dataset.getRowCount() / 3;
+
+        // Filter shape and its number of queries, with values taken from one existing row.
+        Map<String, Integer> recorded = new LinkedHashMap<>();
+        recorded.put("Region", 40);
+        recorded.put("ItemType+Region", 25);
+        recorded.put("Country+SalesChannel", 20);
+        recorded.put("ItemType", 10);
+        recorded.put("OrderDate", 5);
+
+        Path directory = Files.createTempDirectory("index-benchmark");
+        LocalS3 s3 = new LocalS3(directory.resolve("s3"));
+        for (Map.Entry<String, Integer> shape : recorded.entrySet()) {
+            for (int i = 0; i < shape.getValue(); i++) {
+                WorkloadLog.record(s3, "b", WorkloadLog.columnsOf(shape.getKey()));
+            }
+        }
+        WorkloadLog.flush(s3, "b");
+        Map<String, Integer> workload = WorkloadLog.read(s3, "b");
+        if (!workload.equals(recorded)) {
+            throw new AssertionError("read back " + workload);
+        }
+        System.out.printf("%,d rows, workload %s%n", dataset.getRowCount(), workload);
+
+        Map<String, Double> expected = new LinkedHashMap<>();
+        for (int budget : budgets) {
+            Path database = directory.resolve("sales-" + budget + ".db");
+            try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database)) {
+                OrdersTable.configureBulkLoad(connection);
+                connection.setAutoCommit(false);
+                OrdersTable.bulkInsert(connection, dataset, true);
+                long start = System.nanoTime();
+                IndexAdvisor advisor = new IndexAdvisor(budget * 1024L * 1024);
+                List<IndexAdvisor.Index> indexes = advisor.choose(connection, workload);
+                long bytes = advisor.build(connection, indexes);
+                long build = System.nanoTime() - start;
+                connection.commit();
+
+                long estimated = indexes.stream().mapToLong(IndexAdvisor.Index::getEstimatedBytes).sum();
+                System.out.printf("%nbudget %d MB: %d indexes, estimated %.1f MB, actual %.1f MB, built in %.1f ms%n",
+                        budget, indexes.size(), estimated / 1048576.0, bytes / 1048576.0, build / 1e6);
+                for (IndexAdvisor.Index index : indexes) {
+                    System.out.printf("  %-28s %8.1f MB  %,.0f rows saved%n", index.getName(),
+                            index.getEstimatedBytes() / 1048576.0, index.getRowsSaved());
+                }
+
+                for (String shape : recorded.keySet()) {
+                    StringBuilder sql = new StringBuilder("SELECT sum(TotalProfit), count(*) FROM Orders WHERE ");
+                    List<String> columns = WorkloadLog.columnsOf(shape);
+                    for (int c = 0; c < columns.size(); c++) {
+                        String column = columns.get(c);
+                        String value = dataset.format(sample, dataset.columnIndex(datasetName(dataset, column)));
+                        sql.append(c == 0 ? "" : " AND ").append(column).append('=')
+                                .append(OrdersTable.literal(column, value, true));
+                    }
+                    double[] result = new double[1];
+                    double ms = time(connection, sql.toString(), result);
+                    Double previous = expected.putIfAbsent(shape, result[0]);
+                    if (previous != null && Math.abs(previous - result[0]) > 1e-6 * Math.abs(previous)) {
+                        throw new AssertionError(shape + ": " + result[0] + " vs " + previous);
+                    }
+                    System.out.printf("  %-24s %-28s %8.2f ms%n", shape,
+                            IndexAdvisor.indexUsed(IndexAdvisor.explain(connection, sql.toString())), ms);
+                }
+            }
+        }
+    }
+
+    private static String datasetName(Dataset dataset, String column) {
+        for (String name : dataset.getNames()) {
+            if (name.replace(" ", "").equals(column)) {
+                return name;
+            }
+        }
+        throw new IllegalArgumentException(column);
+    }
+
+    private static double time(Connection connection, String sql, double[] result) throws SQLException {
+        long[] times = new long[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery(sql)) {
+                resultSet.next();
+                result[0] = resultSet.getDouble(1);
+            }
+            times[run] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        return times[RUNS / 2] / 1e6;
+    }
+}
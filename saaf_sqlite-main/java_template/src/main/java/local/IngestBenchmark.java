@@ -0,0 +1,110 @@
+/**
+ * Compares single-stream and ranged parallel ingest of a sales file against the local object store.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package local;
+
+import com.amazonaws.services.s3.model.S3Object;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import lambda.CsvParser;
+import lambda.Dataset;
+import lambda.RangedCsvReader;
+
+/**
+ * Usage: IngestBenchmark [rows] [MB/s per stream] [threads...]
+ *
+ * Writes a synthetic sales file into a temporary {@link LocalS3} bucket, then reads it once through
+ * a single object stream and once per thread count through {@link RangedCsvReader}. The per-stream
+ * bandwidth models the per-connection cap of S3; 0 disables throttling.
+ *
+ * First checks that ranges of every size from 1 to 12 bytes, so falling before, on and after the
+ * line feeds of a file of 3-byte records, read the same rows as a single stream, and report
+ * malformed values at the same rows.
+ */
+public class IngestBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 1_500_000;
+        long bytesPerSecond = (args.length > 1 ? Long.parseLong(args[1]) : 50) * 1024 * 1024;
+        int[] threadCounts = {1, 2, 4, 8};
+        if (args.length > 2) {
+            threadCounts = new int[args.length - 2];
+            for (int i = 2; i < args.length; i++) {
+                threadCounts[i - 2] = Integer.parseInt(args[i]);
+            }
+        }
+
+        Path root = Files.createTempDirectory("localS3");
+        checkBoundaries(new LocalS3(root, 0));
+        LocalS3 s3 = new LocalS3(root, bytesPerSecond);
+        SalesRecords.write(s3.pathOf("bench", "sales.csv"), rows, 0.05, 42);
+        long size = Files.size(s3.pathOf("bench", "sales.csv"));
+        System.out.printf("%d rows, %.1f MB, %d MB/s per stream%n", rows, size / 1048576.0, bytesPerSecond / 1048576);
+
+        // Single stream, as the handlers read today.
+        long start = System.currentTimeMillis();
+        List<ArrayList<String>> sequential = new ArrayList<>();
+        CsvParser parser = new CsvParser(row -> sequential.add(row.toList()));
+        S3Object s3Object = s3.getObject("bench", "sales.csv");
+        try (InputStream in = s3Object.getObjectContent()) {
+            parser.parse(in);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        System.out.printf("single stream: %6d ms  %9d rows/s%n", elapsed, sequential.size() * 1000L / Math.max(1, elapsed));
+
+        for (int threads : threadCounts) {
+            try (RangedCsvReader reader = new RangedCsvReader(s3, threads, 8 * 1024 * 1024)) {
+                List<ArrayList<String>> ranged = reader.readRows("bench", "sales.csv");
+                if (!ranged.equals(sequential)) {
+                    throw new IllegalStateException("Ranged read differs from sequential read");
+                }
+                System.out.printf("ranged x%-5d %6d ms  %9d rows/s%n", threads, reader.getElapsedMillis(), reader.getRowsPerSecond());
+            }
+        }
+    }
+
+    private static void checkBoundaries(LocalS3 s3) throws Exception {
+        Path file = s3.pathOf("boundaries", "rows.csv");
+        Files.createDirectories(file.getParent());
+        Files.write(file, "h,\nr1\nr2\nr3\nr4\nr5\nr6\nr7\n".getBytes(StandardCharsets.US_ASCII));
+        List<ArrayList<String>> sequential = new ArrayList<>();
+        CsvParser parser = new CsvParser(row -> sequential.add(row.toList()));
+        try (InputStream in = s3.getObject("boundaries", "rows.csv").getObjectContent()) {
+            parser.parse(in);
+        }
+        for (int chunkSize = 1; chunkSize <= 12; chunkSize++) {
+            try (RangedCsvReader reader = new RangedCsvReader(s3, 2, chunkSize)) {
+                List<ArrayList<String>> ranged = reader.readRows("boundaries", "rows.csv");
+                if (!ranged.equals(sequential)) {
+                    throw new IllegalStateException("Ranges of " + chunkSize + " bytes read " + ranged + " instead of "
+                            + sequential);
+                }
+            }
+        }
+        System.out.println("ranges of 1 to 12 bytes match a single stream");
+
+        // Malformed values must be reported at their row in the object, not in their range.
+        Path typed = s3.pathOf("boundaries", "typed.csv");
+        Files.write(typed, "Order ID\n1\nx\n3\ny\n5\nz\n".getBytes(StandardCharsets.US_ASCII));
+        Dataset expected = new Dataset();
+        try (InputStream in = s3.getObject("boundaries", "typed.csv").getObjectContent()) {
+            new CsvParser(expected).parse(in);
+        }
+        for (int chunkSize = 1; chunkSize <= 12; chunkSize++) {
+            try (RangedCsvReader reader = new RangedCsvReader(s3, 2, chunkSize)) {
+                List<String> samples = reader.readDataset("boundaries", "typed.csv").getParseErrors().getSamples();
+                if (!samples.equals(expected.getParseErrors().getSamples())) {
+                    throw new IllegalStateException("Ranges of " + chunkSize + " bytes report " + samples + " instead of "
+                            + expected.getParseErrors().getSamples());
+                }
+            }
+        }
+        System.out.println("ranged parse errors carry their row in the object: " + expected.getParseErrors().getSamples());
+    }
+}
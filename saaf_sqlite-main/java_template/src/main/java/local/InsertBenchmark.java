@@ -0,0 +1,129 @@
+/**
+ * Compares per-row batched inserts with multi-row INSERT statements.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package local;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import lambda.Dataset;
+import lambda.MultiRowInserter;
+import lambda.OrdersTable;
+
+/**
+ * Usage: InsertBenchmark [rows...]
+ *
+ * For each row count (10k, 100k and 1.5M by default), each schema, and both the keyed Orders table
+ * of a default load and the unindexed staging table of a bulk load, inserts the rows into a fresh
+ * database in one transaction with the former path, one INSERT per row grouped by addBatch in
+ * batches of 1000, and with a {@link MultiRowInserter}. Reports the best rows per second of three
+ * runs and the statement size the inserter settled on. Both paths must store the same rows.
+ */
+public class InsertBenchmark {
+
+    private static final int BATCH_SIZE = 1000;
+
+    public static void main(String[] args) throws Exception {
+        long[] rowCounts = args.length > 0
+                ? Arrays.stream(args).mapToLong(Long::parseLong).toArray()
+                : new long[] {10_000, 100_000, 1_500_000};
+        Path directory = Files.createTempDirectory("insert-benchmark");
+        System.out.printf("%10s %-6s %-8s %16s %16s %8s %s%n", "rows", "schema", "table", "addBatch rows/s",
+                "multi-row rows/s", "speedup", "rows per statement");
+        for (long rows : rowCounts) {
+            Dataset dataset = SalesRecords.transformedDataset(rows, 0.05, 42);
+            for (boolean keyed : new boolean[] {true, false}) {
+                for (boolean typed : new boolean[] {false, true}) {
+                    long batched = Long.MAX_VALUE;
+                    long multiRow = Long.MAX_VALUE;
+                    int[] statementRows = new int[3];
+                    for (int run = 0; run < 3; run++) {
+                        Path database = directory.resolve("batched.db");
+                        Files.deleteIfExists(database);
+                        batched = Math.min(batched, load(database, dataset, typed, keyed, null));
+                        long expected = checksum(database);
+                        database = directory.resolve("multi-row.db");
+                        Files.deleteIfExists(database);
+                        multiRow = Math.min(multiRow, load(database, dataset, typed, keyed, statementRows));
+                        if (checksum(database) != expected) {
+                            throw new AssertionError("the two paths stored different rows");
+                        }
+                    }
+                    System.out.printf("%,10d %-6s %-8s %,16d %,16d %7.2fx %s%n", dataset.getRowCount(),
+                            typed ? "typed" : "text", keyed ? "keyed" : "staging",
+                            dataset.getRowCount() * 1_000_000_000L / batched,
+                            dataset.getRowCount() * 1_000_000_000L / multiRow, batched / (double) multiRow,
+                            Arrays.toString(statementRows));
+                }
+            }
+        }
+    }
+
+    /**
+     * Inserts the rows with addBatch, or with a MultiRowInserter whose settled statement size is
+     * then recorded in the first free slot of statementRows.
+     */
+    private static long load(Path database, Dataset dataset, boolean typed, boolean keyed, int[] statementRows)
+            throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database)) {
+            connection.setAutoCommit(false);
+            if (keyed) {
+                OrdersTable.create(connection, typed);
+            } else {
+                try (Statement statement = connection.createStatement()) {
+                    statement.executeUpdate("CREATE TABLE Orders (" + String.join(", ", OrdersTable.COLUMNS) + ")");
+                }
+            }
+            Dataset.Column[] columns = OrdersTable.bindColumns(dataset);
+            long start = System.nanoTime();
+            if (statementRows != null) {
+                try (MultiRowInserter inserter = new MultiRowInserter(connection, "Orders", OrdersTable.COLUMNS)) {
+                    inserter.insert(dataset.getRowCount(), (statement, parameter, row) -> {
+                        for (int c = 0; c < columns.length; c++) {
+                            OrdersTable.bind(statement, parameter + c, columns[c], row, typed);
+                        }
+                    });
+                    int slot = 0;
+                    while (statementRows[slot] != 0) {
+                        slot++;
+                    }
+                    statementRows[slot] = inserter.getStatementRows();
+                }
+            } else {
+                try (PreparedStatement statement = connection.prepareStatement(OrdersTable.insertSql())) {
+                    for (int i = 0; i < dataset.getRowCount(); i++) {
+                        for (int c = 0; c < columns.length; c++) {
+                            OrdersTable.bind(statement, c + 1, columns[c], i, typed);
+                        }
+                        statement.addBatch();
+                        if ((i + 1) % BATCH_SIZE == 0) {
+                            statement.executeBatch();
+                            statement.clearBatch();
+                        }
+                    }
+                    statement.executeBatch();
+                }
+            }
+            connection.commit();
+            return System.nanoTime() - start;
+        }
+    }
+
+    private static long checksum(Path database) throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database);
+             Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery("SELECT count(*), total(length(Region || Country || OrderID"
+                     + " || OrderDate || TotalProfit || GrossMargin)), total(UnitsSold) FROM Orders")) {
+            result.next();
+            return result.getLong(1) * 31 * 31 + result.getLong(2) * 31 + result.getLong(3);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Compares the default and the bulk-load path into SQLite.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package local;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import lambda.Dataset;
+import lambda.OrdersTable;
+
+/**
+ * Usage: LoadBenchmark [rows]
+ *
+ * Loads the same transformed data into a fresh sales.db with each schema and load mode, three
+ * times each, and reports the best load time, the rows per second and the file size. Every
+ * database must hold the same number of rows and pass an integrity check.
+ */
+public class LoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 500_000;
+        Dataset dataset = SalesRecords.transformedDataset(rows, 0.05, 42);
+        System.out.printf("%,d rows after deduplication%n", dataset.getRowCount());
+
+        Path directory = Files.createTempDirectory("load-benchmark");
+        for (boolean typed : new boolean[] {false, true}) {
+            for (boolean bulk : new boolean[] {false, true}) {
+                Path database = directory.resolve((typed ? "typed" : "text") + (bulk ? "-bulk" : "") + ".db");
+                long best = Long.MAX_VALUE;
+                for (int run = 0; run < 3; run++) {
+                    Files.deleteIfExists(database);
+                    best = Math.min(best, load(database, dataset, typed, bulk));
+                }
+                check(database, dataset.getRowCount());
+                System.out.printf("%-6s %-8s %8.1f ms %,12d rows/s %8.1f MB%n", typed ? "typed" : "text",
+                        bulk ? "bulk" : "default", best / 1e6, dataset.getRowCount() * 1_000_000_000L / best,
+                        Files.size(database) / 1048576.0);
+            }
+        }
+    }
+
+    private static long load(Path database, Dataset dataset, boolean typed, boolean bulk) throws SQLException {
+        long start = System.nanoTime();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database)) {
+            if (bulk) {
+                OrdersTable.configureBulkLoad(connection);
+            }
+            connection.setAutoCommit(false);
+            if (bulk) {
+                OrdersTable.bulkInsert(connection, dataset, typed);
+            } else {
+                OrdersTable.create(connection, typed);
+                OrdersTable.insert(connection, dataset, typed);
+            }
+            connection.commit();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void check(Path database, int expectedRows) throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database);
+             Statement statement = connection.createStatement()) {
+            try (ResultSet count = statement.executeQuery("SELECT count(*) FROM Orders")) {
+                count.next();
+                if (count.getInt(1) != expectedRows) {
+                    throw new AssertionError(database + " has " + count.getInt(1) + " rows");
+                }
+            }
+            try (ResultSet check = statement.executeQuery("PRAGMA integrity_check")) {
+                check.next();
+                if (!check.getString(1).equals("ok")) {
+                    throw new AssertionError(database + ": " + check.getString(1));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,485 @@
+/**
+ * Directory-backed stand-in for Amazon S3 so the pipeline can be run and benchmarked offline.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package local;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.DeleteObjectRequest;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The LocalS3 class implements the subset of {@link com.amazonaws.services.s3.AmazonS3} used by
+ * the handlers on top of a local directory. Each bucket is a subdirectory and each key a file.
+ * Reads and writes can be throttled per stream to model the per-connection bandwidth cap of S3,
+ * which is what makes ranged reads and concurrent part uploads worthwhile. Multipart uploads keep
+ * their parts under a hidden .multipart directory until they are completed or aborted, and are
+ * left out of listings.
+ */
+public class LocalS3 extends AbstractAmazonS3 {
+
+    private final Path root;
+    private final long bytesPerSecondPerStream;
+    private final Map<Path, String[]> etags = new ConcurrentHashMap<>(); // size:modified, etag
+
+    /**
+     * Creates an unthrottled store rooted at the given directory.
+     *
+     * @param root The directory holding one subdirectory per bucket.
+     */
+    public LocalS3(Path root) {
+        this(root, 0);
+    }
+
+    /**
+     * Creates a store rooted at the given directory.
+     *
+     * @param root                    The directory holding one subdirectory per bucket.
+     * @param bytesPerSecondPerStream The bandwidth of each object stream, or 0 for unlimited.
+     */
+    public LocalS3(Path root, long bytesPerSecondPerStream) {
+        this.root = root;
+        this.bytesPerSecondPerStream = bytesPerSecondPerStream;
+    }
+
+    /**
+     * @param bucketName The bucket name.
+     * @param key        The object key.
+     * @return The file backing the object.
+     */
+    public Path pathOf(String bucketName, String key) {
+        return root.resolve(bucketName).resolve(key);
+    }
+
+    @Override
+    public S3Object getObject(String bucketName, String key) {
+        return getObject(new GetObjectRequest(bucketName, key));
+    }
+
+    @Override
+    public S3Object getObject(GetObjectRequest getObjectRequest) {
+        String bucketName = getObjectRequest.getBucketName();
+        String key = getObjectRequest.getKey();
+        Path path = existing(bucketName, key);
+        try {
+            // Like the SDK, a GET whose If-None-Match constraint matches returns null (304).
+            if (getObjectRequest.getNonmatchingETagConstraints().contains(etag(path))) {
+                return null;
+            }
+            long length = Files.size(path);
+            long start = 0;
+            long end = length - 1;
+            long[] range = getObjectRequest.getRange();
+            if (range != null) {
+                start = range[0];
+                end = Math.min(range[1], length - 1);
+            }
+            RandomAccessFile file = new RandomAccessFile(path.toFile(), "r");
+            file.seek(start);
+            InputStream content = new RangeInputStream(Channels.newInputStream(file.getChannel()), end - start + 1);
+            if (bytesPerSecondPerStream > 0) {
+                content = new ThrottledInputStream(content, bytesPerSecondPerStream);
+            }
+
+            ObjectMetadata metadata = getObjectMetadata(bucketName, key);
+            metadata.setContentLength(end - start + 1);
+
+            S3Object s3Object = new S3Object();
+            s3Object.setBucketName(bucketName);
+            s3Object.setKey(key);
+            s3Object.setObjectMetadata(metadata);
+            s3Object.setObjectContent(content);
+            return s3Object;
+        } catch (IOException e) {
+            throw new AmazonS3Exception("Failed to read " + path, e);
+        }
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(String bucketName, String key) {
+        Path path = existing(bucketName, key);
+        try {
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(Files.size(path));
+            metadata.setHeader("ETag", etag(path));
+            return metadata;
+        } catch (IOException e) {
+            throw new AmazonS3Exception("Failed to stat " + path, e);
+        }
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(GetObjectMetadataRequest getObjectMetadataRequest) {
+        return getObjectMetadata(getObjectMetadataRequest.getBucketName(), getObjectMetadataRequest.getKey());
+    }
+
+    @Override
+    public boolean doesObjectExist(String bucketName, String objectName) {
+        return Files.isRegularFile(pathOf(bucketName, objectName));
+    }
+
+    @Override
+    public PutObjectResult putObject(PutObjectRequest putObjectRequest) {
+        Path path = pathOf(putObjectRequest.getBucketName(), putObjectRequest.getKey());
+        try {
+            Files.createDirectories(path.getParent());
+            InputStream content = throttled(putObjectRequest.getFile() != null
+                    ? Files.newInputStream(putObjectRequest.getFile().toPath())
+                    : putObjectRequest.getInputStream());
+            Path temp = Files.createTempFile(path.getParent(), ".put", null);
+            try (InputStream in = content) {
+                Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            PutObjectResult result = new PutObjectResult();
+            result.setETag(md5Hex(Files.newInputStream(path)));
+            return result;
+        } catch (IOException e) {
+            throw new AmazonS3Exception("Failed to write " + path, e);
+        }
+    }
+
+    @Override
+    public void deleteObject(DeleteObjectRequest deleteObjectRequest) {
+        Path path = pathOf(deleteObjectRequest.getBucketName(), deleteObjectRequest.getKey());
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            throw new AmazonS3Exception("Failed to delete " + path, e);
+        }
+    }
+
+    @Override
+    public ListObjectsV2Result listObjectsV2(ListObjectsV2Request request) {
+        Path bucket = root.resolve(request.getBucketName());
+        String prefix = request.getPrefix() == null ? "" : request.getPrefix();
+        String after = request.getContinuationToken() != null ? request.getContinuationToken() : request.getStartAfter();
+        int maxKeys = request.getMaxKeys() == null ? 1000 : request.getMaxKeys();
+        List<String> keys;
+        if (!Files.isDirectory(bucket)) {
+            keys = List.of();
+        } else {
+            try (Stream<Path> files = Files.walk(bucket)) {
+                keys = files.filter(Files::isRegularFile)
+                        .map(file -> bucket.relativize(file).toString().replace('\\', '/'))
+                        .filter(key -> key.startsWith(prefix) && !key.startsWith(".") && !key.contains("/."))
+                        .filter(key -> after == null || key.compareTo(after) > 0)
+                        .sorted()
+                        .collect(Collectors.toList());
+            } catch (IOException e) {
+                throw new AmazonS3Exception("Failed to list " + bucket, e);
+            }
+        }
+
+        ListObjectsV2Result result = new ListObjectsV2Result();
+        result.setBucketName(request.getBucketName());
+        result.setPrefix(request.getPrefix());
+        for (String key : keys.subList(0, Math.min(maxKeys, keys.size()))) {
+            S3ObjectSummary summary = new S3ObjectSummary();
+            summary.setBucketName(request.getBucketName());
+            summary.setKey(key);
+            summary.setSize(pathOf(request.getBucketName(), key).toFile().length());
+            result.getObjectSummaries().add(summary);
+        }
+        result.setKeyCount(result.getObjectSummaries().size());
+        result.setTruncated(keys.size() > maxKeys);
+        if (result.isTruncated()) {
+            result.setNextContinuationToken(keys.get(maxKeys - 1));
+        }
+        return result;
+    }
+
+    @Override
+    public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request) {
+        String uploadId = UUID.randomUUID().toString();
+        try {
+            Files.createDirectories(uploadDirectory(uploadId));
+        } catch (IOException e) {
+            throw new AmazonS3Exception("Failed to start upload of " + request.getKey(), e);
+        }
+        InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+        result.setBucketName(request.getBucketName());
+        result.setKey(request.getKey());
+        result.setUploadId(uploadId);
+        return result;
+    }
+
+    @Override
+    public UploadPartResult uploadPart(UploadPartRequest request) {
+        Path directory = existingUpload(request.getUploadId());
+        Path part = directory.resolve(String.format("%05d", request.getPartNumber()));
+        try {
+            Path temp = Files.createTempFile(directory, ".part", null);
+            try (InputStream in = throttled(request.getInputStream());
+                 OutputStream out = Files.newOutputStream(temp)) {
+                byte[] buffer = new byte[64 * 1024];
+                long remaining = request.getPartSize();
+                int n;
+                while (remaining > 0 && (n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                    out.write(buffer, 0, n);
+                    remaining -= n;
+                }
+            }
+            Files.move(temp, part, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            UploadPartResult result = new UploadPartResult();
+            result.setPartNumber(request.getPartNumber());
+            result.setETag(md5Hex(Files.newInputStream(part)));
+            return result;
+        } catch (IOException e) {
+            throw new AmazonS3Exception("Failed to write part " + request.getPartNumber() + " of " + request.getKey(), e);
+        }
+    }
+
+    @Override
+    public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request) {
+        Path directory = existingUpload(request.getUploadId());
+        Path path = pathOf(request.getBucketName(), request.getKey());
+        try {
+            Files.createDirectories(path.getParent());
+            Path temp = Files.createTempFile(path.getParent(), ".put", null);
+            List<PartETag> etags = request.getPartETags().stream()
+                    .sorted(Comparator.comparingInt(PartETag::getPartNumber))
+                    .collect(Collectors.toList());
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                for (PartETag etag : etags) {
+                    Path part = directory.resolve(String.format("%05d", etag.getPartNumber()));
+                    if (!Files.isRegularFile(part) || !md5Hex(Files.newInputStream(part)).equals(etag.getETag())) {
+                        Files.delete(temp);
+                        AmazonS3Exception e = new AmazonS3Exception("Invalid part " + etag.getPartNumber());
+                        e.setStatusCode(400);
+                        e.setErrorCode("InvalidPart");
+                        throw e;
+                    }
+                    Files.copy(part, out);
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            deleteUpload(directory);
+
+            CompleteMultipartUploadResult result = new CompleteMultipartUploadResult();
+            result.setBucketName(request.getBucketName());
+            result.setKey(request.getKey());
+            result.setETag(md5Hex(Files.newInputStream(path)));
+            return result;
+        } catch (IOException e) {
+            throw new AmazonS3Exception("Failed to complete upload of " + request.getKey(), e);
+        }
+    }
+
+    @Override
+    public void abortMultipartUpload(AbortMultipartUploadRequest request) {
+        try {
+            deleteUpload(existingUpload(request.getUploadId()));
+        } catch (IOException e) {
+            throw new AmazonS3Exception("Failed to abort upload of " + request.getKey(), e);
+        }
+    }
+
+    /**
+     * @return The number of multipart uploads neither completed nor aborted.
+     */
+    public int getPendingUploadCount() {
+        Path uploads = root.resolve(".multipart");
+        if (!Files.isDirectory(uploads)) {
+            return 0;
+        }
+        try (Stream<Path> pending = Files.list(uploads)) {
+            return (int) pending.count();
+        } catch (IOException e) {
+            throw new AmazonS3Exception("Failed to list uploads", e);
+        }
+    }
+
+    private Path uploadDirectory(String uploadId) {
+        return root.resolve(".multipart").resolve(uploadId);
+    }
+
+    private Path existingUpload(String uploadId) {
+        Path directory = uploadDirectory(uploadId);
+        if (!Files.isDirectory(directory)) {
+            AmazonS3Exception e = new AmazonS3Exception("The specified upload does not exist: " + uploadId);
+            e.setStatusCode(404);
+            e.setErrorCode("NoSuchUpload");
+            throw e;
+        }
+        return directory;
+    }
+
+    private static void deleteUpload(Path directory) throws IOException {
+        try (Stream<Path> parts = Files.list(directory)) {
+            for (Path part : (Iterable<Path>) parts::iterator) {
+                Files.delete(part);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private InputStream throttled(InputStream in) {
+        return bytesPerSecondPerStream > 0 ? new ThrottledInputStream(in, bytesPerSecondPerStream) : in;
+    }
+
+    private Path existing(String bucketName, String key) {
+        Path path = pathOf(bucketName, key);
+        if (!Files.isRegularFile(path)) {
+            AmazonS3Exception e = new AmazonS3Exception("The specified key does not exist: " + key);
+            e.setStatusCode(404);
+            e.setErrorCode("NoSuchKey");
+            throw e;
+        }
+        return path;
+    }
+
+    /**
+     * The MD5 ETag of an object, computed once per size and modification time rather than on every
+     * HEAD and GET, so that reading metadata costs about what it does in S3.
+     */
+    private String etag(Path path) throws IOException {
+        String version = Files.size(path) + ":" + Files.getLastModifiedTime(path).toMillis();
+        String[] cached = etags.get(path);
+        if (cached != null && cached[0].equals(version)) {
+            return cached[1];
+        }
+        String etag = md5Hex(Files.newInputStream(path));
+        etags.put(path, new String[] {version, etag});
+        return etag;
+    }
+
+    private static String md5Hex(InputStream in) throws IOException {
+        try (DigestInputStream digestStream = new DigestInputStream(in, MessageDigest.getInstance("MD5"))) {
+            byte[] buffer = new byte[64 * 1024];
+            while (digestStream.read(buffer) != -1) {
+                // Digest is updated as the stream is read.
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digestStream.getMessageDigest().digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Limits a stream to the requested byte range.
+     */
+    private static class RangeInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        RangeInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Delays reads so that a single stream never exceeds the configured bandwidth.
+     */
+    private static class ThrottledInputStream extends FilterInputStream {
+
+        private final long bytesPerSecond;
+        private final long startNanos = System.nanoTime();
+        private long bytesRead;
+
+        ThrottledInputStream(InputStream in, long bytesPerSecond) {
+            super(in);
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                throttle(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                throttle(n);
+            }
+            return n;
+        }
+
+        private void throttle(int n) throws IOException {
+            bytesRead += n;
+            long dueNanos = bytesRead * 1_000_000_000L / bytesPerSecond;
+            long sleepNanos = dueNanos - (System.nanoTime() - startNanos);
+            if (sleepNanos > 0) {
+                try {
+                    Thread.sleep(sleepNanos / 1_000_000, (int) (sleepNanos % 1_000_000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while throttling", e);
+                }
+            }
+        }
+    }
+}
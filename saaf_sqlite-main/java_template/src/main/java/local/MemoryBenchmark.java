@@ -0,0 +1,121 @@
+/**
+ * Compares the file-backed and in-memory database paths of TransformLoadQuery.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package local;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import lambda.Dataset;
+import lambda.DatabaseSnapshot;
+import lambda.OrdersTable;
+import saaf.Inspector;
+
+/**
+ * Usage: MemoryBenchmark [rows] [MB/s per stream] [bulk]
+ *
+ * Runs the load, publish and query steps of TransformLoadQuery twice against a throttled
+ * {@link LocalS3}: on /tmp-style file storage with the snapshot published before the queries, and
+ * on a shared-cache in-memory database backed up to a file and published on a second connection
+ * while the queries run. Reports the time of each step and end to end; both runs must give the
+ * same answers.
+ */
+public class MemoryBenchmark {
+
+    private static final String[] QUERIES = {
+        "SELECT avg(OrderProcessingTime), avg(GrossMargin) FROM Orders WHERE Region='Asia'",
+        "SELECT sum(TotalProfit), count(*) FROM Orders WHERE SalesChannel='Online'",
+        "SELECT max(UnitsSold), min(UnitPrice) FROM Orders WHERE OrderPriority='H'",
+        "SELECT avg(TotalRevenue) FROM Orders WHERE ItemType='Cosmetics' AND SalesChannel='Offline'",
+    };
+
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 500_000;
+        long bytesPerSecond = (args.length > 1 ? Long.parseLong(args[1]) : 20) * 1024 * 1024;
+        boolean bulk = args.length <= 2 || Boolean.parseBoolean(args[2]);
+        Dataset dataset = SalesRecords.transformedDataset(rows, 0.05, 42);
+        Path directory = Files.createTempDirectory("memory-benchmark");
+        LocalS3 s3 = new LocalS3(directory.resolve("s3"), bytesPerSecond);
+        System.out.printf("%,d rows, typed, %s load, %d MB/s per stream%n", dataset.getRowCount(),
+                bulk ? "bulk" : "default", bytesPerSecond / 1048576);
+        System.out.printf("%-8s %8s %10s %8s %10s %8s%n", "mode", "load ms", "publish ms", "query ms", "wait ms",
+                "total ms");
+
+        List<Double> expected = null;
+        for (boolean memory : new boolean[] {false, true}) {
+            File databaseFile = directory.resolve(memory ? "memory.db" : "file.db").toFile();
+            String url = memory ? "jdbc:sqlite:file:bench?mode=memory&cache=shared" : "jdbc:sqlite:" + databaseFile;
+            Inspector inspector = new Inspector();
+            long start = System.nanoTime();
+            try (Connection connection = DriverManager.getConnection(url)) {
+                if (bulk) {
+                    OrdersTable.configureBulkLoad(connection);
+                }
+                connection.setAutoCommit(false);
+                if (bulk) {
+                    OrdersTable.bulkInsert(connection, dataset, true);
+                } else {
+                    OrdersTable.create(connection, true);
+                    OrdersTable.insert(connection, dataset, true);
+                }
+                connection.commit();
+                long loaded = System.nanoTime();
+
+                Future<?> publication = null;
+                ExecutorService executor = Executors.newSingleThreadExecutor();
+                if (memory) {
+                    publication = executor.submit(() -> {
+                        try (Connection backup = DriverManager.getConnection(url);
+                             Statement statement = backup.createStatement()) {
+                            statement.executeUpdate("backup to " + databaseFile.getAbsolutePath());
+                        }
+                        return DatabaseSnapshot.upload(databaseFile.toPath(), s3, "b", "sales.db", false,
+                                8 * 1024 * 1024, 4, inspector);
+                    });
+                } else {
+                    DatabaseSnapshot.publish(connection, databaseFile, s3, "b", "sales.db", false, 8 * 1024 * 1024,
+                            4, inspector);
+                }
+                executor.shutdown();
+                long published = System.nanoTime();
+
+                List<Double> answers = new ArrayList<>();
+                try (Statement statement = connection.createStatement()) {
+                    for (String sql : QUERIES) {
+                        try (ResultSet resultSet = statement.executeQuery(sql)) {
+                            resultSet.next();
+                            for (int c = 1; c <= resultSet.getMetaData().getColumnCount(); c++) {
+                                answers.add(resultSet.getDouble(c));
+                            }
+                        }
+                    }
+                }
+                long queried = System.nanoTime();
+                if (publication != null) {
+                    publication.get();
+                }
+                long end = System.nanoTime();
+
+                if (expected == null) {
+                    expected = answers;
+                } else if (!expected.equals(answers)) {
+                    throw new AssertionError(answers + " vs " + expected);
+                }
+                System.out.printf("%-8s %8.0f %10.0f %8.0f %10.0f %8.0f%n", memory ? "memory" : "file",
+                        (loaded - start) / 1e6, (published - loaded) / 1e6, (queried - published) / 1e6,
+                        (end - queried) / 1e6, (end - start) / 1e6);
+            }
+        }
+    }
+}
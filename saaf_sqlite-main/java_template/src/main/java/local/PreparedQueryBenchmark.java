@@ -0,0 +1,146 @@
+/**
+ * Compares queries built with pasted-in literals against cached prepared statements with bound values.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package local;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import lambda.AggregationQuery;
+import lambda.Dataset;
+import lambda.OrdersTable;
+import lambda.StatementCache;
+
+/**
+ * Usage: PreparedQueryBenchmark [rows] [requests]
+ *
+ * Bulk loads sales.db with indexes on Country+SalesChannel and Region+ItemType, so that queries
+ * are short enough for compiling them to matter, then runs the same stream of requests over five
+ * shapes, the last a primary key lookup, with values drawn from the data: once with the values
+ * pasted into a new statement per request, as buildSQLQuery did, and once through
+ * {@link AggregationQuery} and a {@link StatementCache}. Reports the mean request time of each
+ * shape, the cache hit rate and the prepare time; both must give the same answers.
+ */
+public class PreparedQueryBenchmark {
+
+    private static final List<List<String>> SHAPES = Arrays.asList(
+            Arrays.asList("Country", "SalesChannel"), Arrays.asList("Region", "ItemType"),
+            Arrays.asList("Country"), Arrays.asList("Region", "ItemType", "OrderPriority"), Arrays.asList("OrderID"));
+
+    private static final List<String> AGGREGATIONS = Arrays.asList("avg(OrderProcessingTime)", "avg(GrossMargin)",
+            "sum(TotalProfit)", "count(*)", "min(UnitPrice)", "max(UnitsSold)");
+
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 500_000;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        Dataset dataset = SalesRecords.transformedDataset(rows, 0.05, 42);
+        Path database = Files.createTempDirectory("prepared-query-benchmark").resolve("sales.db");
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database)) {
+            OrdersTable.configureBulkLoad(connection);
+            connection.setAutoCommit(false);
+            OrdersTable.bulkInsert(connection, dataset, true);
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("CREATE INDEX wl_Country_SalesChannel ON Orders (Country, SalesChannel)");
+                statement.executeUpdate("CREATE INDEX wl_ItemType_Region ON Orders (Region, ItemType)");
+            }
+            connection.commit();
+
+            Random random = new Random(3);
+            List<Map<String, String>> stream = new ArrayList<>();
+            for (int r = 0; r < requests; r++) {
+                int row = random.nextInt(dataset.getRowCount());
+                Map<String, String> filters = new LinkedHashMap<>();
+                for (String column : SHAPES.get(r % SHAPES.size())) {
+                    filters.put(column, value(dataset, row, column));
+                }
+                stream.add(filters);
+            }
+            System.out.printf("%,d rows, %d requests over %d shapes%n", dataset.getRowCount(), requests,
+                    SHAPES.size());
+            System.out.printf("%-10s", "mean ms");
+            for (List<String> shape : SHAPES) {
+                System.out.printf(" %24s", String.join("+", shape));
+            }
+            System.out.printf(" %10s %10s%n", "hit rate", "prepare ms");
+
+            List<Map<String, Object>> expected = new ArrayList<>();
+            long[] nanos = new long[SHAPES.size()];
+            for (int r = 0; r < requests; r++) {
+                Map<String, String> filters = stream.get(r);
+                long start = System.nanoTime();
+                StringBuilder sql = new StringBuilder("SELECT ").append(String.join(", ", AGGREGATIONS))
+                        .append(" FROM Orders");
+                String separator = " WHERE ";
+                for (Map.Entry<String, String> filter : filters.entrySet()) {
+                    sql.append(separator).append(filter.getKey()).append('=')
+                            .append(OrdersTable.literal(filter.getKey(), filter.getValue(), true));
+                    separator = " AND ";
+                }
+                Map<String, Object> response = new HashMap<>();
+                try (Statement statement = connection.createStatement();
+                     ResultSet resultSet = statement.executeQuery(sql.toString())) {
+                    resultSet.next();
+                    for (String aggregation : AGGREGATIONS) {
+                        response.put(aggregation, resultSet.getDouble(aggregation));
+                    }
+                }
+                nanos[r % SHAPES.size()] += System.nanoTime() - start;
+                expected.add(response);
+            }
+            print("literal", nanos, requests, "-", "-");
+
+            StatementCache statements = new StatementCache(connection, 64);
+            nanos = new long[SHAPES.size()];
+            for (int r = 0; r < requests; r++) {
+                long start = System.nanoTime();
+                AggregationQuery query = AggregationQuery.of(stream.get(r), AGGREGATIONS);
+                PreparedStatement statement = statements.prepare(query.sql()).getStatement();
+                query.bind(statement, true);
+                Map<String, Object> response = new HashMap<>();
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    resultSet.next();
+                    query.read(resultSet, response);
+                }
+                nanos[r % SHAPES.size()] += System.nanoTime() - start;
+                if (!response.equals(expected.get(r))) {
+                    throw new AssertionError(stream.get(r) + ": " + response + " vs " + expected.get(r));
+                }
+            }
+            Map<String, Object> report = new HashMap<>();
+            statements.report(report);
+            print("prepared", nanos, requests, String.format("%.4f", (Double) report.get("statementCacheHitRate")),
+                    String.format("%.2f", (Double) report.get("statementPrepareMs")));
+            statements.close();
+        }
+    }
+
+    private static void print(String method, long[] nanos, int requests, String hitRate, String prepareMs) {
+        System.out.printf("%-10s", method);
+        for (long shape : nanos) {
+            System.out.printf(" %24.3f", shape / 1e6 / (requests / SHAPES.size()));
+        }
+        System.out.printf(" %10s %10s%n", hitRate, prepareMs);
+    }
+
+    private static String value(Dataset dataset, int row, String column) {
+        for (String name : dataset.getNames()) {
+            if (name.replace(" ", "").equals(column)) {
+                return dataset.format(row, dataset.columnIndex(name));
+            }
+        }
+        throw new IllegalArgumentException(column);
+    }
+}
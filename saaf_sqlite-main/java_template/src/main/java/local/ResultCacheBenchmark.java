@@ -0,0 +1,165 @@
+/**
+ * Measures a stream of repeated Query requests with and without the result cache.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package local;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import lambda.DatabaseSnapshot;
+import lambda.Dataset;
+import lambda.OrdersTable;
+import lambda.QueryResultCache;
+import saaf.Inspector;
+
+/**
+ * Usage: ResultCacheBenchmark [rows] [requests] [distinct requests] [MB/s per stream]
+ *
+ * Publishes sales.db to a throttled {@link LocalS3}, then replays requests drawn with a skewed
+ * distribution from a fixed set of filter/aggregation payloads, each time with its filters and
+ * aggregations in a random order. Without the cache every request downloads sales.db and queries
+ * it, as Query does; with it a request first reads the ETag and looks the normalized request up.
+ * Halfway through the heap tier is cleared to stand in for a new handler instance on the same
+ * container. Cached answers must equal the queried ones.
+ */
+public class ResultCacheBenchmark {
+
+    private static final List<String> AGGREGATIONS = Arrays.asList("avg(OrderProcessingTime)",
+            "avg(GrossMargin)", "sum(TotalProfit)", "count(*)", "min(UnitPrice)", "max(UnitsSold)");
+
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 200_000;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int distinct = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        long bytesPerSecond = (args.length > 3 ? Long.parseLong(args[3]) : 50) * 1024 * 1024;
+        Dataset dataset = SalesRecords.transformedDataset(rows, 0.05, 42);
+        Path directory = Files.createTempDirectory("result-cache-benchmark");
+        LocalS3 s3 = new LocalS3(directory.resolve("s3"), bytesPerSecond);
+        File database = directory.resolve("sales.db").toFile();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database)) {
+            OrdersTable.configureBulkLoad(connection);
+            connection.setAutoCommit(false);
+            OrdersTable.bulkInsert(connection, dataset, true);
+            connection.commit();
+            DatabaseSnapshot.publish(connection, database, s3, "b", "sales.db", false, 8 * 1024 * 1024, 4,
+                    new Inspector());
+        }
+
+        Random random = new Random(7);
+        List<Map<String, String>> payloads = new ArrayList<>();
+        for (int p = 0; p < distinct; p++) {
+            int row = random.nextInt(dataset.getRowCount());
+            Map<String, String> filters = new LinkedHashMap<>();
+            filters.put("Region", dataset.format(row, dataset.columnIndex("Region")));
+            if (p % 2 == 1) {
+                filters.put("SalesChannel", dataset.format(row, dataset.columnIndex("Sales Channel")));
+            }
+            payloads.add(filters);
+        }
+        int[] stream = new int[requests];
+        for (int r = 0; r < requests; r++) {
+            stream[r] = (int) (distinct * Math.pow(random.nextDouble(), 2));
+        }
+        System.out.printf("%,d rows, %d requests over %d payloads, %d MB/s per stream%n", dataset.getRowCount(),
+                requests, distinct, bytesPerSecond / 1048576);
+        System.out.printf("%-8s %10s %8s %8s %10s%n", "cache", "total ms", "mean ms", "hits", "downloads");
+
+        Map<Integer, Double[]> expected = new HashMap<>();
+        for (boolean cached : new boolean[] {false, true}) {
+            deleteDirectory(QueryResultCache.DIRECTORY);
+            QueryResultCache.clearHeap();
+            Random order = new Random(11);
+            int downloads = 0;
+            long start = System.nanoTime();
+            Map<String, Object> report = new HashMap<>();
+            for (int r = 0; r < requests; r++) {
+                if (r == requests / 2) {
+                    QueryResultCache.clearHeap();
+                }
+                List<Map.Entry<String, String>> filterList = new ArrayList<>(payloads.get(stream[r]).entrySet());
+                Collections.shuffle(filterList, order);
+                Map<String, String> filters = new LinkedHashMap<>();
+                for (Map.Entry<String, String> filter : filterList) {
+                    filters.put(filter.getKey(), filter.getValue());
+                }
+                List<String> aggregations = new ArrayList<>(AGGREGATIONS);
+                Collections.shuffle(aggregations, order);
+
+                String key = null;
+                Map<String, Object> response = null;
+                if (cached) {
+                    String etag = s3.getObjectMetadata("b", "sales.db").getETag();
+                    key = QueryResultCache.key(etag, filters, aggregations);
+                    response = QueryResultCache.get(key, aggregations, 1024);
+                }
+                if (response == null) {
+                    downloads++;
+                    DatabaseSnapshot.download(s3, "b", "sales.db", directory.resolve("query.db").toFile(),
+                            new Inspector());
+                    response = query(directory.resolve("query.db").toFile(), filters, aggregations);
+                    if (cached) {
+                        QueryResultCache.put(key, response, aggregations, 1024);
+                    }
+                }
+
+                Double[] answer = new Double[AGGREGATIONS.size()];
+                for (int a = 0; a < answer.length; a++) {
+                    answer[a] = (Double) response.get(AGGREGATIONS.get(a));
+                }
+                Double[] previous = expected.putIfAbsent(stream[r], answer);
+                if (previous != null && !Arrays.equals(previous, answer)) {
+                    throw new AssertionError(Arrays.toString(answer) + " vs " + Arrays.toString(previous));
+                }
+            }
+            long end = System.nanoTime();
+            QueryResultCache.report(report);
+            System.out.printf("%-8s %10.0f %8.1f %8s %10d%n", cached ? "on" : "off", (end - start) / 1e6,
+                    (end - start) / 1e6 / requests, cached ? report.get("resultCacheHits") : "-", downloads);
+        }
+    }
+
+    private static Map<String, Object> query(File database, Map<String, String> filters, List<String> aggregations)
+            throws Exception {
+        StringBuilder sql = new StringBuilder("SELECT ").append(String.join(", ", aggregations))
+                .append(" FROM Orders");
+        String separator = " WHERE ";
+        for (Map.Entry<String, String> filter : filters.entrySet()) {
+            sql.append(separator).append(filter.getKey()).append('=')
+                    .append(OrdersTable.literal(filter.getKey(), filter.getValue(), true));
+            separator = " AND ";
+        }
+        Map<String, Object> response = new HashMap<>();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database);
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql.toString())) {
+            resultSet.next();
+            for (String aggregation : aggregations) {
+                response.put(aggregation, resultSet.getDouble(aggregation));
+            }
+        }
+        return response;
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Measures queries answered from rollup tables against the same queries on Orders.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package local;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import lambda.Dataset;
+import lambda.OrdersTable;
+import lambda.Rollups;
+import saaf.Inspector;
+
+/**
+ * Usage: RollupBenchmark [rows] [typed]
+ *
+ * Bulk loads sales.db, builds rollups on Region, ItemType, Country+SalesChannel and
+ * Region+ItemType, and runs each query both on Orders and on the rollup {@link Rollups#choose}
+ * picks, reporting the rollup, its groups and the median latencies. The answers must agree.
+ */
+public class RollupBenchmark {
+
+    private static final int RUNS = 7;
+
+    private static final List<String> ROLLUPS =
+            Arrays.asList("Region", "ItemType", "Country+SalesChannel", "Region+ItemType");
+
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 500_000;
+        boolean typed = args.length <= 1 || Boolean.parseBoolean(args[1]);
+        Dataset dataset = SalesRecords.transformedDataset(rows, 0.05, 42);
+        int sample = dataset.getRowCount() / 3;
+
+        Path database = Files.createTempDirectory("rollup-benchmark").resolve("sales.db");
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database)) {
+            OrdersTable.configureBulkLoad(connection);
+            connection.setAutoCommit(false);
+            OrdersTable.bulkInsert(connection, dataset, typed);
+            Inspector inspector = new Inspector();
+            Rollups.build(connection, ROLLUPS, inspector);
+            connection.commit();
+            HashMap<String, Object> built = inspector.finish();
+            System.out.printf("%,d rows, %s schema, rollups built in %s ms: %s%n", dataset.getRowCount(),
+                    typed ? "typed" : "text", built.get("rollupMs"), built.get("rollups"));
+
+            Map<String, Map<String, String>> queries = new LinkedHashMap<>();
+            queries.put("Region", filters(dataset, sample, "Region"));
+            queries.put("Region+ItemType", filters(dataset, sample, "Region", "ItemType"));
+            queries.put("Country+SalesChannel", filters(dataset, sample, "Country", "SalesChannel"));
+            queries.put("SalesChannel", filters(dataset, sample, "SalesChannel"));
+            queries.put("OrderPriority", filters(dataset, sample, "OrderPriority"));
+            List<String> aggregations = Arrays.asList("avg(OrderProcessingTime)", "avg(GrossMargin)",
+                    "sum(TotalProfit)", "count(*)", "min(UnitPrice)", "max(UnitsSold)");
+
+            for (Map.Entry<String, Map<String, String>> query : queries.entrySet()) {
+                Map<String, String> filters = query.getValue();
+                StringBuilder orders = new StringBuilder("SELECT ").append(String.join(", ", aggregations))
+                        .append(" FROM Orders");
+                String separator = " WHERE ";
+                for (Map.Entry<String, String> filter : filters.entrySet()) {
+                    orders.append(separator).append(filter.getKey()).append('=')
+                            .append(OrdersTable.literal(filter.getKey(), filter.getValue(), typed));
+                    separator = " AND ";
+                }
+                double[] expected = new double[aggregations.size()];
+                double ordersMs = time(connection, orders.toString(), expected);
+
+                String rollup = Rollups.choose(connection, filters, aggregations);
+                if (rollup == null) {
+                    System.out.printf("%-22s Orders %8.2f ms   no rollup covers it%n", query.getKey(), ordersMs);
+                    continue;
+                }
+                double[] actual = new double[aggregations.size()];
+                double rollupMs = time(connection, Rollups.sql(rollup, filters, aggregations, typed), actual);
+                for (int a = 0; a < expected.length; a++) {
+                    if (Math.abs(actual[a] - expected[a]) > 1e-9 * Math.max(1, Math.abs(expected[a]))) {
+                        throw new AssertionError(query.getKey() + " " + aggregations.get(a) + ": " + actual[a]
+                                + " vs " + expected[a]);
+                    }
+                }
+                System.out.printf("%-22s Orders %8.2f ms   %-28s %8.3f ms%n", query.getKey(), ordersMs, rollup,
+                        rollupMs);
+            }
+        }
+    }
+
+    private static Map<String, String> filters(Dataset dataset, int row, String... columns) {
+        Map<String, String> filters = new LinkedHashMap<>();
+        for (String column : columns) {
+            for (String name : dataset.getNames()) {
+                if (name.replace(" ", "").equals(column)) {
+                    filters.put(column, dataset.format(row, dataset.columnIndex(name)));
+                }
+            }
+        }
+        return filters;
+    }
+
+    private static double time(Connection connection, String sql, double[] result) throws SQLException {
+        long[] times = new long[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery(sql)) {
+                resultSet.next();
+                for (int c = 0; c < result.length; c++) {
+                    result[c] = resultSet.getDouble(c + 1);
+                }
+            }
+            times[run] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        return times[RUNS / 2] / 1e6;
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Generates synthetic sales CSV files in the layout of the SalesRecords inputs for local benchmarks.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package local;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Random;
+import lambda.CsvParser;
+import lambda.Dataset;
+import lambda.SalesTransforms;
+
+/**
+ * The SalesRecords class writes reproducible sales files with the same columns, value formats and
+ * duplicate Order IDs as the sample files used in our experiments.
+ */
+public class SalesRecords {
+
+    public static final String HEADER = "Region,Country,Item Type,Sales Channel,Order Priority,Order Date,"
+            + "Order ID,Ship Date,Units Sold,Unit Price,Unit Cost,Total Revenue,Total Cost,Total Profit";
+
+    private static final String[][] COUNTRIES = {
+        {"Asia", "China", "India", "Japan", "Mongolia", "Vietnam", "Thailand"},
+        {"Europe", "Germany", "France", "Norway", "Poland", "Portugal", "Iceland"},
+        {"Sub-Saharan Africa", "Chad", "Kenya", "Ghana", "Niger", "\"Congo, Democratic Republic of the\""},
+        {"Middle East and North Africa", "Egypt", "Morocco", "Iran", "Oman", "Qatar"},
+        {"Central America and the Caribbean", "Cuba", "Haiti", "Panama", "Honduras"},
+        {"Australia and Oceania", "Tuvalu", "Fiji", "Samoa", "Australia", "New Zealand"},
+        {"North America", "Canada", "Mexico", "United States of America", "Greenland"}
+    };
+
+    private static final String[] ITEM_TYPES = {
+        "Baby Food", "Cereal", "Clothes", "Cosmetics", "Fruits", "Household",
+        "Meat", "Office Supplies", "Personal Care", "Snacks", "Vegetables", "Beverages"
+    };
+
+    private static final double[][] PRICES = {
+        {255.28, 159.42}, {205.70, 117.11}, {109.28, 35.84}, {437.20, 263.33}, {9.33, 6.92}, {668.27, 502.54},
+        {421.89, 364.69}, {651.21, 524.96}, {81.73, 56.67}, {152.58, 97.44}, {154.06, 90.93}, {47.45, 31.79}
+    };
+
+    private static final String[] CHANNELS = {"Online", "Offline"};
+    private static final String[] PRIORITIES = {"L", "M", "H", "C"};
+    private static final LocalDate FIRST_DAY = LocalDate.of(2010, 1, 1);
+
+    private SalesRecords() {
+    }
+
+    /**
+     * Writes a sales file.
+     *
+     * @param out           The stream to write to. It is flushed but not closed.
+     * @param rows          The number of data rows.
+     * @param duplicateRate The fraction of rows that repeat an earlier Order ID.
+     * @param seed          The random seed.
+     * @throws IOException If writing fails.
+     */
+    public static void write(OutputStream out, long rows, double duplicateRate, long seed) throws IOException {
+        Random random = new Random(seed);
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+        writer.write(HEADER);
+        writer.write('\n');
+        long[] recentIds = new long[1024];
+        StringBuilder line = new StringBuilder(160);
+        for (long i = 0; i < rows; i++) {
+            String[] region = COUNTRIES[random.nextInt(COUNTRIES.length)];
+            int item = random.nextInt(ITEM_TYPES.length);
+            LocalDate orderDate = FIRST_DAY.plusDays(random.nextInt(2900));
+            LocalDate shipDate = orderDate.plusDays(random.nextInt(51));
+            long orderId;
+            if (i > 0 && random.nextDouble() < duplicateRate) {
+                orderId = recentIds[random.nextInt((int) Math.min(i, recentIds.length))];
+            } else {
+                orderId = 100_000_000L + (long) (random.nextDouble() * 899_999_999L);
+            }
+            recentIds[(int) (i % recentIds.length)] = orderId;
+            int units = 1 + random.nextInt(10_000);
+            double price = PRICES[item][0];
+            double cost = PRICES[item][1];
+            long revenueCents = Math.round(units * price * 100);
+            long costCents = Math.round(units * cost * 100);
+
+            line.setLength(0);
+            line.append(region[0]).append(',')
+                    .append(region[1 + random.nextInt(region.length - 1)]).append(',')
+                    .append(ITEM_TYPES[item]).append(',')
+                    .append(CHANNELS[random.nextInt(CHANNELS.length)]).append(',')
+                    .append(PRIORITIES[random.nextInt(PRIORITIES.length)]).append(',');
+            appendDate(line, orderDate).append(',').append(orderId).append(',');
+            appendDate(line, shipDate).append(',').append(units).append(',');
+            appendCents(line, Math.round(price * 100)).append(',');
+            appendCents(line, Math.round(cost * 100)).append(',');
+            appendCents(line, revenueCents).append(',');
+            appendCents(line, costCents).append(',');
+            appendCents(line, revenueCents - costCents).append('\n');
+            writer.append(line);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Writes a sales file to disk.
+     *
+     * @param path          The file to create.
+     * @param rows          The number of data rows.
+     * @param duplicateRate The fraction of rows that repeat an earlier Order ID.
+     * @param seed          The random seed.
+     * @throws IOException If writing fails.
+     */
+    public static void write(Path path, long rows, double duplicateRate, long seed) throws IOException {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        try (OutputStream out = Files.newOutputStream(path)) {
+            write(out, rows, duplicateRate, seed);
+        }
+    }
+
+    /**
+     * Generates a sales file and runs it through the parser and the sales transformations, giving
+     * the data the Load function would insert.
+     *
+     * @param rows          The number of data rows before deduplication.
+     * @param duplicateRate The fraction of rows that repeat an earlier Order ID.
+     * @param seed          The random seed.
+     * @return The transformed data.
+     * @throws IOException If the transformation fails.
+     */
+    public static Dataset transformedDataset(long rows, double duplicateRate, long seed) throws IOException {
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        write(csv, rows, duplicateRate, seed);
+        Dataset dataset = new Dataset();
+        new CsvParser(dataset).parse(new ByteArrayInputStream(csv.toByteArray()));
+        SalesTransforms.pipeline(Long.MAX_VALUE).run(dataset);
+        return dataset;
+    }
+
+    private static StringBuilder appendDate(StringBuilder line, LocalDate date) {
+        return line.append(date.getMonthValue()).append('/').append(date.getDayOfMonth()).append('/').append(date.getYear());
+    }
+
+    private static StringBuilder appendCents(StringBuilder line, long cents) {
+        if (cents < 0) {
+            line.append('-');
+            cents = -cents;
+        }
+        line.append(cents / 100).append('.');
+        long fraction = cents % 100;
+        return line.append(fraction < 10 ? "0" : "").append(fraction);
+    }
+}
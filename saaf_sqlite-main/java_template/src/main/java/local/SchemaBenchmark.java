@@ -0,0 +1,125 @@
+/**
+ * Compares the all-TEXT and the typed Orders schema on database size and query latency.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package local;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import lambda.Dataset;
+import lambda.OrdersTable;
+
+/**
+ * Usage: SchemaBenchmark [rows]
+ *
+ * Loads the same transformed data into a text and a typed sales.db, migrates a copy of the text
+ * database, and reports the file sizes, load and migration times and the median latency of a few
+ * representative Service #3 queries on each. The typed and migrated answers must agree; text
+ * answers that differ (min and max compare strings there) are flagged.
+ */
+public class SchemaBenchmark {
+
+    private static final int RUNS = 7;
+
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 500_000;
+        Dataset dataset = SalesRecords.transformedDataset(rows, 0.05, 42);
+        String orderID = dataset.format(dataset.getRowCount() / 2, dataset.columnIndex("Order ID"));
+        String orderDate = dataset.format(dataset.getRowCount() / 2, dataset.columnIndex("Order Date"));
+        System.out.printf("%,d rows after deduplication%n", dataset.getRowCount());
+
+        Path directory = Files.createTempDirectory("schema-benchmark");
+        Path text = directory.resolve("text.db");
+        Path typed = directory.resolve("typed.db");
+        Path migrated = directory.resolve("migrated.db");
+        long textLoad = load(text, dataset, false);
+        long typedLoad = load(typed, dataset, true);
+        Files.copy(text, migrated);
+        long start = System.nanoTime();
+        long migratedRows;
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + migrated)) {
+            migratedRows = OrdersTable.migrateToTyped(connection);
+        }
+        long migration = System.nanoTime() - start;
+
+        System.out.printf("%-10s %8.1f MB  load %7.1f ms%n", "text", Files.size(text) / 1048576.0, textLoad / 1e6);
+        System.out.printf("%-10s %8.1f MB  load %7.1f ms%n", "typed", Files.size(typed) / 1048576.0, typedLoad / 1e6);
+        System.out.printf("%-10s %8.1f MB  migrated %,d rows in %.1f ms%n", "migrated",
+                Files.size(migrated) / 1048576.0, migratedRows, migration / 1e6);
+
+        Map<String, String> queries = new LinkedHashMap<>();
+        queries.put("avg(GrossMargin)", "Region=Europe");
+        queries.put("sum(UnitsSold), avg(OrderProcessingTime)", "Region=Asia;ItemType=Cosmetics");
+        queries.put("max(TotalProfit), min(TotalCost)", "Country=Iran;SalesChannel=Online");
+        queries.put("sum(TotalRevenue)", "OrderDate=" + orderDate);
+        queries.put("count(*)", "OrderID=" + orderID);
+
+        System.out.printf("%n%-42s %-30s %10s %10s %10s%n", "aggregations", "filters", "text ms", "typed ms", "migrated");
+        for (Map.Entry<String, String> query : queries.entrySet()) {
+            double[] textResult = new double[1];
+            double textMs = query(text, query.getKey(), query.getValue(), textResult);
+            double[] typedResult = new double[1];
+            double typedMs = query(typed, query.getKey(), query.getValue(), typedResult);
+            double[] migratedResult = new double[1];
+            double migratedMs = query(migrated, query.getKey(), query.getValue(), migratedResult);
+            if (!close(typedResult[0], migratedResult[0])) {
+                throw new AssertionError(query + ": typed " + typedResult[0] + ", migrated " + migratedResult[0]);
+            }
+            System.out.printf("%-42s %-30s %10.2f %10.2f %10.2f%s%n", query.getKey(), query.getValue(), textMs, typedMs,
+                    migratedMs, close(textResult[0], typedResult[0]) ? "" : "  text answer differs: " + textResult[0]
+                    + " vs " + typedResult[0]);
+        }
+    }
+
+    private static long load(Path database, Dataset dataset, boolean typed) throws SQLException {
+        long start = System.nanoTime();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database)) {
+            connection.setAutoCommit(false);
+            OrdersTable.create(connection, typed);
+            OrdersTable.insert(connection, dataset, typed);
+            connection.commit();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Runs a query like the Query function does and returns its median latency.
+     */
+    private static double query(Path database, String aggregations, String filters, double[] result) throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database)) {
+            boolean typed = OrdersTable.isTyped(connection);
+            StringBuilder sql = new StringBuilder("SELECT ").append(aggregations).append(" FROM Orders WHERE ");
+            String[] conditions = filters.split(";");
+            for (int i = 0; i < conditions.length; i++) {
+                String[] filter = conditions[i].split("=", 2);
+                sql.append(i == 0 ? "" : " AND ").append(filter[0]).append('=')
+                        .append(OrdersTable.literal(filter[0], filter[1], typed));
+            }
+            long[] times = new long[RUNS];
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                try (Statement statement = connection.createStatement();
+                     ResultSet resultSet = statement.executeQuery(sql.toString())) {
+                    resultSet.next();
+                    result[0] = resultSet.getDouble(1);
+                }
+                times[run] = System.nanoTime() - start;
+            }
+            Arrays.sort(times);
+            return times[RUNS / 2] / 1e6;
+        }
+    }
+
+    private static boolean close(double a, double b) {
+        return Math.abs(a - b) <= 1e-9 * Math.max(1, Math.max(Math.abs(a), Math.abs(b)));
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * Measures Region-sharded databases against a single sales.db.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package local;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import lambda.Dataset;
+import lambda.OrdersTable;
+import lambda.ShardedOrders;
+import saaf.Inspector;
+
+/**
+ * Usage: ShardBenchmark [rows] [threads] [column]
+ *
+ * Loads a typed sales.db with the bulk-load settings, then the same rows as one database per
+ * value of the shard column (Region by default) into a local bucket, and compares the load times.
+ * Each query is then run on the single database and through the shards, once filtered on the
+ * shard column and once not, reporting the median latency and the shards opened. Both must give
+ * the same answers, averages included.
+ */
+public class ShardBenchmark {
+
+    private static final int RUNS = 5;
+
+    private static final List<String> AGGREGATIONS =
+            Arrays.asList("avg(UnitsSold)", "sum(TotalProfit)", "count(*)", "min(UnitPrice)", "max(GrossMargin)");
+
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 500_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        String column = args.length > 2 ? args[2] : "Region";
+        Dataset dataset = SalesRecords.transformedDataset(rows, 0.05, 42);
+        int sample = dataset.getRowCount() / 3;
+
+        Path directory = Files.createTempDirectory("shard-benchmark");
+        Path database = directory.resolve("sales.db");
+        long start = System.nanoTime();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database)) {
+            OrdersTable.configureBulkLoad(connection);
+            connection.setAutoCommit(false);
+            OrdersTable.bulkInsert(connection, dataset, true);
+            connection.commit();
+        }
+        System.out.printf("%,d rows, single database loaded in %.0f ms%n", dataset.getRowCount(),
+                (System.nanoTime() - start) / 1e6);
+
+        LocalS3 s3 = new LocalS3(directory.resolve("s3"));
+        Inspector inspector = new Inspector();
+        ShardedOrders.load(dataset, s3, "b", column, true, true, threads, inspector);
+        HashMap<String, Object> load = inspector.finish();
+        System.out.printf("%s shards loaded in %s ms on %d threads: %s%n", column, load.get("loadMs"), threads,
+                load.get("shardRows"));
+
+        Map<String, Map<String, String>> queries = new LinkedHashMap<>();
+        Map<String, String> byShard = new LinkedHashMap<>();
+        byShard.put(column, value(dataset, column, sample));
+        queries.put("filter on " + column, byShard);
+        String other = column.equals("ItemType") ? "Region" : "ItemType";
+        Map<String, String> byOther = new LinkedHashMap<>();
+        byOther.put(other, value(dataset, other, sample));
+        queries.put("filter on " + other, byOther);
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database)) {
+            for (Map.Entry<String, Map<String, String>> query : queries.entrySet()) {
+                StringBuilder sql = new StringBuilder("SELECT ").append(String.join(", ", AGGREGATIONS))
+                        .append(" FROM Orders WHERE ");
+                String separator = "";
+                for (Map.Entry<String, String> filter : query.getValue().entrySet()) {
+                    sql.append(separator).append(filter.getKey()).append('=')
+                            .append(OrdersTable.literal(filter.getKey(), filter.getValue(), true));
+                    separator = " AND ";
+                }
+
+                double[] expected = new double[AGGREGATIONS.size()];
+                long[] single = new long[RUNS];
+                for (int run = 0; run < RUNS; run++) {
+                    long queryStart = System.nanoTime();
+                    try (Statement statement = connection.createStatement();
+                         ResultSet resultSet = statement.executeQuery(sql.toString())) {
+                        resultSet.next();
+                        for (int a = 0; a < expected.length; a++) {
+                            expected[a] = resultSet.getDouble(a + 1);
+                        }
+                    }
+                    single[run] = System.nanoTime() - queryStart;
+                }
+
+                Map<String, Object> response = null;
+                long[] sharded = new long[RUNS];
+                for (int run = 0; run < RUNS; run++) {
+                    long queryStart = System.nanoTime();
+                    response = ShardedOrders.query(s3, "b", column, query.getValue(), AGGREGATIONS, threads);
+                    sharded[run] = System.nanoTime() - queryStart;
+                }
+                for (int a = 0; a < expected.length; a++) {
+                    double actual = (Double) response.get(AGGREGATIONS.get(a));
+                    if (Math.abs(actual - expected[a]) > 1e-9 * Math.max(1, Math.abs(expected[a]))) {
+                        throw new AssertionError(query.getKey() + " " + AGGREGATIONS.get(a) + ": " + actual
+                                + " vs " + expected[a]);
+                    }
+                }
+                Arrays.sort(single);
+                Arrays.sort(sharded);
+                System.out.printf("%-24s single %8.2f ms   sharded %8.2f ms (%s of %s shards, download included)%n",
+                        query.getKey(), single[RUNS / 2] / 1e6, sharded[RUNS / 2] / 1e6,
+                        response.get("shardsQueried"), response.get("shardsTotal"));
+            }
+        }
+    }
+
+    private static String value(Dataset dataset, String column, int row) {
+        for (String name : dataset.getNames()) {
+            if (name.replace(" ", "").equals(column)) {
+                return dataset.format(row, dataset.columnIndex(name));
+            }
+        }
+        throw new IllegalArgumentException(column);
+    }
+}
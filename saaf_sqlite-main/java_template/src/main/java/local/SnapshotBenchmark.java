@@ -0,0 +1,112 @@
+/**
+ * Compares uploading sales.db whole with publishing a compact, optionally compressed snapshot.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package local;
+
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.HashMap;
+import lambda.Dataset;
+import lambda.DatabaseSnapshot;
+import lambda.OrdersTable;
+import saaf.Inspector;
+
+/**
+ * Usage: SnapshotBenchmark [rows] [MB/s per stream] [threads] [typed]
+ *
+ * Loads sales.db twice over, deleting the first copy of the rows, so that it carries the free
+ * pages an earlier load leaves behind. It is then sent to a throttled {@link LocalS3} and read
+ * back three ways: Files.readAllBytes and a single PUT (the original uploadSQLiteToS3), a plain
+ * VACUUM INTO snapshot streamed in parts, and the same snapshot gzipped. For each the bytes
+ * transferred, the upload and download times and the end-to-end time are reported, and the
+ * downloaded database must hold every row.
+ */
+public class SnapshotBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 500_000;
+        long bytesPerSecond = (args.length > 1 ? Long.parseLong(args[1]) : 20) * 1024 * 1024;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        boolean typed = args.length <= 3 || Boolean.parseBoolean(args[3]);
+        Dataset dataset = SalesRecords.transformedDataset(rows, 0.05, 42);
+
+        Path directory = Files.createTempDirectory("snapshot-benchmark");
+        LocalS3 s3 = new LocalS3(directory.resolve("s3"), bytesPerSecond);
+        File database = directory.resolve("sales.db").toFile();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database)) {
+            connection.setAutoCommit(false);
+            OrdersTable.create(connection, typed);
+            OrdersTable.insert(connection, dataset, typed);
+            connection.commit();
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("CREATE TABLE Earlier AS SELECT * FROM Orders");
+                connection.commit();
+                statement.executeUpdate("DROP TABLE Earlier");
+                connection.commit();
+            }
+
+            System.out.printf("%,d rows, %s schema, sales.db %.1f MB, %d MB/s per stream, %d threads%n",
+                    dataset.getRowCount(), typed ? "typed" : "text", database.length() / 1048576.0,
+                    bytesPerSecond / 1048576, threads);
+            System.out.printf("%-14s %10s %10s %10s %10s%n", "method", "sent MB", "upload ms", "download ms",
+                    "total ms");
+
+            long start = System.nanoTime();
+            byte[] content = Files.readAllBytes(database.toPath());
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(content.length);
+            s3.putObject(new PutObjectRequest("b", "sales.db", new ByteArrayInputStream(content), metadata));
+            long uploaded = System.nanoTime();
+            Path copy = directory.resolve("copy.db");
+            try (InputStream in = s3.getObject(new GetObjectRequest("b", "sales.db")).getObjectContent()) {
+                Files.copy(in, copy, StandardCopyOption.REPLACE_EXISTING);
+            }
+            long downloaded = System.nanoTime();
+            check(copy.toFile(), dataset.getRowCount());
+            System.out.printf("%-14s %10.1f %10.0f %10.0f %10.0f%n", "readAllBytes", content.length / 1048576.0,
+                    (uploaded - start) / 1e6, (downloaded - uploaded) / 1e6, (downloaded - start) / 1e6);
+
+            for (boolean compress : new boolean[] {false, true}) {
+                Inspector publish = new Inspector();
+                start = System.nanoTime();
+                DatabaseSnapshot.publish(connection, database, s3, "b", "sales.db", compress, 8 * 1024 * 1024,
+                        threads, publish);
+                uploaded = System.nanoTime();
+                Inspector download = new Inspector();
+                DatabaseSnapshot.download(s3, "b", "sales.db", copy.toFile(), download);
+                downloaded = System.nanoTime();
+                check(copy.toFile(), dataset.getRowCount());
+                HashMap<String, Object> published = publish.finish();
+                System.out.printf("%-14s %10.1f %10.0f %10.0f %10.0f   snapshot %.1f MB, compacted in %s ms%n",
+                        compress ? "gzip snapshot" : "snapshot",
+                        (Long) published.get("snapshotUploadBytes") / 1048576.0,
+                        (uploaded - start) / 1e6, (downloaded - uploaded) / 1e6, (downloaded - start) / 1e6,
+                        (Long) published.get("snapshotBytes") / 1048576.0, published.get("snapshotMs"));
+            }
+        }
+    }
+
+    private static void check(File database, long rows) throws Exception {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database);
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT count(*) FROM Orders")) {
+            resultSet.next();
+            if (resultSet.getLong(1) != rows) {
+                throw new AssertionError(database + " holds " + resultSet.getLong(1) + " rows, not " + rows);
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Measures how the sales transformation scales with the number of threads.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package local;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import lambda.CsvParser;
+import lambda.Dataset;
+import lambda.SalesTransforms;
+import lambda.TransformPipeline;
+
+/**
+ * Usage: TransformBenchmark [rows] [threads...]
+ *
+ * Parses a generated sales file, then runs the sales pipeline on a fresh copy of the data for
+ * each thread count (1 to the number of processors by default), three times each, and reports
+ * the best time and the speedup over one thread. Every run must produce the same rows.
+ */
+public class TransformBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+        int[] threadCounts = args.length > 1
+                ? Arrays.stream(args, 1, args.length).mapToInt(Integer::parseInt).toArray()
+                : new int[Runtime.getRuntime().availableProcessors()];
+        if (args.length <= 1) {
+            Arrays.setAll(threadCounts, i -> i + 1);
+        }
+        ByteArrayOutputStream generated = new ByteArrayOutputStream();
+        SalesRecords.write(generated, rows, 0.05, 42);
+        byte[] csv = generated.toByteArray();
+        System.out.printf("%,d rows, %d processors%n", rows, Runtime.getRuntime().availableProcessors());
+
+        long oneThread = 0;
+        long expected = 0;
+        for (int threads : threadCounts) {
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < 3; run++) {
+                Dataset dataset = new Dataset();
+                new CsvParser(dataset).parse(new ByteArrayInputStream(csv));
+                TransformPipeline pipeline = SalesTransforms.pipeline(256L * 1024 * 1024);
+                long start = System.nanoTime();
+                pipeline.run(dataset, threads);
+                best = Math.min(best, System.nanoTime() - start);
+
+                long checksum = checksum(dataset);
+                if (expected == 0) {
+                    expected = checksum;
+                } else if (checksum != expected) {
+                    throw new AssertionError(threads + " threads produced different rows");
+                }
+            }
+            if (oneThread == 0) {
+                oneThread = best;
+            }
+            System.out.printf("%2d threads %8.1f ms  speedup %.2fx%n", threads, best / 1e6, oneThread / (double) best);
+        }
+    }
+
+    private static long checksum(Dataset dataset) {
+        long checksum = dataset.getRowCount();
+        Dataset.IntegerColumn orderIDs = (Dataset.IntegerColumn) dataset.getColumn("Order ID");
+        Dataset.IntegerColumn processingTimes = (Dataset.IntegerColumn) dataset.getColumn("Order Processing Time");
+        Dataset.RealColumn grossMargins = (Dataset.RealColumn) dataset.getColumn("Gross Margin");
+        for (int row = 0; row < dataset.getRowCount(); row++) {
+            checksum = checksum * 31 + orderIDs.get(row);
+            checksum = checksum * 31 + processingTimes.get(row);
+            checksum = checksum * 31 + Double.hashCode(grossMargins.get(row));
+        }
+        return checksum;
+    }
+}
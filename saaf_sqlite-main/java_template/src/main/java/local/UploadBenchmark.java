@@ -0,0 +1,97 @@
+/**
+ * Compares buffering the whole output before a single PUT with the streaming multipart upload.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package local;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import lambda.S3UploadStream;
+
+/**
+ * Usage: UploadBenchmark [rows] [MB/s per stream] [threads...]
+ *
+ * Writes a generated sales file to a throttled {@link LocalS3} once through a
+ * ByteArrayOutputStream and a single putObject (the original writeCsvToS3) and once through
+ * {@link S3UploadStream} with 8 MB parts for each thread count, and reports the elapsed time and
+ * the peak heap sampled while writing.
+ */
+public class UploadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 500_000;
+        long bytesPerSecond = (args.length > 1 ? Long.parseLong(args[1]) : 20) * 1024 * 1024;
+        int[] threadCounts = args.length > 2
+                ? Arrays.stream(args, 2, args.length).mapToInt(Integer::parseInt).toArray()
+                : new int[] {1, 2, 4};
+
+        Path root = Files.createTempDirectory("upload-benchmark");
+        LocalS3 s3 = new LocalS3(root, bytesPerSecond);
+
+        run("ByteArrayOutputStream", () -> {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            SalesRecords.write(buffer, rows, 0.05, 42);
+            byte[] content = buffer.toByteArray();
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(content.length);
+            s3.putObject(new PutObjectRequest("bench", "output.csv", new ByteArrayInputStream(content), metadata));
+        }, s3);
+        for (int threads : threadCounts) {
+            run("S3UploadStream x" + threads, () -> {
+                try (OutputStream out = new S3UploadStream(s3, "bench", "output.csv", 8 * 1024 * 1024, threads)) {
+                    SalesRecords.write(out, rows, 0.05, 42);
+                }
+            }, s3);
+        }
+    }
+
+    private static void run(String method, Upload upload, LocalS3 s3) throws Exception {
+        HeapSampler sampler = new HeapSampler();
+        sampler.start();
+        long start = System.nanoTime();
+        upload.run();
+        long elapsed = System.nanoTime() - start;
+        sampler.interrupt();
+        sampler.join();
+        long size = Files.size(s3.pathOf("bench", "output.csv"));
+        System.out.printf("%-24s %6.1f MB in %7.1f ms, peak heap %6.1f MB, %d pending uploads%n", method,
+                size / 1048576.0, elapsed / 1e6, sampler.peak / 1048576.0, s3.getPendingUploadCount());
+    }
+
+    private interface Upload {
+        void run() throws Exception;
+    }
+
+    /**
+     * Samples the used heap every few milliseconds, after a GC at start.
+     */
+    private static class HeapSampler extends Thread {
+
+        private volatile long peak;
+
+        HeapSampler() {
+            setDaemon(true);
+            System.gc();
+        }
+
+        @Override
+        public void run() {
+            Runtime runtime = Runtime.getRuntime();
+            while (!isInterrupted()) {
+                peak = Math.max(peak, runtime.totalMemory() - runtime.freeMemory());
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Compares cold and warm Query latency with and without the conditional fetch and kept connection.
+ *
+ * @author Ingeun Hwang, Karandeep Sangha, Kevin Truong, Khin Win
+ */
+package local;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import lambda.DatabaseSnapshot;
+import lambda.Dataset;
+import lambda.OrdersTable;
+import org.sqlite.SQLiteConfig;
+import saaf.Inspector;
+
+/**
+ * Usage: WarmQueryBenchmark [rows] [invocations] [MB/s per stream]
+ *
+ * Publishes sales.db to a throttled {@link LocalS3} and runs a series of invocations of one query
+ * on a single container two ways: as Query did, downloading the database and opening a connection
+ * every time, and with a conditional GET against the ETag of the copy in /tmp and a read-only
+ * connection kept open. Halfway through sales.db is republished, so the second way must refresh
+ * its copy once. Reports the cold (first) invocation, the median warm one and the one after the
+ * republish; every invocation must count the rows published at that point.
+ */
+public class WarmQueryBenchmark {
+
+    private static final String SQL = "SELECT count(*), avg(OrderProcessingTime) FROM Orders WHERE Region='Asia'";
+
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 200_000;
+        int invocations = args.length > 1 ? Integer.parseInt(args[1]) : 21;
+        long bytesPerSecond = (args.length > 2 ? Long.parseLong(args[2]) : 50) * 1024 * 1024;
+        Dataset dataset = SalesRecords.transformedDataset(rows, 0.05, 42);
+        Path directory = Files.createTempDirectory("warm-query-benchmark");
+        LocalS3 s3 = new LocalS3(directory.resolve("s3"), bytesPerSecond);
+        File source = directory.resolve("source.db").toFile();
+        System.out.printf("%,d rows, %d invocations, %d MB/s per stream%n", dataset.getRowCount(), invocations,
+                bytesPerSecond / 1048576);
+        System.out.printf("%-12s %8s %12s %16s %10s%n", "mode", "cold ms", "warm p50 ms", "republished ms",
+                "downloads");
+
+        for (boolean conditional : new boolean[] {false, true}) {
+            File databaseFile = directory.resolve(conditional ? "conditional.db" : "download.db").toFile();
+            File downloadFile = new File(databaseFile + ".download");
+            long expected = publish(s3, source, dataset, false);
+            Connection connection = null;
+            String eTag = null;
+            int downloads = 0;
+            double[] warm = new double[invocations - 2];
+            double cold = 0;
+            double republished = 0;
+            for (int i = 0; i < invocations; i++) {
+                if (i == invocations / 2) {
+                    expected = publish(s3, source, dataset, true);
+                }
+                long start = System.nanoTime();
+                if (conditional) {
+                    String current = databaseFile.exists() ? eTag : null;
+                    String downloaded = DatabaseSnapshot.download(s3, "b", "sales.db", downloadFile, current,
+                            new Inspector());
+                    if (downloaded != null) {
+                        downloads++;
+                        if (connection != null) {
+                            connection.close();
+                            connection = null;
+                        }
+                        Files.move(downloadFile.toPath(), databaseFile.toPath(),
+                                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                        eTag = downloaded;
+                    }
+                    if (connection == null) {
+                        SQLiteConfig config = new SQLiteConfig();
+                        config.setReadOnly(true);
+                        connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile,
+                                config.toProperties());
+                    }
+                    check(connection, expected);
+                } else {
+                    downloads++;
+                    DatabaseSnapshot.download(s3, "b", "sales.db", databaseFile, new Inspector());
+                    try (Connection opened = DriverManager.getConnection("jdbc:sqlite:" + databaseFile)) {
+                        check(opened, expected);
+                    }
+                }
+                double elapsed = (System.nanoTime() - start) / 1e6;
+                if (i == 0) {
+                    cold = elapsed;
+                } else if (i == invocations / 2) {
+                    republished = elapsed;
+                } else {
+                    warm[i < invocations / 2 ? i - 1 : i - 2] = elapsed;
+                }
+            }
+            if (connection != null) {
+                connection.close();
+            }
+            Arrays.sort(warm);
+            System.out.printf("%-12s %8.0f %12.1f %16.0f %10d%n", conditional ? "conditional" : "download",
+                    cold, warm[warm.length / 2], republished, downloads);
+        }
+    }
+
+    /**
+     * Publishes the dataset, or on republishing the dataset without its last row, and returns the
+     * number of Asia rows the query should count.
+     */
+    private static long publish(LocalS3 s3, File source, Dataset dataset, boolean republish) throws Exception {
+        Files.deleteIfExists(source.toPath());
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + source)) {
+            OrdersTable.configureBulkLoad(connection);
+            connection.setAutoCommit(false);
+            OrdersTable.bulkInsert(connection, dataset, true);
+            if (republish) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.executeUpdate("DELETE FROM Orders WHERE rowid IN "
+                            + "(SELECT rowid FROM Orders WHERE Region='Asia' LIMIT 1)");
+                }
+            }
+            connection.commit();
+            DatabaseSnapshot.publish(connection, source, s3, "b", "sales.db", false, 8 * 1024 * 1024, 4,
+                    new Inspector());
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("SELECT count(*) FROM Orders WHERE Region='Asia'")) {
+                resultSet.next();
+                return resultSet.getLong(1);
+            }
+        }
+    }
+
+    private static void check(Connection connection, long expected) throws Exception {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(SQL)) {
+            resultSet.next();
+            if (resultSet.getLong(1) != expected) {
+                throw new AssertionError(resultSet.getLong(1) + " rows, not " + expected);
+            }
+        }
+    }
+}